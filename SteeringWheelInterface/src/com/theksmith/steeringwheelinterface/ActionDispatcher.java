@@ -0,0 +1,264 @@
+package com.theksmith.steeringwheelinterface;
+
+import android.util.Log;
+
+
+/**
+ * Performs button actions on a worker thread of its own, so the thread submitting them (ElmInterface's event loop)
+ * never waits on an action backend (ex: the AudioManager, an Intent, the root shell).
+ *
+ * Actions wait in a bounded queue held in fixed primitive arrays. A volume step submitted while the previous step in
+ * the same direction is still waiting is merged into it, so a held volume button becomes one call for several steps
+ * rather than a burst of calls. When the queue is full, the drop policy decides whether the new action or the oldest
+ * waiting one is discarded.
+ *
+ * The queue is guarded by this object's lock, held only to add or remove an entry, never while an action runs.
+ */
+public class ActionDispatcher {
+	protected static final String TAG = ActionDispatcher.class.getSimpleName();
+
+	public static final int DEFAULT_CAPACITY = 16;
+
+	//drop policies for a full queue
+	public static final int DROP_NEWEST = 0;		//the action being submitted is discarded
+	public static final int DROP_OLDEST = 1;		//the oldest waiting action is discarded to make room
+
+	protected final ActionExecutorSelector mExecutors;
+
+	//the queue, guarded by this
+	protected final int[] mActions;
+	protected final int[] mRepeats;				//steps merged into the entry, at least 1
+	protected final long[] mQueuedTimes;		//System.nanoTime() the entry's first action was submitted
+	protected final long[] mArrivalTimes;		//System.nanoTime() the entry's first bus message was read, 0 if none
+	protected int mHead = 0;
+	protected int mSize = 0;
+
+	protected volatile int mDropPolicy = DROP_NEWEST;
+	protected volatile Boolean mRunning = false;
+	protected Thread mWorker;
+	protected LatencyStats mLatency = new LatencyStats();
+
+	//stats, guarded by this
+	protected int mSubmitCount = 0;
+	protected int mMergeCount = 0;
+	protected int mDropCount = 0;
+	protected int mHighWaterMark = 0;
+
+	//stats, written by the worker thread only
+	protected volatile int mCallCount = 0;
+	protected volatile int mFailureCount = 0;
+
+
+	private ActionDispatcher() {
+		//exists only to prevent creation of class without passing required param
+		mExecutors = null;
+		mActions = null;
+		mRepeats = null;
+		mQueuedTimes = null;
+		mArrivalTimes = null;
+	}
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param executors			The backends that perform the actions.
+	 * @param capacity			Maximum number of waiting actions (merged volume steps count as one).
+	 */
+	public ActionDispatcher(ActionExecutorSelector executors, int capacity) {
+		mExecutors = executors;
+		mActions = new int[capacity];
+		mRepeats = new int[capacity];
+		mQueuedTimes = new long[capacity];
+		mArrivalTimes = new long[capacity];
+	}
+
+
+	/**
+	 * @param policy			One of the ActionDispatcher.DROP_XYZ definitions.
+	 */
+	public void setDropPolicy(int policy) {
+		mDropPolicy = policy;
+	}
+
+
+	/**
+	 * Sets where the queue, action and total stage latencies are recorded, from the worker thread.
+	 */
+	public void setLatencyStats(LatencyStats latency) {
+		mLatency = latency;
+	}
+
+
+	public synchronized void start() {
+		if (mRunning) return;
+
+		mRunning = true;
+		mWorker = new Thread(mWorkerRun, TAG);
+		mWorker.setDaemon(true);
+		mWorker.start();
+	}
+
+
+	/**
+	 * Stops the worker thread once the action it is performing (if any) returns. Waiting actions are discarded.
+	 */
+	public synchronized void stop() {
+		if (!mRunning) return;
+
+		mRunning = false;
+		mSize = 0;
+		mWorker = null;
+		notifyAll();
+	}
+
+
+	public Boolean isRunning() {
+		return mRunning;
+	}
+
+
+	/**
+	 * Queues an action for the worker thread, never waits for it to be performed.
+	 *
+	 * @param action			One of the ActionExecutor.ACTION_XYZ definitions.
+	 * @param arrivalTime		System.nanoTime() the bus message that led to the action was read, 0 if none.
+	 * @return					Returns false if the dispatcher is not running or the action was dropped.
+	 */
+	public Boolean submit(int action, long arrivalTime) {
+		final Boolean rejected;
+		Boolean evicted = false;
+		int evictedAction = ActionExecutor.ACTION_NONE;
+
+		synchronized (this) {
+			if (!mRunning) return false;
+
+			mSubmitCount++;
+
+			if (mSize > 0 && isMergeable(action)) {
+				final int newest = (mHead + mSize - 1) % mActions.length;
+				if (mActions[newest] == action) {
+					mRepeats[newest]++;
+					mMergeCount++;
+					return true;
+				}
+			}
+
+			if (mSize < mActions.length) {
+				rejected = false;
+			} else if (mDropPolicy == DROP_NEWEST) {
+				mDropCount++;
+				rejected = true;
+			} else {
+				mDropCount++;
+				rejected = false;
+				evicted = true;
+				evictedAction = mActions[mHead];
+				mHead = (mHead + 1) % mActions.length;
+				mSize--;
+			}
+
+			if (!rejected) {
+				final int slot = (mHead + mSize) % mActions.length;
+				mActions[slot] = action;
+				mRepeats[slot] = 1;
+				mQueuedTimes[slot] = System.nanoTime();
+				mArrivalTimes[slot] = arrivalTime;
+				mSize++;
+
+				if (mSize > mHighWaterMark) {
+					mHighWaterMark = mSize;
+				}
+
+				//the worker only waits when the queue is empty
+				if (mSize == 1) notifyAll();
+			}
+		}
+
+		//logged outside the lock, the worker may be waiting on it
+		if (rejected) {
+			Log.w(TAG, "ACTION QUEUE FULL, DROPPED NEW ACTION: " + action);
+		} else if (evicted) {
+			Log.w(TAG, "ACTION QUEUE FULL, DROPPED OLDEST ACTION: " + evictedAction);
+		}
+
+		return !rejected;
+	}
+
+
+	/**
+	 * @return					A human readable summary of the queue's use.
+	 */
+	public synchronized String getStats() {
+		return "dispatch submitted: " + mSubmitCount
+				+ ", merged: " + mMergeCount
+				+ ", dropped: " + mDropCount
+				+ ", calls: " + mCallCount
+				+ ", failures: " + mFailureCount
+				+ ", queue high-water: " + mHighWaterMark + "/" + mActions.length;
+	}
+
+
+	/**
+	 * @return					Returns true for the actions whose waiting repeats are merged (the volume steps).
+	 */
+	protected static Boolean isMergeable(int action) {
+		return action == ActionExecutor.ACTION_VOLUME_UP || action == ActionExecutor.ACTION_VOLUME_DOWN;
+	}
+
+
+	protected Runnable mWorkerRun = new Runnable() {
+		public void run() {
+			final Thread self = Thread.currentThread();
+
+			while (true) {
+				final int action;
+				final int repeat;
+				final long queuedTime;
+				final long arrivalTime;
+
+				synchronized (ActionDispatcher.this) {
+					while (mWorker == self && mSize == 0) {
+						try {
+							ActionDispatcher.this.wait();
+						} catch (InterruptedException ex) {
+							return;
+						}
+					}
+					if (mWorker != self) return;
+
+					action = mActions[mHead];
+					repeat = mRepeats[mHead];
+					queuedTime = mQueuedTimes[mHead];
+					arrivalTime = mArrivalTimes[mHead];
+					mHead = (mHead + 1) % mActions.length;
+					mSize--;
+				}
+
+				perform(action, repeat, queuedTime, arrivalTime);
+			}
+		}
+	};
+
+
+	protected void perform(int action, int repeat, long queuedTime, long arrivalTime) {
+		final long started = System.nanoTime();
+		mLatency.record(LatencyStats.STAGE_QUEUE, started - queuedTime);
+
+		try {
+			//each action runs on whichever executor backend has proven fastest on this device (see ActionExecutorSelector)
+			mExecutors.execute(action, repeat);
+			mCallCount++;
+		} catch (Exception ex) {
+			mFailureCount++;
+			Log.e(TAG, "Error performing action: " + action, ex);
+			return;
+		}
+
+		final long performed = System.nanoTime();
+		mLatency.record(LatencyStats.STAGE_ACTION, performed - started);
+		if (arrivalTime > 0) {
+			mLatency.record(LatencyStats.STAGE_TOTAL, performed - arrivalTime);
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package com.theksmith.steeringwheelinterface;
+
+
+/**
+ * A way of performing the predefined button actions (a backend).
+ * Several backends may support the same action, ActionExecutorSelector picks between them.
+ */
+public interface ActionExecutor {
+	
+	//the predefined actions
+	public static final int ACTION_NONE = 0;
+	public static final int ACTION_MEDIA_PLAY_PAUSE = 1;
+	public static final int ACTION_MEDIA_NEXT = 2;
+	public static final int ACTION_MEDIA_PREVIOUS = 3;
+	public static final int ACTION_HOME = 4;
+	public static final int ACTION_VOLUME_UP = 5;
+	public static final int ACTION_VOLUME_DOWN = 6;
+	public static final int ACTION_COUNT = 7;
+	
+	
+	/**
+	 * @return					A short name for logs and stats.
+	 */
+	public String getName();
+	
+	
+	/**
+	 * @param action			One of the ActionExecutor.ACTION_XYZ definitions.
+	 * @return					Returns true if this backend can perform the action at all.
+	 */
+	public boolean supports(int action);
+	
+	
+	/**
+	 * @param action			One of the ActionExecutor.ACTION_XYZ definitions.
+	 * @return					Returns true if a successful attempt means the action was performed (ex: the key event was injected),
+	 * 							false if it only means a request was handed off that may go unanswered (ex: a media button
+	 * 							broadcast with no receiver). Latencies of the two measure different things.
+	 */
+	public boolean isVerified(int action);
+	
+	
+	/**
+	 * Performs an action, recording its latency and outcome.
+	 * 
+	 * @param action			One of the ActionExecutor.ACTION_XYZ definitions.
+	 * @throws Exception if the action could not be started.
+	 */
+	public void execute(int action) throws Exception;
+	
+	
+	/**
+	 * Performs an action several times over as one attempt, in a single call where the backend can (ex: volume steps).
+	 * 
+	 * @param action			One of the ActionExecutor.ACTION_XYZ definitions.
+	 * @param repeat			Number of times to perform it, at least 1.
+	 * @throws Exception if the action could not be started.
+	 */
+	public void execute(int action, int repeat) throws Exception;
+	
+	
+	/**
+	 * @return					Number of completed attempts (successful or not) for the action.
+	 */
+	public int getCount(int action);
+	
+	
+	public int getFailureCount(int action);
+	
+	
+	/**
+	 * @return					Average nanoseconds from execute() to the action being performed, for successful attempts.
+	 */
+	public long getAverageLatency(int action);
+}
@@ -0,0 +1,181 @@
+package com.theksmith.steeringwheelinterface;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.util.Log;
+
+
+/**
+ * Picks the fastest working action executor backend for each action, based on what has been measured on this device.
+ * 
+ * Backends whose success means the action was performed (see ActionExecutor.isVerified()) are preferred, ones that only
+ * hand a request off (ex: a media button broadcast nobody may receive) are used when no verified backend is working.
+ * Latencies are only compared between backends of the same kind, as they measure different things.
+ * 
+ * Every backend supporting an action first gets a few attempts (in the order the backends were added) so it can be measured,
+ * a backend that fails one of them is not measured further. Only add backends known to work (ex: a RootShell once ready).
+ * After that, the backend with the lowest average latency and an acceptable failure rate is used.
+ * If the chosen backend throws, the other backends are tried so the button press is not lost.
+ */
+public class ActionExecutorSelector {
+	protected static final String TAG = ActionExecutorSelector.class.getSimpleName();
+	
+	protected static final int SAMPLE_COUNT = 3;			//attempts each backend gets before latencies are compared
+	protected static final int MAX_FAILURE_PERCENT = 50;
+	
+	protected final List<ActionExecutor> mExecutors = new ArrayList<ActionExecutor>();
+	
+	
+	/**
+	 * Adds a backend, replacing any existing backend with the same name.
+	 */
+	public synchronized void add(ActionExecutor executor) {
+		remove(executor.getName());
+		mExecutors.add(executor);
+	}
+	
+	
+	public synchronized void remove(String name) {
+		for (int i = 0; i < mExecutors.size(); i++) {
+			if (mExecutors.get(i).getName().equals(name)) {
+				mExecutors.remove(i);
+				return;
+			}
+		}
+	}
+	
+	
+	/**
+	 * @param action			One of the ActionExecutor.ACTION_XYZ definitions.
+	 * @return					The backend to use next for the action, or null if none support it.
+	 */
+	public synchronized ActionExecutor select(int action) {
+		ActionExecutor selected = select(action, true);
+		if (selected == null) {
+			selected = select(action, false);
+		}
+		if (selected != null) return selected;
+		
+		//when nothing is working well, stick with whatever has failed least
+		ActionExecutor fallback = null;
+		for (int i = 0; i < mExecutors.size(); i++) {
+			final ActionExecutor executor = mExecutors.get(i);
+			if (!executor.supports(action)) continue;
+			
+			if (fallback == null || executor.getFailureCount(action) < fallback.getFailureCount(action)) {
+				fallback = executor;
+			}
+		}
+		
+		return fallback;
+	}
+	
+	
+	/**
+	 * @param action			One of the ActionExecutor.ACTION_XYZ definitions.
+	 * @param verified			Which kind of backend to pick from, see ActionExecutor.isVerified().
+	 * @return					The backend of that kind still being measured or else the fastest working one, null if none.
+	 */
+	protected ActionExecutor select(int action, boolean verified) {
+		ActionExecutor best = null;
+		long bestLatency = Long.MAX_VALUE;
+		
+		for (int i = 0; i < mExecutors.size(); i++) {
+			final ActionExecutor executor = mExecutors.get(i);
+			if (!executor.supports(action) || executor.isVerified(action) != verified) continue;
+			
+			final int count = executor.getCount(action);
+			if (count < SAMPLE_COUNT && executor.getFailureCount(action) == 0) {
+				//still being measured
+				return executor;
+			}
+			
+			if (executor.getFailureCount(action) * 100 > count * MAX_FAILURE_PERCENT) continue;
+			
+			final long latency = executor.getAverageLatency(action);
+			if (latency < bestLatency) {
+				best = executor;
+				bestLatency = latency;
+			}
+		}
+		
+		return best;
+	}
+	
+	
+	/**
+	 * Performs an action with the selected backend, falling back to the others if it throws.
+	 * 
+	 * @param action			One of the ActionExecutor.ACTION_XYZ definitions.
+	 * @throws Exception if no backend supports the action or all of them failed.
+	 */
+	public void execute(int action) throws Exception {
+		execute(action, 1);
+	}
+	
+	
+	/**
+	 * Performs an action several times over as one attempt, see ActionExecutor.execute(int, int).
+	 * 
+	 * @param action			One of the ActionExecutor.ACTION_XYZ definitions.
+	 * @param repeat			Number of times to perform it, at least 1.
+	 * @throws Exception if no backend supports the action or all of them failed.
+	 */
+	public void execute(int action, int repeat) throws Exception {
+		final ActionExecutor selected = select(action);
+		if (selected == null) {
+			throw new Exception("No action executor supports action: " + action);
+		}
+		
+		try {
+			selected.execute(action, repeat);
+			return;
+		} catch (Exception ex) {
+			Log.w(TAG, "ACTION " + action + " FAILED WITH " + selected.getName() + ", TRYING OTHERS", ex);
+			
+			ActionExecutor[] others;
+			synchronized (this) {
+				others = mExecutors.toArray(new ActionExecutor[mExecutors.size()]);
+			}
+			
+			for (ActionExecutor executor : others) {
+				if (executor == selected || !executor.supports(action)) continue;
+				
+				try {
+					executor.execute(action, repeat);
+					return;
+				} catch (Exception otherEx) {
+					Log.w(TAG, "ACTION " + action + " FAILED WITH " + executor.getName(), otherEx);
+				}
+			}
+			
+			throw ex;
+		}
+	}
+	
+	
+	/**
+	 * @return					A human readable summary of each backend's measurements, one line per backend and action.
+	 */
+	public synchronized String getStats() {
+		StringBuilder result = new StringBuilder();
+		
+		for (ActionExecutor executor : mExecutors) {
+			for (int action = ActionExecutor.ACTION_NONE + 1; action < ActionExecutor.ACTION_COUNT; action++) {
+				if (!executor.supports(action)) continue;
+				
+				result.append(executor.getName())
+						.append(" action ").append(action)
+						.append(": count ").append(executor.getCount(action))
+						.append(", failures ").append(executor.getFailureCount(action))
+						.append(", avg ").append(executor.getAverageLatency(action) / 1000).append(" us")
+						.append(executor.isVerified(action) ? "" : " (unverified)")
+						.append(select(action) == executor ? " (selected)" : "")
+						.append('\n');
+			}
+		}
+		
+		return result.toString();
+	}
+}
@@ -0,0 +1,82 @@
+package com.theksmith.steeringwheelinterface;
+
+import android.content.Context;
+import android.media.AudioManager;
+
+
+/**
+ * Performs the volume actions through the AudioManager, which is looked up once rather than per button press.
+ * Several steps in the same direction are applied as one volume change.
+ */
+public class AudioActionExecutor extends CommonActionExecutor {
+	protected final AudioManager mAudioManager;
+	
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param appContext		The application context of the container app.
+	 */
+	public AudioActionExecutor(Context appContext) {
+		mAudioManager = (AudioManager)appContext.getApplicationContext().getSystemService(Context.AUDIO_SERVICE);
+	}
+	
+	
+	@Override
+	public String getName() {
+		return "audio";
+	}
+	
+	
+	@Override
+	public boolean supports(int action) {
+		return mAudioManager != null && (action == ACTION_VOLUME_UP || action == ACTION_VOLUME_DOWN);
+	}
+	
+	
+	@Override
+	public boolean isVerified(int action) {
+		return true;
+	}
+	
+	
+	@Override
+	protected boolean executeAction(int action) throws Exception {
+		switch (action) {
+			case ACTION_VOLUME_UP:
+				mAudioManager.adjustStreamVolume(AudioManager.STREAM_MUSIC, AudioManager.ADJUST_RAISE, AudioManager.FLAG_SHOW_UI);
+				break;
+			case ACTION_VOLUME_DOWN:
+				mAudioManager.adjustStreamVolume(AudioManager.STREAM_MUSIC, AudioManager.ADJUST_LOWER, AudioManager.FLAG_SHOW_UI);
+				break;
+			default:
+				throw new IllegalArgumentException("Unsupported action: " + action);
+		}
+		
+		return true;
+	}
+	
+	
+	@Override
+	protected boolean executeAction(int action, int repeat) throws Exception {
+		if (repeat == 1) return executeAction(action);
+		
+		final int direction;
+		switch (action) {
+			case ACTION_VOLUME_UP:
+				direction = 1;
+				break;
+			case ACTION_VOLUME_DOWN:
+				direction = -1;
+				break;
+			default:
+				throw new IllegalArgumentException("Unsupported action: " + action);
+		}
+		
+		final int max = mAudioManager.getStreamMaxVolume(AudioManager.STREAM_MUSIC);
+		final int volume = mAudioManager.getStreamVolume(AudioManager.STREAM_MUSIC) + direction * repeat;
+		mAudioManager.setStreamVolume(AudioManager.STREAM_MUSIC, Math.max(0, Math.min(max, volume)), AudioManager.FLAG_SHOW_UI);
+		
+		return true;
+	}
+}
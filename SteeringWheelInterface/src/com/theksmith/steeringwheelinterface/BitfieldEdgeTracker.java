@@ -0,0 +1,279 @@
+package com.theksmith.steeringwheelinterface;
+
+import java.util.Arrays;
+
+import android.util.Log;
+
+
+/**
+ * Finds button presses and releases in a cyclic status frame, for vehicles that repeat one frame (ex: 10 to 100 times
+ * a second) with a bit or bit field per button instead of sending a message per button event.
+ *
+ * Each button is a ButtonPattern over its status frame that matches while the button is down (ex: "3D 11 bxxxxx1xx").
+ * The frame is identified by its header bytes (the frame id), which every button's definition must fix. The last
+ * packed bytes seen for each frame id are kept. A frame equal to the last one of its id costs a hash probe and one
+ * compare. Otherwise the two are XORed and only the buttons whose bits changed are re-checked. A button that starts
+ * or stops matching is reported to the listener as a press or release.
+ *
+ * Only the first 8 bytes of a frame (see BusFrame.getPacked()) can be tracked, the frame id included. With a 2 byte
+ * 11 bit CAN id that leaves data bytes 1 to 6, bits in data bytes 7 and 8 can't be used; ButtonPattern.compile()
+ * rejects definitions longer than 8 bytes, so such a button fails when it is defined rather than never firing.
+ *
+ * Build the tracker once (add() is not meant for the hot path), then call update() per message.
+ * Not thread safe, use from one thread only (ex: ElmInterface's event loop).
+ */
+public class BitfieldEdgeTracker {
+	protected static final String TAG = BitfieldEdgeTracker.class.getSimpleName();
+	protected static final int MIN_CAPACITY = 8;
+	protected static final int NO_ID = -1;
+
+	protected final Listener mListener;
+	protected int mIdLength = BusFrame.DEFAULT_HEADER_LENGTH;
+	protected long mIdMask = BusFrame.packedMask(BusFrame.DEFAULT_HEADER_LENGTH);
+
+	//the buttons as added
+	protected int mButtonCount = 0;
+	protected int[] mButtonIds = new int[0];
+	protected long[] mValues = new long[0];
+	protected long[] mMasks = new long[0];
+
+	//per frame id, indexed through an open addressing table keyed on the packed header bytes
+	protected int mIdCount = 0;
+	protected long[] mTableKeys = new long[MIN_CAPACITY];
+	protected int[] mTableIds = newIds(MIN_CAPACITY);
+	protected long[] mLastValues = new long[0];
+	protected boolean[] mSeen = new boolean[0];
+	protected int[] mFirstButtons = new int[0];		//first button index of each frame id, NO_ID if none
+	protected int[] mNextButtons = new int[0];		//next button index with the same frame id, NO_ID if none
+
+
+	/**
+	 * Receives the presses and releases, called from within update().
+	 */
+	public interface Listener {
+		/**
+		 * @param buttonId		The button whose bits started matching.
+		 */
+		public void onButtonDown(int buttonId);
+
+		/**
+		 * @param buttonId		The button whose bits stopped matching.
+		 */
+		public void onButtonUp(int buttonId);
+	}
+
+
+	private BitfieldEdgeTracker() {
+		//exists only to prevent creation of class without passing required param
+		mListener = null;
+	}
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param listener			Receives the presses and releases.
+	 */
+	public BitfieldEdgeTracker(Listener listener) {
+		mListener = listener;
+	}
+
+
+	/**
+	 * Sets how many leading bytes of a frame identify it (ex: 3 for J1850 and ISO, 2 for 11 bit CAN, 4 for 29 bit CAN).
+	 * Buttons whose definitions don't fix every id byte of the new length are dropped with a logged warning, and are not
+	 * restored by setting the length back; add them again (ButtonActions rebuilds its buttons after this).
+	 *
+	 * @param length			Number of header bytes, 1 to 8.
+	 */
+	public void setIdLength(int length) {
+		if (length == mIdLength) return;
+
+		mIdLength = length;
+		mIdMask = BusFrame.packedMask(length);
+
+		final int count = mButtonCount;
+		final int[] buttonIds = mButtonIds;
+		final long[] values = mValues;
+		final long[] masks = mMasks;
+
+		clear();
+		for (int i = 0; i < count; i++) {
+			if ((masks[i] & mIdMask) == mIdMask) {
+				add(buttonIds[i], values[i], masks[i]);
+			} else {
+				Log.w(TAG, "BUTTON " + buttonIds[i] + " DROPPED, DEFINITION DOESN'T GIVE THE EXACT " + length + " HEADER BYTES");
+			}
+		}
+	}
+
+
+	public int getIdLength() {
+		return mIdLength;
+	}
+
+
+	/**
+	 * Adds a button defined by a compiled pattern that matches its status frame while the button is down.
+	 *
+	 * @param buttonId			Id passed to the listener.
+	 * @param pattern			The compiled button definition.
+	 * @throws IllegalArgumentException if the definition doesn't fix every byte of the frame id.
+	 */
+	public void add(int buttonId, ButtonPattern pattern) {
+		if ((pattern.getMask() & mIdMask) != mIdMask) {
+			throw new IllegalArgumentException("Definition must give the exact " + mIdLength + " header bytes: " + pattern);
+		}
+
+		add(buttonId, pattern.getValue(), pattern.getMask());
+	}
+
+
+	protected void add(int buttonId, long value, long mask) {
+		final int button = mButtonCount++;
+		mButtonIds = Arrays.copyOf(mButtonIds, mButtonCount);
+		mValues = Arrays.copyOf(mValues, mButtonCount);
+		mMasks = Arrays.copyOf(mMasks, mButtonCount);
+		mNextButtons = Arrays.copyOf(mNextButtons, mButtonCount);
+		mButtonIds[button] = buttonId;
+		mValues[button] = value;
+		mMasks[button] = mask;
+
+		final long key = value & mIdMask;
+		int id = get(key);
+		if (id == NO_ID) {
+			id = addId(key);
+		}
+
+		//prepend to the frame id's list of buttons
+		mNextButtons[button] = mFirstButtons[id];
+		mFirstButtons[id] = button;
+	}
+
+
+	/**
+	 * Removes all buttons.
+	 */
+	public void clear() {
+		mButtonCount = 0;
+		mButtonIds = new int[0];
+		mValues = new long[0];
+		mMasks = new long[0];
+
+		mIdCount = 0;
+		mTableKeys = new long[MIN_CAPACITY];
+		mTableIds = newIds(MIN_CAPACITY);
+		mLastValues = new long[0];
+		mSeen = new boolean[0];
+		mFirstButtons = new int[0];
+		mNextButtons = new int[0];
+	}
+
+
+	/**
+	 * Forgets the last frame of every id, the next frame of each reports every button it shows down as a press.
+	 */
+	public void reset() {
+		for (int id = 0; id < mIdCount; id++) {
+			mSeen[id] = false;
+		}
+	}
+
+
+	/**
+	 * Compares a frame with the last one of the same id, reporting the buttons that changed.
+	 *
+	 * @param frame				A decoded bus message.
+	 * @return					Returns false if the frame's id has no buttons.
+	 */
+	public Boolean update(BusFrame frame) {
+		final long packed = frame.getPacked();
+		final int id = get(packed & mIdMask);
+		if (id == NO_ID) return false;
+
+		final long last = mLastValues[id];
+		if (packed == last && mSeen[id]) {
+			//nothing changed, the common case
+			return true;
+		}
+
+		final boolean seen = mSeen[id];
+		final long changed = seen ? (packed ^ last) : -1L;
+		mLastValues[id] = packed;
+		mSeen[id] = true;
+
+		for (int button = mFirstButtons[id]; button != NO_ID; button = mNextButtons[button]) {
+			final long mask = mMasks[button];
+			if ((changed & mask) == 0) continue;
+
+			final boolean down = (packed & mask) == mValues[button];
+			final boolean wasDown = seen && (last & mask) == mValues[button];
+
+			if (down && !wasDown) {
+				mListener.onButtonDown(mButtonIds[button]);
+			} else if (!down && wasDown) {
+				mListener.onButtonUp(mButtonIds[button]);
+			}
+		}
+
+		return true;
+	}
+
+
+	protected int addId(long key) {
+		final int id = mIdCount++;
+		mLastValues = Arrays.copyOf(mLastValues, mIdCount);
+		mSeen = Arrays.copyOf(mSeen, mIdCount);
+		mFirstButtons = Arrays.copyOf(mFirstButtons, mIdCount);
+		mFirstButtons[id] = NO_ID;
+
+		//keep the table at most half full so probes stay short
+		if (mIdCount * 2 > mTableKeys.length) {
+			final long[] keys = mTableKeys;
+			final int[] ids = mTableIds;
+			mTableKeys = new long[keys.length * 2];
+			mTableIds = newIds(keys.length * 2);
+			for (int slot = 0; slot < keys.length; slot++) {
+				if (ids[slot] != NO_ID) put(keys[slot], ids[slot]);
+			}
+		}
+
+		put(key, id);
+		return id;
+	}
+
+
+	protected void put(long key, int id) {
+		final int slotMask = mTableKeys.length - 1;
+		int slot = ButtonDispatchTable.hash(key) & slotMask;
+
+		while (mTableIds[slot] != NO_ID) {
+			slot = (slot + 1) & slotMask;
+		}
+
+		mTableKeys[slot] = key;
+		mTableIds[slot] = id;
+	}
+
+
+	protected int get(long key) {
+		final int slotMask = mTableKeys.length - 1;
+		int slot = ButtonDispatchTable.hash(key) & slotMask;
+
+		while (mTableIds[slot] != NO_ID) {
+			if (mTableKeys[slot] == key) {
+				return mTableIds[slot];
+			}
+			slot = (slot + 1) & slotMask;
+		}
+
+		return NO_ID;
+	}
+
+
+	protected static int[] newIds(int capacity) {
+		final int[] ids = new int[capacity];
+		Arrays.fill(ids, NO_ID);
+		return ids;
+	}
+}
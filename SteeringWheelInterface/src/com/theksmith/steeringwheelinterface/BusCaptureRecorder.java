@@ -0,0 +1,157 @@
+package com.theksmith.steeringwheelinterface;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.util.Log;
+
+
+/**
+ * Records the raw bytes received from the scantool, with their read times, to a compact capture file for later replay
+ * (see CaptureReplayDriver).
+ *
+ * The file is memory-mapped at a fixed size up front, so recording a chunk is only a copy into memory on ElmInterface's
+ * event loop, the OS writes the pages out in the background. Once the file is full further chunks are counted and
+ * dropped. close() trims the file to the recorded length.
+ *
+ * File format (big-endian): a header of FILE_MAGIC and FILE_VERSION (int each), then one record per received chunk of
+ * the read time in nanoseconds (long), the chunk length (short) and the chunk bytes.
+ */
+public class BusCaptureRecorder {
+	protected static final String TAG = BusCaptureRecorder.class.getSimpleName();
+
+	public static final int FILE_MAGIC = 0x53574943;	//"SWIC"
+	public static final int FILE_VERSION = 1;
+	public static final int HEADER_LENGTH = 8;
+	public static final int RECORD_HEADER_LENGTH = 10;	//time + length
+	public static final int MAX_RECORD_LENGTH = Short.MAX_VALUE;
+
+	public static final int DEFAULT_CAPACITY = 16 * 1024 * 1024;	//bytes, about an hour of busy J1850 traffic
+
+	protected final File mFile;
+	protected RandomAccessFile mRandomAccessFile;
+	protected MappedByteBuffer mBuffer;
+	protected volatile Boolean mOpen = false;
+
+	protected long mRecordCount = 0;
+	protected long mDroppedCount = 0;
+
+
+	private BusCaptureRecorder() {
+		//exists only to prevent creation of class without passing required param
+		mFile = null;
+	}
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param file				The capture file to create (overwritten if it exists).
+	 */
+	public BusCaptureRecorder(File file) {
+		mFile = file;
+	}
+
+
+	/**
+	 * Creates and maps the capture file.
+	 *
+	 * @param capacity			Maximum file size in bytes.
+	 * @throws IOException if the file could not be created or mapped.
+	 */
+	public synchronized void open(int capacity) throws IOException {
+		if (mOpen) return;
+
+		mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+		mRandomAccessFile.setLength(0);
+
+		try {
+			mBuffer = mRandomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+		} catch (IOException ex) {
+			mRandomAccessFile.close();
+			throw ex;
+		}
+
+		mBuffer.putInt(FILE_MAGIC);
+		mBuffer.putInt(FILE_VERSION);
+		mRecordCount = 0;
+		mDroppedCount = 0;
+		mOpen = true;
+
+		Log.i(TAG, "RECORDING BUS CAPTURE TO: " + mFile);
+	}
+
+
+	/**
+	 * Appends a received chunk. Called from ElmInterface's event loop for each chunk received, never waits on disk.
+	 *
+	 * @param data				Buffer holding the received bytes.
+	 * @param offset			Index of the first received byte.
+	 * @param length			Number of received bytes.
+	 * @param readTime			System.nanoTime() when the bytes were read.
+	 */
+	public synchronized void record(byte[] data, int offset, int length, long readTime) {
+		if (!mOpen || length <= 0) return;
+
+		if (length > MAX_RECORD_LENGTH || mBuffer.remaining() < RECORD_HEADER_LENGTH + length) {
+			mDroppedCount++;
+			return;
+		}
+
+		mBuffer.putLong(readTime);
+		mBuffer.putShort((short)length);
+		mBuffer.put(data, offset, length);
+		mRecordCount++;
+	}
+
+
+	/**
+	 * Flushes and trims the capture file.
+	 */
+	public void close() {
+		final MappedByteBuffer buffer;
+		final RandomAccessFile file;
+
+		//stop recording under the lock, then flush without it so the event loop doesn't wait on the disk
+		synchronized (this) {
+			if (!mOpen) return;
+			mOpen = false;
+
+			buffer = mBuffer;
+			file = mRandomAccessFile;
+			mBuffer = null;
+			mRandomAccessFile = null;
+		}
+
+		try {
+			buffer.force();
+			file.setLength(buffer.position());
+			file.close();
+		} catch (IOException ex) {
+			Log.e(TAG, "ERROR CLOSING BUS CAPTURE", ex);
+		}
+
+		Log.i(TAG, "BUS CAPTURE CLOSED: " + getStats());
+	}
+
+
+	public Boolean isOpen() {
+		return mOpen;
+	}
+
+
+	public File getFile() {
+		return mFile;
+	}
+
+
+	/**
+	 * @return					A human readable summary of the records written and dropped.
+	 */
+	public synchronized String getStats() {
+		return "records: " + mRecordCount + ", dropped: " + mDroppedCount;
+	}
+}
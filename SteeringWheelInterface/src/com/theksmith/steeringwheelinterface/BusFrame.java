@@ -0,0 +1,242 @@
+package com.theksmith.steeringwheelinterface;
+
+
+/**
+ * A single bus message as reported by an ELM based device, decoded into primitives.
+ * Instances are meant to be re-used, decode() overwrites the previous contents without allocating.
+ *
+ * The first 8 bytes are also packed (big-endian, left aligned) into a long so that
+ * prefix matching can be done with a mask and a single compare.
+ */
+public class BusFrame {
+	public static final int MAX_LENGTH = 16;
+	public static final int MAX_PACKED_LENGTH = 8;
+
+	//with headers on (ATH1), J1850 and ISO messages start with 3 header bytes
+	public static final int DEFAULT_HEADER_LENGTH = 3;
+
+	protected final byte[] mBytes = new byte[MAX_LENGTH];
+	protected int mLength = 0;
+	protected int mHeaderLength = DEFAULT_HEADER_LENGTH;
+	protected long mPacked = 0;
+	
+	//latency measurement timestamps (System.nanoTime()), set by whoever feeds the decoder
+	protected long mArrivalTime = 0;
+	protected long mLineTime = 0;
+
+
+	/**
+	 * @param arrivalTime		When the message's first byte was read over USB.
+	 * @param lineTime			When the message's line was complete.
+	 */
+	public void setTimes(long arrivalTime, long lineTime) {
+		mArrivalTime = arrivalTime;
+		mLineTime = lineTime;
+	}
+
+
+	public long getArrivalTime() {
+		return mArrivalTime;
+	}
+
+
+	public long getLineTime() {
+		return mLineTime;
+	}
+
+
+	public void setHeaderLength(int length) {
+		mHeaderLength = length;
+	}
+
+
+	/**
+	 * @return					Total number of bytes in the message, including header and checksum.
+	 */
+	public int getLength() {
+		return mLength;
+	}
+
+
+	public int getHeaderLength() {
+		return Math.min(mHeaderLength, mLength);
+	}
+
+
+	public int getDataLength() {
+		return mLength - getHeaderLength();
+	}
+
+
+	/**
+	 * @param index				Index within the whole message (header bytes first).
+	 * @return					The unsigned byte value.
+	 */
+	public int getByte(int index) {
+		return mBytes[index] & 0xFF;
+	}
+
+
+	/**
+	 * @return					The header bytes packed into an int (big-endian, right aligned).
+	 */
+	public int getHeader() {
+		final int headerLength = Math.min(getHeaderLength(), 4);
+		int header = 0;
+		for (int i = 0; i < headerLength; i++) {
+			header = (header << 8) | (mBytes[i] & 0xFF);
+		}
+		return header;
+	}
+
+
+	/**
+	 * @return					The last byte, which is the checksum for J1850 and ISO messages (CAN messages have none shown).
+	 */
+	public int getChecksum() {
+		return mLength > getHeaderLength() ? mBytes[mLength - 1] & 0xFF : 0;
+	}
+
+
+	/**
+	 * @return					The first 8 bytes packed into a long (big-endian, left aligned, zero filled).
+	 */
+	public long getPacked() {
+		return mPacked;
+	}
+
+
+	/**
+	 * @return					A mask covering the bytes of getPacked() that were actually present in the message.
+	 */
+	public long getPackedMask() {
+		return packedMask(mLength);
+	}
+
+
+	/**
+	 * Determines if this message begins with the bytes of another (up to the first 8 bytes).
+	 *
+	 * @param prefix			The message to compare to, typically decoded once from a definition.
+	 * @return					Returns true if every byte of the prefix matches.
+	 */
+	public boolean startsWith(BusFrame prefix) {
+		return mLength >= prefix.mLength && (mPacked & prefix.getPackedMask()) == prefix.mPacked;
+	}
+
+
+	/**
+	 * Parses one line of ELM hex output such as "3D 11 00 80 2A", or "3D1100802A" with spaces off (ATS0), overwriting
+	 * this frame. A token with an odd number of digits (ex: an 11 bit CAN header "7E8", or "7E803410D00" unspaced) gets
+	 * a leading zero nibble.
+	 *
+	 * @param line				Buffer holding the ASCII line.
+	 * @param offset			Index of the first character.
+	 * @param length			Number of characters.
+	 * @return					Returns false if the line is not a bus message (ex: "NO DATA" or a command echo).
+	 */
+	public boolean decode(byte[] line, int offset, int length) {
+		final int end = offset + length;
+		int count = 0;
+		long packed = 0;
+		int i = offset;
+
+		while (i < end) {
+			if (line[i] == ' ') {
+				i++;
+				continue;
+			}
+
+			//find the end of the token to know if it has an odd number of digits
+			int tokenEnd = i;
+			while (tokenEnd < end && line[tokenEnd] != ' ') {
+				tokenEnd++;
+			}
+
+			int value = 0;
+			boolean odd = ((tokenEnd - i) & 1) == 1;
+
+			for (; i < tokenEnd; i++) {
+				int digit = hexDigit(line[i]);
+				if (digit < 0) {
+					mLength = 0;
+					return false;
+				}
+
+				value = (value << 4) | digit;
+
+				if (odd) {
+					if (count == MAX_LENGTH) {
+						mLength = 0;
+						return false;
+					}
+					mBytes[count] = (byte)value;
+					if (count < MAX_PACKED_LENGTH) {
+						packed |= ((long)value) << (56 - (count * 8));
+					}
+					count++;
+					value = 0;
+				}
+				odd = !odd;
+			}
+		}
+
+		mLength = count;
+		mPacked = packed;
+
+		return count > 0;
+	}
+
+
+	/**
+	 * Decodes a message definition once, for use with startsWith().
+	 *
+	 * @param hex				ELM style hex text such as "3D 11 00 80".
+	 * @return					A new frame.
+	 * @throws IllegalArgumentException if the text is not valid hex.
+	 */
+	public static BusFrame fromString(String hex) {
+		BusFrame frame = new BusFrame();
+		byte[] chars = hex.trim().getBytes();
+		if (!frame.decode(chars, 0, chars.length)) {
+			throw new IllegalArgumentException("Invalid bus message: " + hex);
+		}
+		return frame;
+	}
+
+
+	public static long packedMask(int length) {
+		if (length <= 0) {
+			return 0;
+		} else if (length >= MAX_PACKED_LENGTH) {
+			return -1L;
+		}
+		return -1L << (64 - (length * 8));
+	}
+
+
+	protected static int hexDigit(byte c) {
+		if (c >= '0' && c <= '9') {
+			return c - '0';
+		} else if (c >= 'A' && c <= 'F') {
+			return c - 'A' + 10;
+		} else if (c >= 'a' && c <= 'f') {
+			return c - 'a' + 10;
+		}
+		return -1;
+	}
+
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder(mLength * 3);
+		for (int i = 0; i < mLength; i++) {
+			if (i > 0) {
+				result.append(' ');
+			}
+			result.append(Character.toUpperCase(Character.forDigit((mBytes[i] >> 4) & 0x0F, 16)));
+			result.append(Character.toUpperCase(Character.forDigit(mBytes[i] & 0x0F, 16)));
+		}
+		return result.toString();
+	}
+}
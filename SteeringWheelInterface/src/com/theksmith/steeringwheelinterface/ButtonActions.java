@@ -1,35 +1,28 @@
-/*
- * TODO: Re-do this class to allow end users to define the button's bus messages and map each to a predefined action
- * 
- * Currently the project is assumed to be only a template. A developer would need to override
- * this class with their own specific implementation. To make this a "real" app, we will
- * need to make the buttons and their associated actions definable via the settings screen.
- */
-
 package com.theksmith.steeringwheelinterface;
 
-import java.util.Date;
-import java.util.HashMap;
+import java.util.Arrays;
 
 import android.content.Context;
-import android.media.AudioManager;
 import android.util.Log;
-import android.view.KeyEvent;
 
 
 /**
  * Provides a central place to define which bus messages correspond to which buttons, and which buttons do what actions.
- * This class is a basic template that would most likely be overridden.
+ * Each button's gestures (short press, long press, repeat, double click) and two button chords can each have their own
+ * action, see ButtonGestureRecognizer. By default each button only has a short press, performed on its first message.
+ * For vehicles that repeat a status frame with a bit per button instead, see setStateFrames() and BitfieldEdgeTracker.
+ * The bus message definitions, gesture actions and timing come from the settings (see setButtonPattern(), setGestureAction(),
+ * addChord() and setGestureTimes()), only the short press actions are set here.
  * 
  * @author Kristoffer Smith <kristoffer@theksmith.com>
  */
-public class ButtonActions {
+public class ButtonActions implements ButtonGestureRecognizer.Listener, BitfieldEdgeTracker.Listener {
 	protected static final String TAG = ButtonActions.class.getSimpleName();
 	
-	protected static final int DEBOUNCE_THRESHOLD = 50;	//milliseconds
-	
 	protected Context mAppContext;
-	protected HashMap<String, Long> mBusMessageDebounceTimes = new HashMap<String, Long>();
+	protected final ActionExecutorSelector mActionExecutors = new ActionExecutorSelector();
+	protected final ActionDispatcher mDispatcher = new ActionDispatcher(mActionExecutors, ActionDispatcher.DEFAULT_CAPACITY);
+	protected LatencyStats mLatency = new LatencyStats();
 	
     //performAction() return status
 	public static final int STATUS_ERROR_UNKNOWN = 0;
@@ -37,8 +30,7 @@ public class ButtonActions {
 	public static final int STATUS_ERROR_ACTIONERROR = 2;
 	public static final int STATUS_SUCCESS = 3;	
 
-	//the known buttons and the beginning of their corresponding bus messages
-	//TODO: allow wildcard or regex definitions
+	//the known buttons and the beginning of their corresponding bus messages (defaults, see setButtonPattern() and ButtonPattern for the syntax)
 	public static final String BUTTON_LEFT_CENTER = "3D 11 00 80";
 	public static final String BUTTON_LEFT_DOWN = "3D 11 10 00";
 	public static final String BUTTON_LEFT_UP = "3D 11 20 00";
@@ -46,9 +38,37 @@ public class ButtonActions {
 	public static final String BUTTON_RIGHT_DOWN = "3D 11 02 00";
 	public static final String BUTTON_RIGHT_UP = "3D 11 04 00";
 	
+	//ids for the known buttons, these index the dispatch table results
+	public static final int BUTTON_ID_LEFT_CENTER = 0;
+	public static final int BUTTON_ID_LEFT_DOWN = 1;
+	public static final int BUTTON_ID_LEFT_UP = 2;
+	public static final int BUTTON_ID_RIGHT_CENTER = 3;
+	public static final int BUTTON_ID_RIGHT_DOWN = 4;
+	public static final int BUTTON_ID_RIGHT_UP = 5;
+	public static final int BUTTON_COUNT = 6;
+	
+	protected final ButtonPattern[] mButtonPatterns = new ButtonPattern[BUTTON_COUNT];
+	protected final ButtonDispatchTable mButtonTable = new ButtonDispatchTable();
+	protected final BitfieldEdgeTracker mStateTracker = new BitfieldEdgeTracker(this);
+	protected Boolean mStateFrames = false;
+	protected final BusFrame mScratchFrame = new BusFrame();
+	protected final ButtonGestureRecognizer mGestures;
+	
+	//ActionExecutor.ACTION_XYZ for each buttonId * ButtonGestureRecognizer.GESTURE_COUNT + gesture, and for each chord
+	protected final int[] mGestureActions = new int[BUTTON_COUNT * ButtonGestureRecognizer.GESTURE_COUNT];
+	protected int[] mChordActions = new int[0];
+	
+	//the message being handled by performAction(), for the gesture and action latencies
+	protected long mMessageMatchedTime = 0;
+	protected long mMessageArrivalTime = 0;
+	protected long mMessageLineTime = 0;
+	protected int mMessageEdges = 0;
+	protected int mMessageStatus = STATUS_SUCCESS;
+	
 	
 	private ButtonActions() { 
 		//exists only to prevent creation of class without passing required param
+		mGestures = null;
 	}
 
 	
@@ -59,6 +79,213 @@ public class ButtonActions {
 	 */
 	public ButtonActions(Context appContext) {
 		mAppContext = appContext.getApplicationContext();
+		
+		mActionExecutors.add(new IntentActionExecutor(mAppContext));
+		mActionExecutors.add(new AudioActionExecutor(mAppContext));
+		
+		mButtonPatterns[BUTTON_ID_LEFT_CENTER] = ButtonPattern.compile(BUTTON_LEFT_CENTER);
+		mButtonPatterns[BUTTON_ID_LEFT_DOWN] = ButtonPattern.compile(BUTTON_LEFT_DOWN);
+		mButtonPatterns[BUTTON_ID_LEFT_UP] = ButtonPattern.compile(BUTTON_LEFT_UP);
+		mButtonPatterns[BUTTON_ID_RIGHT_CENTER] = ButtonPattern.compile(BUTTON_RIGHT_CENTER);
+		mButtonPatterns[BUTTON_ID_RIGHT_DOWN] = ButtonPattern.compile(BUTTON_RIGHT_DOWN);
+		mButtonPatterns[BUTTON_ID_RIGHT_UP] = ButtonPattern.compile(BUTTON_RIGHT_UP);
+		
+		buildButtonTable();
+		
+		mGestures = new ButtonGestureRecognizer(BUTTON_COUNT, this);
+		setGestureAction(BUTTON_ID_LEFT_CENTER, ButtonGestureRecognizer.GESTURE_SHORT, ActionExecutor.ACTION_MEDIA_PLAY_PAUSE);
+		setGestureAction(BUTTON_ID_LEFT_DOWN, ButtonGestureRecognizer.GESTURE_SHORT, ActionExecutor.ACTION_MEDIA_PREVIOUS);
+		setGestureAction(BUTTON_ID_LEFT_UP, ButtonGestureRecognizer.GESTURE_SHORT, ActionExecutor.ACTION_MEDIA_NEXT);
+		setGestureAction(BUTTON_ID_RIGHT_CENTER, ButtonGestureRecognizer.GESTURE_SHORT, ActionExecutor.ACTION_HOME);
+		setGestureAction(BUTTON_ID_RIGHT_DOWN, ButtonGestureRecognizer.GESTURE_SHORT, ActionExecutor.ACTION_VOLUME_DOWN);
+		setGestureAction(BUTTON_ID_RIGHT_UP, ButtonGestureRecognizer.GESTURE_SHORT, ActionExecutor.ACTION_VOLUME_UP);
+	}
+	
+	
+	/**
+	 * Replaces a button's bus message definition.
+	 * The definition is compiled here, so call this when settings are loaded rather than while monitoring.
+	 * 
+	 * @param buttonId			One of the ButtonActions.BUTTON_ID_XYZ definitions.
+	 * @param definition		The button's bus message definition, see ButtonPattern for the syntax.
+	 * @throws IllegalArgumentException if the definition is invalid, the previous definition is kept.
+	 */
+	public void setButtonPattern(int buttonId, String definition) {
+		mButtonPatterns[buttonId] = ButtonPattern.compile(definition);
+		buildButtonTable();
+	}
+	
+	
+	/**
+	 * @param stateFrames		True if the button definitions describe bits of a repeated status frame, which are set
+	 * 							while the button is down, rather than messages sent per button event (see BitfieldEdgeTracker).
+	 */
+	public void setStateFrames(Boolean stateFrames) {
+		mStateFrames = stateFrames;
+		buildButtonTable();
+	}
+	
+	
+	/**
+	 * @param length			Number of header bytes identifying a status frame, see BitfieldEdgeTracker.setIdLength().
+	 */
+	public void setFrameIdLength(int length) {
+		if (length == mStateTracker.getIdLength()) return;
+		
+		mStateTracker.setIdLength(length);
+		if (mStateFrames) buildButtonTable();
+	}
+	
+	
+	/**
+	 * Maps one of a button's gestures to an action. A button waits to tell its gestures apart only for those mapped,
+	 * so leave the ones not needed as ActionExecutor.ACTION_NONE.
+	 * 
+	 * @param buttonId			One of the ButtonActions.BUTTON_ID_XYZ definitions.
+	 * @param gesture			One of the ButtonGestureRecognizer.GESTURE_XYZ definitions.
+	 * @param action			One of the ActionExecutor.ACTION_XYZ definitions.
+	 */
+	public void setGestureAction(int buttonId, int gesture, int action) {
+		mGestureActions[buttonId * ButtonGestureRecognizer.GESTURE_COUNT + gesture] = action;
+		mGestures.setEnabled(buttonId, gesture, action != ActionExecutor.ACTION_NONE);
+	}
+	
+	
+	public int getGestureAction(int buttonId, int gesture) {
+		return mGestureActions[buttonId * ButtonGestureRecognizer.GESTURE_COUNT + gesture];
+	}
+	
+	
+	/**
+	 * Maps two buttons held together to an action.
+	 * 
+	 * @param buttonA			One of the ButtonActions.BUTTON_ID_XYZ definitions.
+	 * @param buttonB			Another of the ButtonActions.BUTTON_ID_XYZ definitions.
+	 * @param action			One of the ActionExecutor.ACTION_XYZ definitions.
+	 */
+	public void addChord(int buttonA, int buttonB, int action) {
+		final int chordId = mGestures.addChord(buttonA, buttonB);
+		mChordActions = Arrays.copyOf(mChordActions, chordId + 1);
+		mChordActions[chordId] = action;
+	}
+	
+	
+	/**
+	 * @param buttonId			One of the ButtonActions.BUTTON_ID_XYZ definitions.
+	 * @param releaseTimeout	Milliseconds without the button's message after which it is released (repeats inside it,
+	 * 							including hardware bounce, are the same press).
+	 * @param longTime			Milliseconds held before a long press and the first repeat.
+	 * @param repeatInterval	Milliseconds between repeats while held.
+	 * @param doubleTime		Milliseconds after a release within which a second press is a double click.
+	 */
+	public void setGestureTimes(int buttonId, int releaseTimeout, int longTime, int repeatInterval, int doubleTime) {
+		mGestures.setReleaseTimeout(buttonId, releaseTimeout);
+		mGestures.setLongTime(buttonId, longTime);
+		mGestures.setRepeatInterval(buttonId, repeatInterval);
+		mGestures.setDoubleTime(buttonId, doubleTime);
+	}
+	
+	
+	/**
+	 * Performs the actions of gestures decided by a deadline (ex: long press, repeat), call when getGestureRemaining() is due.
+	 * 
+	 * @param now				System.nanoTime().
+	 */
+	public void checkGestures(long now) {
+		mGestures.check(now);
+	}
+	
+	
+	/**
+	 * @param now				System.nanoTime().
+	 * @return					Nanoseconds until checkGestures() has something to do, Long.MAX_VALUE if nothing is pending.
+	 */
+	public long getGestureRemaining(long now) {
+		return mGestures.getRemaining(now);
+	}
+	
+	
+	/**
+	 * Forgets every button's state without performing anything (ex: monitoring restarted).
+	 */
+	public void resetGestures() {
+		mGestures.reset();
+		mStateTracker.reset();
+	}
+	
+	
+	/**
+	 * Adds a long lived root shell as an additional action executor backend.
+	 * 
+	 * @param shell				A started RootShell that is ready (see RootShell.ReadyListener), owned by the caller.
+	 */
+	public void setRootShell(RootShell shell) {
+		mActionExecutors.add(new RootShellActionExecutor(shell));
+	}
+	
+	
+	/**
+	 * Sets where the matching, gesture, deadline, queue and action stage latencies are recorded.
+	 */
+	public void setLatencyStats(LatencyStats latency) {
+		mLatency = latency;
+		mDispatcher.setLatencyStats(latency);
+	}
+	
+	
+	/**
+	 * @param policy			What to discard when actions queue up faster than they are performed, one of the
+	 * 							ActionDispatcher.DROP_XYZ definitions.
+	 */
+	public void setActionDropPolicy(int policy) {
+		mDispatcher.setDropPolicy(policy);
+	}
+	
+	
+	/**
+	 * Starts the worker thread that performs the actions, no action is performed until this is called.
+	 */
+	public void start() {
+		mDispatcher.start();
+	}
+	
+	
+	/**
+	 * Stops the action worker thread, actions still waiting to be performed are discarded.
+	 */
+	public void stop() {
+		mDispatcher.stop();
+	}
+	
+	
+	/**
+	 * @return					A human readable summary of the action dispatch queue and backends' measurements.
+	 */
+	public String getActionStats() {
+		return mDispatcher.getStats() + "\n" + mActionExecutors.getStats();
+	}
+	
+	
+	public ButtonPattern getButtonPattern(int buttonId) {
+		return mButtonPatterns[buttonId];
+	}
+	
+	
+	protected void buildButtonTable() {
+		mButtonTable.clear();
+		mStateTracker.clear();
+		for (int buttonId = 0; buttonId < BUTTON_COUNT; buttonId++) {
+			if (!mStateFrames) {
+				mButtonTable.add(buttonId, mButtonPatterns[buttonId]);
+				continue;
+			}
+			
+			try {
+				mStateTracker.add(buttonId, mButtonPatterns[buttonId]);
+			} catch (IllegalArgumentException ex) {
+				Log.w(TAG, "BUTTON " + buttonId + " IGNORED, NOT A STATUS FRAME DEFINITION", ex);
+			}
+		}
 	}
 	
 
@@ -69,95 +296,147 @@ public class ButtonActions {
 	 * @return 					Returns one of the ButtonActions.STATUS_XYZ definitions.
 	 */
 	public int performAction(String forBusMessage) {
-		try {			
-			if (forBusMessage.startsWith(BUTTON_LEFT_CENTER)) {
-				if (!isHardwareBounce(forBusMessage)) {
-					btnMediaPause();
-				}
-			} else if (forBusMessage.startsWith(BUTTON_LEFT_DOWN)) {
-				if (!isHardwareBounce(forBusMessage)) {
-					btnMediaTrackPrevious();
-				}
-			} else if (forBusMessage.startsWith(BUTTON_LEFT_UP)) {
-				if (!isHardwareBounce(forBusMessage)) {
-					btnMediaTrackNext();
-				}
-			} else if (forBusMessage.startsWith(BUTTON_RIGHT_CENTER)) {
-				if (!isHardwareBounce(forBusMessage)) {
-					btnHomeScreen();
-				}
-			} else if (forBusMessage.startsWith(BUTTON_RIGHT_DOWN)) {
-				if (!isHardwareBounce(forBusMessage)) {
-					btnVolumeDown();
-				}
-			} else if (forBusMessage.startsWith(BUTTON_RIGHT_UP)) {
-				if (!isHardwareBounce(forBusMessage)) {
-					btnVolumeUp();
-				}
-			} else {
-				Log.i(TAG, "Unknown button: " + forBusMessage);
-				return STATUS_ERROR_UNKNOWNBUTTON;
-			}
-		} catch (Exception ex) {
-			Log.e(TAG, "Error performing action for button: " + forBusMessage, ex);
-			return STATUS_ERROR_ACTIONERROR;
+		byte[] chars = forBusMessage.trim().getBytes();
+		if (!mScratchFrame.decode(chars, 0, chars.length)) {
+			Log.i(TAG, "Unknown button: " + forBusMessage);
+			return STATUS_ERROR_UNKNOWNBUTTON;
 		}
 		
-		return STATUS_SUCCESS;
+		return performAction(mScratchFrame);
 	}
 	
-
-	protected boolean isHardwareBounce(String busMessage) {
-		Boolean isBounce = true;		
+	
+	/**
+	 * Executes a particular button's assigned action.
+	 * The action is queued for the action worker thread (see ActionDispatcher), this doesn't wait for it to be performed.
+	 * 
+	 * @param forBusMessage		A decoded bus message, expected to correspond to a button (one of the ButtonActions.BUTTON_XYZ definitions).
+	 * @return 					Returns one of the ButtonActions.STATUS_XYZ definitions.
+	 */
+	public int performAction(BusFrame forBusMessage) {
+		if (mStateFrames) {
+			return performStateAction(forBusMessage);
+		}
 		
-		long now = (new Date()).getTime();		
-		Long last = mBusMessageDebounceTimes.get(busMessage);
+		//most messages seen while monitoring aren't buttons, reject those with a single lookup
+		int buttonId = mButtonTable.lookup(forBusMessage);
 		
-		if (last == null) {
-			isBounce = false;
-		} else {		
-			if (now - last > DEBOUNCE_THRESHOLD) {
-				isBounce = false;
-			}
+		final long matched = System.nanoTime();
+		if (forBusMessage.getLineTime() > 0) {
+			mLatency.record(LatencyStats.STAGE_MATCHING, matched - forBusMessage.getLineTime());
+		}
+		
+		if (buttonId == ButtonDispatchTable.NO_BUTTON) {
+			if (Log.isLoggable(TAG, Log.DEBUG)) Log.d(TAG, "Unknown button: " + forBusMessage);
+			return STATUS_ERROR_UNKNOWNBUTTON;
 		}
 		
-		mBusMessageDebounceTimes.put(busMessage, now);
+		//gestures decided by this message are performed from within onMessage(), see onGesture()
+		mMessageMatchedTime = matched;
+		mMessageArrivalTime = forBusMessage.getArrivalTime();
+		mMessageStatus = STATUS_SUCCESS;
 		
-		return isBounce;
+		mGestures.onMessage(buttonId, (mMessageArrivalTime > 0) ? mMessageArrivalTime : matched);
+		
+		if (mMessageMatchedTime != 0) {
+			//no gesture yet (ex: a repeat of a held button, or waiting for a long press)
+			mLatency.record(LatencyStats.STAGE_GESTURE, System.nanoTime() - matched);
+			mMessageMatchedTime = 0;
+		}
+		
+		return mMessageStatus;
 	}
+	
+	
+	/**
+	 * Passes the presses and releases shown by a status frame to the gestures, see setStateFrames().
+	 */
+	protected int performStateAction(BusFrame forBusMessage) {
+		mMessageArrivalTime = forBusMessage.getArrivalTime();
+		mMessageLineTime = forBusMessage.getLineTime();
+		mMessageEdges = 0;
+		mMessageStatus = STATUS_SUCCESS;
+		
+		//most frames repeat the previous one of their id, those cost a lookup and one compare
+		final Boolean known = mStateTracker.update(forBusMessage);
+		
+		if (mMessageEdges == 0 && mMessageLineTime > 0) {
+			mLatency.record(LatencyStats.STAGE_MATCHING, System.nanoTime() - mMessageLineTime);
+		}
 		
+		if (!known) {
+			if (Log.isLoggable(TAG, Log.DEBUG)) Log.d(TAG, "Unknown status frame: " + forBusMessage);
+			return STATUS_ERROR_UNKNOWNBUTTON;
+		}
+		
+		return mMessageStatus;
+	}
 	
-	//TODO: most of these require root, is there a better way? how does Tasker do it?
 	
-
-	protected void btnMediaPause() throws Exception {
-		Runtime.getRuntime().exec("su -c input keyevent " + KeyEvent.KEYCODE_MEDIA_PLAY_PAUSE);
-    }
-    
-
-	protected void btnMediaTrackNext() throws Exception {
-   		Runtime.getRuntime().exec("su -c input keyevent " + KeyEvent.KEYCODE_MEDIA_NEXT);
-    }
-    
-    
-	protected void btnMediaTrackPrevious() throws Exception {
-   		Runtime.getRuntime().exec("su -c input keyevent " +  + KeyEvent.KEYCODE_MEDIA_PREVIOUS);
-    }
-
+	public void onButtonDown(int buttonId) {
+		onButtonEdge(buttonId, true);
+	}
 	
-	protected void btnHomeScreen() throws Exception {
-		Runtime.getRuntime().exec("su -c input keyevent " + KeyEvent.KEYCODE_HOME);
-    }
-
-    
-	protected void btnVolumeUp() throws Exception {
-   		AudioManager mAudioManager = (AudioManager)mAppContext.getSystemService(Context.AUDIO_SERVICE);    		
-   		mAudioManager.adjustStreamVolume(AudioManager.STREAM_MUSIC, AudioManager.ADJUST_RAISE, AudioManager.FLAG_SHOW_UI);
-    }
-    
-    
-	protected void btnVolumeDown() throws Exception {
-		AudioManager mAudioManager = (AudioManager)mAppContext.getSystemService(Context.AUDIO_SERVICE);    		
-		mAudioManager.adjustStreamVolume(AudioManager.STREAM_MUSIC, AudioManager.ADJUST_LOWER, AudioManager.FLAG_SHOW_UI);
-    }    
+	
+	public void onButtonUp(int buttonId) {
+		onButtonEdge(buttonId, false);
+	}
+	
+	
+	/**
+	 * Called from within performStateAction() for each button whose bits changed.
+	 */
+	protected void onButtonEdge(int buttonId, Boolean down) {
+		final long matched = System.nanoTime();
+		if (mMessageEdges++ == 0 && mMessageLineTime > 0) {
+			mLatency.record(LatencyStats.STAGE_MATCHING, matched - mMessageLineTime);
+		}
+		
+		mMessageMatchedTime = matched;
+		final long time = (mMessageArrivalTime > 0) ? mMessageArrivalTime : matched;
+		if (down) {
+			mGestures.onPress(buttonId, time);
+		} else {
+			mGestures.onRelease(buttonId, time);
+		}
+		
+		if (mMessageMatchedTime != 0) {
+			//no gesture yet (ex: waiting for the release, or a long press)
+			mLatency.record(LatencyStats.STAGE_GESTURE, System.nanoTime() - matched);
+			mMessageMatchedTime = 0;
+		}
+	}
+	
+	
+	public void onGesture(int buttonId, int gesture, long due) {
+		performGestureAction(mGestureActions[buttonId * ButtonGestureRecognizer.GESTURE_COUNT + gesture], due);
+	}
+	
+	
+	public void onChord(int chordId, long due) {
+		performGestureAction(mChordActions[chordId], due);
+	}
+	
+	
+	/**
+	 * @param action			One of the ActionExecutor.ACTION_XYZ definitions.
+	 * @param due				The deadline that decided the gesture, or 0 if it was the message being handled.
+	 */
+	protected void performGestureAction(int action, long due) {
+		final long decided = System.nanoTime();
+		final Boolean fromMessage = (due == 0 && mMessageMatchedTime != 0);
+		if (fromMessage) {
+			mLatency.record(LatencyStats.STAGE_GESTURE, decided - mMessageMatchedTime);
+			mMessageMatchedTime = 0;
+		} else if (due != 0) {
+			mLatency.record(LatencyStats.STAGE_DEADLINE, decided - due);
+		}
+		
+		if (action == ActionExecutor.ACTION_NONE) return;
+		
+		//performed on the dispatcher's worker, which records the queue, action and total latencies
+		if (!mDispatcher.submit(action, fromMessage ? mMessageArrivalTime : 0)) {
+			mMessageStatus = STATUS_ERROR_ACTIONERROR;
+		}
+	}
 }
\ No newline at end of file
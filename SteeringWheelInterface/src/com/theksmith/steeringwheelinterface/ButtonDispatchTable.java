@@ -0,0 +1,233 @@
+package com.theksmith.steeringwheelinterface;
+
+
+/**
+ * Resolves a decoded bus message to a button id with hash lookups on the packed message bytes.
+ *
+ * Button definitions are grouped by their mask (definitions of the same length share one).
+ * Each group is an open addressing hash table keyed on the masked packed bytes, so a lookup costs
+ * one mask and one probe per group no matter how many buttons are defined. Most vehicles need a
+ * single group. When definitions overlap, the group defined first wins.
+ *
+ * Build the table once (add() is not meant for the hot path), then call lookup() per message.
+ */
+public class ButtonDispatchTable {
+	public static final int NO_BUTTON = -1;
+
+	protected static final int MIN_CAPACITY = 8;
+
+	protected int mGroupCount = 0;
+	protected long[] mGroupMasks = new long[0];
+	protected int[] mGroupMinLengths = new int[0];
+	protected long[][] mGroupKeys = new long[0][];
+	protected int[][] mGroupButtons = new int[0][];
+	protected int[] mGroupSizes = new int[0];
+
+
+	/**
+	 * Adds a button defined by the beginning of its bus message.
+	 *
+	 * @param buttonId			Id to return from lookup(), must not be negative.
+	 * @param prefix			The decoded beginning of the button's bus message (up to 8 bytes are used).
+	 */
+	public void add(int buttonId, BusFrame prefix) {
+		add(buttonId, prefix.getPacked(), prefix.getPackedMask());
+	}
+
+
+	/**
+	 * Adds a button defined by a compiled pattern.
+	 *
+	 * @param buttonId			Id to return from lookup(), must not be negative.
+	 * @param pattern			The compiled button definition.
+	 */
+	public void add(int buttonId, ButtonPattern pattern) {
+		add(buttonId, pattern.getValue(), pattern.getMask());
+	}
+
+
+	/**
+	 * Adds a button defined by a value and mask over the first 8 packed bytes of the bus message.
+	 *
+	 * @param buttonId			Id to return from lookup(), must not be negative.
+	 * @param value				Expected packed bytes (see BusFrame.getPacked()).
+	 * @param mask				Bits of the packed bytes which must match value.
+	 */
+	public void add(int buttonId, long value, long mask) {
+		if (buttonId < 0) {
+			throw new IllegalArgumentException("Invalid button id: " + buttonId);
+		}
+
+		int group = findGroup(mask);
+		if (group < 0) {
+			group = addGroup(mask);
+		}
+
+		//keep the table at most half full so probes stay short
+		if ((mGroupSizes[group] + 1) * 2 > mGroupKeys[group].length) {
+			resizeGroup(group, mGroupKeys[group].length * 2);
+		}
+
+		if (put(mGroupKeys[group], mGroupButtons[group], value & mask, buttonId)) {
+			mGroupSizes[group]++;
+		}
+	}
+
+
+	/**
+	 * Removes all button definitions.
+	 */
+	public void clear() {
+		mGroupCount = 0;
+		mGroupMasks = new long[0];
+		mGroupMinLengths = new int[0];
+		mGroupKeys = new long[0][];
+		mGroupButtons = new int[0][];
+		mGroupSizes = new int[0];
+	}
+
+
+	/**
+	 * Finds the button for a bus message.
+	 *
+	 * @param frame				A decoded bus message.
+	 * @return					The button id, or NO_BUTTON.
+	 */
+	public int lookup(BusFrame frame) {
+		final long packed = frame.getPacked();
+		final int length = frame.getLength();
+
+		for (int group = 0; group < mGroupCount; group++) {
+			if (length < mGroupMinLengths[group]) {
+				continue;
+			}
+
+			final int buttonId = get(mGroupKeys[group], mGroupButtons[group], packed & mGroupMasks[group]);
+			if (buttonId != NO_BUTTON) {
+				return buttonId;
+			}
+		}
+
+		return NO_BUTTON;
+	}
+
+
+	protected int findGroup(long mask) {
+		for (int group = 0; group < mGroupCount; group++) {
+			if (mGroupMasks[group] == mask) {
+				return group;
+			}
+		}
+		return -1;
+	}
+
+
+	protected int addGroup(long mask) {
+		final int group = mGroupCount;
+		final int count = group + 1;
+
+		long[] masks = new long[count];
+		int[] minLengths = new int[count];
+		long[][] keys = new long[count][];
+		int[][] buttons = new int[count][];
+		int[] sizes = new int[count];
+
+		System.arraycopy(mGroupMasks, 0, masks, 0, group);
+		System.arraycopy(mGroupMinLengths, 0, minLengths, 0, group);
+		System.arraycopy(mGroupKeys, 0, keys, 0, group);
+		System.arraycopy(mGroupButtons, 0, buttons, 0, group);
+		System.arraycopy(mGroupSizes, 0, sizes, 0, group);
+
+		masks[group] = mask;
+		minLengths[group] = minLength(mask);
+		keys[group] = new long[MIN_CAPACITY];
+		buttons[group] = newButtons(MIN_CAPACITY);
+
+		mGroupMasks = masks;
+		mGroupMinLengths = minLengths;
+		mGroupKeys = keys;
+		mGroupButtons = buttons;
+		mGroupSizes = sizes;
+		mGroupCount = count;
+
+		return group;
+	}
+
+
+	protected void resizeGroup(int group, int capacity) {
+		long[] oldKeys = mGroupKeys[group];
+		int[] oldButtons = mGroupButtons[group];
+		long[] keys = new long[capacity];
+		int[] buttons = newButtons(capacity);
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldButtons[i] != NO_BUTTON) {
+				put(keys, buttons, oldKeys[i], oldButtons[i]);
+			}
+		}
+
+		mGroupKeys[group] = keys;
+		mGroupButtons[group] = buttons;
+	}
+
+
+	protected static int[] newButtons(int capacity) {
+		int[] buttons = new int[capacity];
+		for (int i = 0; i < capacity; i++) {
+			buttons[i] = NO_BUTTON;
+		}
+		return buttons;
+	}
+
+
+	protected static boolean put(long[] keys, int[] buttons, long key, int buttonId) {
+		final int slotMask = keys.length - 1;
+		int slot = hash(key) & slotMask;
+
+		while (buttons[slot] != NO_BUTTON) {
+			if (keys[slot] == key) {
+				//already defined, the first definition wins
+				return false;
+			}
+			slot = (slot + 1) & slotMask;
+		}
+
+		keys[slot] = key;
+		buttons[slot] = buttonId;
+		return true;
+	}
+
+
+	protected static int get(long[] keys, int[] buttons, long key) {
+		final int slotMask = keys.length - 1;
+		int slot = hash(key) & slotMask;
+
+		while (buttons[slot] != NO_BUTTON) {
+			if (keys[slot] == key) {
+				return buttons[slot];
+			}
+			slot = (slot + 1) & slotMask;
+		}
+
+		return NO_BUTTON;
+	}
+
+
+	protected static int hash(long key) {
+		//fibonacci hashing, the high bits of the product are the best mixed
+		return (int)((key * 0x9E3779B97F4A7C15L) >>> 32);
+	}
+
+
+	/**
+	 * @return					Number of message bytes a mask covers, messages shorter than this can't match.
+	 */
+	protected static int minLength(long mask) {
+		for (int length = BusFrame.MAX_PACKED_LENGTH; length > 0; length--) {
+			if ((mask & (0xFFL << (64 - (length * 8)))) != 0) {
+				return length;
+			}
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,466 @@
+package com.theksmith.steeringwheelinterface;
+
+import java.util.Arrays;
+
+
+/**
+ * Turns button presses and releases into gestures: short press, long press, hold-to-repeat, double click and two
+ * button chords. Each button is a small state machine in fixed primitive arrays, and every button's pending timeout
+ * shares one DeadlineScheduler, so recognizing a gesture allocates nothing and the owner has a single wakeup to wait for.
+ *
+ * Most vehicles send a button's message repeatedly while it is held and nothing when it is let go, so onMessage()
+ * infers the press from the first message and the release from the messages stopping for the button's release
+ * timeout (the old debounce threshold, repeats inside it are the same press). Sources that report both edges (ex: a
+ * cyclic button state frame) call onPress() and onRelease() instead.
+ *
+ * A short press is reported on release, or after the double click time when double click is enabled. A button with
+ * only a short press enabled (the default) reports it on the press itself, so it adds no latency over plain debounce.
+ * A long press is reported once the button is held for its long press time, repeats follow at its repeat interval.
+ * A chord is reported when both of its buttons are down before either has reported a gesture.
+ *
+ * The owner must call check() when getRemaining() says a deadline is due, gestures decided by a deadline are only
+ * reported from check() (or the next press or release).
+ *
+ * Not thread safe, use from one thread only (ex: ElmInterface's event loop). Set up gestures before monitoring.
+ */
+public class ButtonGestureRecognizer {
+	public static final int GESTURE_SHORT = 0;
+	public static final int GESTURE_LONG = 1;
+	public static final int GESTURE_REPEAT = 2;
+	public static final int GESTURE_DOUBLE = 3;
+	public static final int GESTURE_COUNT = 4;
+
+	public static final int DEFAULT_RELEASE_TIMEOUT = 50;	//milliseconds
+	public static final int DEFAULT_LONG_TIME = 600;		//milliseconds
+	public static final int DEFAULT_REPEAT_INTERVAL = 150;	//milliseconds
+	public static final int DEFAULT_DOUBLE_TIME = 300;		//milliseconds
+
+	protected static final int STATE_IDLE = 0;
+	protected static final int STATE_DOWN = 1;			//pressed, no gesture reported yet
+	protected static final int STATE_HELD = 2;			//long press reported or repeating
+	protected static final int STATE_RELEASED = 3;		//released after a short press, waiting for a second click
+	protected static final int STATE_CONSUMED = 4;		//gesture reported (ex: chord), ignored until released
+
+	protected final Listener mListener;
+	protected final DeadlineScheduler mScheduler;
+
+	//per button state
+	protected final int[] mStates;
+	protected final boolean[] mReleaseArmed;	//release inferred from messages stopping
+	protected final long[] mReleaseTimes;		//System.nanoTime() the release is inferred
+	protected final boolean[] mTimerArmed;		//long press, repeat or double click timeout
+	protected final long[] mTimerTimes;			//System.nanoTime() the timeout is due
+
+	//per button settings, times in nanoseconds
+	protected final boolean[] mEnabled;			//buttonId * GESTURE_COUNT + gesture
+	protected final boolean[] mImmediate;		//short press is the only gesture, report it on the press
+	protected final long[] mReleaseTimeouts;
+	protected final long[] mLongTimes;
+	protected final long[] mRepeatIntervals;
+	protected final long[] mDoubleTimes;
+
+	protected int[] mChordButtonsA = new int[0];
+	protected int[] mChordButtonsB = new int[0];
+
+
+	/**
+	 * Receives the recognized gestures, called from whichever method decided them.
+	 */
+	public interface Listener {
+		/**
+		 * @param buttonId		The button.
+		 * @param gesture		One of the ButtonGestureRecognizer.GESTURE_XYZ definitions.
+		 * @param due			System.nanoTime() the deadline that decided the gesture was due, or 0 if it was decided by
+		 * 						the press or release being reported.
+		 */
+		public void onGesture(int buttonId, int gesture, long due);
+
+		/**
+		 * @param chordId		The chord, as returned by addChord().
+		 * @param due			Always 0, chords are decided by a press.
+		 */
+		public void onChord(int chordId, long due);
+	}
+
+
+	private ButtonGestureRecognizer() {
+		//exists only to prevent creation of class without passing required param
+		mListener = null;
+		mScheduler = null;
+		mStates = null;
+		mReleaseArmed = null;
+		mReleaseTimes = null;
+		mTimerArmed = null;
+		mTimerTimes = null;
+		mEnabled = null;
+		mImmediate = null;
+		mReleaseTimeouts = null;
+		mLongTimes = null;
+		mRepeatIntervals = null;
+		mDoubleTimes = null;
+	}
+
+
+	/**
+	 * Constructor. Every button starts with only the short press enabled.
+	 *
+	 * @param buttonCount		Number of button ids, 0 to buttonCount - 1.
+	 * @param listener			Receives the recognized gestures.
+	 */
+	public ButtonGestureRecognizer(int buttonCount, Listener listener) {
+		mListener = listener;
+		mScheduler = new DeadlineScheduler(buttonCount);
+
+		mStates = new int[buttonCount];
+		mReleaseArmed = new boolean[buttonCount];
+		mReleaseTimes = new long[buttonCount];
+		mTimerArmed = new boolean[buttonCount];
+		mTimerTimes = new long[buttonCount];
+
+		mEnabled = new boolean[buttonCount * GESTURE_COUNT];
+		mImmediate = new boolean[buttonCount];
+		mReleaseTimeouts = new long[buttonCount];
+		mLongTimes = new long[buttonCount];
+		mRepeatIntervals = new long[buttonCount];
+		mDoubleTimes = new long[buttonCount];
+
+		for (int buttonId = 0; buttonId < buttonCount; buttonId++) {
+			mEnabled[buttonId * GESTURE_COUNT + GESTURE_SHORT] = true;
+			mImmediate[buttonId] = true;
+			mReleaseTimeouts[buttonId] = DEFAULT_RELEASE_TIMEOUT * 1000000L;
+			mLongTimes[buttonId] = DEFAULT_LONG_TIME * 1000000L;
+			mRepeatIntervals[buttonId] = DEFAULT_REPEAT_INTERVAL * 1000000L;
+			mDoubleTimes[buttonId] = DEFAULT_DOUBLE_TIME * 1000000L;
+		}
+	}
+
+
+	/**
+	 * @param buttonId			The button.
+	 * @param gesture			One of the ButtonGestureRecognizer.GESTURE_XYZ definitions.
+	 * @param enabled			False to not recognize the gesture, so the button doesn't wait to tell it apart.
+	 */
+	public void setEnabled(int buttonId, int gesture, Boolean enabled) {
+		mEnabled[buttonId * GESTURE_COUNT + gesture] = enabled;
+		updateImmediate(buttonId);
+	}
+
+
+	public Boolean isEnabled(int buttonId, int gesture) {
+		return mEnabled[buttonId * GESTURE_COUNT + gesture];
+	}
+
+
+	/**
+	 * @param buttonId			The button.
+	 * @param timeout			Milliseconds without the button's message after which it is released, 0 to make every
+	 * 							message a new press.
+	 */
+	public void setReleaseTimeout(int buttonId, int timeout) {
+		mReleaseTimeouts[buttonId] = timeout * 1000000L;
+	}
+
+
+	/**
+	 * @param buttonId			The button.
+	 * @param time				Milliseconds the button is held before a long press (and the first repeat).
+	 */
+	public void setLongTime(int buttonId, int time) {
+		mLongTimes[buttonId] = time * 1000000L;
+	}
+
+
+	/**
+	 * @param buttonId			The button.
+	 * @param interval			Milliseconds between repeats while the button is held, at least 1.
+	 */
+	public void setRepeatInterval(int buttonId, int interval) {
+		mRepeatIntervals[buttonId] = Math.max(1, interval) * 1000000L;
+	}
+
+
+	/**
+	 * @param buttonId			The button.
+	 * @param time				Milliseconds after a short press's release within which a second press is a double click.
+	 */
+	public void setDoubleTime(int buttonId, int time) {
+		mDoubleTimes[buttonId] = time * 1000000L;
+	}
+
+
+	/**
+	 * Adds a two button chord. Buttons in a chord no longer report a short press on the press itself.
+	 *
+	 * @param buttonA			The chord's first button.
+	 * @param buttonB			The chord's second button, pressed in either order.
+	 * @return					The chord's id, reported to Listener.onChord().
+	 */
+	public int addChord(int buttonA, int buttonB) {
+		final int chordId = mChordButtonsA.length;
+
+		mChordButtonsA = Arrays.copyOf(mChordButtonsA, chordId + 1);
+		mChordButtonsB = Arrays.copyOf(mChordButtonsB, chordId + 1);
+		mChordButtonsA[chordId] = buttonA;
+		mChordButtonsB[chordId] = buttonB;
+
+		updateImmediate(buttonA);
+		updateImmediate(buttonB);
+
+		return chordId;
+	}
+
+
+	public int getChordCount() {
+		return mChordButtonsA.length;
+	}
+
+
+	/**
+	 * Reports a button's message, from a source that doesn't report releases.
+	 *
+	 * @param buttonId			The button.
+	 * @param now				System.nanoTime() the message arrived.
+	 */
+	public void onMessage(int buttonId, long now) {
+		check(now);
+
+		if (mStates[buttonId] == STATE_IDLE || mStates[buttonId] == STATE_RELEASED) {
+			press(buttonId, now);
+		}
+
+		//each message pushes the release back
+		mReleaseArmed[buttonId] = true;
+		mReleaseTimes[buttonId] = now + mReleaseTimeouts[buttonId];
+		reschedule(buttonId);
+	}
+
+
+	/**
+	 * Reports a button going down, from a source that reports both edges.
+	 *
+	 * @param buttonId			The button.
+	 * @param now				System.nanoTime() the press was seen.
+	 */
+	public void onPress(int buttonId, long now) {
+		check(now);
+
+		if (mStates[buttonId] == STATE_IDLE || mStates[buttonId] == STATE_RELEASED) {
+			mReleaseArmed[buttonId] = false;
+			press(buttonId, now);
+			reschedule(buttonId);
+		}
+	}
+
+
+	/**
+	 * Reports a button going up, from a source that reports both edges.
+	 *
+	 * @param buttonId			The button.
+	 * @param now				System.nanoTime() the release was seen.
+	 */
+	public void onRelease(int buttonId, long now) {
+		check(now);
+		release(buttonId, now, 0);
+	}
+
+
+	/**
+	 * Acts on every deadline that has come due, earliest first.
+	 *
+	 * @param now				System.nanoTime().
+	 */
+	public void check(long now) {
+		int buttonId;
+		while ((buttonId = mScheduler.expire(now)) != DeadlineScheduler.NONE) {
+			final Boolean releaseDue = mReleaseArmed[buttonId] && now - mReleaseTimes[buttonId] >= 0;
+			final Boolean timerDue = mTimerArmed[buttonId] && now - mTimerTimes[buttonId] >= 0;
+
+			if (timerDue && (!releaseDue || mTimerTimes[buttonId] - mReleaseTimes[buttonId] < 0)) {
+				timeout(buttonId, now);
+			} else if (releaseDue) {
+				release(buttonId, mReleaseTimes[buttonId], mReleaseTimes[buttonId]);
+			} else {
+				reschedule(buttonId);
+			}
+		}
+	}
+
+
+	/**
+	 * @param now				System.nanoTime().
+	 * @return					Nanoseconds until check() has something to do, 0 if already due, or Long.MAX_VALUE if nothing is pending.
+	 */
+	public long getRemaining(long now) {
+		return mScheduler.getRemaining(now);
+	}
+
+
+	/**
+	 * Releases every button without reporting anything (ex: monitoring restarted, releases may have been missed).
+	 */
+	public void reset() {
+		for (int buttonId = 0; buttonId < mStates.length; buttonId++) {
+			mStates[buttonId] = STATE_IDLE;
+			mReleaseArmed[buttonId] = false;
+			mTimerArmed[buttonId] = false;
+		}
+		mScheduler.cancelAll();
+	}
+
+
+	/**
+	 * Moves an idle (or released, waiting for a second click) button down, reporting whatever the press alone decides.
+	 * The caller arms (or not) the release and reschedules.
+	 */
+	protected void press(int buttonId, long now) {
+		if (mStates[buttonId] == STATE_RELEASED) {
+			//only waits for a second click when double click is enabled
+			mStates[buttonId] = STATE_CONSUMED;
+			mTimerArmed[buttonId] = false;
+			mListener.onGesture(buttonId, GESTURE_DOUBLE, 0);
+			return;
+		}
+
+		for (int chordId = 0; chordId < mChordButtonsA.length; chordId++) {
+			final int other;
+			if (mChordButtonsA[chordId] == buttonId) {
+				other = mChordButtonsB[chordId];
+			} else if (mChordButtonsB[chordId] == buttonId) {
+				other = mChordButtonsA[chordId];
+			} else {
+				continue;
+			}
+
+			if (mStates[other] == STATE_DOWN) {
+				mStates[other] = STATE_CONSUMED;
+				mTimerArmed[other] = false;
+				reschedule(other);
+
+				mStates[buttonId] = STATE_CONSUMED;
+				mTimerArmed[buttonId] = false;
+				mListener.onChord(chordId, 0);
+				return;
+			}
+		}
+
+		if (mImmediate[buttonId]) {
+			mStates[buttonId] = STATE_CONSUMED;
+			mTimerArmed[buttonId] = false;
+			mListener.onGesture(buttonId, GESTURE_SHORT, 0);
+			return;
+		}
+
+		mStates[buttonId] = STATE_DOWN;
+		mTimerArmed[buttonId] = false;
+		if (isEnabled(buttonId, GESTURE_LONG) || isEnabled(buttonId, GESTURE_REPEAT)) {
+			startTimer(buttonId, now, mLongTimes[buttonId]);
+		}
+	}
+
+
+	/**
+	 * @param now				System.nanoTime() of the release, inferred or reported.
+	 * @param due				The inferred release's deadline, or 0 if the release was reported.
+	 */
+	protected void release(int buttonId, long now, long due) {
+		final int state = mStates[buttonId];
+		mReleaseArmed[buttonId] = false;
+
+		if (state == STATE_DOWN && isEnabled(buttonId, GESTURE_DOUBLE)) {
+			mStates[buttonId] = STATE_RELEASED;
+			startTimer(buttonId, now, mDoubleTimes[buttonId]);
+			reschedule(buttonId);
+			return;
+		}
+
+		if (state != STATE_RELEASED) {
+			mStates[buttonId] = STATE_IDLE;
+			mTimerArmed[buttonId] = false;
+		}
+		reschedule(buttonId);
+
+		if (state == STATE_DOWN && isEnabled(buttonId, GESTURE_SHORT)) {
+			mListener.onGesture(buttonId, GESTURE_SHORT, due);
+		}
+	}
+
+
+	/**
+	 * Acts on a button's long press, repeat or double click timeout.
+	 */
+	protected void timeout(int buttonId, long now) {
+		final long due = mTimerTimes[buttonId];
+		mTimerArmed[buttonId] = false;
+
+		switch (mStates[buttonId]) {
+			case STATE_DOWN:
+				mStates[buttonId] = STATE_HELD;
+				final int gesture = isEnabled(buttonId, GESTURE_LONG) ? GESTURE_LONG : GESTURE_REPEAT;
+				if (isEnabled(buttonId, GESTURE_REPEAT)) startRepeat(buttonId, now, due);
+				reschedule(buttonId);
+				mListener.onGesture(buttonId, gesture, due);
+				break;
+			case STATE_HELD:
+				startRepeat(buttonId, now, due);
+				reschedule(buttonId);
+				mListener.onGesture(buttonId, GESTURE_REPEAT, due);
+				break;
+			case STATE_RELEASED:
+				mStates[buttonId] = STATE_IDLE;
+				reschedule(buttonId);
+				mListener.onGesture(buttonId, GESTURE_SHORT, due);
+				break;
+			default:
+				reschedule(buttonId);
+				break;
+		}
+	}
+
+
+	protected void startTimer(int buttonId, long now, long timeout) {
+		mTimerArmed[buttonId] = true;
+		mTimerTimes[buttonId] = now + timeout;
+	}
+
+
+	/**
+	 * Schedules the next repeat from the last one, or from now if the owner fell behind, so a late check() doesn't
+	 * report a burst of repeats.
+	 */
+	protected void startRepeat(int buttonId, long now, long last) {
+		final long next = last + mRepeatIntervals[buttonId];
+		startTimer(buttonId, 0, (next - now > 0) ? next : now + mRepeatIntervals[buttonId]);
+	}
+
+
+	/**
+	 * Puts the earlier of a button's release and timer deadlines on the shared schedule.
+	 */
+	protected void reschedule(int buttonId) {
+		if (mReleaseArmed[buttonId] && mTimerArmed[buttonId]) {
+			final long release = mReleaseTimes[buttonId];
+			final long timer = mTimerTimes[buttonId];
+			mScheduler.schedule(buttonId, (timer - release < 0) ? timer : release);
+		} else if (mReleaseArmed[buttonId]) {
+			mScheduler.schedule(buttonId, mReleaseTimes[buttonId]);
+		} else if (mTimerArmed[buttonId]) {
+			mScheduler.schedule(buttonId, mTimerTimes[buttonId]);
+		} else {
+			mScheduler.cancel(buttonId);
+		}
+	}
+
+
+	protected void updateImmediate(int buttonId) {
+		Boolean inChord = false;
+		for (int chordId = 0; chordId < mChordButtonsA.length; chordId++) {
+			if (mChordButtonsA[chordId] == buttonId || mChordButtonsB[chordId] == buttonId) inChord = true;
+		}
+
+		mImmediate[buttonId] = isEnabled(buttonId, GESTURE_SHORT)
+				&& !isEnabled(buttonId, GESTURE_LONG)
+				&& !isEnabled(buttonId, GESTURE_REPEAT)
+				&& !isEnabled(buttonId, GESTURE_DOUBLE)
+				&& !inChord;
+	}
+}
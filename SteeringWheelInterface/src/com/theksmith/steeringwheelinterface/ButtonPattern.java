@@ -0,0 +1,261 @@
+package com.theksmith.steeringwheelinterface;
+
+
+/**
+ * A button's bus message definition, compiled once into a value/mask pair over the packed message bytes.
+ * Matching a decoded message is then a single AND and compare (see ButtonDispatchTable).
+ *
+ * Definitions are space separated tokens matched against the beginning of the message, one token per byte:
+ * <ul>
+ * <li>3D - the exact byte</li>
+ * <li>?? or xx - any byte</li>
+ * <li>3? or x0 - a wildcard nibble</li>
+ * <li>80/F0 - value and mask, only the bits set in the mask must match</li>
+ * <li>b1xxx0000 - bit by bit, x or ? for any bit (useful for bit ranges)</li>
+ * </ul>
+ * A hex token with more digits is split into bytes the same way ELM output is (ex: "7E8" is "07 E8").
+ * Only the first 8 bytes of a message can be matched. Trailing wildcard bytes do not require the byte to be present.
+ */
+public class ButtonPattern {
+	protected final String mDefinition;
+	protected final long mValue;
+	protected final long mMask;
+	protected final int mLength;
+	protected final int mMinLength;
+
+
+	protected ButtonPattern(String definition, long value, long mask, int length) {
+		mDefinition = definition;
+		mValue = value;
+		mMask = mask;
+		mLength = length;
+		mMinLength = ButtonDispatchTable.minLength(mask);
+	}
+
+
+	public String getDefinition() {
+		return mDefinition;
+	}
+
+
+	/**
+	 * @return					Expected packed bytes (see BusFrame.getPacked()), zero where the mask is zero.
+	 */
+	public long getValue() {
+		return mValue;
+	}
+
+
+	public long getMask() {
+		return mMask;
+	}
+
+
+	/**
+	 * @return					Number of bytes the definition describes.
+	 */
+	public int getLength() {
+		return mLength;
+	}
+
+
+	/**
+	 * @return					Number of bytes a message needs to match, the definition without its trailing wildcards.
+	 */
+	public int getMinLength() {
+		return mMinLength;
+	}
+
+
+	public boolean matches(BusFrame frame) {
+		//bytes past the end of a message pack as zero, they must not match a definition's 00
+		return frame.getLength() >= mMinLength && (frame.getPacked() & mMask) == mValue;
+	}
+
+
+	/**
+	 * Compiles a definition.
+	 *
+	 * @param definition		See the class description for the syntax.
+	 * @return					The compiled pattern.
+	 * @throws IllegalArgumentException if the definition is invalid.
+	 */
+	public static ButtonPattern compile(String definition) {
+		final String[] tokens = definition.trim().split("\\s+");
+
+		long value = 0;
+		long mask = 0;
+		int length = 0;
+
+		//bytes of the current token, filled by the token parsers
+		final int[] byteValues = new int[BusFrame.MAX_PACKED_LENGTH];
+		final int[] byteMasks = new int[BusFrame.MAX_PACKED_LENGTH];
+
+		for (String token : tokens) {
+			if (token.length() == 0) {
+				continue;
+			}
+
+			int count;
+			if (token.indexOf('/') >= 0) {
+				count = parseValueMask(token, byteValues, byteMasks);
+			} else if (isBinary(token)) {
+				count = parseBinary(token, byteValues, byteMasks);
+			} else {
+				count = parseHex(token, byteValues, byteMasks);
+			}
+
+			if (count < 0) {
+				throw new IllegalArgumentException("Invalid button definition token: " + token);
+			}
+			if (length + count > BusFrame.MAX_PACKED_LENGTH) {
+				throw new IllegalArgumentException("Button definition longer than " + BusFrame.MAX_PACKED_LENGTH + " bytes: " + definition);
+			}
+
+			for (int i = 0; i < count; i++) {
+				final int shift = 56 - (length * 8);
+				value |= ((long)(byteValues[i] & byteMasks[i])) << shift;
+				mask |= ((long)byteMasks[i]) << shift;
+				length++;
+			}
+		}
+
+		if (length == 0) {
+			throw new IllegalArgumentException("Empty button definition");
+		}
+
+		return new ButtonPattern(definition.trim(), value, mask, length);
+	}
+
+
+	/**
+	 * Parses hex digits and wildcard nibbles, an odd digit count gets a leading exact zero nibble.
+	 *
+	 * @return					Number of bytes parsed, or -1 if invalid.
+	 */
+	protected static int parseHex(String token, int[] byteValues, int[] byteMasks) {
+		final int digits = token.length();
+		final int count = (digits + 1) / 2;
+		if (digits <= 0 || count > byteValues.length) {
+			return -1;
+		}
+
+		//when odd, pretend there is a leading exact "0" digit
+		int nibble = (digits & 1);
+		int index = 0;
+		byteValues[0] = 0;
+		byteMasks[0] = 0;
+		if (nibble == 1) {
+			byteMasks[0] = 0xF0;
+		}
+
+		for (int i = 0; i < digits; i++) {
+			final char c = token.charAt(i);
+			final int shift = (nibble == 0) ? 4 : 0;
+
+			if (c == '?' || c == 'x' || c == 'X') {
+				//wildcard, leave value and mask bits clear
+			} else {
+				final int digit = Character.digit(c, 16);
+				if (digit < 0) {
+					return -1;
+				}
+				byteValues[index] |= digit << shift;
+				byteMasks[index] |= 0x0F << shift;
+			}
+
+			if (nibble == 1) {
+				index++;
+				if (index < count) {
+					byteValues[index] = 0;
+					byteMasks[index] = 0;
+				}
+			}
+			nibble ^= 1;
+		}
+
+		return count;
+	}
+
+
+	/**
+	 * Parses "value/mask" where both are two hex digits.
+	 *
+	 * @return					Number of bytes parsed (always 1), or -1 if invalid.
+	 */
+	protected static int parseValueMask(String token, int[] byteValues, int[] byteMasks) {
+		final int separator = token.indexOf('/');
+		if (separator != 2 || token.length() != 5) {
+			return -1;
+		}
+
+		try {
+			byteValues[0] = Integer.parseInt(token.substring(0, 2), 16);
+			byteMasks[0] = Integer.parseInt(token.substring(3, 5), 16);
+		} catch (NumberFormatException ex) {
+			return -1;
+		}
+
+		return 1;
+	}
+
+
+	/**
+	 * @return					Returns true for "b" followed by 8 bits (as opposed to hex that happens to start with B).
+	 */
+	protected static boolean isBinary(String token) {
+		if (token.length() != 9 || (token.charAt(0) != 'b' && token.charAt(0) != 'B')) {
+			return false;
+		}
+
+		for (int i = 1; i < 9; i++) {
+			final char c = token.charAt(i);
+			if (c != '0' && c != '1' && c != 'x' && c != 'X' && c != '?') {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Parses "b" followed by 8 bits, most significant first, x or ? for any bit.
+	 *
+	 * @return					Number of bytes parsed (always 1), or -1 if invalid.
+	 */
+	protected static int parseBinary(String token, int[] byteValues, int[] byteMasks) {
+		if (token.length() != 9) {
+			return -1;
+		}
+
+		int value = 0;
+		int mask = 0;
+
+		for (int i = 1; i < 9; i++) {
+			final char c = token.charAt(i);
+			value <<= 1;
+			mask <<= 1;
+
+			if (c == '1') {
+				value |= 1;
+				mask |= 1;
+			} else if (c == '0') {
+				mask |= 1;
+			} else if (c != 'x' && c != 'X' && c != '?') {
+				return -1;
+			}
+		}
+
+		byteValues[0] = value;
+		byteMasks[0] = mask;
+
+		return 1;
+	}
+
+
+	@Override
+	public String toString() {
+		return mDefinition;
+	}
+}
@@ -0,0 +1,248 @@
+package com.theksmith.steeringwheelinterface;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.hoho.android.usbserial.driver.UsbSerialDriver;
+
+
+/**
+ * Plays a capture file made by BusCaptureRecorder back through ElmInterface in place of a scantool.
+ * Pass an instance to ElmInterface.setSerialDriver() before deviceOpen().
+ *
+ * The capture is replayed in turns so it stays in step with the commands ElmInterface sends: a chunk holding a prompt
+ * ends a turn, and the next turn starts when the next command is written. Within a turn, chunks are returned either
+ * with their recorded spacing (1x) or as fast as they are read (maximum speed). Monitoring output has no prompts, so
+ * once the monitor command is sent the rest of the capture streams through as one turn.
+ *
+ * Chunks are returned exactly as recorded, so the framer sees the same boundaries it did in the vehicle.
+ */
+public class CaptureReplayDriver implements UsbSerialDriver {
+	protected static final byte CHAR_PROMPT = '>';
+
+	protected final File mFile;
+	protected final Boolean mRealTime;
+
+	//guarded by this
+	protected MappedByteBuffer mBuffer;
+	protected Boolean mOpen = false;
+	protected Boolean mTurnStarted = false;
+	protected long mTurnStartTime = 0;		//System.nanoTime() when the current turn was released
+	protected long mTurnCaptureTime = 0;	//recorded time of the current turn's first chunk
+	protected long mChunkCount = 0;
+	protected long mByteCount = 0;
+
+
+	private CaptureReplayDriver() {
+		//exists only to prevent creation of class without passing required param
+		mFile = null;
+		mRealTime = true;
+	}
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param file				A capture file made by BusCaptureRecorder.
+	 * @param realTime			True to keep the recorded spacing between chunks (1x), false for maximum speed.
+	 */
+	public CaptureReplayDriver(File file, Boolean realTime) {
+		mFile = file;
+		mRealTime = realTime;
+	}
+
+
+	/**
+	 * @return					Returns true once the whole capture has been returned by read().
+	 */
+	public synchronized Boolean isFinished() {
+		return mBuffer != null && mBuffer.remaining() < BusCaptureRecorder.RECORD_HEADER_LENGTH;
+	}
+
+
+	/**
+	 * @return					A human readable summary of how much of the capture has been replayed.
+	 */
+	public synchronized String getStats() {
+		return "chunks: " + mChunkCount + ", bytes: " + mByteCount + ", finished: " + isFinished();
+	}
+
+
+	@Override
+	public synchronized void open() throws IOException {
+		RandomAccessFile file = new RandomAccessFile(mFile, "r");
+		try {
+			mBuffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+		} finally {
+			//the mapping stays valid after the file is closed
+			file.close();
+		}
+
+		if (mBuffer.remaining() < BusCaptureRecorder.HEADER_LENGTH
+				|| mBuffer.getInt() != BusCaptureRecorder.FILE_MAGIC
+				|| mBuffer.getInt() != BusCaptureRecorder.FILE_VERSION) {
+			mBuffer = null;
+			throw new IOException("Not a bus capture file: " + mFile);
+		}
+
+		mOpen = true;
+		mTurnStarted = false;
+		mChunkCount = 0;
+		mByteCount = 0;
+	}
+
+
+	@Override
+	public synchronized void close() throws IOException {
+		mOpen = false;
+		mBuffer = null;
+		notifyAll();
+	}
+
+
+	@Override
+	public synchronized int read(byte[] dest, int timeoutMillis) throws IOException {
+		if (!mOpen) {
+			throw new IOException("Device not open");
+		}
+
+		final long deadline = System.nanoTime() + (timeoutMillis * 1000000L);
+
+		while (mOpen) {
+			final long now = System.nanoTime();
+			final long wait;
+
+			if (!mTurnStarted || isFinished()) {
+				//waiting for the next command, or nothing left to replay
+				wait = deadline - now;
+			} else {
+				final int start = mBuffer.position();
+				final long captureTime = mBuffer.getLong(start);
+				final long due = mRealTime ? mTurnStartTime + (captureTime - mTurnCaptureTime) : now;
+
+				if (now >= due) {
+					return readChunk(dest);
+				}
+				wait = Math.min(due, deadline) - now;
+			}
+
+			if (wait <= 0) {
+				return 0;
+			}
+
+			try {
+				wait(Math.max(1, wait / 1000000L));
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return 0;
+			}
+		}
+
+		throw new IOException("Device not open");
+	}
+
+
+	protected int readChunk(byte[] dest) throws IOException {
+		final int start = mBuffer.position();
+		mBuffer.getLong();
+		final int length = mBuffer.getShort();
+		final int remaining = mBuffer.remaining();
+		if (length <= 0 || length > remaining) {
+			//nothing after a bad length can be trusted, end the replay here
+			mBuffer.position(mBuffer.limit());
+			throw new IOException("Corrupt or truncated bus capture, chunk length " + length + " with " + remaining + " bytes left: " + mFile);
+		}
+		if (length > dest.length) {
+			mBuffer.position(start);
+			throw new IOException("Read buffer too small for a bus capture chunk of " + length);
+		}
+		mBuffer.get(dest, 0, length);
+
+		mChunkCount++;
+		mByteCount += length;
+
+		for (int i = 0; i < length; i++) {
+			if (dest[i] == CHAR_PROMPT) {
+				mTurnStarted = false;
+				break;
+			}
+		}
+
+		return length;
+	}
+
+
+	@Override
+	public synchronized int write(byte[] src, int timeoutMillis) throws IOException {
+		if (!mOpen) {
+			throw new IOException("Device not open");
+		}
+
+		//the capture's response to this command is the next turn
+		if (!mTurnStarted && !isFinished()) {
+			mTurnStarted = true;
+			mTurnStartTime = System.nanoTime();
+			mTurnCaptureTime = mBuffer.getLong(mBuffer.position());
+			notifyAll();
+		}
+
+		return src.length;
+	}
+
+
+	@Override
+	public void setParameters(int baudRate, int dataBits, int stopBits, int parity) throws IOException { }
+
+
+	@Override
+	public boolean getCD() throws IOException {
+		return false;
+	}
+
+
+	@Override
+	public boolean getCTS() throws IOException {
+		return false;
+	}
+
+
+	@Override
+	public boolean getDSR() throws IOException {
+		return false;
+	}
+
+
+	@Override
+	public boolean getDTR() throws IOException {
+		return false;
+	}
+
+
+	@Override
+	public void setDTR(boolean value) throws IOException { }
+
+
+	@Override
+	public boolean getRI() throws IOException {
+		return false;
+	}
+
+
+	@Override
+	public boolean getRTS() throws IOException {
+		return false;
+	}
+
+
+	@Override
+	public void setRTS(boolean value) throws IOException { }
+
+
+	@Override
+	public String toString() {
+		return CaptureReplayDriver.class.getSimpleName() + ": " + mFile;
+	}
+}
@@ -0,0 +1,92 @@
+package com.theksmith.steeringwheelinterface;
+
+
+/**
+ * A base class shared by the action executor backends, keeps the per action latency and failure stats.
+ */
+public abstract class CommonActionExecutor implements ActionExecutor {
+	protected final int[] mCounts = new int[ACTION_COUNT];
+	protected final int[] mFailures = new int[ACTION_COUNT];
+	protected final long[] mLatencyTotals = new long[ACTION_COUNT];
+	
+	
+	/**
+	 * Performs the action.
+	 * 
+	 * @param action			One of the ActionExecutor.ACTION_XYZ definitions.
+	 * @return					Returns true if the action was performed before returning, false if
+	 * 							the backend will call recordSuccess() or recordFailure() itself later on.
+	 * @throws Exception if the action could not be started.
+	 */
+	protected abstract boolean executeAction(int action) throws Exception;
+	
+	
+	/**
+	 * Performs the action several times over. Backends that can do it in a single call (ex: volume steps) override this,
+	 * the others perform it once per repeat.
+	 * 
+	 * @param action			One of the ActionExecutor.ACTION_XYZ definitions.
+	 * @param repeat			Number of times to perform it, at least 1.
+	 * @return					Returns true if the actions were performed before returning, see executeAction().
+	 * @throws Exception if the action could not be started.
+	 */
+	protected boolean executeAction(int action, int repeat) throws Exception {
+		boolean performed = true;
+		for (int i = 0; i < repeat; i++) {
+			performed = executeAction(action);
+		}
+		return performed;
+	}
+	
+	
+	@Override
+	public void execute(int action) throws Exception {
+		execute(action, 1);
+	}
+	
+	
+	@Override
+	public void execute(int action, int repeat) throws Exception {
+		final long start = System.nanoTime();
+		
+		try {
+			if (executeAction(action, repeat)) {
+				recordSuccess(action, System.nanoTime() - start);
+			}
+		} catch (Exception ex) {
+			recordFailure(action);
+			throw ex;
+		}
+	}
+	
+	
+	protected synchronized void recordSuccess(int action, long latency) {
+		mCounts[action]++;
+		mLatencyTotals[action] += latency;
+	}
+	
+	
+	protected synchronized void recordFailure(int action) {
+		mCounts[action]++;
+		mFailures[action]++;
+	}
+	
+	
+	@Override
+	public synchronized int getCount(int action) {
+		return mCounts[action];
+	}
+	
+	
+	@Override
+	public synchronized int getFailureCount(int action) {
+		return mFailures[action];
+	}
+	
+	
+	@Override
+	public synchronized long getAverageLatency(int action) {
+		final int successes = mCounts[action] - mFailures[action];
+		return successes > 0 ? mLatencyTotals[action] / successes : 0;
+	}
+}
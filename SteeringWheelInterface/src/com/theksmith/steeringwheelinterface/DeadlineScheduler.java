@@ -0,0 +1,121 @@
+package com.theksmith.steeringwheelinterface;
+
+
+/**
+ * A fixed set of one-shot deadlines (slots) sharing one wakeup, checked by the thread that owns them (ex: ElmInterface's
+ * event loop), like DeadlineTimer but for many timeouts at once (ex: one per button).
+ *
+ * Each slot is a primitive array entry, so scheduling allocates nothing. The earliest slot is cached: scheduling only
+ * compares against it, and the slots are scanned again only after the earliest one is cancelled, pushed back or
+ * expires. That scan is linear, which is cheaper than a heap for the few dozen slots this is meant for.
+ *
+ * Not thread safe, use from one thread only.
+ */
+public class DeadlineScheduler {
+	public static final int NONE = -1;
+
+	protected final long[] mDeadlines;		//System.nanoTime() each slot is due
+	protected final boolean[] mArmed;
+	protected int mNextSlot = NONE;			//earliest armed slot, only valid while mNextValid
+	protected Boolean mNextValid = true;
+
+
+	private DeadlineScheduler() {
+		//exists only to prevent creation of class without passing required param
+		mDeadlines = null;
+		mArmed = null;
+	}
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param slotCount			Number of slots, 0 to slotCount - 1.
+	 */
+	public DeadlineScheduler(int slotCount) {
+		mDeadlines = new long[slotCount];
+		mArmed = new boolean[slotCount];
+	}
+
+
+	/**
+	 * (Re)schedules a slot, replacing any earlier deadline it had.
+	 *
+	 * @param slot				The slot, 0 to slotCount - 1.
+	 * @param deadline			System.nanoTime() the slot is due.
+	 */
+	public void schedule(int slot, long deadline) {
+		mDeadlines[slot] = deadline;
+		mArmed[slot] = true;
+
+		if (slot == mNextSlot) {
+			//the earliest moved, it may no longer be the earliest
+			mNextValid = false;
+		} else if (mNextValid && (mNextSlot == NONE || deadline - mDeadlines[mNextSlot] < 0)) {
+			mNextSlot = slot;
+		}
+	}
+
+
+	public void cancel(int slot) {
+		mArmed[slot] = false;
+		if (slot == mNextSlot) mNextValid = false;
+	}
+
+
+	public void cancelAll() {
+		for (int slot = 0; slot < mArmed.length; slot++) {
+			mArmed[slot] = false;
+		}
+		mNextSlot = NONE;
+		mNextValid = true;
+	}
+
+
+	public Boolean isScheduled(int slot) {
+		return mArmed[slot];
+	}
+
+
+	/**
+	 * @param now				System.nanoTime().
+	 * @return					Nanoseconds until the earliest slot is due, 0 if already due, or Long.MAX_VALUE if none are scheduled.
+	 */
+	public long getRemaining(long now) {
+		final int slot = getNextSlot();
+		if (slot == NONE) return Long.MAX_VALUE;
+		return Math.max(0, mDeadlines[slot] - now);
+	}
+
+
+	/**
+	 * Takes the earliest slot off the schedule if it is due. Call repeatedly until NONE to expire every due slot,
+	 * earliest first.
+	 *
+	 * @param now				System.nanoTime().
+	 * @return					The slot that was due, or NONE.
+	 */
+	public int expire(long now) {
+		final int slot = getNextSlot();
+		if (slot == NONE || now - mDeadlines[slot] < 0) return NONE;
+
+		mArmed[slot] = false;
+		mNextValid = false;
+		return slot;
+	}
+
+
+	protected int getNextSlot() {
+		if (!mNextValid) {
+			mNextSlot = NONE;
+			for (int slot = 0; slot < mArmed.length; slot++) {
+				if (mArmed[slot] && (mNextSlot == NONE || mDeadlines[slot] - mDeadlines[mNextSlot] < 0)) {
+					mNextSlot = slot;
+				}
+			}
+			mNextValid = true;
+		}
+
+		return mNextSlot;
+	}
+}
@@ -0,0 +1,60 @@
+package com.theksmith.steeringwheelinterface;
+
+
+/**
+ * A one-shot timeout kept as just a deadline, checked by the thread that owns it (ex: ElmInterface's event loop)
+ * instead of being posted to a Handler. Starting or re-starting it is a field write, so it is cheap enough to push back
+ * on every received chunk. It needs no Looper, and the caller passes in the current time.
+ *
+ * Not thread safe, use from one thread only.
+ */
+public class DeadlineTimer {
+	protected long mDeadline = 0;
+	protected Boolean mArmed = false;
+
+
+	/**
+	 * (Re)starts the timer, replacing any earlier deadline.
+	 *
+	 * @param now				System.nanoTime(), or the time the timeout is measured from.
+	 * @param timeout			Nanoseconds from now until the timer is due.
+	 */
+	public void start(long now, long timeout) {
+		mDeadline = now + timeout;
+		mArmed = true;
+	}
+
+
+	public void stop() {
+		mArmed = false;
+	}
+
+
+	public Boolean isArmed() {
+		return mArmed;
+	}
+
+
+	/**
+	 * @param now				System.nanoTime().
+	 * @return					Nanoseconds until the timer is due, 0 if already due, or Long.MAX_VALUE if stopped.
+	 */
+	public long getRemaining(long now) {
+		if (!mArmed) return Long.MAX_VALUE;
+		return Math.max(0, mDeadline - now);
+	}
+
+
+	/**
+	 * Checks the timer and stops it if it is due, so each start() expires at most once.
+	 *
+	 * @param now				System.nanoTime().
+	 * @return					Returns true if the timer was due.
+	 */
+	public Boolean expire(long now) {
+		if (!mArmed || now - mDeadline < 0) return false;
+
+		mArmed = false;
+		return true;
+	}
+}
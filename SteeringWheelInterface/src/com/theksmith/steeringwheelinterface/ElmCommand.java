@@ -0,0 +1,59 @@
+package com.theksmith.steeringwheelinterface;
+
+
+/**
+ * A command for the ELM device, encoded once: the bytes to write (with the terminating CR) and the bytes of the echo
+ * to look for in the response. Instances are immutable, so the fixed ones are shared by every send.
+ */
+public class ElmCommand {
+	protected final String mText;
+	protected final byte[] mEcho;
+	protected final byte[] mBytes;
+
+
+	private ElmCommand() {
+		//exists only to prevent creation of class without passing required param
+		mText = null;
+		mEcho = null;
+		mBytes = null;
+	}
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param text				A valid ELM AT Command without the CR, ex: "ATZ". An empty command writes only the CR.
+	 */
+	public ElmCommand(String text) {
+		mText = text.trim();
+		mEcho = mText.getBytes();
+		mBytes = (mText + "\r").getBytes();
+	}
+
+
+	public String getText() {
+		return mText;
+	}
+
+
+	/**
+	 * @return					The command as the device echoes it back, without the CR.
+	 */
+	public byte[] getEcho() {
+		return mEcho;
+	}
+
+
+	/**
+	 * @return					The bytes to write, including the CR.
+	 */
+	public byte[] getBytes() {
+		return mBytes;
+	}
+
+
+	@Override
+	public String toString() {
+		return mText;
+	}
+}
@@ -0,0 +1,129 @@
+package com.theksmith.steeringwheelinterface;
+
+
+/**
+ * The steps of the ELM init and monitor sequence, as a table run by ElmInterface: each step's command (pre-encoded,
+ * with a variant for compact output), the response that completes it, its timeouts and retries, and the step after it.
+ *
+ * Steps without a command in the table get theirs from the settings when monitoring starts (PROTOCOL, MONITOR) or
+ * from the negotiation in progress (FILTER, BAUD_SWITCH). A step can be skipped by having no command for it.
+ * To add a step, add it here, link it in the static block, and give ElmInterface.stepCommand() its command if it is
+ * not fixed. The hot path only compares the current step against MONITOR, so the table can grow freely.
+ */
+public enum ElmCommandStep {
+	//				command		compact		expected response	total timeout										data timeout										retries									baud
+	NONE(			null,		null,		Expect.NOTHING,		0,													0,													0,										false),
+	CUSTOM(			null,		null,		Expect.NOTHING,		ElmInterface.DEFAULT_COMMAND_TOTAL_TIMEOUT,			ElmInterface.DEFAULT_COMMAND_DATA_TIMEOUT,			ElmInterface.DEFAULT_COMMAND_RETRIES,	false),
+	RESET(			"ATZ",		"ATZ",		Expect.DEVICE_ID,	ElmInterface.DEFAULT_RESET_COMMAND_TOTAL_TIMEOUT,	0,													1,										false),
+	IDENTIFY(		"ATI",		"ATI",		Expect.DEVICE_ID,	ElmInterface.DEFAULT_RESET_COMMAND_TOTAL_TIMEOUT,	0,													1,										false),
+	BAUD_DETECT(	"STI",		"STI",		Expect.NOTHING,		ElmInterface.BAUD_SWITCH_TIMEOUT,					0,													0,										true),
+	BAUD_SWITCH(	null,		null,		Expect.OK,			ElmInterface.BAUD_SWITCH_TIMEOUT,					0,													0,										true),
+	BAUD_HANDSHAKE(	null,		null,		Expect.DEVICE_ID,	ElmInterface.BAUD_SWITCH_TIMEOUT,					0,													0,										true),
+	BAUD_CONFIRM(	"",			"",			Expect.OK,			ElmInterface.BAUD_SWITCH_TIMEOUT,					0,													0,										true),
+	BAUD_VERIFY(	"ATI",		"ATI",		Expect.DEVICE_ID,	ElmInterface.DEFAULT_COMMAND_TOTAL_TIMEOUT,			0,													0,										true),
+	ECHO(			"ATE1",		"ATE0",		Expect.OK,			ElmInterface.DEFAULT_COMMAND_TOTAL_TIMEOUT,			ElmInterface.DEFAULT_COMMAND_DATA_TIMEOUT,			ElmInterface.DEFAULT_COMMAND_RETRIES,	false),
+	LINEFEEDS(		"ATL1",		"ATL0",		Expect.COMPLETE,	ElmInterface.DEFAULT_COMMAND_TOTAL_TIMEOUT,			ElmInterface.DEFAULT_COMMAND_DATA_TIMEOUT,			ElmInterface.DEFAULT_COMMAND_RETRIES,	false),
+	SPACES(			"ATS1",		"ATS0",		Expect.COMPLETE,	ElmInterface.DEFAULT_COMMAND_TOTAL_TIMEOUT,			ElmInterface.DEFAULT_COMMAND_DATA_TIMEOUT,			ElmInterface.DEFAULT_COMMAND_RETRIES,	false),
+	HEADERS(		"ATH1",		"ATH1",		Expect.COMPLETE,	ElmInterface.DEFAULT_COMMAND_TOTAL_TIMEOUT,			ElmInterface.DEFAULT_COMMAND_DATA_TIMEOUT,			ElmInterface.DEFAULT_COMMAND_RETRIES,	false),
+	PROTOCOL(		null,		null,		Expect.COMPLETE,	ElmInterface.DEFAULT_COMMAND_TOTAL_TIMEOUT,			ElmInterface.DEFAULT_COMMAND_DATA_TIMEOUT,			ElmInterface.DEFAULT_COMMAND_RETRIES,	false),
+	FILTER(			null,		null,		Expect.COMPLETE,	ElmInterface.DEFAULT_COMMAND_TOTAL_TIMEOUT,			ElmInterface.DEFAULT_COMMAND_DATA_TIMEOUT,			ElmInterface.DEFAULT_COMMAND_RETRIES,	false),
+	MONITOR(		null,		null,		Expect.NOTHING,		0,													ElmInterface.DEFAULT_MONITOR_COMMAND_DATA_TIMEOUT,	ElmInterface.DEFAULT_COMMAND_RETRIES,	false);
+
+	/**
+	 * What a step's response must have shown by the prompt for the step to be complete.
+	 */
+	public enum Expect {
+		NOTHING,		//the step is never completed by a prompt (ex: monitoring), or its handler decides
+		DEVICE_ID,		//the device ID line
+		OK,				//an OK line
+		COMPLETE		//an OK line and the echo (unless echo is off)
+	}
+
+	static {
+		RESET.mNext = ECHO;
+		IDENTIFY.mNext = ECHO;
+		BAUD_DETECT.mNext = BAUD_SWITCH;
+		BAUD_SWITCH.mNext = BAUD_HANDSHAKE;
+		BAUD_HANDSHAKE.mNext = BAUD_CONFIRM;
+		BAUD_CONFIRM.mNext = BAUD_VERIFY;
+		BAUD_VERIFY.mNext = ECHO;
+		ECHO.mNext = LINEFEEDS;
+		LINEFEEDS.mNext = SPACES;
+		SPACES.mNext = HEADERS;
+		HEADERS.mNext = PROTOCOL;
+		PROTOCOL.mNext = FILTER;
+		FILTER.mNext = MONITOR;
+	}
+
+	protected final ElmCommand mCommand;
+	protected final ElmCommand mCompactCommand;
+	protected final Expect mExpect;
+	protected final int mTimeoutTotal;
+	protected final int mTimeoutData;
+	protected final int mRetries;
+	protected final Boolean mBaud;
+	protected ElmCommandStep mNext;						//set in the static block, the constants can't refer ahead
+
+
+	private ElmCommandStep(String command, String compactCommand, Expect expect, int timeoutTotal, int timeoutData, int retries, Boolean baud) {
+		mCommand = (command != null) ? new ElmCommand(command) : null;
+		mCompactCommand = (compactCommand != null) ? new ElmCommand(compactCommand) : null;
+		mExpect = expect;
+		mTimeoutTotal = timeoutTotal;
+		mTimeoutData = timeoutData;
+		mRetries = retries;
+		mBaud = baud;
+	}
+
+
+	/**
+	 * @param compact			True for the command used with compact output (echo, line feeds and spaces off).
+	 * @return					The step's fixed command, or null if it comes from the settings or negotiation.
+	 */
+	public ElmCommand getCommand(Boolean compact) {
+		return compact ? mCompactCommand : mCommand;
+	}
+
+
+	public Expect getExpect() {
+		return mExpect;
+	}
+
+
+	/**
+	 * @return					Milliseconds to wait for a complete response before retrying, 0 for no limit.
+	 */
+	public int getTimeoutTotal() {
+		return mTimeoutTotal;
+	}
+
+
+	/**
+	 * @return					Milliseconds to wait between partial response fragments before retrying, 0 for no limit.
+	 */
+	public int getTimeoutData() {
+		return mTimeoutData;
+	}
+
+
+	public int getRetries() {
+		return mRetries;
+	}
+
+
+	/**
+	 * @return					Returns true if the step is part of the baud rate negotiation, which handles its own
+	 * 							lines, prompts and timeouts.
+	 */
+	public Boolean isBaud() {
+		return mBaud;
+	}
+
+
+	/**
+	 * @return					The step that follows this one when it completes, NONE if the sequence ends here.
+	 */
+	public ElmCommandStep getNext() {
+		return (mNext != null) ? mNext : NONE;
+	}
+}
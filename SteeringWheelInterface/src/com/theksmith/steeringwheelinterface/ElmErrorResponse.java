@@ -0,0 +1,101 @@
+package com.theksmith.steeringwheelinterface;
+
+
+/**
+ * The error and status responses of an ELM device (ex: "?", "CAN ERROR", "STOPPED"), as a table run by ElmInterface:
+ * each response's token and how to recover from it.
+ *
+ * A line is classified as soon as it ends, the recovery runs at the prompt that follows it, instead of the command
+ * waiting out its timeouts. Tokens are compared ignoring spaces, as compact output (ATS0) may drop them. Only lines
+ * that are not bus messages are classified, so the monitor hot path never gets here.
+ * To add a response, add it here with its recovery, ElmInterface.errorRecover() needs no change.
+ */
+public enum ElmErrorResponse {
+	//					response				also contains	recovery
+	UNKNOWN_COMMAND(	"?",					null,			Recovery.RETRY),
+	NO_DATA(			"NO DATA",				null,			Recovery.RETRY),
+	STOPPED(			"STOPPED",				null,			Recovery.RETRY),
+	BUS_BUSY(			"BUS BUSY",				null,			Recovery.RETRY),
+	DATA_ERROR(			"DATA ERROR",			null,			Recovery.RETRY),
+	BUS_ERROR(			"BUS ERROR",			null,			Recovery.PROTOCOL),
+	CAN_ERROR(			"CAN ERROR",			null,			Recovery.PROTOCOL),
+	BUS_INIT_ERROR(		"BUS INIT",				"ERROR",		Recovery.PROTOCOL),	//"BUS INIT: ...ERROR", not "BUS INIT: ...OK"
+	UNABLE_TO_CONNECT(	"UNABLE TO CONNECT",	null,			Recovery.PROTOCOL),
+	FB_ERROR(			"FB ERROR",				null,			Recovery.RESET),
+	ACT_ALERT(			"ACT ALERT",			null,			Recovery.RESET),
+	INTERNAL_ERROR(		"ERR",					null,			Recovery.RESET);	//"ERR94" and the like
+
+	/**
+	 * What to do once the prompt after the response arrives.
+	 */
+	public enum Recovery {
+		RETRY,			//send the command again (monitoring is re-started), counted against its retries
+		PROTOCOL,		//re-select the protocol and re-start monitoring, the bus connection was lost or never made
+		RESET			//reset the device (cold start)
+	}
+
+	protected static final ElmErrorResponse[] VALUES = values();	//values() creates a new array on each call
+
+	protected final String mText;
+	protected final byte[] mToken;						//the response without spaces
+	protected final byte[] mAlsoToken;					//null if none
+	protected final Recovery mRecovery;
+
+
+	private ElmErrorResponse(String text, String alsoContains, Recovery recovery) {
+		mText = text;
+		mToken = text.replace(" ", "").getBytes();
+		mAlsoToken = (alsoContains != null) ? alsoContains.getBytes() : null;
+		mRecovery = recovery;
+	}
+
+
+	/**
+	 * Classifies a received line, without creating Strings.
+	 *
+	 * @param line				Line buffer as passed to ElmResponseFramer.Listener.onLine().
+	 * @param length			Line length as passed to ElmResponseFramer.Listener.onLine().
+	 * @return					The error or status response the line starts with, or null if none.
+	 */
+	public static ElmErrorResponse classify(byte[] line, int length) {
+		int start = 0;
+		while (start < length && line[start] == ' ') {
+			start++;
+		}
+		if (start == length) return null;
+
+		//the first byte rules out nearly every entry
+		final byte first = line[start];
+		for (ElmErrorResponse response : VALUES) {
+			if (response.mToken[0] == first && response.matches(line, start, length)) {
+				return response;
+			}
+		}
+
+		return null;
+	}
+
+
+	public String getText() {
+		return mText;
+	}
+
+
+	public Recovery getRecovery() {
+		return mRecovery;
+	}
+
+
+	protected Boolean matches(byte[] line, int start, int length) {
+		int i = start;
+		for (byte b : mToken) {
+			while (i < length && line[i] == ' ') {
+				i++;
+			}
+			if (i == length || line[i] != b) return false;
+			i++;
+		}
+
+		return mAlsoToken == null || ElmResponseFramer.contains(line, length, mAlsoToken);
+	}
+}
@@ -5,28 +5,41 @@ import java.util.EventObject;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
 
 import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbManager;
-import android.os.Handler;
 import android.util.Log;
 
 import com.hoho.android.usbserial.driver.FtdiSerialDriver;
 import com.hoho.android.usbserial.driver.UsbSerialDriver;
 import com.hoho.android.usbserial.driver.UsbSerialProber;
+import com.hoho.android.usbserial.util.ReadBuffer;
 import com.hoho.android.usbserial.util.SerialInputOutputManager;
 
 
 /**
  * Wraps the serial device with methods to handle specific ELM based device communications.
  * 
+ * Once the device is open, all command and monitoring state belongs to a single event loop thread. It handles received
+ * data (queued by the serial reader thread), command timeouts and control calls (monitorStart(), sendCommand(), etc.)
+ * one at a time, so that state needs no locks. Other threads only see it through the published getStatusSnapshot().
+ * 
  * @author Kristoffer Smith <kristoffer@theksmith.com>
  */
 public class ElmInterface {
@@ -34,6 +47,8 @@ public class ElmInterface {
 	
 	protected static final String ACTION_USB_PERMISSION = ElmInterface.class.getPackage().getName() + ".USB_PERMISSION";
 	
+	protected static final boolean DEBUG = false;
+	
 	protected static final int MONITOR_START_WARM_ATTEMPTS = 3;
 	protected static final int MONITOR_START_COLD_ATTEMPTS = 3;
 	
@@ -44,6 +59,33 @@ public class ElmInterface {
 	
 	protected static final int DEFAULT_RESET_COMMAND_TOTAL_TIMEOUT = 5000;
 	protected static final int DEFAULT_MONITOR_COMMAND_DATA_TIMEOUT = 5000;
+	
+	protected static final int[] BAUD_UPGRADE_RATES = { 1000000, 500000, 250000 };	//tried fastest first
+	protected static final int BAUD_ELM_CLOCK = 4000000;				//ATBRD takes this divided by the rate
+	protected static final int BAUD_SWITCH_TIMEOUT = 500;				//milliseconds for each baud rate handshake step
+	protected static final String BAUD_CACHE_PREFERENCES = "baud_cache";
+	protected static final int BAUD_CACHE_UNSUPPORTED = -1;
+	
+	protected static final int OVERFLOW_ESCALATE_COUNT = 3;				//BUFFER FULLs within the window before tightening
+	protected static final long OVERFLOW_ESCALATE_WINDOW = 60000000000L;	//nanoseconds
+	protected static final int OVERFLOW_TIGHTENED_FILTER = 1;			//mOverflowTightened flags
+	protected static final int OVERFLOW_TIGHTENED_COMPACT = 2;
+	
+	protected static final int ERROR_PROTOCOL_ATTEMPTS = 2;				//protocol re-selections after bus errors before a warm start
+	
+	protected static final int RECEIVE_RING_CAPACITY = 64;				//chunks, more than the serial reader's buffer pool
+	protected static final long LOOP_IDLE_WAIT = 1000000000L;			//nanoseconds
+	protected static final int LOOP_STOP_WAIT = 2000;					//milliseconds
+	protected static final int LOOP_CALL_WAIT = 2000;					//milliseconds
+	
+	//response tokens, pre-encoded so received lines can be checked without creating Strings
+	protected static final byte[] RESPONSE_DEVICE_ID = "ELM327".getBytes();
+	protected static final byte[] RESPONSE_LV_RESET = "LV RESET".getBytes();
+	protected static final byte[] RESPONSE_OK = "OK".getBytes();
+	protected static final byte[] RESPONSE_STN = "STN".getBytes();
+	protected static final byte[] RESPONSE_BUFFER_FULL = "BUFFER".getBytes();	//"BUFFER FULL", without relying on spaces
+	
+	protected static final ElmCommand COMMAND_CAN_FILTER_CLEAR = new ElmCommand("ATCRA");
 
 	protected Context mAppContext;
 	
@@ -54,28 +96,87 @@ public class ElmInterface {
 	
 	protected UsbManager mUsbManager;
 	protected UsbSerialDriver mSerialDevice;	
+	protected String mAdapterName = "";
+	protected UsbSerialDriver mSettingSerialDriver;
 	protected SerialInputOutputManager mSerialIoManager;
 
 	protected String mCommand = "";
-	protected String mResponse = "";
+	protected ElmCommandStep mStep = ElmCommandStep.NONE;	//what the current command is for, drives the init sequence
+	protected ElmCommand mStepCommand = null;
+	protected Boolean mResponseDeviceID = false;
+	protected Boolean mResponseEcho = false;
+	protected Boolean mResponseOK = false;
+	protected Boolean mResponseStn = false;
 	protected int mStartWarmAttempts = 0;
 	protected int mStartColdAttempts = 0;
 	protected int mCommandTimeoutTotal = 0;
 	protected int mCommandTimeoutData = 0;
 	protected int mCommandRetries = 0;
 	protected int mCommandRetryCounter = 0;
+	protected ElmCommand mProtocolCommand = null;		//the setting, encoded at monitoring start
+	protected ElmCommand mMonitorCommand = null;		//the monitor command in use, the setting or from the filter
+	protected ElmCommand[] mFilterCommands = new ElmCommand[0];
+	protected int mFilterIndex = 0;
+	protected Boolean mCompact = false;					//settings in use, may be tightened after repeated overflows
+	protected Boolean mAutoFilter = false;
+	
+	//monitor overflow (BUFFER FULL) handling, owned by the event loop
+	protected Boolean mOverflowPending = false;			//seen BUFFER FULL, waiting for the prompt to re-monitor
+	protected Boolean mOverflowRecovering = false;		//re-monitored, waiting for the first bus message
+	protected long mOverflowTime = 0;
+	protected long mOverflowWindowStart = 0;
+	protected int mOverflowWindowCount = 0;
+	protected volatile int mOverflowCount = 0;
+	protected volatile int mOverflowTightened = 0;		//OVERFLOW_TIGHTENED_XYZ flags for what repeated overflows have switched on
+	protected final LatencyHistogram mOverflowRecovery = new LatencyHistogram();
+	
+	//error response (ex: CAN ERROR, STOPPED) handling, owned by the event loop
+	protected ElmErrorResponse mErrorPending = null;	//seen in the current response, acted on at the prompt
+	protected long mErrorPendingTime = 0;
+	protected Boolean mErrorRecovering = false;			//recovered, waiting for the first bus message
+	protected long mErrorTime = 0;
+	protected int mErrorProtocolAttempts = 0;
+	protected volatile int mErrorCount = 0;
+	protected volatile String mErrorLast = "none";
+	protected final LatencyHistogram mErrorRecovery = new LatencyHistogram();
+	
+	//baud rate upgrade negotiation, owned by the event loop
+	protected int mBaudRate = 0;							//the rate the host side of the link is set to
+	protected int[] mBaudCandidates = new int[0];
+	protected int mBaudCandidateIndex = 0;
+	protected Boolean mBaudStn = false;
+	protected ElmCommand mBaudCommand = null;
+	protected Boolean mBaudCached = false;					//trying only the rate that worked last time
+	protected Boolean mBaudAttempted = false;				//only negotiate once per monitoring start
+	protected volatile String mBaudStats = "not negotiated";
 	
 	protected int mSettingDeviceNumber = 1;
 	protected int mSettingBaud = 115200;
 	protected String mSettingProtocolCommand = "ATSP2";	//setting for our original project use in a 2003 Jeep/Chrysler/Dodge
 	protected String mSettingMonitorCommand = "ATMR11";	//setting for our original project use in a 2003 Jeep/Chrysler/Dodge
+	protected Boolean mSettingCompact = false;
+	protected Boolean mSettingAutoFilter = false;
+	protected Boolean mSettingBaudUpgrade = false;
 	protected int mStatus = 0;
 	protected int mDeviceID = 0;
+	protected volatile StatusSnapshot mStatusSnapshot = new StatusSnapshot(0, "", 0, 0, 0);
 
 	protected static final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
-	protected static final Handler mCommandTimeoutTotal_Timer = new Handler();	
-	protected static final Handler mCommandTimeoutData_Timer = new Handler();
+	//checked by the event loop, not posted to a Handler, so re-starting one is just a field write
+	protected final DeadlineTimer mCommandTimeoutTotal_Timer = new DeadlineTimer();
+	protected final DeadlineTimer mCommandTimeoutData_Timer = new DeadlineTimer();
 	protected ButtonActions mButtons;
+	protected ElmResponseFramer mFramer;
+	protected final BusFrame mFrame = new BusFrame();
+	protected final LatencyStats mLatency = new LatencyStats();
+	protected volatile BusCaptureRecorder mCaptureRecorder;
+	
+	//the serial reader thread only queues received chunks here, the event loop does everything else
+	protected final SpscRing<ReadBuffer> mReceiveRing = new SpscRing<ReadBuffer>(RECEIVE_RING_CAPACITY);
+	protected volatile Boolean mReceiveOverrun = false;
+	//control messages for the event loop, from any thread
+	protected final ConcurrentLinkedQueue<Runnable> mLoopQueue = new ConcurrentLinkedQueue<Runnable>();
+	protected volatile Thread mLoop;
 	
 	public static final int STATUS_CLOSED = 0;
 	public static final int STATUS_CLOSED_FROMERROR = 1;
@@ -97,6 +198,8 @@ public class ElmInterface {
 	public ElmInterface(Context appContext) {
 		mAppContext = appContext.getApplicationContext();
 		mButtons = new ButtonActions(mAppContext);
+		mFramer = new ElmResponseFramer(mFramerListener);
+		mButtons.setLatencyStats(mLatency);
 	}
 	
 	
@@ -105,11 +208,36 @@ public class ElmInterface {
 	}
 	
 
+	/**
+	 * Uses the given driver instead of searching for a USB device (ex: a SimulatedElmDriver for testing).
+	 * 
+	 * @param driver		The driver to open, or null to search for a USB device (the default).
+	 */
+	public void setSerialDriver(UsbSerialDriver driver) {
+		mSettingSerialDriver = driver;
+	}
+	
+
+	/**
+	 * @param rate			The device's default baud rate, used to connect and after any reset.
+	 */
 	public void setBaudRate(int rate) {
 		mSettingBaud = rate;
 	}
 	
 	
+	/**
+	 * With baud upgrade on, the init sequence negotiates a faster rate than setBaudRate() with the device (ATBRD, or
+	 * STBR on STN chips), verifies it and falls back to the default rate on any failure. The result, including a device
+	 * not supporting it, is remembered per adapter so later connects skip the probing.
+	 * 
+	 * @param upgrade		True to negotiate the fastest rate the adapter handles.
+	 */
+	public void setBaudUpgrade(Boolean upgrade) {
+		mSettingBaudUpgrade = upgrade;
+	}
+	
+	
 	public void setProtocolCommand(String command) {
 		mSettingProtocolCommand = command;
 	}
@@ -118,10 +246,187 @@ public class ElmInterface {
 	public void setMonitorCommand(String command) {
 		mSettingMonitorCommand = command;
 	}
+	
+	
+	/**
+	 * Compact mode initializes the device with echo, line feeds and spaces off (ATE0, ATL0, ATS0) instead of on.
+	 * A typical monitored J1850 message then takes 17 bytes instead of 25, so about 45% more fit through the serial link
+	 * before the device reports BUFFER FULL.
+	 * 
+	 * @param compact			True for compact output, false for the default spaced and echoed output.
+	 */
+	public void setCompactMode(Boolean compact) {
+		mSettingCompact = compact;
+	}
+	
+	
+	/**
+	 * With auto filter on, the monitor command setting is replaced by the tightest ELM hardware filter that still passes
+	 * every button message (see ElmMonitorFilter), when one can be found for the protocol setting.
+	 * 
+	 * @param autoFilter		True to generate the filter from the button definitions, false to use setMonitorCommand().
+	 */
+	public void setAutoFilter(Boolean autoFilter) {
+		mSettingAutoFilter = autoFilter;
+	}
+	
+	
+	/**
+	 * Sets the long lived root shell used by button actions requiring root, see ButtonActions.setRootShell().
+	 */
+	public void setRootShell(RootShell shell) {
+		mButtons.setRootShell(shell);
+	}
+	
+	
+	/**
+	 * Records everything received from the device, see BusCaptureRecorder.
+	 * 
+	 * @param recorder			An open recorder owned by the caller, or null to stop recording.
+	 */
+	public void setCaptureRecorder(BusCaptureRecorder recorder) {
+		mCaptureRecorder = recorder;
+	}
+	
+	
+	/**
+	 * @return					The press to action latency histograms.
+	 */
+	public LatencyStats getLatencyStats() {
+		return mLatency;
+	}
+	
+	
+	/**
+	 * @return					A human readable summary of the serial reader's mode and wakeups, or null if not running.
+	 */
+	public String getIoStats() {
+		SerialInputOutputManager ioManager = mSerialIoManager;
+		return (ioManager != null ? ioManager.getStats() : "not running")
+				+ ", receive ring high-water: " + mReceiveRing.getHighWaterMark() + "/" + mReceiveRing.getCapacity()
+				+ ", overruns: " + mReceiveRing.getOverrunCount();
+	}
+	
+	
+	/**
+	 * @return					A human readable summary of the baud rate in use and how it was arrived at.
+	 */
+	public String getBaudStats() {
+		return mBaudStats;
+	}
+	
+	
+	/**
+	 * @return					A human readable summary of the monitor overflows (BUFFER FULL) and the time from each one
+	 * 							to the next bus message received.
+	 */
+	public String getOverflowStats() {
+		final int tightened = mOverflowTightened;
+		final String tightenedText;
+		if (tightened == (OVERFLOW_TIGHTENED_FILTER | OVERFLOW_TIGHTENED_COMPACT)) {
+			tightenedText = "filter, compact";
+		} else if (tightened == OVERFLOW_TIGHTENED_FILTER) {
+			tightenedText = "filter";
+		} else if (tightened == OVERFLOW_TIGHTENED_COMPACT) {
+			tightenedText = "compact";
+		} else {
+			tightenedText = "none";
+		}
+		
+		return "buffer full: " + mOverflowCount + ", tightened: " + tightenedText + ", recovery: " + mOverflowRecovery.getSummary();
+	}
+	
+	
+	/**
+	 * @return					A human readable summary of the error responses (ex: CAN ERROR, STOPPED) and the time from
+	 * 							each one to the next bus message received.
+	 */
+	public String getErrorStats() {
+		return "error responses: " + mErrorCount + ", last: " + mErrorLast + ", recovery: " + mErrorRecovery.getSummary();
+	}
+	
+	
+	/**
+	 * @return					A human readable summary of the button action backends' measurements.
+	 */
+	public String getActionStats() {
+		return mButtons.getActionStats();
+	}
+	
+	
+	/**
+	 * Replaces a button's bus message definition, see ButtonActions.setButtonPattern().
+	 */
+	public void setButtonPattern(int buttonId, String definition) {
+		mButtons.setButtonPattern(buttonId, definition);
+	}
+	
+	
+	/**
+	 * @param stateFrames		True if the buttons are bits of a repeated status frame, see ButtonActions.setStateFrames().
+	 */
+	public void setButtonStateFrames(Boolean stateFrames) {
+		mButtons.setStateFrames(stateFrames);
+	}
+	
+	
+	/**
+	 * @param policy			What to discard when button actions queue up, one of the ActionDispatcher.DROP_XYZ definitions.
+	 */
+	public void setActionDropPolicy(int policy) {
+		mButtons.setActionDropPolicy(policy);
+	}
+	
+	
+	/**
+	 * Maps one of a button's gestures to an action, see ButtonActions.setGestureAction().
+	 */
+	public void setGestureAction(int buttonId, int gesture, int action) {
+		mButtons.setGestureAction(buttonId, gesture, action);
+	}
+	
+	
+	/**
+	 * Maps two buttons held together to an action, see ButtonActions.addChord().
+	 */
+	public void addChord(int buttonA, int buttonB, int action) {
+		mButtons.addChord(buttonA, buttonB, action);
+	}
+	
+	
+	/**
+	 * Sets a button's gesture timing, see ButtonActions.setGestureTimes().
+	 */
+	public void setGestureTimes(int buttonId, int releaseTimeout, int longTime, int repeatInterval, int doubleTime) {
+		mButtons.setGestureTimes(buttonId, releaseTimeout, longTime, repeatInterval, doubleTime);
+	}
 
 	
 	public int getsStatus() {
-		return mStatus;
+		return mStatusSnapshot.status;
+	}
+	
+	
+	/**
+	 * @return					The state last published by the event loop, safe to call from any thread.
+	 */
+	public StatusSnapshot getStatusSnapshot() {
+		return mStatusSnapshot;
+	}
+	
+	
+	/**
+	 * Publishes the current state for other threads, only allocates when something has changed.
+	 * Called by the event loop, or by open/close while the loop is not running.
+	 */
+	protected void publishStatus() {
+		final StatusSnapshot published = mStatusSnapshot;
+		if (published.status == mStatus && published.command == mCommand && published.retryCounter == mCommandRetryCounter
+				&& published.startWarmAttempts == mStartWarmAttempts && published.startColdAttempts == mStartColdAttempts) {
+			return;
+		}
+		
+		mStatusSnapshot = new StatusSnapshot(mStatus, mCommand, mCommandRetryCounter, mStartWarmAttempts, mStartColdAttempts);
 	}
     
 	
@@ -158,8 +463,16 @@ public class ElmInterface {
 	 * @param timeout		Milliseconds to wait for user response to Android permission dialog.
 	 */
 	public void deviceOpen() {
+		//re-opening without a close, the old event loop must not run while this thread sets up the state
+		loopStop();
+		
 		mSerialDevice = null;
 		
+		if (mSettingSerialDriver != null) {
+			openDeviceFinish(mSettingSerialDriver, mSettingSerialDriver.getClass().getSimpleName());
+			return;
+		}
+		
 		if (mUsbManager == null) {			
 			mUsbManager = (UsbManager)mAppContext.getSystemService(Context.USB_SERVICE);
 		}
@@ -228,32 +541,56 @@ public class ElmInterface {
 	
 	
 	public void openDeviceFinish(UsbDevice device) {
+		UsbSerialDriver driver = null;
+		
 		try {
 			//TODO: update code flow to remove need for use of the deprecated acquire() method
-    		mSerialDevice = UsbSerialProber.acquire(mUsbManager, device);
+    		driver = UsbSerialProber.acquire(mUsbManager, device);
+        } catch (Exception ex) {
+            Log.e(TAG, "ERROR OPENING DEVICE", ex);
+        }
+		
+		if (driver == null) {
+			Log.w(TAG, "COULD NOT ACQUIRE SERIAL DEVICE NUMBER: " + mSettingDeviceNumber);
+			deviceClose(true);
+	        return;
+		}
+		
+		openDeviceFinish(driver, device.getVendorId() + ":" + device.getProductId());
+	}
+	
+	
+	/**
+	 * @param driver		An open-able serial driver.
+	 * @param adapterName	Identifies the adapter model (ex: USB vendor and product IDs), used to cache what it supports.
+	 */
+	protected void openDeviceFinish(UsbSerialDriver driver, String adapterName) {
+		try {
+    		mSerialDevice = driver;
+    		mAdapterName = adapterName;
     		
-    		if (mSerialDevice != null) {
-	        	Log.i(TAG, "SERIAL DEVICE FOUND: " + mSerialDevice);
-	        	
-	        	mSerialDevice.open();
-	        	mSerialDevice.setParameters(mSettingBaud, UsbSerialDriver.DATABITS_8, UsbSerialDriver.STOPBITS_1, UsbSerialDriver.PARITY_NONE);
-	        		        	
-	        	ioManagerReset();
-
-	        	mStatus = STATUS_OPEN_STOPPED;
-	        	
-	        	deviceOpenEvent_Fire();
-	        	
-	        	return;	//this is the only successful exit path for this method
-    		} else {
-    			Log.w(TAG, "COULD NOT ACQUIRE SERIAL DEVICE NUMBER: " + mSettingDeviceNumber);
-    		}
+        	Log.i(TAG, "SERIAL DEVICE FOUND: " + mSerialDevice);
+        	
+        	mSerialDevice.open();
+        	mSerialDevice.setParameters(mSettingBaud, UsbSerialDriver.DATABITS_8, UsbSerialDriver.STOPBITS_1, UsbSerialDriver.PARITY_NONE);
+        	mBaudRate = mSettingBaud;
+        		        	
+        	ioManagerReset();
+
+        	mStatus = STATUS_OPEN_STOPPED;
+        	publishStatus();
+        	
+        	//from here on the event loop owns the command state
+        	loopStart();
+        	
+        	deviceOpenEvent_Fire();
+        	
+        	return;	//this is the only successful exit path for this method
         } catch (Exception ex) {
             Log.e(TAG, "ERROR OPENING DEVICE", ex);
         }
 		
-		deviceClose();	        
-        mStatus = STATUS_CLOSED_FROMERROR;
+		deviceClose(true);
 	}
 	
 	
@@ -267,16 +604,32 @@ public class ElmInterface {
 	
 	
 	protected void deviceClose(Boolean fromError) {
-		commandTimeout_TimersStop();
-		
 		if (mUsbPermissionReceiverIsRegistered) {
 			mAppContext.unregisterReceiver(mUsbPermissionReceiver);
 			mUsbPermissionReceiverIsRegistered = false;
 		}
 		
+		try {
+			loopCall(new Callable<Void>() {
+				public Void call() throws Exception {
+					commandTimeout_TimersStop();
+					if (mSerialDevice != null) {
+						monitorStopOnLoop(false);
+					}
+					return null;
+				}
+			});
+		} catch (Exception ex) {
+			Log.e(TAG, "ERROR CLOSING SERIAL DEVICE", ex);
+		}
+		
+		loopStop();
+		
+		//the event loop has stopped, so its state can be changed from this thread again
+		commandTimeout_TimersStop();
+		
 		try {
     		if (mSerialDevice != null) {
-    			monitorStop();    			
     			mSerialDevice.close();
     		}    		
     	} catch (Exception ex) {
@@ -290,10 +643,11 @@ public class ElmInterface {
 		} else {
 			mStatus = STATUS_CLOSED;
 		}
+		publishStatus();
 	}
 	
 	
-	private final SerialInputOutputManager.Listener mIoListener = new SerialInputOutputManager.Listener() {
+	private final SerialInputOutputManager.BufferListener mIoListener = new SerialInputOutputManager.BufferListener() {
         @Override
         public void onRunError(Exception ex) {
         	//do we care? i.e. probably already seen a related exception elsewhere...
@@ -302,7 +656,22 @@ public class ElmInterface {
 
         @Override
         public void onNewData(final byte[] data) {
-        	ElmInterface.this.ioManagerOnReceivedData(data);
+        	//not called while this is the listener (onNewData(ReadBuffer) is), but keep the data on the event loop if it ever is
+        	final long readTime = System.nanoTime();
+        	loopPost(new Runnable() {
+        		public void run() {
+        			ioManagerOnReceivedData(data, readTime);
+        		}
+        	});
+        }
+
+        @Override
+        public void onNewData(final ReadBuffer buffer) {
+        	//runs on the serial reader thread, hand off without waiting so the reader can get back to reading
+        	if (!mReceiveRing.offer(buffer)) {
+        		buffer.release();
+        		mReceiveOverrun = true;
+        	}
         }
     };
     
@@ -315,6 +684,8 @@ public class ElmInterface {
     
     protected void ioManagerStop() {
         if (mSerialIoManager != null) {
+        	//let commands already handed to the writer thread (ex: LP) go out first
+        	mSerialIoManager.awaitWrites(DEFAULT_COMMAND_SEND_TIMEOUT);
             mSerialIoManager.stop();
             mSerialIoManager = null;
         }
@@ -329,58 +700,812 @@ public class ElmInterface {
     }
 	
 
-    public void ioManagerOnReceivedData(byte[] data) {
+    protected synchronized void loopStart() {
+    	if (mLoop != null) return;
+    	
+    	//anything left from a previous session is stale
+    	mLoopQueue.clear();
+    	
+    	Thread loop = new Thread(mLoopRun, TAG + "EventLoop");
+    	loop.setDaemon(true);
+    	mLoop = loop;
+    	loop.start();
+    	
+    	mButtons.start();
+    }
+    
+    
+    protected synchronized void loopStop() {
+    	Thread loop = mLoop;
+    	if (loop == null) return;
+    	
+    	mLoop = null;
+    	LockSupport.unpark(loop);
+    	
+    	//the receive ring allows only one consumer, so let this one finish before another can be started
+    	if (loop != Thread.currentThread()) {
+    		try {
+    			loop.join(LOOP_STOP_WAIT);
+    			if (loop.isAlive()) {
+    				Log.w(TAG, "EVENT LOOP DID NOT STOP IN TIME");
+    			}
+    		} catch (InterruptedException ex) {
+    			Thread.currentThread().interrupt();
+    		}
+    	}
+    	
+    	mButtons.stop();
+    }
+    
+    
+    /**
+     * Queues a message for the event loop, from any thread.
+     */
+    protected void loopPost(Runnable message) {
+    	mLoopQueue.offer(message);
+    	
+    	//if the loop is busy, the un-park is remembered and its next wait returns at once
+    	Thread loop = mLoop;
+    	if (loop != null) {
+    		LockSupport.unpark(loop);
+    	}
+    }
+    
+    
+    /**
+     * Runs a call on the event loop and waits for its result, publishing the status after.
+     * Runs it directly when already on the loop, or when the loop is not running (device closed).
+     * 
+     * @return					The call's result.
+     * @throws Exception		The call's exception, or a TimeoutException if the loop did not get to it in time.
+     */
+    protected <T> T loopCall(final Callable<T> call) throws Exception {
+    	final Callable<T> publishingCall = new Callable<T>() {
+    		public T call() throws Exception {
+    			try {
+    				return call.call();
+    			} finally {
+    				publishStatus();
+    			}
+    		}
+    	};
+    	
+    	final Thread loop = mLoop;
+    	if (loop == null || loop == Thread.currentThread()) {
+    		return publishingCall.call();
+    	}
+    	
+    	final FutureTask<T> task = new FutureTask<T>(publishingCall);
+    	loopPost(task);
+    	
+    	try {
+    		return task.get(LOOP_CALL_WAIT, TimeUnit.MILLISECONDS);
+    	} catch (ExecutionException ex) {
+    		if (ex.getCause() instanceof Exception) {
+    			throw (Exception)ex.getCause();
+    		}
+    		throw ex;
+    	} catch (TimeoutException ex) {
+    		task.cancel(false);
+    		Log.w(TAG, "EVENT LOOP CALL TIMED OUT");
+    		throw ex;
+    	}
+    }
+    
+    
+    /**
+     * Runs the queued control messages, on the event loop.
+     */
+    protected void loopRunMessages() {
+    	Runnable message;
+    	while ((message = mLoopQueue.poll()) != null) {
+    		try {
+    			message.run();
+    		} catch (Exception ex) {
+    			Log.e(TAG, "ERROR HANDLING EVENT LOOP MESSAGE", ex);
+    		}
+    	}
+    }
+    
+    
+    /**
+     * The event loop: handles the control messages and command timeouts, and frames, decodes and acts on the chunks queued
+     * by the serial reader thread.
+     */
+    protected Runnable mLoopRun = new Runnable() {
+    	public void run() {
+    		final Thread self = Thread.currentThread();
+    		
+    		while (mLoop == self) {
+    			loopRunMessages();
+    			
+    			//sleep no longer than the next timeout or gesture deadline, both are checked below on every pass
+    			final long now = System.nanoTime();
+    			final long wait = Math.min(LOOP_IDLE_WAIT, Math.min(commandTimeout_GetRemaining(now), mButtons.getGestureRemaining(now)));
+    			ReadBuffer buffer = mReceiveRing.take(wait);
+    			if (buffer != null) {
+	    			try {
+	    				if (mReceiveOverrun) {
+	    					//chunks were lost, a partial line can't be trusted
+	    					mReceiveOverrun = false;
+	    					mFramer.reset();
+	    					Log.w(TAG, "RECEIVE RING OVERRUN, DATA LOST");
+	    				}
+	    				
+	    				ioManagerOnReceivedData(buffer.array(), buffer.offset(), buffer.length(), buffer.readTime());
+	    			} catch (Exception ex) {
+	    				Log.e(TAG, "ERROR PROCESSING RECEIVED DATA", ex);
+	    			} finally {
+	    				buffer.release();
+	    			}
+    			}
+    			
+    			commandTimeout_TimersCheck(System.nanoTime());
+    			mButtons.checkGestures(System.nanoTime());
+    			
+    			publishStatus();
+    		}
+    		
+    		//messages posted before the stop still run, their callers may be waiting on them
+    		loopRunMessages();
+    		
+    		//give back anything left so the reader's pool isn't starved
+    		ReadBuffer buffer;
+    		while ((buffer = mReceiveRing.poll()) != null) {
+    			buffer.release();
+    		}
+    	}
+    };
+    
+    
+    /**
+     * Event loop only, as are the other overloads. Received data reaches the loop through mReceiveRing.
+     */
+    protected void ioManagerOnReceivedData(byte[] data) {
+    	ioManagerOnReceivedData(data, System.nanoTime());
+    }
+    
+    
+    /**
+     * @param data			The received bytes.
+     * @param readTime		System.nanoTime() when the bytes were read, the start of the latency measurements.
+     */
+    protected void ioManagerOnReceivedData(byte[] data, long readTime) {
+    	ioManagerOnReceivedData(data, 0, data.length, readTime);
+    }
+    
+    
+    /**
+     * Frames and handles received bytes, event loop only.
+     * 
+     * @param data			Buffer holding the received bytes, only read during this call.
+     * @param offset		Index of the first received byte.
+     * @param length		Number of received bytes.
+     * @param readTime		System.nanoTime() when the bytes were read, the start of the latency measurements.
+     */
+    protected void ioManagerOnReceivedData(byte[] data, int offset, int length, long readTime) {
     	if (mCommandTimeoutData > 0) {
-    		commandTimeoutData_TimerReStart(mCommandTimeoutData);
-    	}
-    	
-    	String strdata = new String(data);
-    	Log.d(TAG, "DATA RECEIVED: " + strdata);
-    	
-    	//mResponse will continue to append data till a condition below sees it as a complete response and handles it  
-    	mResponse += strdata;
-
-		//this is a catch for when the device resets due to cranking or a hardware error
-    	if (mResponse.contains("ELM327") || mResponse.contains("LV RESET")) {
-    		//just pretend the command was an intentional reset to re-start the entire command sequence 
-    		mCommand = "ATZ";
-    	}
-    	
-    	//for each command, allow response to append data until we see the expected full response 
-    	if (mCommand == "ATZ" || mCommand == "ATI") {
-    		if (!mResponse.contains(">") || !mResponse.contains("ELM327")) return;    		
-    		Log.d(TAG, "ELM DEVICE FOUND");
-    		sendCommand("ATE1");
-    	} else if (mCommand == "ATE1") {
-    		if (!mResponse.contains(">") || !mResponse.contains("OK")) return;
-    		Log.d(TAG, "ECHO ON");
-    		sendCommand("ATL1");    		
-    	} else if (mCommand == "ATL1") {
-    		if (!mResponse.contains(mCommand) || !mResponse.contains(">") || !mResponse.contains("OK")) return;
-    		Log.d(TAG, "LINE BREAKS ON");
-    		sendCommand("ATS1");
-    	} else if (mCommand == "ATS1") {
-    		if (!mResponse.contains(mCommand) || !mResponse.contains(">") || !mResponse.contains("OK")) return;
-    		Log.d(TAG, "SPACES ON");
-    		sendCommand("ATH1");
-    	} else if (mCommand == "ATH1") {
-    		if (!mResponse.contains(mCommand) || !mResponse.contains(">") || !mResponse.contains("OK")) return;    		
-    		Log.d(TAG, "HEADERS ON");
-    		sendCommand(mSettingProtocolCommand);
-    	} else if (mCommand == mSettingProtocolCommand) {
-    		if (!mResponse.contains(mCommand) || !mResponse.contains(">") || !mResponse.contains("OK")) return;    		
-    		Log.d(TAG, "PROTOCOL SET");
-    		sendCommand(mSettingMonitorCommand, 0, DEFAULT_MONITOR_COMMAND_DATA_TIMEOUT, DEFAULT_COMMAND_RETRIES);    	
-    	} else if (mCommand == mSettingMonitorCommand) {
-    		if (!mResponse.contains("\r") && !mResponse.contains("\n")) return;
-    		mButtons.performAction(mResponse.trim());
-    		mResponse = "";
+    		commandTimeoutData_TimerReStart(mCommandTimeoutData, readTime);
+    	}
+    	
+    	if (DEBUG) Log.d(TAG, "DATA RECEIVED: " + new String(data, offset, length));
+    	
+    	final BusCaptureRecorder recorder = mCaptureRecorder;
+    	if (recorder != null) {
+    		recorder.record(data, offset, length, readTime);
+    	}
+    	
+    	//the framer will call back for each complete line and prompt, partial lines are held till the next chunk
+    	mFramer.append(data, offset, length, readTime);
+    }
+    
+    
+    private final ElmResponseFramer.Listener mFramerListener = new ElmResponseFramer.Listener() {
+		@Override
+		public void onLine(byte[] line, int length, long arrivalTime) {
+			ElmInterface.this.framerOnLine(line, length, arrivalTime);
+		}
+
+		@Override
+		public void onPrompt() {
+			ElmInterface.this.framerOnPrompt();
+		}
+    };
+    
+    
+    protected void framerOnLine(byte[] line, int length, long arrivalTime) {
+    	final ElmCommandStep step = mStep;
+    	
+    	if (step == ElmCommandStep.MONITOR) {
+    		//decode straight from the line bytes, anything that isn't hex (ex: the command echo) is not a bus message
+    		final long lineTime = System.nanoTime();
+    		mLatency.record(LatencyStats.STAGE_FRAMING, lineTime - arrivalTime);
+    		
+    		if (mFrame.decode(line, 0, length)) {
+    			if (mOverflowRecovering) {
+    				mOverflowRecovering = false;
+    				mOverflowRecovery.record(lineTime - mOverflowTime);
+    			}
+    			if (mErrorRecovering) {
+    				mErrorRecovering = false;
+    				mErrorProtocolAttempts = 0;
+    				mErrorRecovery.record(lineTime - mErrorTime);
+    			}
+    			mErrorPending = null;
+    			
+    			mFrame.setTimes(arrivalTime, lineTime);
+    			mButtons.performAction(mFrame);
+    		} else if (ElmResponseFramer.contains(line, length, RESPONSE_BUFFER_FULL)) {
+    			monitorOverflow(arrivalTime);
+    		} else if (!framerIsReset(line, length)) {
+    			//noise lines (ex: a lone "?") are only acted on if the device stops monitoring with a prompt straight after them
+    			final ElmErrorResponse error = ElmErrorResponse.classify(line, length);
+    			if (error != null) {
+    				mErrorPending = error;
+    				mErrorPendingTime = arrivalTime;
+    			} else if (DEBUG) {
+    				Log.d(TAG, "NON BUS MESSAGE WHILE MONITORING: " + new String(line, 0, length));
+    			}
+    		}
+    		return;
+    	}
+    	
+    	//the baud rate handshake has its own device ID line, which must not be taken for a reset
+    	if (step.isBaud()) {
+    		baudOnLine(line, length);
+    		return;
+    	}
+    	
+    	if (framerIsReset(line, length)) return;
+    	
+    	if (step != ElmCommandStep.NONE) {
+    		//for each command, gather what the lines have shown so far, the prompt will decide if the response is complete
+    		mResponseEcho |= ElmResponseFramer.contains(line, length, mStepCommand.getEcho());
+    		mResponseOK |= ElmResponseFramer.contains(line, length, RESPONSE_OK);
+    		
+    		final ElmErrorResponse error = ElmErrorResponse.classify(line, length);
+    		if (error != null) {
+    			mErrorPending = error;
+    			mErrorPendingTime = arrivalTime;
+    		}
     	} else {
-    		Log.w(TAG, "UNEXPECTED DATA RECEIVED (WHILE NO COMMAND PENDING): " + mResponse);
+    		Log.w(TAG, "UNEXPECTED DATA RECEIVED (WHILE NO COMMAND PENDING): " + new String(line, 0, length));
     	}
     }
-	
-	
+    
+    
+    /**
+     * A catch for when the device resets due to cranking or a hardware error.
+     * 
+     * @return				Returns true if the line was a device ID or reset message.
+     */
+    protected Boolean framerIsReset(byte[] line, int length) {
+    	final Boolean deviceId = ElmResponseFramer.contains(line, length, RESPONSE_DEVICE_ID);
+    	if (!deviceId && !ElmResponseFramer.contains(line, length, RESPONSE_LV_RESET)) return false;
+    	
+    	if (mStep.getExpect() != ElmCommandStep.Expect.DEVICE_ID) {
+    		//just pretend the command was an intentional reset to re-start the entire command sequence
+    		mStep = ElmCommandStep.RESET;
+    		mStepCommand = ElmCommandStep.RESET.getCommand(mCompact);
+    		mCommand = mStepCommand.getText();
+    	}
+    	mResponseDeviceID |= deviceId;
+    	return true;
+    }
+    
+    
+    protected void framerOnPrompt() {
+    	//for each command, the prompt marks the end of the response, move on only if it was the expected full response 
+    	final ElmCommandStep step = mStep;
+    	
+    	if (step == ElmCommandStep.MONITOR) {
+    		//the device only stops monitoring with a prompt on its own after an overflow or an error (ex: CAN ERROR)
+    		if (mOverflowPending) {
+    			mOverflowPending = false;
+    			mErrorPending = null;
+    			monitorOverflowRecover();
+    		} else if (mErrorPending != null) {
+    			errorRecover();
+    		}
+    	} else if (step.isBaud()) {
+    		baudOnPrompt();
+    	} else if (mErrorPending != null && step != ElmCommandStep.CUSTOM && step != ElmCommandStep.NONE) {
+    		//a custom command's error is left to its caller, the init sequence recovers at once
+    		errorRecover();
+    	} else if (isStepResponseComplete()) {
+    		stepComplete();
+    	}
+    }
+    
+    
+    /**
+     * Called when the current step's expected response is complete, moves on to the step after it.
+     */
+    protected void stepComplete() {
+    	final ElmCommandStep step = mStep;
+    	Log.d(TAG, "STEP COMPLETE: " + step + " (" + mCommand + ")");
+    	
+    	switch (step) {
+    		case RESET:
+    		case IDENTIFY:
+    			Log.d(TAG, "ELM DEVICE FOUND");
+    			if (baudNegotiate()) return;
+    			break;
+    		case PROTOCOL:
+    			monitorFilterPrepare();
+    			break;
+    		case FILTER:
+    			//the step repeats for each filter command, then moves on
+    			mFilterIndex++;
+    			stepSend(ElmCommandStep.FILTER);
+    			return;
+    		default:
+    			break;
+    	}
+    	
+    	stepSend(step.getNext());
+    }
+    
+    
+    /**
+     * Sends a step's command with the step's timeouts and retries.
+     * 
+     * @param step			The step to start, if it has no command (ex: no filter needed) the steps after it are tried.
+     * @return				Returns false if the command was not written correctly to device.
+     */
+    protected Boolean stepSend(ElmCommandStep step) {
+    	return stepSend(step, step.getRetries());
+    }
+    
+    
+    protected Boolean stepSend(ElmCommandStep step, int retries) {
+    	ElmCommand command = stepCommand(step);
+    	while (command == null && step != ElmCommandStep.NONE) {
+    		step = step.getNext();
+    		command = stepCommand(step);
+    	}
+    	if (command == null) return false;
+    	
+    	return sendCommand(command, step, step.getTimeoutTotal(), step.getTimeoutData(), retries, false, false);
+    }
+    
+    
+    /**
+     * @return				The step's command: fixed in the table, or from the settings and negotiation for this start.
+     */
+    protected ElmCommand stepCommand(ElmCommandStep step) {
+    	switch (step) {
+    		case PROTOCOL:
+    			return mProtocolCommand;
+    		case FILTER:
+    			return (mFilterIndex < mFilterCommands.length) ? mFilterCommands[mFilterIndex] : null;
+    		case MONITOR:
+    			return mMonitorCommand;
+    		case BAUD_SWITCH:
+    			return mBaudCommand;
+    		default:
+    			return step.getCommand(mCompact);
+    	}
+    }
+    
+    
+    /**
+     * @return				Returns true if the current step's response has shown what the step expects.
+     */
+    protected Boolean isStepResponseComplete() {
+    	switch (mStep.getExpect()) {
+    		case DEVICE_ID:
+    			return mResponseDeviceID;
+    		case OK:
+    			return mResponseOK;
+    		case COMPLETE:
+    			//in compact mode echo is off (ATE0) from the second command on
+    			return mResponseOK && (mResponseEcho || mCompact);
+    		default:
+    			return false;
+    	}
+    }
+    
+    
+    /**
+     * Decides the filter commands and monitor command for this start, from the settings and button definitions.
+     */
+    protected void monitorFilterPrepare() {
+    	mMonitorCommand = new ElmCommand(mSettingMonitorCommand);
+    	mFilterCommands = new ElmCommand[0];
+    	mFilterIndex = 0;
+    	
+    	final int protocol = ElmMonitorFilter.getProtocol(mSettingProtocolCommand);
+    	if (!mAutoFilter) {
+    		if (protocol == ElmMonitorFilter.PROTOCOL_CAN_11BIT || protocol == ElmMonitorFilter.PROTOCOL_CAN_29BIT) {
+    			//the device keeps CAN filters until reset, clear any left by an earlier run with auto filter on
+    			mFilterCommands = new ElmCommand[] { COMMAND_CAN_FILTER_CLEAR };
+    		}
+    		return;
+    	}
+    	
+    	ElmMonitorFilter filter = monitorFilterBuild();
+    	if (filter != null) {
+    		Log.d(TAG, "USING GENERATED FILTER: " + filter);
+    		mMonitorCommand = new ElmCommand(filter.getMonitorCommand());
+    		
+    		final String[] setup = filter.getSetupCommands();
+    		mFilterCommands = new ElmCommand[setup.length];
+    		for (int i = 0; i < setup.length; i++) {
+    			mFilterCommands[i] = new ElmCommand(setup[i]);
+    		}
+    	} else {
+    		Log.d(TAG, "NO FILTER POSSIBLE FOR PROTOCOL AND BUTTONS, USING MONITOR COMMAND SETTING");
+    	}
+    }
+    
+    
+    /**
+     * @return				The generated filter for the protocol setting and button definitions, or null if none is possible.
+     */
+    protected ElmMonitorFilter monitorFilterBuild() {
+    	ButtonPattern[] patterns = new ButtonPattern[ButtonActions.BUTTON_COUNT];
+    	for (int buttonId = 0; buttonId < ButtonActions.BUTTON_COUNT; buttonId++) {
+    		patterns[buttonId] = mButtons.getButtonPattern(buttonId);
+    	}
+    	
+    	return ElmMonitorFilter.build(mSettingProtocolCommand, patterns);
+    }
+    
+    
+    /**
+     * Called when the device reports BUFFER FULL while monitoring, it will stop monitoring and send a prompt.
+     * 
+     * @param arrivalTime	System.nanoTime() when the line arrived.
+     */
+    protected void monitorOverflow(long arrivalTime) {
+    	mOverflowCount++;
+    	mOverflowPending = true;
+    	
+    	//a repeat before the bus was heard from again is part of the same outage
+    	if (!mOverflowRecovering) {
+    		mOverflowTime = arrivalTime;
+    	}
+    	
+    	Log.w(TAG, "MONITOR OVERFLOW (BUFFER FULL)");
+    }
+    
+    
+    /**
+     * Re-starts monitoring straight after an overflow rather than waiting for the data timeout, first tightening the
+     * filter (or failing that, switching to compact output) if overflows keep repeating.
+     */
+    protected void monitorOverflowRecover() {
+    	mOverflowRecovering = true;
+    	
+    	final long now = System.nanoTime();
+    	if (mOverflowWindowCount == 0 || now - mOverflowWindowStart > OVERFLOW_ESCALATE_WINDOW) {
+    		mOverflowWindowStart = now;
+    		mOverflowWindowCount = 0;
+    	}
+    	mOverflowWindowCount++;
+    	
+    	if (mOverflowWindowCount >= OVERFLOW_ESCALATE_COUNT) {
+    		mOverflowWindowCount = 0;
+    		
+    		if (!mAutoFilter && monitorFilterBuild() != null) {
+    			Log.w(TAG, "REPEATED MONITOR OVERFLOWS - SWITCHING TO GENERATED FILTER");
+    			mOverflowTightened |= OVERFLOW_TIGHTENED_FILTER;
+    			mAutoFilter = true;
+    			monitorFilterPrepare();
+    			stepSend(ElmCommandStep.FILTER);
+    			return;
+    		} else if (!mCompact) {
+    			//re-runs the init sequence from the echo setting on, in compact form
+    			Log.w(TAG, "REPEATED MONITOR OVERFLOWS - SWITCHING TO COMPACT OUTPUT");
+    			mOverflowTightened |= OVERFLOW_TIGHTENED_COMPACT;
+    			mCompact = true;
+    			stepSend(ElmCommandStep.ECHO);
+    			return;
+    		}
+    		
+    		Log.w(TAG, "REPEATED MONITOR OVERFLOWS - NOTHING LEFT TO TIGHTEN");
+    	}
+    	
+    	Log.d(TAG, "RE-STARTING MONITORING AFTER OVERFLOW");
+    	stepSend(ElmCommandStep.MONITOR);
+    }
+    
+    
+    /**
+     * Recovers from an error response at its prompt, rather than waiting for the command's timeouts: retries the
+     * command, re-selects the protocol or resets the device, as the response's table entry says. Each falls back to the
+     * next when repeated, ending with the warm and cold starts.
+     */
+    protected void errorRecover() {
+    	final ElmErrorResponse error = mErrorPending;
+    	final Boolean wasRecovering = mErrorRecovering;
+    	mErrorPending = null;
+    	mErrorCount++;
+    	mErrorLast = error.toString();
+    	
+    	//a repeat before the bus was heard from again is part of the same outage
+    	if (!wasRecovering) {
+    		mErrorRecovering = true;
+    		mErrorTime = mErrorPendingTime;
+    	}
+    	
+    	Log.w(TAG, "ERROR RESPONSE: " + error + " (" + mCommand + ")");
+    	
+    	switch (error.getRecovery()) {
+    		case RESET:
+    			Log.d(TAG, "RESETTING DEVICE AFTER ERROR RESPONSE");
+    			monitorStartCold();
+    			break;
+    		case PROTOCOL:
+    			if (mErrorProtocolAttempts < ERROR_PROTOCOL_ATTEMPTS) {
+    				mErrorProtocolAttempts++;
+    				Log.d(TAG, "RE-SELECTING PROTOCOL AFTER ERROR RESPONSE");
+    				stepSend(ElmCommandStep.PROTOCOL);
+    			} else {
+    				Log.d(TAG, "RE-SELECTING PROTOCOL AFTER ERROR RESPONSE - TOO MANY ATTEMPTS");
+    				monitorStartWarm();
+    			}
+    			break;
+    		default:
+    			if (mStep == ElmCommandStep.MONITOR && !wasRecovering) {
+    				//monitoring had been working, start it over rather than count this against its retries
+    				Log.d(TAG, "RE-STARTING MONITORING AFTER ERROR RESPONSE");
+    				stepSend(ElmCommandStep.MONITOR);
+    			} else if (mCommandRetryCounter < mCommandRetries) {
+    				Log.d(TAG, "ERROR RESPONSE - RETRYING COMMAND ATTEMPT: " + mCommandRetryCounter);
+    				sendCommandRetry();
+    			} else {
+    				monitorStartWarm();
+    			}
+    			break;
+    	}
+    }
+    
+    
+    /**
+     * Starts or skips the baud rate upgrade, called each time the device is found.
+     * 
+     * @return				Returns true if a negotiation command was sent, the init sequence continues after it.
+     */
+    protected Boolean baudNegotiate() {
+    	if (!mSettingBaudUpgrade || mBaudAttempted) return false;
+    	mBaudAttempted = true;
+    	
+    	if (mBaudRate != mSettingBaud) {
+    		//found at the cached rate, still set from an earlier connect (see monitorStartWarm())
+    		Log.d(TAG, "DEVICE ALREADY AT NEGOTIATED BAUD RATE: " + mBaudRate);
+    		mBaudStats = mBaudRate + " (already negotiated)";
+    		return false;
+    	}
+    	
+    	final SharedPreferences cache = mAppContext.getSharedPreferences(BAUD_CACHE_PREFERENCES, Context.MODE_PRIVATE);
+    	final int cached = cache.getInt(baudCacheKey(), 0);
+    	if (cached == BAUD_CACHE_UNSUPPORTED) {
+    		Log.d(TAG, "BAUD RATE UPGRADE NOT SUPPORTED BY THIS ADAPTER (CACHED)");
+    		mBaudStats = mSettingBaud + " (upgrade not supported, cached)";
+    		return false;
+    	}
+    	
+    	mBaudCandidateIndex = 0;
+    	mBaudCached = cached > 0;
+    	if (cached > 0) {
+    		//skip the probing, go straight to the rate that worked last time
+    		mBaudCandidates = new int[] { cached };
+    		mBaudStn = cache.getBoolean(baudCacheKey() + "_stn", false);
+    		baudTryNext();
+    		return true;
+    	}
+    	
+    	int count = 0;
+    	for (int rate : BAUD_UPGRADE_RATES) {
+    		if (rate > mSettingBaud) count++;
+    	}
+    	if (count == 0) return false;
+    	
+    	mBaudCandidates = new int[count];
+    	count = 0;
+    	for (int rate : BAUD_UPGRADE_RATES) {
+    		if (rate > mSettingBaud) mBaudCandidates[count++] = rate;
+    	}
+    	
+    	//STN chips answer STI with their own ID and use STBR, ELM chips answer "?"
+    	stepSend(ElmCommandStep.BAUD_DETECT);
+    	return true;
+    }
+    
+    
+    /**
+     * Sends the baud rate command for the next candidate rate, or gives up when none are left.
+     */
+    protected void baudTryNext() {
+    	if (mBaudCandidateIndex >= mBaudCandidates.length) {
+    		Log.w(TAG, "NO FASTER BAUD RATE WORKED");
+    		//a cached rate that stopped working (ex: a different cable) is forgotten, the next connect probes again
+    		baudGiveUp(!mBaudCached);
+    		return;
+    	}
+    	
+    	final int rate = mBaudCandidates[mBaudCandidateIndex];
+    	if (mBaudStn) {
+    		mBaudCommand = new ElmCommand("STBR" + rate);
+    	} else {
+    		mBaudCommand = new ElmCommand(String.format(Locale.US, "ATBRD%02X", Math.round(BAUD_ELM_CLOCK / (float)rate)));
+    	}
+    	
+    	Log.d(TAG, "TRYING BAUD RATE: " + rate);
+    	stepSend(ElmCommandStep.BAUD_SWITCH);
+    }
+    
+    
+    protected void baudOnLine(byte[] line, int length) {
+    	switch (mStep) {
+    		case BAUD_DETECT:
+    			mResponseStn |= ElmResponseFramer.contains(line, length, RESPONSE_STN);
+    			break;
+    		case BAUD_SWITCH:
+    			if (!ElmResponseFramer.contains(line, length, RESPONSE_OK)) return;
+    			
+    			//the device switches right after the OK, and sends its ID at the new rate
+    			baudSetHost(mBaudCandidates[mBaudCandidateIndex]);
+    			mStep = ElmCommandStep.BAUD_HANDSHAKE;
+    			commandTimeoutTotal_TimerReStart(ElmCommandStep.BAUD_HANDSHAKE.getTimeoutTotal());
+    			break;
+    		case BAUD_HANDSHAKE:
+    			if (!ElmResponseFramer.contains(line, length, RESPONSE_DEVICE_ID) && !ElmResponseFramer.contains(line, length, RESPONSE_STN)) return;
+    			
+    			//the device keeps the new rate only if it hears a CR at it in time
+    			stepSend(ElmCommandStep.BAUD_CONFIRM);
+    			break;
+    		case BAUD_CONFIRM:
+    			mResponseOK |= ElmResponseFramer.contains(line, length, RESPONSE_OK);
+    			break;
+    		case BAUD_VERIFY:
+    			mResponseDeviceID |= ElmResponseFramer.contains(line, length, RESPONSE_DEVICE_ID);
+    			break;
+    		default:
+    			break;
+    	}
+    }
+    
+    
+    protected void baudOnPrompt() {
+    	switch (mStep) {
+    		case BAUD_DETECT:
+    			mBaudStn = mResponseStn;
+    			Log.d(TAG, mBaudStn ? "STN DEVICE, USING STBR" : "ELM DEVICE, USING ATBRD");
+    			baudTryNext();
+    			break;
+    		case BAUD_SWITCH:
+    			//a prompt without the OK, the device refused the command (ex: a clone answering "?")
+    			Log.w(TAG, "BAUD RATE COMMAND NOT SUPPORTED");
+    			baudGiveUp(true);
+    			break;
+    		case BAUD_CONFIRM:
+    			if (!isStepResponseComplete()) return;
+    			
+    			//round trip at the new rate before relying on it
+    			stepSend(ElmCommandStep.BAUD_VERIFY);
+    			break;
+    		case BAUD_VERIFY:
+    			if (!isStepResponseComplete()) return;
+    			
+    			baudSucceeded();
+    			stepSend(ElmCommandStep.BAUD_VERIFY.getNext());
+    			break;
+    		default:
+    			//while handshaking, a prompt can only be line noise from the device reverting at the old rate
+    			break;
+    	}
+    }
+    
+    
+    /**
+     * Called instead of the usual retries when a negotiation step times out.
+     */
+    protected void baudOnTimeout() {
+    	switch (mStep) {
+    		case BAUD_DETECT:
+    		case BAUD_SWITCH:
+    			//no answer at the old rate, nothing has changed on the device
+    			Log.w(TAG, "NO ANSWER TO BAUD RATE NEGOTIATION");
+    			baudGiveUp(false);
+    			break;
+    		case BAUD_HANDSHAKE:
+    		case BAUD_CONFIRM:
+    			//the device goes back to the old rate on its own when the handshake isn't completed
+    			Log.w(TAG, "BAUD RATE HANDSHAKE FAILED: " + mBaudCandidates[mBaudCandidateIndex]);
+    			baudSetHost(mSettingBaud);
+    			mBaudCandidateIndex++;
+    			baudTryNext();
+    			break;
+    		case BAUD_VERIFY:
+    			//the device may be at either rate, a reset from each side gets it back to the default
+    			Log.w(TAG, "BAUD RATE FAILED VERIFICATION: " + mBaudRate);
+    			baudCacheStore(BAUD_CACHE_UNSUPPORTED);
+    			mBaudStats = mSettingBaud + " (upgrade failed verification)";
+    			sendCommandBlind("ATZ");
+    			baudSetHost(mSettingBaud);
+    			stepSend(ElmCommandStep.RESET);
+    			break;
+    		default:
+    			break;
+    	}
+    }
+    
+    
+    protected void baudSucceeded() {
+    	final int rate = mBaudCandidates[mBaudCandidateIndex];
+    	baudCacheStore(rate);
+    	mBaudStats = rate + " (" + (mBaudStn ? "STBR" : "ATBRD") + ", default " + mSettingBaud + ")";
+    	Log.i(TAG, "BAUD RATE UPGRADED: " + rate);
+    }
+    
+    
+    /**
+     * Stays at the default rate and continues the init sequence.
+     * 
+     * @param unsupported	True to remember that this adapter can't go faster.
+     */
+    protected void baudGiveUp(Boolean unsupported) {
+    	if (mBaudRate != mSettingBaud) {
+    		baudSetHost(mSettingBaud);
+    	}
+    	if (unsupported) {
+    		baudCacheStore(BAUD_CACHE_UNSUPPORTED);
+    	} else if (mBaudCached) {
+    		baudCacheStore(0);
+    	}
+    	mBaudStats = mSettingBaud + (unsupported ? " (upgrade not supported)" : " (upgrade failed)");
+    	stepSend(ElmCommandStep.BAUD_VERIFY.getNext());
+    }
+    
+    
+    /**
+     * Sets the host side of the serial link, the device is unaffected.
+     */
+    protected void baudSetHost(int rate) {
+    	if (mSerialDevice == null) return;
+    	
+    	//a command just sent (ex: ATBRD or ATZ) must go out at the old rate
+    	if (mSerialIoManager != null) {
+    		mSerialIoManager.awaitWrites(DEFAULT_COMMAND_SEND_TIMEOUT);
+    	}
+    	
+    	try {
+    		mSerialDevice.setParameters(rate, UsbSerialDriver.DATABITS_8, UsbSerialDriver.STOPBITS_1, UsbSerialDriver.PARITY_NONE);
+    		mBaudRate = rate;
+    	} catch (Exception ex) {
+    		Log.e(TAG, "ERROR SETTING BAUD RATE", ex);
+    	}
+    }
+    
+    
+    /**
+     * @return				The adapter's cached rate, 0 if none, or BAUD_CACHE_UNSUPPORTED.
+     */
+    protected int baudCacheGet() {
+    	return mAppContext.getSharedPreferences(BAUD_CACHE_PREFERENCES, Context.MODE_PRIVATE).getInt(baudCacheKey(), 0);
+    }
+    
+    
+    protected void baudCacheStore(int rate) {
+    	mAppContext.getSharedPreferences(BAUD_CACHE_PREFERENCES, Context.MODE_PRIVATE).edit()
+    		.putInt(baudCacheKey(), rate)
+    		.putBoolean(baudCacheKey() + "_stn", mBaudStn)
+    		.apply();
+    }
+    
+    
+    /**
+     * @return				Identifies the adapter by its USB vendor and product IDs (or driver) and default rate. Known before
+     * 						the device answers, so a warm start can find the rate a device was left at.
+     */
+    protected String baudCacheKey() {
+    	return mAdapterName + "@" + mSettingBaud;
+    }
+    
+    
     /**
      * Begins monitoring the serial device.
      * Must call deviceOpen() prior.
@@ -389,9 +1514,33 @@ public class ElmInterface {
      * @throws Exception
      */
 	public void monitorStart() throws Exception {
+		loopCall(new Callable<Void>() {
+			public Void call() throws Exception {
+				monitorStartOnLoop();
+				return null;
+			}
+		});
+	}
+	
+	
+	protected void monitorStartOnLoop() throws Exception {
 		if (mStatus != STATUS_CLOSED && mStatus != STATUS_CLOSED_FROMERROR) {
 			ioManagerReset();
 			
+			mCompact = mSettingCompact;
+			mAutoFilter = mSettingAutoFilter;
+			mOverflowPending = false;
+			mOverflowRecovering = false;
+			mOverflowWindowCount = 0;
+			mOverflowTightened = 0;
+			mErrorPending = null;
+			mErrorRecovering = false;
+			mErrorProtocolAttempts = 0;
+			mBaudAttempted = false;
+			mProtocolCommand = new ElmCommand(mSettingProtocolCommand);
+			mButtons.setFrameIdLength(getFrameIdLength(mSettingProtocolCommand));
+			mButtons.resetGestures();
+			
 			mStartWarmAttempts = 0;
 			mStartColdAttempts = 0;
 			monitorStartWarm();			
@@ -404,6 +1553,22 @@ public class ElmInterface {
 	}
 	
 
+	/**
+	 * @param protocolCommand	An ATSPx or ATTPx command.
+	 * @return					Number of header bytes identifying a frame with the protocol, as ELM output is decoded.
+	 */
+	protected static int getFrameIdLength(String protocolCommand) {
+		switch (ElmMonitorFilter.getProtocol(protocolCommand)) {
+			case ElmMonitorFilter.PROTOCOL_CAN_11BIT:
+				return 2;
+			case ElmMonitorFilter.PROTOCOL_CAN_29BIT:
+				return 4;
+			default:
+				return BusFrame.DEFAULT_HEADER_LENGTH;
+		}
+	}
+	
+	
 	/**
 	 * Stops monitoring the serial device.
 	 * Must have called deviceOpen() and monitorStart() prior.
@@ -411,11 +1576,16 @@ public class ElmInterface {
 	 * @throws Exception
 	 */
 	public void monitorStop() throws Exception {
-		monitorStop(false);
+		loopCall(new Callable<Void>() {
+			public Void call() throws Exception {
+				monitorStopOnLoop(false);
+				return null;
+			}
+		});
 	}
 	
 	
-	protected void monitorStop(Boolean fromError) throws Exception {
+	protected void monitorStopOnLoop(Boolean fromError) throws Exception {
 		if (mStatus != STATUS_CLOSED && mStatus != STATUS_CLOSED_FROMERROR) {
 			//attempt to send a simple command to make sure any current long running commands are stopped, ignore results
 			sendCommandBlind("ATI");
@@ -440,7 +1610,14 @@ public class ElmInterface {
 	protected void monitorStartWarm() {
 		if (mStartWarmAttempts < MONITOR_START_WARM_ATTEMPTS) {
 			Log.d(TAG, "MONITORING WARM START ATTEMPT: " + mStartWarmAttempts);
-	        sendCommand("ATI", DEFAULT_RESET_COMMAND_TOTAL_TIMEOUT, 0, 1);
+			
+			//the device keeps a negotiated rate until reset (ex: from an earlier run), so alternate rates between attempts
+			final int cached = mSettingBaudUpgrade ? baudCacheGet() : 0;
+			if (cached > 0 && mStartWarmAttempts > 0) {
+				baudSetHost(mBaudRate == mSettingBaud ? cached : mSettingBaud);
+			}
+			
+	        stepSend(ElmCommandStep.IDENTIFY, cached > 0 ? 0 : ElmCommandStep.IDENTIFY.getRetries());
 		} else {
 			Log.d(TAG, "MONITORING WARM START - TOO MANY ATTEMPTS");
 			monitorStartCold();
@@ -453,11 +1630,17 @@ public class ElmInterface {
 	protected void monitorStartCold() {
 		if (mStartColdAttempts < MONITOR_START_COLD_ATTEMPTS) {
 			Log.d(TAG, "MONITORING COLD START ATTEMPT: " + mStartColdAttempts);
-			sendCommand("ATZ", DEFAULT_RESET_COMMAND_TOTAL_TIMEOUT, 0, 1);
+			stepSend(ElmCommandStep.RESET);
+			
+			//the reset also puts the device back at its default baud rate
+			if (mBaudRate != mSettingBaud) {
+				baudSetHost(mSettingBaud);
+			}
+			mBaudAttempted = false;
 		} else {
 			Log.d(TAG, "MONITORING COLD START - TOO MANY ATTEMPTS");
 			try {
-				monitorStop(true);
+				monitorStopOnLoop(true);
 			} catch (Exception ex) { }
 		}
 		
@@ -465,16 +1648,38 @@ public class ElmInterface {
 	}
 	
 	
-	protected Runnable commandTimeout_TimersRun = new Runnable() {
-		public void run() {
-			if (ElmInterface.this.mCommandRetryCounter < ElmInterface.this.mCommandRetries) {
-				Log.d(ElmInterface.TAG, "COMMAND OR DATA TIMEOUT - RETRYING COMMAND ATTEMPT: " + ElmInterface.this.mCommandRetryCounter);
-				ElmInterface.this.sendCommandRetry();			
-			} else {
-				ElmInterface.this.monitorStartWarm();
-			}
+	/**
+	 * Called by the event loop on each pass, acts on a command timeout that has come due.
+	 * 
+	 * @param now				System.nanoTime().
+	 */
+	protected void commandTimeout_TimersCheck(long now) {
+		//each timer expires once per start, as a posted Handler callback would
+		final Boolean totalExpired = mCommandTimeoutTotal_Timer.expire(now);
+		final Boolean dataExpired = mCommandTimeoutData_Timer.expire(now);
+		if (!totalExpired && !dataExpired) return;
+		
+		if (mStep.isBaud()) {
+			baudOnTimeout();
+			return;
 		}
-	};
+		
+		if (mCommandRetryCounter < mCommandRetries) {
+			Log.d(TAG, "COMMAND OR DATA TIMEOUT - RETRYING COMMAND ATTEMPT: " + mCommandRetryCounter);
+			sendCommandRetry();			
+		} else {
+			monitorStartWarm();
+		}
+	}
+	
+	
+	/**
+	 * @param now				System.nanoTime().
+	 * @return					Nanoseconds until the next command timeout is due, Long.MAX_VALUE if none are running.
+	 */
+	protected long commandTimeout_GetRemaining(long now) {
+		return Math.min(mCommandTimeoutTotal_Timer.getRemaining(now), mCommandTimeoutData_Timer.getRemaining(now));
+	}
 	
 	
 	protected void commandTimeout_TimersStop() {
@@ -484,24 +1689,31 @@ public class ElmInterface {
 	
 	
 	protected void commandTimeoutTotal_TimerStop() {
-		mCommandTimeoutTotal_Timer.removeCallbacks(commandTimeout_TimersRun);
+		mCommandTimeoutTotal_Timer.stop();
 	}
 
 	
 	protected void commandTimeoutTotal_TimerReStart(int timeout) {
-		commandTimeoutTotal_TimerStop();
-		mCommandTimeoutTotal_Timer.postDelayed(commandTimeout_TimersRun, timeout);
+		mCommandTimeoutTotal_Timer.start(System.nanoTime(), timeout * 1000000L);
 	}
 	
 	
 	protected void commandTimeoutData_TimerStop() {
-		mCommandTimeoutData_Timer.removeCallbacks(commandTimeout_TimersRun);
+		mCommandTimeoutData_Timer.stop();
 	}
 
 	
 	protected void commandTimeoutData_TimerReStart(int timeout) {
-		commandTimeoutData_TimerStop();
-		mCommandTimeoutData_Timer.postDelayed(commandTimeout_TimersRun, timeout);
+		commandTimeoutData_TimerReStart(timeout, System.nanoTime());
+	}
+	
+	
+	/**
+	 * @param timeout			Milliseconds.
+	 * @param now				System.nanoTime(), or the time the timeout is measured from.
+	 */
+	protected void commandTimeoutData_TimerReStart(int timeout, long now) {
+		mCommandTimeoutData_Timer.start(now, timeout * 1000000L);
 	}
 	
 	
@@ -512,7 +1724,7 @@ public class ElmInterface {
 	 * @return					Returns false if the command was not written correctly to device.
 	 */
 	public Boolean sendCommandBlind(String command) {
-		return sendCommand(command, 0, 0, 0, false, true);
+		return sendCommand(new ElmCommand(command), ElmCommandStep.NONE, 0, 0, 0, false, true);
 	}
 	
 	
@@ -523,7 +1735,8 @@ public class ElmInterface {
 	 * @return					Returns false if the command was not written correctly to device.
 	 */
 	public Boolean sendCommandRetry() {
-		return sendCommand(mCommand, mCommandTimeoutTotal, mCommandTimeoutData, mCommandRetries, true, false);
+		if (mStepCommand == null) return false;
+		return sendCommand(mStepCommand, mStep, mCommandTimeoutTotal, mCommandTimeoutData, mCommandRetries, true, false);
 	}
 	
 	
@@ -534,12 +1747,13 @@ public class ElmInterface {
 	 * @return					Returns false if the command was not written correctly to device.
 	 */
 	public Boolean sendCommand(String command) {
-		return sendCommand(command, DEFAULT_COMMAND_TOTAL_TIMEOUT, DEFAULT_COMMAND_DATA_TIMEOUT, DEFAULT_COMMAND_RETRIES, false, false); 
+		return sendCommand(command, DEFAULT_COMMAND_TOTAL_TIMEOUT, DEFAULT_COMMAND_DATA_TIMEOUT, DEFAULT_COMMAND_RETRIES); 
 	}
 	
 	
 	/**
-	 * Send a command to the serial device.
+	 * Send a command to the serial device. The response is gathered and timeouts retried, but it is not a step of
+	 * the init sequence (see ElmCommandStep), so it never moves the sequence on.
 	 * 
 	 * @param command			A valid ELM AT Command.
 	 * @param timeoutTotal		Total milliseconds to wait for a complete response before retrying.
@@ -548,17 +1762,37 @@ public class ElmInterface {
 	 * @return					Returns false if the command was not written correctly to device.
 	 */
 	public Boolean sendCommand(String command, int timeoutTotal, int timeoutData, int retries) {
-		return sendCommand(command, timeoutTotal, timeoutData, retries, false, false); 
+		return sendCommand(new ElmCommand(command), ElmCommandStep.CUSTOM, timeoutTotal, timeoutData, retries, false, false); 
 	}
 
 	
-	protected Boolean sendCommand(String command, int timeoutTotal, int timeoutData, int retries, Boolean isRetry, Boolean isBlind) {
+	protected Boolean sendCommand(final ElmCommand command, final ElmCommandStep step, final int timeoutTotal, final int timeoutData, final int retries, final Boolean isRetry, final Boolean isBlind) {
+		try {
+			return loopCall(new Callable<Boolean>() {
+				public Boolean call() {
+					return sendCommandOnLoop(command, step, timeoutTotal, timeoutData, retries, isRetry, isBlind);
+				}
+			});
+		} catch (Exception ex) {
+			Log.e(TAG, "ERROR SENDING COMMAND", ex);
+			return false;
+		}
+	}
+	
+	
+	protected Boolean sendCommandOnLoop(ElmCommand command, ElmCommandStep step, int timeoutTotal, int timeoutData, int retries, Boolean isRetry, Boolean isBlind) {
 		commandTimeout_TimersStop();
 
-		mResponse = "";
+		mFramer.reset();
+		mResponseDeviceID = false;
+		mResponseEcho = false;
+		mResponseOK = false;
+		mResponseStn = false;
+		mErrorPending = null;
 		mCommand = "";
+		mStep = ElmCommandStep.NONE;
+		mStepCommand = null;
 
-		command = command.trim();
 		Log.d(TAG, "SENDING COMMAND: " + command);
 		
 		if (isBlind) {
@@ -578,7 +1812,9 @@ public class ElmInterface {
 				mCommandRetryCounter = 0;
 			}
 
-			mCommand = command;
+			mCommand = command.getText();
+			mStep = step;
+			mStepCommand = command;
 			
 			if (timeoutTotal > 0) {
 				commandTimeoutTotal_TimerReStart(timeoutTotal);
@@ -588,11 +1824,18 @@ public class ElmInterface {
 			}
 		}
 				
-		command += "\r";		
-		byte[] bytes = command.getBytes();
+		final byte[] bytes = command.getBytes();
 		int written = 0;
 
-		if (mSerialDevice != null) {
+		if (mSerialIoManager != null) {
+			//handed to the serial writer thread, so the event loop never blocks on the USB write
+			try {
+				mSerialIoManager.writeAsync(bytes);
+				written = bytes.length;
+			} catch (Exception ex) {
+				Log.e(TAG, "ERROR WRITING COMMAND TO DEVICE", ex);
+			}
+		} else if (mSerialDevice != null) {
 			try {
 				written = mSerialDevice.write(bytes, DEFAULT_COMMAND_SEND_TIMEOUT);
 			} catch (Exception ex) {
@@ -627,6 +1870,32 @@ public class ElmInterface {
 	}
 
 
+	/**
+	 * An immutable copy of the event loop's state, see getStatusSnapshot().
+	 */
+	public static final class StatusSnapshot {
+		public final int status;
+		public final String command;
+		public final int retryCounter;
+		public final int startWarmAttempts;
+		public final int startColdAttempts;
+		
+		public StatusSnapshot(int status, String command, int retryCounter, int startWarmAttempts, int startColdAttempts) {
+			this.status = status;
+			this.command = command;
+			this.retryCounter = retryCounter;
+			this.startWarmAttempts = startWarmAttempts;
+			this.startColdAttempts = startColdAttempts;
+		}
+		
+		@Override
+		public String toString() {
+			return "status: " + status + ", command: " + (command.length() > 0 ? command : "none") + ", retries: " + retryCounter
+					+ ", warm starts: " + startWarmAttempts + ", cold starts: " + startColdAttempts;
+		}
+	}
+	
+
 	public class DeviceOpenEvent extends EventObject {
 		private static final long serialVersionUID = 1L;
 
@@ -0,0 +1,191 @@
+package com.theksmith.steeringwheelinterface;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * The tightest ELM hardware filter that still passes every configured button message, so the scantool drops the
+ * rest of the bus traffic before it is sent over the serial link.
+ *
+ * For J1850 and ISO protocols the 3 header bytes are priority, receiver and transmitter. If every button message has
+ * the same exact receiver (or failing that, transmitter) byte, monitoring uses ATMR (or ATMT) for it.
+ *
+ * For CAN protocols the header is the 11 or 29 bit ID. The filter passes only the ID bits that every button message
+ * fixes to the same value: ATCRA for a single exact ID, otherwise ATCF and ATCM, followed by ATMA.
+ */
+public class ElmMonitorFilter {
+	public static final int PROTOCOL_UNKNOWN = 0;
+	public static final int PROTOCOL_HEADER_ADDRESSED = 1;	//J1850 and ISO, 3 header bytes
+	public static final int PROTOCOL_CAN_11BIT = 2;
+	public static final int PROTOCOL_CAN_29BIT = 3;
+
+	protected static final int HEADER_RECEIVER_INDEX = 1;
+	protected static final int HEADER_TRANSMITTER_INDEX = 2;
+
+	protected static final int CAN_11BIT_ID_MASK = 0x7FF;
+	protected static final int CAN_29BIT_ID_MASK = 0x1FFFFFFF;
+
+	protected final String[] mSetupCommands;
+	protected final String mMonitorCommand;
+
+
+	private ElmMonitorFilter() {
+		//exists only to prevent creation of class without passing required param
+		mSetupCommands = null;
+		mMonitorCommand = null;
+	}
+
+
+	protected ElmMonitorFilter(String[] setupCommands, String monitorCommand) {
+		mSetupCommands = setupCommands;
+		mMonitorCommand = monitorCommand;
+	}
+
+
+	/**
+	 * @return					Commands to send before the monitor command, possibly none.
+	 */
+	public String[] getSetupCommands() {
+		return mSetupCommands;
+	}
+
+
+	public String getMonitorCommand() {
+		return mMonitorCommand;
+	}
+
+
+	/**
+	 * Finds the tightest filter for a set of button messages.
+	 *
+	 * @param protocolCommand	The ATSP (or ATTP) command the device is set up with.
+	 * @param patterns			The button message definitions to pass.
+	 * @return					The filter, or null if the protocol is unknown (ex: automatic) or nothing can be filtered.
+	 */
+	public static ElmMonitorFilter build(String protocolCommand, ButtonPattern[] patterns) {
+		if (patterns.length == 0) return null;
+
+		switch (getProtocol(protocolCommand)) {
+			case PROTOCOL_HEADER_ADDRESSED:
+				return buildHeaderAddressed(patterns);
+			case PROTOCOL_CAN_11BIT:
+				return buildCan(patterns, 2, CAN_11BIT_ID_MASK, "%03X");
+			case PROTOCOL_CAN_29BIT:
+				return buildCan(patterns, 4, CAN_29BIT_ID_MASK, "%08X");
+			default:
+				return null;
+		}
+	}
+
+
+	/**
+	 * @param protocolCommand	An ATSPx or ATTPx command.
+	 * @return					One of the PROTOCOL_XYZ definitions.
+	 */
+	public static int getProtocol(String protocolCommand) {
+		final String command = protocolCommand.trim().toUpperCase(Locale.US).replace(" ", "");
+		if (command.length() != 5 || !(command.startsWith("ATSP") || command.startsWith("ATTP"))) {
+			//includes "ATSPAx", automatic with a preferred protocol
+			return PROTOCOL_UNKNOWN;
+		}
+
+		switch (command.charAt(4)) {
+			case '1':
+			case '2':
+			case '3':
+			case '4':
+			case '5':
+				return PROTOCOL_HEADER_ADDRESSED;
+			case '6':
+			case '8':
+				return PROTOCOL_CAN_11BIT;
+			case '7':
+			case '9':
+			case 'A':
+				return PROTOCOL_CAN_29BIT;
+			default:
+				return PROTOCOL_UNKNOWN;
+		}
+	}
+
+
+	protected static ElmMonitorFilter buildHeaderAddressed(ButtonPattern[] patterns) {
+		int address = getCommonExactByte(patterns, HEADER_RECEIVER_INDEX);
+		if (address >= 0) {
+			return new ElmMonitorFilter(new String[0], String.format(Locale.US, "ATMR%02X", address));
+		}
+
+		address = getCommonExactByte(patterns, HEADER_TRANSMITTER_INDEX);
+		if (address >= 0) {
+			return new ElmMonitorFilter(new String[0], String.format(Locale.US, "ATMT%02X", address));
+		}
+
+		return null;
+	}
+
+
+	protected static ElmMonitorFilter buildCan(ButtonPattern[] patterns, int idLength, int idMask, String format) {
+		//start with every ID bit, then keep only those fixed by every pattern to the same value as the first
+		int mask = idMask;
+		final int filter = getId(patterns[0].getValue(), idLength) & idMask;
+
+		for (ButtonPattern pattern : patterns) {
+			mask &= getId(pattern.getMask(), idLength);
+			mask &= ~(getId(pattern.getValue(), idLength) ^ filter);
+		}
+
+		if (mask == 0) return null;
+
+		final List<String> setup = new ArrayList<String>();
+		if (mask == idMask) {
+			setup.add("ATCRA" + String.format(Locale.US, format, filter));
+		} else {
+			setup.add("ATCF" + String.format(Locale.US, format, filter & mask));
+			setup.add("ATCM" + String.format(Locale.US, format, mask));
+		}
+
+		return new ElmMonitorFilter(setup.toArray(new String[setup.size()]), "ATMA");
+	}
+
+
+	/**
+	 * @return					The byte value if every pattern requires the same exact value at index, otherwise -1.
+	 */
+	protected static int getCommonExactByte(ButtonPattern[] patterns, int index) {
+		final int shift = 56 - (index * 8);
+		int common = -1;
+
+		for (ButtonPattern pattern : patterns) {
+			final int mask = (int)(pattern.getMask() >>> shift) & 0xFF;
+			final int value = (int)(pattern.getValue() >>> shift) & 0xFF;
+
+			if (mask != 0xFF || (common >= 0 && value != common)) {
+				return -1;
+			}
+			common = value;
+		}
+
+		return common;
+	}
+
+
+	/**
+	 * @param packed			A pattern's packed value or mask (see ButtonPattern).
+	 * @param idLength			Header bytes holding the ID, as ELM output is decoded ("7E8" is "07 E8").
+	 */
+	protected static int getId(long packed, int idLength) {
+		return (int)(packed >>> (64 - (idLength * 8)));
+	}
+
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		for (String command : mSetupCommands) {
+			result.append(command).append(", ");
+		}
+		return result.append(mMonitorCommand).toString();
+	}
+}
@@ -0,0 +1,174 @@
+package com.theksmith.steeringwheelinterface;
+
+
+/**
+ * Splits the raw byte stream received from an ELM based device into complete lines and prompts.
+ * Incoming chunks are scanned once, byte by byte, and copied into a single reusable line buffer.
+ * Complete lines are handed to the listener as a view of that buffer, so no Strings are created.
+ * A line longer than the buffer is discarded (up to its terminator) rather than growing memory.
+ * Each line carries the arrival time of the chunk holding its first byte.
+ */
+public class ElmResponseFramer {
+	public static final int DEFAULT_MAX_LINE_LENGTH = 256;
+
+	protected static final byte CHAR_CR = '\r';
+	protected static final byte CHAR_LF = '\n';
+	protected static final byte CHAR_PROMPT = '>';
+	protected static final byte CHAR_NULL = 0;
+
+	protected final byte[] mLine;
+	protected int mLineLength = 0;
+	protected boolean mLineOverflow = false;
+	protected int mOverflowCount = 0;
+	protected long mLineArrivalTime = 0;
+
+	protected Listener mListener;
+
+
+	/**
+	 * Receives the complete lines and prompts found by the framer.
+	 * The buffer passed to onLine() is owned by the framer and is only valid until the call returns.
+	 */
+	public interface Listener {
+		/**
+		 * @param line			Buffer holding the line (without terminators).
+		 * @param length		Number of bytes in the line.
+		 * @param arrivalTime	System.nanoTime() when the line's first byte was read.
+		 */
+		public void onLine(byte[] line, int length, long arrivalTime);
+
+		public void onPrompt();
+	}
+
+
+	private ElmResponseFramer() {
+		//exists only to prevent creation of class without passing required param
+		mLine = null;
+	}
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param listener			Receives the framed lines and prompts.
+	 */
+	public ElmResponseFramer(Listener listener) {
+		this(listener, DEFAULT_MAX_LINE_LENGTH);
+	}
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param listener			Receives the framed lines and prompts.
+	 * @param maxLineLength		Hard cap on bytes held for a partial line.
+	 */
+	public ElmResponseFramer(Listener listener, int maxLineLength) {
+		mListener = listener;
+		mLine = new byte[maxLineLength];
+	}
+
+
+	/**
+	 * Discards any partial line.
+	 */
+	public void reset() {
+		mLineLength = 0;
+		mLineOverflow = false;
+	}
+
+
+	/**
+	 * @return					Number of lines discarded for exceeding the maximum line length.
+	 */
+	public int getOverflowCount() {
+		return mOverflowCount;
+	}
+
+
+	/**
+	 * Scans a chunk of received data, firing the listener for each line terminator or prompt found.
+	 *
+	 * @param data				Buffer holding the received bytes.
+	 * @param offset			Index of the first received byte.
+	 * @param length			Number of received bytes.
+	 */
+	public void append(byte[] data, int offset, int length) {
+		append(data, offset, length, System.nanoTime());
+	}
+
+
+	/**
+	 * Scans a chunk of received data, firing the listener for each line terminator or prompt found.
+	 *
+	 * @param data				Buffer holding the received bytes.
+	 * @param offset			Index of the first received byte.
+	 * @param length			Number of received bytes.
+	 * @param arrivalTime		System.nanoTime() when the chunk was read.
+	 */
+	public void append(byte[] data, int offset, int length, long arrivalTime) {
+		final int end = offset + length;
+
+		for (int i = offset; i < end; i++) {
+			final byte b = data[i];
+
+			if (b == CHAR_CR || b == CHAR_LF) {
+				lineEnd();
+			} else if (b == CHAR_PROMPT) {
+				lineEnd();
+				mListener.onPrompt();
+			} else if (b != CHAR_NULL) {
+				if (mLineLength == 0) {
+					mLineArrivalTime = arrivalTime;
+				}
+				if (mLineLength < mLine.length) {
+					mLine[mLineLength++] = b;
+				} else if (!mLineOverflow) {
+					mLineOverflow = true;
+					mOverflowCount++;
+				}
+			}
+		}
+	}
+
+
+	protected void lineEnd() {
+		if (mLineOverflow) {
+			//the beginning of this line has already been lost, drop the rest of it too
+			reset();
+			return;
+		}
+
+		//skip the empty lines created by CR/LF pairs and blank lines before prompts
+		if (mLineLength > 0) {
+			final int length = mLineLength;
+			mLineLength = 0;
+			mListener.onLine(mLine, length, mLineArrivalTime);
+		}
+	}
+
+
+	/**
+	 * Determines if a line contains a token, without creating Strings.
+	 *
+	 * @param line				Line buffer as passed to Listener.onLine().
+	 * @param length			Line length as passed to Listener.onLine().
+	 * @param token				The ASCII bytes to look for.
+	 * @return					Returns true if the token was found anywhere in the line.
+	 */
+	public static boolean contains(byte[] line, int length, byte[] token) {
+		final int last = length - token.length;
+
+		outer:
+		for (int i = 0; i <= last; i++) {
+			for (int j = 0; j < token.length; j++) {
+				if (line[i + j] != token[j]) {
+					continue outer;
+				}
+			}
+			return true;
+		}
+
+		return false;
+	}
+}
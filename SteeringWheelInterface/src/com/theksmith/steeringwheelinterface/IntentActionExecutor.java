@@ -0,0 +1,82 @@
+package com.theksmith.steeringwheelinterface;
+
+import android.content.Context;
+import android.content.Intent;
+import android.view.KeyEvent;
+
+
+/**
+ * Performs media key actions in-process by broadcasting media button key events (as a headset would),
+ * and the home screen action by starting the home activity. Does not require root.
+ */
+public class IntentActionExecutor extends CommonActionExecutor {
+	protected Context mAppContext;
+	protected final Intent mHomeIntent;
+	
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param appContext		The application context of the container app.
+	 */
+	public IntentActionExecutor(Context appContext) {
+		mAppContext = appContext.getApplicationContext();
+		
+		mHomeIntent = new Intent(Intent.ACTION_MAIN);
+		mHomeIntent.addCategory(Intent.CATEGORY_HOME);
+		mHomeIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+	}
+	
+	
+	@Override
+	public String getName() {
+		return "intent";
+	}
+	
+	
+	@Override
+	public boolean supports(int action) {
+		return action == ACTION_MEDIA_PLAY_PAUSE || action == ACTION_MEDIA_NEXT || action == ACTION_MEDIA_PREVIOUS || action == ACTION_HOME;
+	}
+	
+	
+	@Override
+	public boolean isVerified(int action) {
+		//a broadcast or activity start returns before anything handles it, or even if nothing will
+		return false;
+	}
+	
+	
+	@Override
+	protected boolean executeAction(int action) throws Exception {
+		switch (action) {
+			case ACTION_MEDIA_PLAY_PAUSE:
+				sendMediaKey(KeyEvent.KEYCODE_MEDIA_PLAY_PAUSE);
+				break;
+			case ACTION_MEDIA_NEXT:
+				sendMediaKey(KeyEvent.KEYCODE_MEDIA_NEXT);
+				break;
+			case ACTION_MEDIA_PREVIOUS:
+				sendMediaKey(KeyEvent.KEYCODE_MEDIA_PREVIOUS);
+				break;
+			case ACTION_HOME:
+				mAppContext.startActivity(mHomeIntent);
+				break;
+			default:
+				throw new IllegalArgumentException("Unsupported action: " + action);
+		}
+		
+		return true;
+	}
+	
+	
+	protected void sendMediaKey(int keyCode) {
+		Intent down = new Intent(Intent.ACTION_MEDIA_BUTTON);
+		down.putExtra(Intent.EXTRA_KEY_EVENT, new KeyEvent(KeyEvent.ACTION_DOWN, keyCode));
+		mAppContext.sendOrderedBroadcast(down, null);
+		
+		Intent up = new Intent(Intent.ACTION_MEDIA_BUTTON);
+		up.putExtra(Intent.EXTRA_KEY_EVENT, new KeyEvent(KeyEvent.ACTION_UP, keyCode));
+		mAppContext.sendOrderedBroadcast(up, null);
+	}
+}
@@ -0,0 +1,129 @@
+package com.theksmith.steeringwheelinterface;
+
+
+/**
+ * A fixed memory histogram of latencies in nanoseconds, with roughly 12% resolution at any magnitude.
+ * Each power of two range is split into 8 buckets, so recording is a few shifts and an increment, with no allocation.
+ * 
+ * Meant for a single recording thread, other threads reading the percentiles may see slightly stale values.
+ */
+public class LatencyHistogram {
+	protected static final int SUB_BUCKET_BITS = 3;
+	protected static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	protected static final int BUCKET_COUNT = (63 - SUB_BUCKET_BITS) * SUB_BUCKETS + SUB_BUCKETS;
+	
+	protected final int[] mBuckets = new int[BUCKET_COUNT];
+	protected volatile long mCount = 0;
+	protected volatile long mMax = 0;
+	protected volatile long mTotal = 0;
+	
+	
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		
+		mBuckets[bucketIndex(nanos)]++;
+		mTotal += nanos;
+		if (nanos > mMax) {
+			mMax = nanos;
+		}
+		mCount++;
+	}
+	
+	
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			mBuckets[i] = 0;
+		}
+		mCount = 0;
+		mMax = 0;
+		mTotal = 0;
+	}
+	
+	
+	public long getCount() {
+		return mCount;
+	}
+	
+	
+	public long getMax() {
+		return mMax;
+	}
+	
+	
+	public long getMean() {
+		final long count = mCount;
+		return count > 0 ? mTotal / count : 0;
+	}
+	
+	
+	/**
+	 * @param percentile		Between 0 and 100.
+	 * @return					The upper bound (nanoseconds) of the bucket holding the percentile, never more than the max.
+	 */
+	public long getPercentile(double percentile) {
+		final long count = mCount;
+		if (count == 0) {
+			return 0;
+		}
+		
+		final long target = Math.max(1, (long)Math.ceil(count * percentile / 100.0));
+		long seen = 0;
+		
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += mBuckets[i];
+			if (seen >= target) {
+				return Math.min(bucketUpperBound(i), mMax);
+			}
+		}
+		
+		return mMax;
+	}
+	
+	
+	/**
+	 * @return					A short human readable summary: count, p50, p99 and max.
+	 */
+	public String getSummary() {
+		return "n=" + getCount()
+				+ " p50=" + formatNanos(getPercentile(50))
+				+ " p99=" + formatNanos(getPercentile(99))
+				+ " max=" + formatNanos(getMax());
+	}
+	
+	
+	protected static int bucketIndex(long nanos) {
+		if (nanos < SUB_BUCKETS) {
+			return (int)nanos;
+		}
+		
+		final int msb = 63 - Long.numberOfLeadingZeros(nanos);
+		final int sub = (int)(nanos >>> (msb - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		
+		return ((msb - SUB_BUCKET_BITS + 1) * SUB_BUCKETS) + sub;
+	}
+	
+	
+	protected static long bucketUpperBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		
+		final int msb = (index / SUB_BUCKETS) + SUB_BUCKET_BITS - 1;
+		final long sub = index % SUB_BUCKETS;
+		final long lower = (1L << msb) | (sub << (msb - SUB_BUCKET_BITS));
+		
+		return lower + (1L << (msb - SUB_BUCKET_BITS)) - 1;
+	}
+	
+	
+	public static String formatNanos(long nanos) {
+		if (nanos < 10000L) {
+			return nanos / 1000 + "." + (nanos % 1000) / 100 + "us";
+		} else if (nanos < 10000000L) {
+			return nanos / 1000 + "us";
+		}
+		return nanos / 1000000 + "ms";
+	}
+}
@@ -0,0 +1,67 @@
+package com.theksmith.steeringwheelinterface;
+
+
+/**
+ * Per stage latency histograms for the path from a bus message arriving over USB to its button action being performed.
+ */
+public class LatencyStats {
+	//the stages, each measured from the end of the previous one
+	public static final int STAGE_FRAMING = 0;		//USB read of the line's first byte, to the line being complete
+	public static final int STAGE_MATCHING = 1;		//line complete, to decoded and resolved to a button (or rejected)
+	public static final int STAGE_GESTURE = 2;		//button resolved, to the gesture decision
+	public static final int STAGE_QUEUE = 3;		//gesture decision, to the dispatch worker starting the action
+	public static final int STAGE_ACTION = 4;		//dispatch worker starting the action, to the action executor returning
+	public static final int STAGE_TOTAL = 5;		//USB read, to the action executor returning
+	public static final int STAGE_DEADLINE = 6;		//gesture deadline due (ex: long press), to the event loop acting on it
+	public static final int STAGE_COUNT = 7;
+	
+	protected static final String[] STAGE_NAMES = { "framing", "matching", "gesture", "queue", "action", "total", "deadline" };
+	
+	protected final LatencyHistogram[] mStages = new LatencyHistogram[STAGE_COUNT];
+	
+	
+	public LatencyStats() {
+		for (int i = 0; i < STAGE_COUNT; i++) {
+			mStages[i] = new LatencyHistogram();
+		}
+	}
+	
+	
+	public void record(int stage, long nanos) {
+		mStages[stage].record(nanos);
+	}
+	
+	
+	public LatencyHistogram getStage(int stage) {
+		return mStages[stage];
+	}
+	
+	
+	public int getStageCount() {
+		return mStages.length;
+	}
+	
+	
+	public String getStageName(int stage) {
+		return STAGE_NAMES[stage];
+	}
+	
+	
+	public void reset() {
+		for (LatencyHistogram stage : mStages) {
+			stage.reset();
+		}
+	}
+	
+	
+	/**
+	 * @return					A human readable report, one line per stage.
+	 */
+	public String getReport() {
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < mStages.length; i++) {
+			result.append(getStageName(i)).append(": ").append(mStages[i].getSummary()).append('\n');
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,480 @@
+package com.theksmith.steeringwheelinterface;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.util.Log;
+
+
+/**
+ * A long lived root shell fed over a command queue.
+ * Spawning "su" per command costs hundreds of milliseconds, writing to an open shell's stdin costs very little.
+ *
+ * Commands are queued by exec() and written to the shell by a worker thread, so callers never wait on the shell.
+ * A shell that has exited (or can't be written to) is detected and restarted before the next command.
+ * Each command is followed by an echo of its exit code, so completion can be reported to a CompletionListener.
+ * A no-op command is sent first to each new shell, its round-trip confirms root was granted, see ReadyListener.
+ */
+public class RootShell {
+	protected static final String TAG = RootShell.class.getSimpleName();
+
+	protected static final String SHELL_COMMAND = "su";
+	protected static final int QUEUE_CAPACITY = 32;
+	protected static final int RESTART_DELAY = 1000;	//milliseconds, prevents spinning when root is denied
+	protected static final int STOP_WAIT = 2000;		//milliseconds
+	protected static final String COMPLETION_MARKER = "__rootshell_done__";
+	protected static final String PROBE_COMMAND = "true";
+	
+	public static final int NO_TAG = -1;
+	protected static final int PROBE_TAG = -2;
+
+	protected final String mShellCommand;
+	protected final BlockingQueue<Command> mQueue = new ArrayBlockingQueue<Command>(QUEUE_CAPACITY);
+	protected Thread mWorker;							//kept after stop() until a new start() has seen it finish
+	protected volatile Boolean mRunning = false;
+
+	//owned by the worker thread, the process is also destroyed by stop()
+	protected volatile Process mProcess;
+	protected OutputStream mShellInput;
+	protected OutputDrain mDrain;
+	
+	protected volatile CompletionListener mCompletionListener;
+	protected volatile ReadyListener mReadyListener;
+	protected volatile Boolean mReady = false;			//false again once the shell stops or dies, until its replacement is probed
+	protected long mLastStartTime = 0;
+
+	//stats, written by the worker thread only
+	protected volatile int mCommandCount = 0;
+	protected volatile int mFailureCount = 0;
+	protected volatile int mRestartCount = 0;
+	protected volatile long mWriteLatencyTotal = 0;	//nanoseconds
+	protected volatile long mWriteLatencyMax = 0;		//nanoseconds
+
+	//stats, written by the current shell's output drain only
+	protected volatile int mCompletedCount = 0;
+	protected volatile long mCompletionLatencyTotal = 0;	//nanoseconds
+	protected volatile long mCompletionLatencyMax = 0;		//nanoseconds
+
+
+	protected static class Command {
+		final byte[] mText;
+		final int mTag;
+		final long mQueuedTime;
+		final AtomicBoolean mCompleted = new AtomicBoolean(false);	//reported at most once, see notifyComplete()
+
+		Command(String text, int tag) {
+			mText = (text + "; echo " + COMPLETION_MARKER + "$?\n").getBytes();
+			mTag = tag;
+			mQueuedTime = System.nanoTime();
+		}
+	}
+	
+	
+	/**
+	 * Notified (on an internal thread) when a queued command has finished running, or has failed to run.
+	 */
+	public interface CompletionListener {
+		/**
+		 * @param tag				The tag given to exec().
+		 * @param success			Returns true if the command ran and exited with status 0.
+		 * @param latency			Nanoseconds from exec() to completion.
+		 */
+		public void onCommandComplete(int tag, boolean success, long latency);
+	}
+	
+	
+	/**
+	 * Notified (on an internal thread) once a command has made the round-trip through the shell, i.e. root was granted.
+	 * Notified again if the shell had to be restarted, once the new one has made it.
+	 */
+	public interface ReadyListener {
+		public void onShellReady(RootShell shell);
+	}
+	
+	
+	public RootShell() {
+		this(SHELL_COMMAND);
+	}
+
+
+	/**
+	 * @param shellCommand		The shell to run, "su" for root (ex: "sh" to run the queue without root).
+	 */
+	public RootShell(String shellCommand) {
+		mShellCommand = shellCommand;
+	}
+
+
+	public void setCompletionListener(CompletionListener listener) {
+		mCompletionListener = listener;
+	}
+	
+	
+	/**
+	 * @param listener			Called once the shell is confirmed working, right away if it already is.
+	 */
+	public void setReadyListener(ReadyListener listener) {
+		mReadyListener = listener;
+		if (mReady && listener != null) {
+			listener.onShellReady(this);
+		}
+	}
+	
+	
+	/**
+	 * @return					Returns true once a command has completed successfully through the current shell.
+	 */
+	public Boolean isReady() {
+		return mReady;
+	}
+
+
+	/**
+	 * Starts the worker thread, the shell itself is spawned right away so the first command doesn't pay for it.
+	 * After a stop(), waits for the previous worker to finish so two workers never share a shell.
+	 */
+	public synchronized void start() {
+		if (mRunning) return;
+
+		if (mWorker != null) {
+			try {
+				mWorker.join(STOP_WAIT);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			if (mWorker.isAlive()) {
+				Log.w(TAG, "ROOT SHELL WORKER DID NOT STOP, NOT RESTARTING");
+				return;
+			}
+			mWorker = null;
+		}
+
+		mRunning = true;
+		mWorker = new Thread(mWorkerRun, TAG);
+		mWorker.setDaemon(true);
+		mWorker.start();
+	}
+
+
+	/**
+	 * Stops the worker thread and exits the shell, without waiting for them. Queued commands are discarded.
+	 */
+	public synchronized void stop() {
+		if (!mRunning) return;
+
+		mRunning = false;
+		mReady = false;
+		mQueue.clear();
+		mWorker.interrupt();
+
+		//the interrupt doesn't reach a write blocked on the shell's stdin, ending the shell does
+		final Process process = mProcess;
+		if (process != null) {
+			process.destroy();
+		}
+	}
+
+
+	/**
+	 * Queues a command for the root shell.
+	 *
+	 * @param command			A shell command line, without the trailing line break.
+	 * @return					Returns false if the shell is not running or the queue is full.
+	 */
+	public Boolean exec(String command) {
+		return exec(command, NO_TAG);
+	}
+	
+	
+	/**
+	 * Queues a command for the root shell.
+	 *
+	 * @param command			A shell command line, without the trailing line break.
+	 * @param tag				Passed back to the CompletionListener to identify the command.
+	 * @return					Returns false if the shell is not running or the queue is full.
+	 */
+	public Boolean exec(String command, int tag) {
+		if (!mRunning) {
+			return false;
+		}
+
+		if (!mQueue.offer(new Command(command, tag))) {
+			Log.w(TAG, "ROOT SHELL QUEUE FULL, DROPPED: " + command);
+			return false;
+		}
+		return true;
+	}
+
+
+	public Boolean isRunning() {
+		return mRunning;
+	}
+
+
+	/**
+	 * @return					A human readable summary of the command count, failures and restarts, the write latency
+	 * 							(exec() to the pipe write) and the completion latency (exec() to the exit code read back).
+	 */
+	public String getStats() {
+		final int count = mCommandCount;
+		final long writeAverage = count > 0 ? mWriteLatencyTotal / count : 0;
+		final int completed = mCompletedCount;
+		final long completionAverage = completed > 0 ? mCompletionLatencyTotal / completed : 0;
+
+		return "commands: " + count
+				+ ", failures: " + mFailureCount
+				+ ", restarts: " + mRestartCount
+				+ ", write latency avg/max: " + (writeAverage / 1000) + "/" + (mWriteLatencyMax / 1000) + " us"
+				+ ", completion latency avg/max: " + (completionAverage / 1000) + "/" + (mCompletionLatencyMax / 1000) + " us";
+	}
+
+
+	protected Runnable mWorkerRun = new Runnable() {
+		public void run() {
+			shellStart();
+
+			try {
+				while (mRunning) {
+					Command command = mQueue.take();
+
+					//one retry on a fresh shell if the current one has died
+					if (!shellWrite(command) && !shellWrite(command)) {
+						mFailureCount++;
+						notifyComplete(command, false);
+						continue;
+					}
+
+					long latency = System.nanoTime() - command.mQueuedTime;
+					mWriteLatencyTotal += latency;
+					if (latency > mWriteLatencyMax) {
+						mWriteLatencyMax = latency;
+					}
+					mCommandCount++;
+				}
+			} catch (InterruptedException ex) {
+				//stop() was called
+			} finally {
+				shellStop();
+			}
+		}
+	};
+
+
+	protected Boolean shellWrite(Command command) {
+		if (!shellIsAlive() && !shellStart()) {
+			return false;
+		}
+
+		try {
+			//queue for completion before writing, the output may arrive before write() returns
+			if (!mDrain.track(command)) {
+				if (mDrain.isEnded()) {
+					//exited since the check above, its drain has already failed what it was tracking
+					Log.w(TAG, "ROOT SHELL EXITED");
+					shellStop();
+					return false;
+				}
+				
+				//completions are matched to commands in order, so one that can't be tracked must not be written
+				Log.w(TAG, "ROOT SHELL COMPLETION QUEUE FULL, NOT WRITTEN");
+				return false;
+			}
+			mShellInput.write(command.mText);
+			mShellInput.flush();
+			return true;
+		} catch (IOException ex) {
+			Log.w(TAG, "ERROR WRITING TO ROOT SHELL", ex);
+			final Boolean drained = !mDrain.mPending.remove(command);
+			shellStop();
+
+			//the dying shell's drain already took it and reports its failure, a retry would report it a second time
+			return drained;
+		}
+	}
+
+
+	protected Boolean shellIsAlive() {
+		if (mProcess == null) {
+			return false;
+		}
+
+		try {
+			//only returns if the process has exited
+			mProcess.exitValue();
+			Log.w(TAG, "ROOT SHELL EXITED");
+			shellStop();
+			return false;
+		} catch (IllegalThreadStateException ex) {
+			return true;
+		}
+	}
+
+
+	protected Boolean shellStart() {
+		long now = System.currentTimeMillis();
+		if (now - mLastStartTime < RESTART_DELAY) {
+			try {
+				Thread.sleep(RESTART_DELAY - (now - mLastStartTime));
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+
+		if (mLastStartTime > 0) {
+			mRestartCount++;
+		}
+		mLastStartTime = System.currentTimeMillis();
+
+		try {
+			ProcessBuilder builder = new ProcessBuilder(mShellCommand);
+			builder.redirectErrorStream(true);
+			mProcess = builder.start();
+			mShellInput = mProcess.getOutputStream();
+
+			//the shell's output must be drained or it will eventually block
+			mDrain = new OutputDrain(this, mProcess);
+			Thread drain = new Thread(mDrain, TAG + "Output");
+			drain.setDaemon(true);
+			drain.start();
+
+			Log.d(TAG, "ROOT SHELL STARTED");
+		} catch (IOException ex) {
+			Log.e(TAG, "ERROR STARTING ROOT SHELL", ex);
+			mProcess = null;
+			mShellInput = null;
+			mDrain = null;
+			return false;
+		}
+
+		//probe every new shell, root may not be granted to this one (ex: revoked since the last)
+		final Command probe = new Command(PROBE_COMMAND, PROBE_TAG);
+		try {
+			mDrain.track(probe);
+			mShellInput.write(probe.mText);
+			mShellInput.flush();
+			return true;
+		} catch (IOException ex) {
+			Log.w(TAG, "ERROR WRITING TO ROOT SHELL", ex);
+			shellStop();
+			return false;
+		}
+	}
+
+
+	protected void shellStop() {
+		if (mProcess == null) return;
+
+		mReady = false;
+
+		try {
+			mShellInput.write("exit\n".getBytes());
+			mShellInput.flush();
+			mShellInput.close();
+		} catch (IOException ex) { }
+
+		mProcess.destroy();
+		mProcess = null;
+		mShellInput = null;
+		mDrain = null;
+	}
+	
+	
+	/**
+	 * Reports a command's completion, only the first time it is called for the command.
+	 */
+	protected void notifyComplete(Command command, boolean success) {
+		if (!command.mCompleted.compareAndSet(false, true)) return;
+
+		if (command.mTag == PROBE_TAG) {
+			//a stopped shell's probe may still come back, it says nothing about the next one
+			if (success && !mReady && mRunning) {
+				mReady = true;
+				Log.d(TAG, "ROOT SHELL READY");
+				
+				ReadyListener readyListener = mReadyListener;
+				if (readyListener != null) {
+					readyListener.onShellReady(this);
+				}
+			}
+			return;
+		}
+		
+		final long latency = System.nanoTime() - command.mQueuedTime;
+		if (success) {
+			mCompletedCount++;
+			mCompletionLatencyTotal += latency;
+			if (latency > mCompletionLatencyMax) {
+				mCompletionLatencyMax = latency;
+			}
+		}
+
+		CompletionListener listener = mCompletionListener;
+		if (listener != null && command.mTag != NO_TAG) {
+			listener.onCommandComplete(command.mTag, success, latency);
+		}
+	}
+
+
+	/**
+	 * Reads a shell's output until it exits, matching completion markers to written commands, then reaps the process.
+	 */
+	protected static class OutputDrain implements Runnable {
+		protected final RootShell mShell;
+		protected final Process mDrainProcess;
+		protected final BlockingQueue<Command> mPending = new ArrayBlockingQueue<Command>(QUEUE_CAPACITY * 2);
+		protected Boolean mEnded = false;				//synchronized by 'this', set once the output has ended
+
+		OutputDrain(RootShell shell, Process process) {
+			mShell = shell;
+			mDrainProcess = process;
+		}
+
+		/**
+		 * @return				Returns false if the command can't be tracked: the queue is full or the output has ended.
+		 */
+		synchronized Boolean track(Command command) {
+			return !mEnded && mPending.offer(command);
+		}
+
+		synchronized Boolean isEnded() {
+			return mEnded;
+		}
+
+		public void run() {
+			BufferedReader output = new BufferedReader(new InputStreamReader(mDrainProcess.getInputStream()));
+
+			try {
+				String line;
+				while ((line = output.readLine()) != null) {
+					int marker = line.indexOf(COMPLETION_MARKER);
+					if (marker < 0) continue;
+
+					Command command = mPending.poll();
+					if (command != null) {
+						String status = line.substring(marker + COMPLETION_MARKER.length()).trim();
+						mShell.notifyComplete(command, status.equals("0"));
+					}
+				}
+			} catch (IOException ex) { }
+
+			//anything still pending never ran to completion in this shell, and nothing more is tracked
+			synchronized (this) {
+				mEnded = true;
+			}
+			Command command;
+			while ((command = mPending.poll()) != null) {
+				mShell.notifyComplete(command, false);
+			}
+
+			try {
+				mDrainProcess.waitFor();
+			} catch (InterruptedException ex) { }
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package com.theksmith.steeringwheelinterface;
+
+import android.view.KeyEvent;
+
+
+/**
+ * Performs actions by injecting key events ("input keyevent") through a long lived RootShell.
+ * Supports every action but requires root. Latency is measured to the command's completion in the shell.
+ */
+public class RootShellActionExecutor extends CommonActionExecutor implements RootShell.CompletionListener {
+	protected final RootShell mRootShell;
+	protected final String[] mCommands = new String[ACTION_COUNT];
+	
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param shell				A started RootShell, owned by the caller. Its completion listener is replaced.
+	 */
+	public RootShellActionExecutor(RootShell shell) {
+		mRootShell = shell;
+		mRootShell.setCompletionListener(this);
+		
+		mCommands[ACTION_MEDIA_PLAY_PAUSE] = "input keyevent " + KeyEvent.KEYCODE_MEDIA_PLAY_PAUSE;
+		mCommands[ACTION_MEDIA_NEXT] = "input keyevent " + KeyEvent.KEYCODE_MEDIA_NEXT;
+		mCommands[ACTION_MEDIA_PREVIOUS] = "input keyevent " + KeyEvent.KEYCODE_MEDIA_PREVIOUS;
+		mCommands[ACTION_HOME] = "input keyevent " + KeyEvent.KEYCODE_HOME;
+		mCommands[ACTION_VOLUME_UP] = "input keyevent " + KeyEvent.KEYCODE_VOLUME_UP;
+		mCommands[ACTION_VOLUME_DOWN] = "input keyevent " + KeyEvent.KEYCODE_VOLUME_DOWN;
+	}
+	
+	
+	@Override
+	public String getName() {
+		return "rootshell";
+	}
+	
+	
+	@Override
+	public boolean supports(int action) {
+		return action > ACTION_NONE && action < ACTION_COUNT && mCommands[action] != null;
+	}
+	
+	
+	@Override
+	public boolean isVerified(int action) {
+		//a success is the command completing in the shell
+		return true;
+	}
+	
+	
+	@Override
+	protected boolean executeAction(int action) throws Exception {
+		if (!mRootShell.exec(mCommands[action], action)) {
+			throw new Exception("Root shell did not accept command: " + mCommands[action]);
+		}
+		
+		//recorded by onCommandComplete()
+		return false;
+	}
+	
+	
+	@Override
+	public void onCommandComplete(int tag, boolean success, long latency) {
+		if (success) {
+			recordSuccess(tag, latency);
+		} else {
+			recordFailure(tag);
+		}
+	}
+}
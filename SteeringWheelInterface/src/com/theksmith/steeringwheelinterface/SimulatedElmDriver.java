@@ -0,0 +1,930 @@
+package com.theksmith.steeringwheelinterface;
+
+import java.io.IOException;
+import java.util.Random;
+
+import com.hoho.android.usbserial.driver.UsbSerialDriver;
+
+
+/**
+ * An in-memory stand-in for an ELM327 based scantool, for exercising the whole ElmInterface stack without a scantool or a car.
+ * Pass an instance to ElmInterface.setSerialDriver() before deviceOpen().
+ *
+ * The AT initialization commands are answered (echo, line feeds, spaces and headers are honored) after a realistic delay.
+ * The monitor commands (ATMA, ATMR xx, ATMT xx) emit generated bus messages at a configurable rate, with a button press
+ * message injected every so many messages and optional noise (error lines, garbage, NUL bytes).
+ *
+ * The protocol set with ATSPx decides the message format: J1850 style 3 byte headers, or CAN with 11 bit (ATSP6, ATSP8)
+ * or 29 bit (ATSP7, ATSP9, ATSPA) IDs and 8 data bytes. The hardware filters are honored too: the ATMR/ATMT address
+ * byte, and ATCRA, ATCF and ATCM on CAN. Messages the filter drops are only counted, see getFilteredCount().
+ *
+ * The serial link is modeled too: output drains at the device's baud rate, through an ELM sized buffer.
+ * Generating messages faster than the link can carry them fills the buffer and ends monitoring with "BUFFER FULL",
+ * just like the real device, so the maximum sustainable message rate can be found. Reads return odd sized chunks
+ * to exercise partial line handling.
+ *
+ * The device's default baud rate is the first one given to setParameters(). ATBRD (and STBR with setStn()) switch it
+ * with the real handshake: OK at the old rate, the device ID at the new rate, then a CR from the host within 75ms to
+ * keep it. ATZ goes back to the default. Bytes are garbled both ways while the host and device rates differ, or when
+ * the rate is above setMaxBaudRate().
+ *
+ * Faults are injected with injectError(): monitoring ends with the given error line (ex: "CAN ERROR") and a prompt,
+ * or if not monitoring, the next command is answered with it.
+ *
+ * Compare getInjectedPressCount() with the actions performed to catch dropped or duplicated presses. Injected presses
+ * rotate through the press messages, so keep the same button's presses further apart than the button release timeout.
+ */
+public class SimulatedElmDriver implements UsbSerialDriver {
+	public static final String DEVICE_ID = "ELM327 v1.5";
+	public static final String STN_DEVICE_ID = "STN1110 v4.0.1";
+
+	public static final int DEFAULT_FRAME_RATE = 50;			//bus messages per second
+	public static final int DEFAULT_PRESS_INTERVAL = 25;		//bus messages between injected button presses
+	public static final int DEFAULT_NOISE_PERCENT = 2;
+	public static final int DEFAULT_MAX_CHUNK = 64;				//bytes per read()
+	public static final int DEFAULT_MAX_BAUD_RATE = 500000;		//fastest rate the link carries cleanly
+
+	protected static final int ELM_BUFFER_SIZE = 256;			//bytes waiting to go out over the link before BUFFER FULL
+	protected static final int RESET_DELAY = 800;				//milliseconds
+	protected static final int COMMAND_DELAY = 20;				//milliseconds
+	protected static final int MAX_FRAMES_PER_UPDATE = 1000;	//keeps a stalled reader from generating a huge burst
+	protected static final int CAN_DATA_LENGTH = 8;
+	protected static final int BAUD_SWITCH_DELAY = 5;			//milliseconds from the OK to the ID at the new rate
+	protected static final int BAUD_CONFIRM_TIMEOUT = 75;		//milliseconds for the host to answer at a new rate (ATBRT default)
+	protected static final int ELM_BAUD_CLOCK = 4000000;		//ATBRD divides this
+
+	protected static final int PROTOCOL_HEADER_ADDRESSED = 0;
+	protected static final int PROTOCOL_CAN_11BIT = 1;
+	protected static final int PROTOCOL_CAN_29BIT = 2;
+
+	//headers for background traffic, none start with a default button message's first byte
+	protected static final int[] BACKGROUND_HEADERS = { 0x28, 0x48, 0x68, 0x88, 0xA8, 0xC8, 0xE8 };
+	protected static final String[] NOISE_LINES = { "<DATA ERROR", "<RX ERROR", "?", "NO DATA" };
+
+	protected static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+	protected final Random mRandom = new Random();
+
+	//configuration
+	protected int mFrameRate = DEFAULT_FRAME_RATE;
+	protected int mPressInterval = DEFAULT_PRESS_INTERVAL;
+	protected int mNoisePercent = DEFAULT_NOISE_PERCENT;
+	protected int mMaxChunk = DEFAULT_MAX_CHUNK;
+	protected int[][] mPressFrames;
+	protected int mMaxBaudRate = DEFAULT_MAX_BAUD_RATE;
+	protected Boolean mBaudCommandSupported = true;
+	protected Boolean mStn = false;
+	protected String mErrorResponse = null;		//answers the next command instead of its response, null for none
+
+	//device state, guarded by this
+	protected Boolean mOpen = false;
+	protected int mHostBaudRate = 0;
+	protected int mDefaultBaudRate = 0;			//0 until the host first sets its rate
+	protected int mDeviceBaudRate = 0;
+	protected int mBaudSwitchRate = 0;			//rate to switch to once the OK has gone out, 0 for none
+	protected int mBaudPreviousRate = 0;
+	protected long mBaudConfirmDeadline = 0;	//0 unless waiting for the host's CR at a new rate
+	protected Boolean mEcho = true;
+	protected Boolean mLinefeeds = true;
+	protected Boolean mSpaces = true;
+	protected Boolean mHeaders = false;
+	protected int mProtocol = PROTOCOL_HEADER_ADDRESSED;
+	protected int mMonitorAddressIndex = -1;	//header byte ATMR/ATMT filters on, -1 for all
+	protected int mMonitorAddress = 0;
+	protected int mCanFilter = 0;
+	protected int mCanMask = 0;					//0 passes every ID
+	protected Boolean mMonitoring = false;
+	protected long mMonitorStartTime = 0;
+	protected long mMonitorFrames = 0;
+	protected final StringBuilder mCommand = new StringBuilder();
+	protected byte[] mPendingResponse = null;
+	protected long mPendingResponseTime = 0;
+	protected final ByteQueue mDeviceBuffer = new ByteQueue(ELM_BUFFER_SIZE * 2);
+	protected final ByteQueue mHostBuffer = new ByteQueue(4096);
+	protected long mLastTransferTime = 0;
+	protected final StringBuilder mScratch = new StringBuilder(64);
+	protected final int[] mFrame = new int[BusFrame.MAX_LENGTH];
+
+	//stats, guarded by this
+	protected long mFrameCount = 0;
+	protected long mNoiseCount = 0;
+	protected long mBufferFullCount = 0;
+	protected long mFilteredCount = 0;
+	protected long mTransferredBytes = 0;
+	protected long mGarbledBytes = 0;
+	protected long mBaudSwitchCount = 0;
+	protected long mErrorCount = 0;
+	protected long[] mInjectedPresses;
+
+
+	public SimulatedElmDriver() {
+		setPressFrames(new String[] {
+				ButtonActions.BUTTON_LEFT_CENTER, ButtonActions.BUTTON_LEFT_DOWN, ButtonActions.BUTTON_LEFT_UP,
+				ButtonActions.BUTTON_RIGHT_CENTER, ButtonActions.BUTTON_RIGHT_DOWN, ButtonActions.BUTTON_RIGHT_UP });
+	}
+
+
+	/**
+	 * @param perSecond			Bus messages generated per second while monitoring.
+	 */
+	public synchronized void setFrameRate(int perSecond) {
+		mFrameRate = Math.max(1, perSecond);
+	}
+
+
+	/**
+	 * @param frames			Bus messages between injected button presses, 0 for none.
+	 */
+	public synchronized void setPressInterval(int frames) {
+		mPressInterval = frames;
+	}
+
+
+	/**
+	 * @param percent			Chance of a noise line (or NUL byte) after each bus message.
+	 */
+	public synchronized void setNoisePercent(int percent) {
+		mNoisePercent = percent;
+	}
+
+
+	/**
+	 * @param bytes				Largest chunk returned by a single read(), chunk sizes are random up to this.
+	 */
+	public synchronized void setMaxChunkSize(int bytes) {
+		mMaxChunk = Math.max(1, bytes);
+	}
+
+
+	/**
+	 * @param rate				Fastest baud rate the link carries without garbling (ex: the USB serial chip's limit).
+	 */
+	public synchronized void setMaxBaudRate(int rate) {
+		mMaxBaudRate = rate;
+	}
+
+
+	/**
+	 * @param supported			False to answer ATBRD with "?", like ELM v1.0 and many clones.
+	 */
+	public synchronized void setBaudCommandSupported(Boolean supported) {
+		mBaudCommandSupported = supported;
+	}
+
+
+	/**
+	 * @param stn				True to act as an STN chip: STI answers with its ID and STBR sets the baud rate.
+	 */
+	public synchronized void setStn(Boolean stn) {
+		mStn = stn;
+	}
+
+
+	/**
+	 * Injects a fault, as the real device reports it: monitoring ends at once with the error line and a prompt (ex:
+	 * "CAN ERROR", "BUS ERROR", "STOPPED"). When not monitoring, the next command is answered with it instead (ex: "?",
+	 * "UNABLE TO CONNECT"), and a monitor command answered that way doesn't start monitoring.
+	 *
+	 * @param response			The error line, without the line end.
+	 */
+	public synchronized void injectError(String response) {
+		mErrorCount++;
+
+		if (mMonitoring) {
+			mMonitoring = false;
+			final String pending = (mPendingResponse != null) ? new String(mPendingResponse) : "";
+			if (mPendingResponse == null) {
+				mPendingResponseTime = System.nanoTime();
+			}
+			mPendingResponse = (pending + response + lineEnd() + lineEnd() + ">").getBytes();
+			notifyAll();
+		} else {
+			mErrorResponse = response;
+		}
+	}
+
+
+	/**
+	 * @return					The baud rate the device is currently at, 0 if not yet known.
+	 */
+	public synchronized int getDeviceBaudRate() {
+		return mDeviceBaudRate;
+	}
+
+
+	public synchronized void setRandomSeed(long seed) {
+		mRandom.setSeed(seed);
+	}
+
+
+	/**
+	 * Sets the button press messages to inject, in rotation. Resets the injected press counts.
+	 *
+	 * @param frames			Whole bus messages (header bytes first) as ELM style hex, ex: "3D 11 00 80", or for CAN
+	 * 							"2C4 00 80" (11 bit) or "18 DA F1 10 00 80" (29 bit).
+	 * @throws IllegalArgumentException if a message is not valid hex.
+	 */
+	public synchronized void setPressFrames(String[] frames) {
+		int[][] pressFrames = new int[frames.length][];
+		for (int i = 0; i < frames.length; i++) {
+			BusFrame frame = BusFrame.fromString(frames[i]);
+			pressFrames[i] = new int[frame.getLength()];
+			for (int j = 0; j < pressFrames[i].length; j++) {
+				pressFrames[i][j] = frame.getByte(j);
+			}
+		}
+
+		mPressFrames = pressFrames;
+		mInjectedPresses = new long[frames.length];
+	}
+
+
+	/**
+	 * @param index				Index into the press messages given to setPressFrames().
+	 * @return					Number of times that button press was injected.
+	 */
+	public synchronized long getInjectedPressCount(int index) {
+		return mInjectedPresses[index];
+	}
+
+
+	public synchronized long getInjectedPressCount() {
+		long total = 0;
+		for (long count : mInjectedPresses) {
+			total += count;
+		}
+		return total;
+	}
+
+
+	/**
+	 * @return					Number of bus messages generated (including injected presses).
+	 */
+	public synchronized long getFrameCount() {
+		return mFrameCount;
+	}
+
+
+	public synchronized long getNoiseCount() {
+		return mNoiseCount;
+	}
+
+
+	/**
+	 * @return					Number of times monitoring ended because the link couldn't keep up.
+	 */
+	public synchronized long getBufferFullCount() {
+		return mBufferFullCount;
+	}
+
+
+	/**
+	 * @return					Number of bus messages dropped by the device's filters (ATMR/ATMT, ATCRA, ATCF/ATCM).
+	 */
+	public synchronized long getFilteredCount() {
+		return mFilteredCount;
+	}
+
+
+	/**
+	 * @return					Number of bytes sent over the serial link.
+	 */
+	public synchronized long getTransferredByteCount() {
+		return mTransferredBytes;
+	}
+
+
+	/**
+	 * @return					A human readable summary of the simulation counters.
+	 */
+	public synchronized String getStats() {
+		return "frames: " + mFrameCount
+				+ ", presses: " + getInjectedPressCount()
+				+ ", noise: " + mNoiseCount
+				+ ", filtered: " + mFilteredCount
+				+ ", buffer full: " + mBufferFullCount
+				+ ", bytes sent: " + mTransferredBytes
+				+ ", garbled: " + mGarbledBytes
+				+ ", baud rate: " + mDeviceBaudRate
+				+ ", baud switches: " + mBaudSwitchCount
+				+ ", errors: " + mErrorCount;
+	}
+
+
+	@Override
+	public synchronized void open() throws IOException {
+		mOpen = true;
+		reset();
+		mDeviceBuffer.clear();
+		mHostBuffer.clear();
+		mPendingResponse = null;
+		mErrorResponse = null;
+		mCommand.setLength(0);
+		mLastTransferTime = System.nanoTime();
+		mBaudSwitchRate = 0;
+		mBaudConfirmDeadline = 0;
+	}
+
+
+	@Override
+	public synchronized void close() throws IOException {
+		mOpen = false;
+		mMonitoring = false;
+		notifyAll();
+	}
+
+
+	@Override
+	public synchronized int read(byte[] dest, int timeoutMillis) throws IOException {
+		final long deadline = System.nanoTime() + (timeoutMillis * 1000000L);
+
+		while (mOpen) {
+			final long now = System.nanoTime();
+			update(now);
+
+			if (mHostBuffer.size() > 0) {
+				//odd sized chunks, like USB packets cutting lines at arbitrary points
+				int length = Math.min(mHostBuffer.size(), dest.length);
+				length = Math.min(length, 1 + mRandom.nextInt(mMaxChunk));
+				return mHostBuffer.take(dest, length);
+			}
+
+			final long remaining = deadline - now;
+			if (remaining <= 0) {
+				return 0;
+			}
+
+			try {
+				//wake often enough for the link model to deliver bytes smoothly
+				wait(Math.max(1, Math.min(5, remaining / 1000000L)));
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return 0;
+			}
+		}
+
+		throw new IOException("Device not open");
+	}
+
+
+	@Override
+	public synchronized int write(byte[] src, int timeoutMillis) throws IOException {
+		if (!mOpen) {
+			throw new IOException("Device not open");
+		}
+
+		if (!isLinkClean()) {
+			//the device only hears garbage, which still stops monitoring
+			mGarbledBytes += src.length;
+			if (mMonitoring) {
+				mMonitoring = false;
+				mPendingResponse = prompt();
+				mPendingResponseTime = System.nanoTime();
+			}
+			notifyAll();
+			return src.length;
+		}
+
+		if (mBaudConfirmDeadline != 0) {
+			for (byte b : src) {
+				if (b == '\r') {
+					//the host answered at the new rate, keep it
+					mBaudConfirmDeadline = 0;
+					mBaudSwitchCount++;
+					mPendingResponse = ("OK" + lineEnd() + lineEnd() + ">").getBytes();
+					mPendingResponseTime = System.nanoTime();
+					break;
+				}
+			}
+			notifyAll();
+			return src.length;
+		}
+
+		int start = 0;
+		if (mMonitoring) {
+			//any character stops monitoring, the rest of the write is lost just like on the real device
+			mMonitoring = false;
+			mPendingResponse = prompt();
+			mPendingResponseTime = System.nanoTime();
+			start = src.length;
+		}
+
+		for (int i = start; i < src.length; i++) {
+			final char c = (char)src[i];
+			if (c == '\r') {
+				onCommand(mCommand.toString());
+				mCommand.setLength(0);
+			} else if (c != ' ' && c != '\n') {
+				mCommand.append(Character.toUpperCase(c));
+			}
+		}
+
+		notifyAll();
+		return src.length;
+	}
+
+
+	@Override
+	public synchronized void setParameters(int baudRate, int dataBits, int stopBits, int parity) throws IOException {
+		mHostBaudRate = baudRate;
+		if (mDefaultBaudRate == 0) {
+			mDefaultBaudRate = baudRate;
+			mDeviceBaudRate = baudRate;
+		}
+	}
+
+
+	@Override
+	public boolean getCD() throws IOException {
+		return false;
+	}
+
+
+	@Override
+	public boolean getCTS() throws IOException {
+		return false;
+	}
+
+
+	@Override
+	public boolean getDSR() throws IOException {
+		return false;
+	}
+
+
+	@Override
+	public boolean getDTR() throws IOException {
+		return false;
+	}
+
+
+	@Override
+	public void setDTR(boolean value) throws IOException { }
+
+
+	@Override
+	public boolean getRI() throws IOException {
+		return false;
+	}
+
+
+	@Override
+	public boolean getRTS() throws IOException {
+		return false;
+	}
+
+
+	@Override
+	public void setRTS(boolean value) throws IOException { }
+
+
+	@Override
+	public String toString() {
+		return SimulatedElmDriver.class.getSimpleName();
+	}
+
+
+	protected void reset() {
+		mEcho = true;
+		mLinefeeds = true;
+		mSpaces = true;
+		mHeaders = false;
+		mProtocol = PROTOCOL_HEADER_ADDRESSED;
+		mMonitorAddressIndex = -1;
+		mCanFilter = 0;
+		mCanMask = 0;
+		mMonitoring = false;
+	}
+
+
+	protected void onCommand(String command) {
+		int delay = COMMAND_DELAY;
+		String response = "OK";
+
+		if (command.length() == 0) {
+			//a bare CR repeats the last command on the real device, not needed here
+			response = null;
+		} else if (mErrorResponse != null) {
+			response = mErrorResponse;
+			mErrorResponse = null;
+		} else if (command.equals("ATZ")) {
+			reset();
+			mDeviceBaudRate = mDefaultBaudRate;
+			delay = RESET_DELAY;
+			response = DEVICE_ID;
+		} else if (command.equals("ATWS")) {
+			reset();
+			delay = RESET_DELAY;
+			response = DEVICE_ID;
+		} else if (command.equals("ATI")) {
+			response = DEVICE_ID;
+		} else if (command.equals("STI") && mStn) {
+			response = STN_DEVICE_ID;
+		} else if (command.startsWith("ATBRD")) {
+			final int divisor = parseHex(command.substring(5));
+			if (!mBaudCommandSupported || divisor <= 0 || divisor > 0xFF) {
+				response = "?";
+			} else {
+				mBaudSwitchRate = ELM_BAUD_CLOCK / divisor;
+			}
+		} else if (command.startsWith("STBR") && mStn) {
+			try {
+				mBaudSwitchRate = Integer.parseInt(command.substring(4));
+			} catch (NumberFormatException ex) {
+				response = "?";
+			}
+		} else if (command.length() == 4 && command.startsWith("ATE")) {
+			mEcho = command.endsWith("1");
+		} else if (command.length() == 4 && command.startsWith("ATL")) {
+			mLinefeeds = command.endsWith("1");
+		} else if (command.length() == 4 && command.startsWith("ATS")) {
+			mSpaces = command.endsWith("1");
+		} else if (command.length() == 4 && command.startsWith("ATH")) {
+			mHeaders = command.endsWith("1");
+		} else if (command.length() == 5 && (command.startsWith("ATSP") || command.startsWith("ATTP"))) {
+			final char protocol = command.charAt(4);
+			if (protocol == '6' || protocol == '8') {
+				mProtocol = PROTOCOL_CAN_11BIT;
+			} else if (protocol == '7' || protocol == '9' || protocol == 'A') {
+				mProtocol = PROTOCOL_CAN_29BIT;
+			} else {
+				mProtocol = PROTOCOL_HEADER_ADDRESSED;
+			}
+		} else if (command.equals("ATCRA")) {
+			mCanMask = 0;
+		} else if (command.startsWith("ATCRA") || command.startsWith("ATCF") || command.startsWith("ATCM")) {
+			final int value = parseHex(command.substring(command.startsWith("ATCRA") ? 5 : 4));
+			if (value < 0) {
+				response = "?";
+			} else if (command.startsWith("ATCRA")) {
+				mCanFilter = value;
+				mCanMask = -1;
+			} else if (command.startsWith("ATCF")) {
+				mCanFilter = value;
+			} else {
+				mCanMask = value;
+			}
+		} else if (command.equals("ATMA") || command.startsWith("ATMR") || command.startsWith("ATMT")) {
+			mMonitorAddressIndex = -1;
+			if (command.length() > 4) {
+				mMonitorAddress = parseHex(command.substring(4));
+				mMonitorAddressIndex = command.startsWith("ATMR") ? 1 : 2;
+			}
+			mMonitoring = true;
+			mMonitorFrames = 0;
+			response = null;
+		} else if (!command.startsWith("AT")) {
+			response = "?";
+		}
+
+		StringBuilder output = new StringBuilder();
+		if (mEcho) {
+			output.append(command).append('\r');
+		}
+		if (response != null) {
+			output.append(response).append(lineEnd());
+		}
+
+		if (mMonitoring || mBaudSwitchRate != 0) {
+			//messages start flowing (or the rate switches) after the echo
+			mMonitorStartTime = System.nanoTime() + (delay * 1000000L);
+			mPendingResponse = output.toString().getBytes();
+		} else {
+			output.append(lineEnd()).append('>');
+			mPendingResponse = output.toString().getBytes();
+		}
+		mPendingResponseTime = System.nanoTime() + (delay * 1000000L);
+	}
+
+
+	/**
+	 * @return					The value, or -1 if not 1 to 8 hex digits.
+	 */
+	protected static int parseHex(String hex) {
+		if (hex.length() == 0 || hex.length() > 8) return -1;
+		try {
+			return (int)Long.parseLong(hex, 16);
+		} catch (NumberFormatException ex) {
+			return -1;
+		}
+	}
+
+
+	protected byte[] prompt() {
+		return (lineEnd() + ">").getBytes();
+	}
+
+
+	protected String lineEnd() {
+		return mLinefeeds ? "\r\n" : "\r";
+	}
+
+
+	/**
+	 * Advances the simulation: releases a delayed response, generates due bus messages and moves bytes over the link.
+	 */
+	protected void update(long now) {
+		if (mPendingResponse != null && now >= mPendingResponseTime) {
+			mDeviceBuffer.put(mPendingResponse, mPendingResponse.length);
+			mPendingResponse = null;
+		}
+
+		if (mBaudSwitchRate != 0 && mPendingResponse == null && mDeviceBuffer.size() == 0) {
+			//the OK has gone out at the old rate, switch and announce at the new one
+			mBaudPreviousRate = mDeviceBaudRate;
+			mDeviceBaudRate = mBaudSwitchRate;
+			mBaudSwitchRate = 0;
+			mBaudConfirmDeadline = now + ((BAUD_SWITCH_DELAY + BAUD_CONFIRM_TIMEOUT) * 1000000L);
+			mPendingResponse = ((mStn ? STN_DEVICE_ID : DEVICE_ID) + "\r").getBytes();
+			mPendingResponseTime = now + (BAUD_SWITCH_DELAY * 1000000L);
+		} else if (mBaudConfirmDeadline != 0 && now - mBaudConfirmDeadline > 0) {
+			//no CR from the host in time, go back to the old rate
+			mBaudConfirmDeadline = 0;
+			mDeviceBaudRate = mBaudPreviousRate;
+			mPendingResponse = prompt();
+			mPendingResponseTime = now;
+		}
+
+		if (mMonitoring && mPendingResponse == null && now > mMonitorStartTime) {
+			long due = ((now - mMonitorStartTime) * mFrameRate) / 1000000000L;
+			long count = Math.min(due - mMonitorFrames, MAX_FRAMES_PER_UPDATE);
+
+			for (long i = 0; i < count && mMonitoring; i++) {
+				generateFrame();
+			}
+			mMonitorFrames = due;
+		}
+
+		//the link carries bytes at the baud rate (start bit + 8 data bits + stop bit), partial bytes carry over to the next update
+		final long bytesPerSecond = Math.max(1, mDeviceBaudRate / 10);
+		if (mDeviceBuffer.size() == 0) {
+			mLastTransferTime = now;
+		} else {
+			long bytes = ((now - mLastTransferTime) * bytesPerSecond) / 1000000000L;
+			if (bytes > 0) {
+				final int start = mHostBuffer.size();
+				int moved = mDeviceBuffer.moveTo(mHostBuffer, (int)Math.min(bytes, mDeviceBuffer.size()));
+				mLastTransferTime += (moved * 1000000000L) / bytesPerSecond;
+				mTransferredBytes += moved;
+
+				if (!isLinkClean()) {
+					mHostBuffer.garble(start, mRandom);
+					mGarbledBytes += moved;
+				}
+			}
+		}
+	}
+
+
+	protected void generateFrame() {
+		mFrameCount++;
+		mScratch.setLength(0);
+
+		int pressIndex = -1;
+		final int length;
+		if (mPressInterval > 0 && mPressFrames.length > 0 && (mFrameCount % mPressInterval) == 0) {
+			pressIndex = (int)((mFrameCount / mPressInterval) % mPressFrames.length);
+			length = mPressFrames[pressIndex].length;
+			System.arraycopy(mPressFrames[pressIndex], 0, mFrame, 0, length);
+		} else {
+			length = fillBackgroundFrame();
+		}
+
+		if (!isPassedByFilter(length)) {
+			mFilteredCount++;
+			return;
+		}
+
+		appendFrame(length);
+		if (pressIndex >= 0) {
+			mInjectedPresses[pressIndex]++;
+		} else if (mNoisePercent > 0 && mRandom.nextInt(100) < mNoisePercent) {
+			appendNoise();
+		}
+
+		if (mDeviceBuffer.size() + mScratch.length() > ELM_BUFFER_SIZE) {
+			//the host isn't keeping up, the real device gives up monitoring
+			mMonitoring = false;
+			mBufferFullCount++;
+			mScratch.setLength(0);
+			mScratch.append("BUFFER FULL").append(lineEnd()).append(lineEnd()).append('>');
+
+			//presses lost to the full buffer were never sent
+			if (pressIndex >= 0) {
+				mInjectedPresses[pressIndex]--;
+			}
+		}
+
+		putScratch();
+	}
+
+
+	/**
+	 * @return					Number of header bytes for the current protocol (an 11 bit CAN ID is decoded as 2).
+	 */
+	protected int getHeaderLength() {
+		switch (mProtocol) {
+			case PROTOCOL_CAN_11BIT:
+				return 2;
+			case PROTOCOL_CAN_29BIT:
+				return 4;
+			default:
+				return 3;
+		}
+	}
+
+
+	/**
+	 * @return					Returns true if bytes cross the link intact: both ends at the same rate, within the maximum.
+	 */
+	protected Boolean isLinkClean() {
+		return mHostBaudRate == mDeviceBaudRate && mDeviceBaudRate <= mMaxBaudRate;
+	}
+
+
+	protected Boolean isPassedByFilter(int length) {
+		if (mProtocol == PROTOCOL_HEADER_ADDRESSED) {
+			return mMonitorAddressIndex < 0 || (length > mMonitorAddressIndex && mFrame[mMonitorAddressIndex] == mMonitorAddress);
+		}
+
+		int id = 0;
+		for (int i = 0; i < getHeaderLength() && i < length; i++) {
+			id = (id << 8) | mFrame[i];
+		}
+		return (id & mCanMask) == (mCanFilter & mCanMask);
+	}
+
+
+	/**
+	 * Fills mFrame with a random message that isn't a button press.
+	 *
+	 * @return					The message length.
+	 */
+	protected int fillBackgroundFrame() {
+		int length = 0;
+
+		if (mProtocol == PROTOCOL_CAN_11BIT) {
+			final int id = mRandom.nextInt(0x800);
+			mFrame[length++] = id >> 8;
+			mFrame[length++] = id & 0xFF;
+		} else if (mProtocol == PROTOCOL_CAN_29BIT) {
+			final int id = mRandom.nextInt(0x20000000);
+			mFrame[length++] = id >>> 24;
+			mFrame[length++] = (id >> 16) & 0xFF;
+			mFrame[length++] = (id >> 8) & 0xFF;
+			mFrame[length++] = id & 0xFF;
+		} else {
+			mFrame[length++] = BACKGROUND_HEADERS[mRandom.nextInt(BACKGROUND_HEADERS.length)];
+			mFrame[length++] = mRandom.nextInt(256);
+			mFrame[length++] = mRandom.nextInt(256);
+		}
+
+		final int dataLength = (mProtocol == PROTOCOL_HEADER_ADDRESSED) ? 1 + mRandom.nextInt(7) : CAN_DATA_LENGTH;
+		for (int i = 0; i < dataLength; i++) {
+			mFrame[length++] = mRandom.nextInt(256);
+		}
+
+		return length;
+	}
+
+
+	protected void appendFrame(int length) {
+		//header bytes and the checksum (not on CAN) are only shown with headers on
+		final int headerLength = Math.min(getHeaderLength(), length);
+		int start = headerLength;
+
+		if (mHeaders) {
+			start = 0;
+			if (mProtocol == PROTOCOL_CAN_11BIT) {
+				//shown as 3 digits, ex: "7E8"
+				mScratch.append(HEX_DIGITS[mFrame[0] & 0x07]);
+				mScratch.append(HEX_DIGITS[(mFrame[1] >> 4) & 0x0F]);
+				mScratch.append(HEX_DIGITS[mFrame[1] & 0x0F]);
+				start = headerLength;
+			}
+		}
+
+		for (int i = start; i < length; i++) {
+			appendByte(mFrame[i]);
+		}
+		if (mHeaders && mProtocol == PROTOCOL_HEADER_ADDRESSED) {
+			appendByte(mRandom.nextInt(256));
+		}
+		mScratch.append(lineEnd());
+	}
+
+
+	protected void appendNoise() {
+		mNoiseCount++;
+
+		switch (mRandom.nextInt(3)) {
+			case 0:
+				//an error line of its own
+				mScratch.append(NOISE_LINES[mRandom.nextInt(NOISE_LINES.length)]).append(lineEnd());
+				break;
+			case 1:
+				//a garbled message
+				for (int i = 0; i < 8; i++) {
+					mScratch.append((char)(' ' + 1 + mRandom.nextInt(94)));
+				}
+				mScratch.append(lineEnd());
+				break;
+			default:
+				//the real device occasionally sends a NUL
+				mScratch.append('\0');
+				break;
+		}
+	}
+
+
+	protected void appendByte(int value) {
+		if (mSpaces && mScratch.length() > 0 && mScratch.charAt(mScratch.length() - 1) != '\n' && mScratch.charAt(mScratch.length() - 1) != '\r') {
+			mScratch.append(' ');
+		}
+		mScratch.append(HEX_DIGITS[(value >> 4) & 0x0F]);
+		mScratch.append(HEX_DIGITS[value & 0x0F]);
+	}
+
+
+	protected void putScratch() {
+		final int length = mScratch.length();
+		for (int i = 0; i < length; i++) {
+			mDeviceBuffer.put((byte)mScratch.charAt(i));
+		}
+	}
+
+
+	/**
+	 * A growable FIFO of bytes.
+	 */
+	protected static class ByteQueue {
+		protected byte[] mBytes;
+		protected int mHead = 0;
+		protected int mSize = 0;
+
+		ByteQueue(int capacity) {
+			mBytes = new byte[capacity];
+		}
+
+		int size() {
+			return mSize;
+		}
+
+		void clear() {
+			mHead = 0;
+			mSize = 0;
+		}
+
+		void put(byte value) {
+			if (mSize == mBytes.length) {
+				grow();
+			}
+			mBytes[(mHead + mSize) % mBytes.length] = value;
+			mSize++;
+		}
+
+		void put(byte[] values, int length) {
+			for (int i = 0; i < length; i++) {
+				put(values[i]);
+			}
+		}
+
+		int take(byte[] dest, int length) {
+			length = Math.min(length, mSize);
+			for (int i = 0; i < length; i++) {
+				dest[i] = mBytes[mHead];
+				mHead = (mHead + 1) % mBytes.length;
+			}
+			mSize -= length;
+			return length;
+		}
+
+		/**
+		 * Replaces the bytes from index on with random high (non ASCII) values, like a baud rate mismatch produces.
+		 */
+		void garble(int index, Random random) {
+			for (int i = index; i < mSize; i++) {
+				mBytes[(mHead + i) % mBytes.length] = (byte)(0x80 + random.nextInt(0x80));
+			}
+		}
+
+		int moveTo(ByteQueue dest, int length) {
+			length = Math.min(length, mSize);
+			for (int i = 0; i < length; i++) {
+				dest.put(mBytes[mHead]);
+				mHead = (mHead + 1) % mBytes.length;
+			}
+			mSize -= length;
+			return length;
+		}
+
+		protected void grow() {
+			byte[] bytes = new byte[mBytes.length * 2];
+			for (int i = 0; i < mSize; i++) {
+				bytes[i] = mBytes[(mHead + i) % mBytes.length];
+			}
+			mBytes = bytes;
+			mHead = 0;
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package com.theksmith.steeringwheelinterface;
+
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * A bounded lock-free queue for exactly one producer thread and one consumer thread.
+ *
+ * The producer never blocks: offer() fails (and counts an overrun) when the ring is full.
+ * The consumer can poll(), or take() to park until an item arrives. Each side only writes its own index,
+ * so the only cross-thread cost is reading the other side's volatile index.
+ */
+public class SpscRing<T> {
+	protected final Object[] mItems;
+	protected final int mMask;
+
+	protected volatile long mHead = 0;	//next slot to take, written by the consumer only
+	protected volatile long mTail = 0;	//next slot to fill, written by the producer only
+
+	protected volatile Thread mWaitingConsumer;
+
+	//stats, written by the producer only
+	protected volatile int mHighWaterMark = 0;
+	protected volatile long mOverrunCount = 0;
+
+
+	private SpscRing() {
+		//exists only to prevent creation of class without passing required param
+		mItems = null;
+		mMask = 0;
+	}
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param capacity			Maximum number of items held, rounded up to a power of 2.
+	 */
+	public SpscRing(int capacity) {
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+
+		mItems = new Object[size];
+		mMask = size - 1;
+	}
+
+
+	/**
+	 * Adds an item, producer thread only.
+	 *
+	 * @return					Returns false if the ring is full, the item was not added.
+	 */
+	public boolean offer(T item) {
+		final long tail = mTail;
+		final int size = (int)(tail - mHead);
+
+		if (size >= mItems.length) {
+			mOverrunCount++;
+			return false;
+		}
+
+		mItems[(int)tail & mMask] = item;
+		mTail = tail + 1;	//publishes the item
+
+		if (size + 1 > mHighWaterMark) {
+			mHighWaterMark = size + 1;
+		}
+
+		final Thread waiting = mWaitingConsumer;
+		if (waiting != null) {
+			LockSupport.unpark(waiting);
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Removes the oldest item, consumer thread only.
+	 *
+	 * @return					The item, or null if the ring is empty.
+	 */
+	@SuppressWarnings("unchecked")
+	public T poll() {
+		final long head = mHead;
+		if (head == mTail) {
+			return null;
+		}
+
+		final int slot = (int)head & mMask;
+		final T item = (T)mItems[slot];
+		mItems[slot] = null;
+		mHead = head + 1;	//frees the slot
+
+		return item;
+	}
+
+
+	/**
+	 * Removes the oldest item, parking until one arrives, consumer thread only.
+	 *
+	 * @param timeout			Maximum nanoseconds to wait.
+	 * @return					The item, or null if the timeout passed, or the thread was un-parked (ex: wake()), first.
+	 */
+	public T take(long timeout) {
+		T item = poll();
+		if (item != null) {
+			return item;
+		}
+
+		//announce before checking again, so an offer() in between is sure to unpark us
+		mWaitingConsumer = Thread.currentThread();
+		try {
+			item = poll();
+			if (item == null) {
+				LockSupport.parkNanos(this, timeout);
+				item = poll();
+			}
+		} finally {
+			mWaitingConsumer = null;
+		}
+
+		return item;
+	}
+
+
+	/**
+	 * Un-parks a consumer waiting in take(), from any thread (ex: to have it notice a stop request).
+	 */
+	public void wake() {
+		final Thread waiting = mWaitingConsumer;
+		if (waiting != null) {
+			LockSupport.unpark(waiting);
+		}
+	}
+
+
+	public int size() {
+		return (int)(mTail - mHead);
+	}
+
+
+	public int getCapacity() {
+		return mItems.length;
+	}
+
+
+	/**
+	 * @return					The most items ever held at once.
+	 */
+	public int getHighWaterMark() {
+		return mHighWaterMark;
+	}
+
+
+	/**
+	 * @return					Number of offer() calls that failed because the ring was full.
+	 */
+	public long getOverrunCount() {
+		return mOverrunCount;
+	}
+}
@@ -4,6 +4,11 @@ import com.theksmith.steeringwheelinterface.ElmInterface.DeviceOpenEvent;
 import com.theksmith.steeringwheelinterface.ElmInterface.DeviceOpenEventListener;
 import com.theksmith.steeringwheelinterface.R;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+
 import android.app.Notification.Builder;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
@@ -15,6 +20,7 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.hardware.usb.UsbManager;
+import android.os.Binder;
 import android.os.Handler;
 import android.os.IBinder;
 import android.preference.PreferenceManager;
@@ -40,6 +46,10 @@ public class SteeringWheelInterfaceService extends Service {
 	protected int mNoticeID;
 	
 	protected ElmInterface mCarInterface;
+	protected RootShell mRootShell;
+	protected BusCaptureRecorder mCaptureRecorder;
+	
+	protected final IBinder mBinder = new LocalBinder();
 	protected ElmInterfaceOpenedListener mDeviceOpenListener = new ElmInterfaceOpenedListener();
 
 	
@@ -69,9 +79,79 @@ public class SteeringWheelInterfaceService extends Service {
 	};
 	
 	
+	/**
+	 * Adds the root backend for button actions, once the root shell has run a command (root was granted).
+	 */
+	protected RootShell.ReadyListener mRootShellReadyListener = new RootShell.ReadyListener() {
+		public void onShellReady(RootShell shell) {
+			ElmInterface carInterface = mCarInterface;
+			if (carInterface != null) {
+				Log.i(TAG, "ROOT SHELL READY, ADDING ROOT ACTION BACKEND");
+				carInterface.setRootShell(shell);
+			}
+		}
+	};
+	
+	
+	/**
+	 * Gives in-process clients (the settings screen) access to the service's stats.
+	 */
+	public class LocalBinder extends Binder {
+		public SteeringWheelInterfaceService getService() {
+			return SteeringWheelInterfaceService.this;
+		}
+	}
+	
+	
 	@Override
 	public IBinder onBind(Intent intent) {
-		return null;
+		return mBinder;
+	}
+	
+	
+	/**
+	 * @return					The press to action latency histograms, or null if the interface is not created.
+	 */
+	public LatencyStats getLatencyStats() {
+		ElmInterface carInterface = mCarInterface;
+		return carInterface != null ? carInterface.getLatencyStats() : null;
+	}
+	
+	
+	/**
+	 * Reports stats for "adb shell dumpsys activity service SteeringWheelInterfaceService".
+	 */
+	@Override
+	protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+		ElmInterface carInterface = mCarInterface;
+		if (carInterface == null) {
+			writer.println("Interface not created");
+			return;
+		}
+		
+		writer.println("Status: " + carInterface.getStatusSnapshot());
+		writer.println("Serial IO: " + carInterface.getIoStats());
+		writer.println("Baud rate: " + carInterface.getBaudStats());
+		writer.println("Monitor overflows: " + carInterface.getOverflowStats());
+		writer.println("Error responses: " + carInterface.getErrorStats());
+		writer.println();
+		writer.println("Latency (USB read to action):");
+		writer.print(carInterface.getLatencyStats().getReport());
+		writer.println();
+		writer.println("Action executors:");
+		writer.print(carInterface.getActionStats());
+		
+		RootShell rootShell = mRootShell;
+		if (rootShell != null) {
+			writer.println();
+			writer.println("Root shell: " + rootShell.getStats());
+		}
+		
+		BusCaptureRecorder captureRecorder = mCaptureRecorder;
+		if (captureRecorder != null) {
+			writer.println();
+			writer.println("Bus capture: " + captureRecorder.getFile() + " (" + captureRecorder.getStats() + ")");
+		}
 	}
 	
 	
@@ -82,10 +162,21 @@ public class SteeringWheelInterfaceService extends Service {
 		unregisterReceiver(mUsbDetachedReceiver);
 
 		if (mCarInterface != null) {
+			Log.i(TAG, "ACTION EXECUTOR STATS:\n" + mCarInterface.getActionStats());
 			mCarInterface.deviceClose();			
 			mCarInterface = null;
 		}
 		
+		if (mRootShell != null) {
+			mRootShell.stop();
+			mRootShell = null;
+		}
+		
+		if (mCaptureRecorder != null) {
+			mCaptureRecorder.close();
+			mCaptureRecorder = null;
+		}
+		
 		mNoticeManager.cancelAll();
 	}
    
@@ -114,11 +205,39 @@ public class SteeringWheelInterfaceService extends Service {
 		mCarInterface.deviceOpenEvent_AddListener(mDeviceOpenListener);
 		
 		SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
+		
+		Boolean actionsRootDefault = Boolean.parseBoolean(getString(R.string.actions_root));
+		if (settings.getBoolean("actions_root", actionsRootDefault)) {
+			//"su" may be denied or missing, only offer the root backend to button actions once a command has run through it
+			mRootShell = new RootShell();
+			mRootShell.setReadyListener(mRootShellReadyListener);
+			mRootShell.start();
+		}
     	
+		Boolean simulateDefault = Boolean.parseBoolean(getString(R.string.scantool_simulate));
+		String replayFileValue = settings.getString("scantool_replay_file", getString(R.string.scantool_replay_file)).trim();
+		if (settings.getBoolean("scantool_simulate", simulateDefault)) {
+			Log.w(TAG, "USING SIMULATED SCANTOOL");
+			mCarInterface.setSerialDriver(new SimulatedElmDriver());
+		} else if (replayFileValue.length() > 0) {
+			Boolean replayFastDefault = Boolean.parseBoolean(getString(R.string.scantool_replay_fast));
+			Boolean replayFastValue = settings.getBoolean("scantool_replay_fast", replayFastDefault);
+			Log.w(TAG, "REPLAYING BUS CAPTURE: " + replayFileValue);
+			mCarInterface.setSerialDriver(new CaptureReplayDriver(new File(replayFileValue), !replayFastValue));
+		}
+		
+		Boolean captureDefault = Boolean.parseBoolean(getString(R.string.scantool_capture));
+		if (settings.getBoolean("scantool_capture", captureDefault)) {
+			captureStart();
+		}
+		
 		String baudDefault = getString(R.string.scantool_baud);
 		int baudValue = Integer.parseInt(settings.getString("scantool_baud", baudDefault));
 		mCarInterface.setBaudRate(baudValue);
 		
+		Boolean baudUpgradeDefault = Boolean.parseBoolean(getString(R.string.scantool_baud_upgrade));
+		mCarInterface.setBaudUpgrade(settings.getBoolean("scantool_baud_upgrade", baudUpgradeDefault));
+		
 		String deviceNumDefault = getString(R.string.scantool_device_number);
 		int deviceNumValue = Integer.parseInt(settings.getString("scantool_device_number", deviceNumDefault));
 		mCarInterface.setDeviceNumber(deviceNumValue);
@@ -130,9 +249,124 @@ public class SteeringWheelInterfaceService extends Service {
 		String monitorCommandDefault = getString(R.string.scantool_monitor_command);
 		String monitorCommandValue = settings.getString("scantool_monitor_command", monitorCommandDefault);
 		mCarInterface.setMonitorCommand(monitorCommandValue);
+		
+		Boolean compactDefault = Boolean.parseBoolean(getString(R.string.scantool_compact));
+		mCarInterface.setCompactMode(settings.getBoolean("scantool_compact", compactDefault));
+		
+		Boolean autoFilterDefault = Boolean.parseBoolean(getString(R.string.scantool_auto_filter));
+		mCarInterface.setAutoFilter(settings.getBoolean("scantool_auto_filter", autoFilterDefault));
+		
+		Boolean stateFramesDefault = Boolean.parseBoolean(getString(R.string.button_state_frames));
+		mCarInterface.setButtonStateFrames(settings.getBoolean("button_state_frames", stateFramesDefault));
+		
+		loadButtonPattern(settings, ButtonActions.BUTTON_ID_LEFT_CENTER, "button_left_center", R.string.button_left_center);
+		loadButtonPattern(settings, ButtonActions.BUTTON_ID_LEFT_DOWN, "button_left_down", R.string.button_left_down);
+		loadButtonPattern(settings, ButtonActions.BUTTON_ID_LEFT_UP, "button_left_up", R.string.button_left_up);
+		loadButtonPattern(settings, ButtonActions.BUTTON_ID_RIGHT_CENTER, "button_right_center", R.string.button_right_center);
+		loadButtonPattern(settings, ButtonActions.BUTTON_ID_RIGHT_DOWN, "button_right_down", R.string.button_right_down);
+		loadButtonPattern(settings, ButtonActions.BUTTON_ID_RIGHT_UP, "button_right_up", R.string.button_right_up);
+		
+		int longTime = loadInt(settings, "button_long_time", R.string.button_long_time);
+		int repeatInterval = loadInt(settings, "button_repeat_interval", R.string.button_repeat_interval);
+		int doubleTime = loadInt(settings, "button_double_time", R.string.button_double_time);
+		loadButtonGestures(settings, ButtonActions.BUTTON_ID_LEFT_CENTER, "button_left_center", longTime, repeatInterval, doubleTime);
+		loadButtonGestures(settings, ButtonActions.BUTTON_ID_LEFT_DOWN, "button_left_down", longTime, repeatInterval, doubleTime);
+		loadButtonGestures(settings, ButtonActions.BUTTON_ID_LEFT_UP, "button_left_up", longTime, repeatInterval, doubleTime);
+		loadButtonGestures(settings, ButtonActions.BUTTON_ID_RIGHT_CENTER, "button_right_center", longTime, repeatInterval, doubleTime);
+		loadButtonGestures(settings, ButtonActions.BUTTON_ID_RIGHT_DOWN, "button_right_down", longTime, repeatInterval, doubleTime);
+		loadButtonGestures(settings, ButtonActions.BUTTON_ID_RIGHT_UP, "button_right_up", longTime, repeatInterval, doubleTime);
+		loadChord(settings, "button_chord_1", R.string.button_chord_1_a, R.string.button_chord_1_b);
+		loadChord(settings, "button_chord_2", R.string.button_chord_2_a, R.string.button_chord_2_b);
+		
+		Boolean dropOldestDefault = Boolean.parseBoolean(getString(R.string.button_drop_oldest));
+		mCarInterface.setActionDropPolicy(settings.getBoolean("button_drop_oldest", dropOldestDefault) ? ActionDispatcher.DROP_OLDEST : ActionDispatcher.DROP_NEWEST);
+	}
+	
+	
+	/**
+	 * Starts recording the scantool's output to a new capture file in the app's external files directory.
+	 */
+	protected void captureStart() {
+		File directory = getExternalFilesDir(null);
+		if (directory == null) {
+			Log.w(TAG, "NO STORAGE FOR BUS CAPTURE");
+			return;
+		}
+		
+		BusCaptureRecorder recorder = new BusCaptureRecorder(new File(directory, "capture_" + System.currentTimeMillis() + ".swic"));
+		try {
+			recorder.open(BusCaptureRecorder.DEFAULT_CAPACITY);
+			mCaptureRecorder = recorder;
+			mCarInterface.setCaptureRecorder(recorder);
+		} catch (IOException ex) {
+			Log.e(TAG, "ERROR STARTING BUS CAPTURE", ex);
+		}
+	}
+	
+	
+	protected void loadButtonPattern(SharedPreferences settings, int buttonId, String key, int defaultResId) {
+		String value = settings.getString(key, getString(defaultResId));
+		try {
+			mCarInterface.setButtonPattern(buttonId, value);
+		} catch (IllegalArgumentException ex) {
+			Log.w(TAG, "INVALID BUTTON DEFINITION FOR " + key + ", USING DEFAULT", ex);
+		}
 	}
 
 	
+	/**
+	 * Loads a button's long press, repeat and double click actions (its short press action is fixed, see ButtonActions)
+	 * and its release timeout, which depends on how often the vehicle repeats the button's message.
+	 */
+	protected void loadButtonGestures(SharedPreferences settings, int buttonId, String key, int longTime, int repeatInterval, int doubleTime) {
+		mCarInterface.setGestureAction(buttonId, ButtonGestureRecognizer.GESTURE_LONG, loadAction(settings, key + "_long"));
+		mCarInterface.setGestureAction(buttonId, ButtonGestureRecognizer.GESTURE_REPEAT, loadAction(settings, key + "_repeat"));
+		mCarInterface.setGestureAction(buttonId, ButtonGestureRecognizer.GESTURE_DOUBLE, loadAction(settings, key + "_double"));
+		int releaseTimeout = loadInt(settings, key + "_release", R.string.button_release_timeout);
+		mCarInterface.setGestureTimes(buttonId, releaseTimeout, longTime, repeatInterval, doubleTime);
+	}
+	
+	
+	/**
+	 * Loads a two button chord, skipped if it has no action.
+	 */
+	protected void loadChord(SharedPreferences settings, String key, int defaultAResId, int defaultBResId) {
+		int action = loadAction(settings, key + "_action");
+		if (action == ActionExecutor.ACTION_NONE) return;
+		
+		int buttonA = loadInt(settings, key + "_a", defaultAResId);
+		int buttonB = loadInt(settings, key + "_b", defaultBResId);
+		if (buttonA == buttonB || buttonA < 0 || buttonA >= ButtonActions.BUTTON_COUNT || buttonB < 0 || buttonB >= ButtonActions.BUTTON_COUNT) {
+			Log.w(TAG, "INVALID BUTTONS FOR " + key + ", IGNORING");
+			return;
+		}
+		
+		mCarInterface.addChord(buttonA, buttonB, action);
+	}
+	
+	
+	protected int loadAction(SharedPreferences settings, String key) {
+		int action = loadInt(settings, key, R.string.button_gesture_action);
+		if (action < 0 || action >= ActionExecutor.ACTION_COUNT) {
+			Log.w(TAG, "INVALID ACTION FOR " + key + ", USING NONE");
+			return ActionExecutor.ACTION_NONE;
+		}
+		
+		return action;
+	}
+	
+	
+	protected int loadInt(SharedPreferences settings, String key, int defaultResId) {
+		String defaultValue = getString(defaultResId);
+		try {
+			return Integer.parseInt(settings.getString(key, defaultValue).trim());
+		} catch (NumberFormatException ex) {
+			Log.w(TAG, "INVALID NUMBER FOR " + key + ", USING DEFAULT", ex);
+			return Integer.parseInt(defaultValue);
+		}
+	}
+	
+	
 	@Override
 	public int onStartCommand(Intent intent, int flags, int startId) {
 		startForeground(mNoticeID, mNoticeBuilder.build());
@@ -3,11 +3,17 @@ package com.theksmith.steeringwheelinterface;
 import com.theksmith.steeringwheelinterface.R;
 
 import android.app.Activity;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
 import android.os.Bundle;
+import android.os.IBinder;
 import android.preference.ListPreference;
 import android.preference.Preference;
 import android.preference.Preference.OnPreferenceChangeListener;
 import android.preference.Preference.OnPreferenceClickListener;
+import android.preference.PreferenceCategory;
 import android.preference.PreferenceFragment;
 import android.preference.PreferenceManager;
 
@@ -19,6 +25,8 @@ import android.preference.PreferenceManager;
  */
 public class SteeringWheelInterfaceSettings extends PreferenceFragment {
 	protected Activity mParentActivity;
+	protected SteeringWheelInterfaceService mService;
+	protected Preference[] mLatencyPreferences;
 	
 	
 	@Override
@@ -42,10 +50,101 @@ public class SteeringWheelInterfaceSettings extends PreferenceFragment {
 		bindStringPreferenceSummaryToValue(findPreference("scantool_baud"));
 		bindStringPreferenceSummaryToValue(findPreference("scantool_device_number"));
 		bindStringPreferenceSummaryToValue(findPreference("scantool_monitor_command"));
+		bindStringPreferenceSummaryToValue(findPreference("scantool_replay_file"));
 		bindStringPreferenceSummaryToValue(findPreference("scantool_protocol"));
+		bindStringPreferenceSummaryToValue(findPreference("button_left_center"));
+		bindStringPreferenceSummaryToValue(findPreference("button_left_down"));
+		bindStringPreferenceSummaryToValue(findPreference("button_left_up"));
+		bindStringPreferenceSummaryToValue(findPreference("button_right_center"));
+		bindStringPreferenceSummaryToValue(findPreference("button_right_down"));
+		bindStringPreferenceSummaryToValue(findPreference("button_right_up"));
+		
+		String[] buttonKeys = {"button_left_center", "button_left_down", "button_left_up", "button_right_center", "button_right_down", "button_right_up"};
+		for (String key : buttonKeys) {
+			bindStringPreferenceSummaryToValue(findPreference(key + "_long"));
+			bindStringPreferenceSummaryToValue(findPreference(key + "_repeat"));
+			bindStringPreferenceSummaryToValue(findPreference(key + "_double"));
+			bindStringPreferenceSummaryToValue(findPreference(key + "_release"));
+		}
+		bindStringPreferenceSummaryToValue(findPreference("button_chord_1_a"));
+		bindStringPreferenceSummaryToValue(findPreference("button_chord_1_b"));
+		bindStringPreferenceSummaryToValue(findPreference("button_chord_1_action"));
+		bindStringPreferenceSummaryToValue(findPreference("button_chord_2_a"));
+		bindStringPreferenceSummaryToValue(findPreference("button_chord_2_b"));
+		bindStringPreferenceSummaryToValue(findPreference("button_chord_2_action"));
+		bindStringPreferenceSummaryToValue(findPreference("button_long_time"));
+		bindStringPreferenceSummaryToValue(findPreference("button_repeat_interval"));
+		bindStringPreferenceSummaryToValue(findPreference("button_double_time"));
+	}
+	
+	
+	@Override
+	public void onStart() {
+		super.onStart();
+		
+		//only attach to an already running service, don't start one just to show stats
+		Intent service = new Intent(mParentActivity, SteeringWheelInterfaceService.class);
+		mParentActivity.bindService(service, mServiceConnection, 0);
+	}
+	
+	
+	@Override
+	public void onStop() {
+		super.onStop();
+		
+		mParentActivity.unbindService(mServiceConnection);
+		mService = null;
+	}
+	
+	
+	protected ServiceConnection mServiceConnection = new ServiceConnection() {
+		@Override
+		public void onServiceConnected(ComponentName name, IBinder binder) {
+			mService = ((SteeringWheelInterfaceService.LocalBinder)binder).getService();
+			updateLatencyPreferences();
+		}
+		
+		@Override
+		public void onServiceDisconnected(ComponentName name) {
+			mService = null;
+		}
+	};
+	
+	
+	/**
+	 * Shows one preference per latency stage, tapping any of them refreshes the values.
+	 */
+	protected void updateLatencyPreferences() {
+		LatencyStats stats = (mService != null) ? mService.getLatencyStats() : null;
+		if (stats == null) return;
+		
+		if (mLatencyPreferences == null) {
+			PreferenceCategory category = (PreferenceCategory)findPreference("category_stats");
+			mLatencyPreferences = new Preference[stats.getStageCount()];
+			
+			for (int i = 0; i < mLatencyPreferences.length; i++) {
+				mLatencyPreferences[i] = new Preference(mParentActivity);
+				mLatencyPreferences[i].setTitle(getString(R.string.stats_latency_title) + " " + stats.getStageName(i));
+				mLatencyPreferences[i].setOnPreferenceClickListener(mLatencyOnClickListener);
+				category.addPreference(mLatencyPreferences[i]);
+			}
+		}
+		
+		for (int i = 0; i < mLatencyPreferences.length; i++) {
+			mLatencyPreferences[i].setSummary(stats.getStage(i).getSummary());
+		}
 	}
 	
 	
+	protected OnPreferenceClickListener mLatencyOnClickListener = new OnPreferenceClickListener() {		
+		@Override
+		public boolean onPreferenceClick(Preference preference) {
+			updateLatencyPreferences();
+			return true;
+		}
+	};
+	
+	
 	protected OnPreferenceClickListener mExitOnClickListener = new OnPreferenceClickListener() {		
 		@Override
 		public boolean onPreferenceClick(Preference preference) {
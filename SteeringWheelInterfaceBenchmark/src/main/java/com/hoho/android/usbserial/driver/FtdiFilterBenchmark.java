@@ -0,0 +1,76 @@
+package com.hoho.android.usbserial.driver;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link FtdiSerialDriver#filterStatusBytes(byte[], byte[], int, int)} on
+ * reads of 64 byte packets, one read per operation. Reads of whole packets
+ * and ones ending in a partial packet are alternated, the payload counter
+ * gives the byte rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FtdiFilterBenchmark {
+
+    private static final int MAX_PACKET_SIZE = 64;
+
+    /** Read size in bytes, the default FTDI read buffer is 4096. */
+    @Param({"64", "512", "4096"})
+    public int length;
+
+    private byte[] mSrc;
+    private byte[] mDest;
+    private final int[] mReadLengths = new int[2];
+    private int mNext = 0;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long payload;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            payload = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mSrc = new byte[length];
+        mDest = new byte[length];
+        new Random(1).nextBytes(mSrc);
+
+        mReadLengths[0] = length;
+        mReadLengths[1] = length - (MAX_PACKET_SIZE / 2);
+    }
+
+    @Benchmark
+    public int filter(Counters counters) {
+        final int read = mReadLengths[mNext];
+        mNext ^= 1;
+
+        final int payload = FtdiSerialDriver.filterStatusBytes(mSrc, mDest, read, MAX_PACKET_SIZE);
+        counters.payload += payload;
+        return payload;
+    }
+
+}
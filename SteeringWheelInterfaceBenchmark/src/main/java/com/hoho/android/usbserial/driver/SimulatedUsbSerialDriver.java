@@ -0,0 +1,280 @@
+package com.hoho.android.usbserial.driver;
+
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * A USB serial adapter simulated in memory, so
+ * {@link com.hoho.android.usbserial.util.SerialInputOutputManager} can be run
+ * on a plain JVM. Bytes given to {@link #receive(byte[])} arrive on its bulk
+ * in endpoint: {@link #read(byte[], int)} picks them up as a synchronous bulk
+ * transfer would, and a {@link UsbRequest} queued on {@link #getConnection()}
+ * completes with them. Written bytes are kept for {@link #takeWritten()}.
+ * <p>
+ * A transfer completes with everything received so far, up to its length, as
+ * soon as there is anything. Queued requests complete in the order they were
+ * queued, and cancelled ones are returned by requestWait() as on a device.
+ * There is no chip framing and no latency timer holding data back.
+ */
+public class SimulatedUsbSerialDriver implements QueuedReadDriver {
+
+    private final Object mLock = new Object();
+
+    // Synchronized by 'mLock'
+    private byte[] mReceived = new byte[4096];
+    private int mReceivedLength = 0;
+    private final ArrayDeque<QueuedRequest> mQueued = new ArrayDeque<QueuedRequest>();
+    private final ArrayDeque<UsbRequest> mCompleted = new ArrayDeque<UsbRequest>();
+    private final ByteArrayOutputStream mWritten = new ByteArrayOutputStream();
+    private boolean mOpen = false;
+    private int mBaudRate = 0;
+
+    private final UsbEndpoint mEndpoint = new UsbEndpoint();
+    private final UsbDeviceConnection mConnection = new UsbDeviceConnection() {
+        @Override
+        public UsbRequest requestWait() {
+            synchronized (mLock) {
+                while (mCompleted.isEmpty()) {
+                    if (!mOpen) {
+                        return null;
+                    }
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return null;
+                    }
+                }
+                return mCompleted.poll();
+            }
+        }
+
+        @Override
+        protected boolean queueRequest(UsbRequest request, ByteBuffer buffer, int length) {
+            synchronized (mLock) {
+                if (!mOpen) {
+                    return false;
+                }
+                mQueued.add(new QueuedRequest(request, buffer, length));
+                completeQueued();
+                return true;
+            }
+        }
+
+        @Override
+        protected boolean cancelRequest(UsbRequest request) {
+            synchronized (mLock) {
+                final Iterator<QueuedRequest> queued = mQueued.iterator();
+                while (queued.hasNext()) {
+                    if (queued.next().mRequest == request) {
+                        queued.remove();
+                        mCompleted.add(request);
+                        mLock.notifyAll();
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }
+    };
+
+    private static class QueuedRequest {
+        final UsbRequest mRequest;
+        final ByteBuffer mBuffer;
+        final int mLength;
+
+        QueuedRequest(UsbRequest request, ByteBuffer buffer, int length) {
+            mRequest = request;
+            mBuffer = buffer;
+            mLength = length;
+        }
+    }
+
+    /**
+     * Makes bytes arrive on the bulk in endpoint, from any thread.
+     *
+     * @param data the bytes
+     */
+    public void receive(byte[] data) {
+        synchronized (mLock) {
+            if (mReceivedLength + data.length > mReceived.length) {
+                final byte[] grown = new byte[Math.max(mReceived.length * 2, mReceivedLength + data.length)];
+                System.arraycopy(mReceived, 0, grown, 0, mReceivedLength);
+                mReceived = grown;
+            }
+            System.arraycopy(data, 0, mReceived, mReceivedLength, data.length);
+            mReceivedLength += data.length;
+            completeQueued();
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Returns the bytes written since the last call.
+     *
+     * @return the bytes, in the order written
+     */
+    public byte[] takeWritten() {
+        synchronized (mLock) {
+            final byte[] written = mWritten.toByteArray();
+            mWritten.reset();
+            return written;
+        }
+    }
+
+    /**
+     * Returns the baud rate last set with
+     * {@link #setParameters(int, int, int, int)}.
+     *
+     * @return the rate, 0 if never set
+     */
+    public int getBaudRate() {
+        synchronized (mLock) {
+            return mBaudRate;
+        }
+    }
+
+    // Called with 'mLock' held.
+    private void completeQueued() {
+        while (mReceivedLength > 0 && !mQueued.isEmpty()) {
+            final QueuedRequest queued = mQueued.poll();
+            final int length = Math.min(mReceivedLength,
+                    Math.min(queued.mLength, queued.mBuffer.remaining()));
+            queued.mBuffer.put(mReceived, 0, length);
+            take(length);
+            mCompleted.add(queued.mRequest);
+        }
+        mLock.notifyAll();
+    }
+
+    // Called with 'mLock' held.
+    private void take(int length) {
+        mReceivedLength -= length;
+        System.arraycopy(mReceived, length, mReceived, 0, mReceivedLength);
+    }
+
+    @Override
+    public void open() throws IOException {
+        synchronized (mLock) {
+            mOpen = true;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (mLock) {
+            mOpen = false;
+            mLock.notifyAll();
+        }
+    }
+
+    @Override
+    public int read(byte[] dest, int timeoutMillis) throws IOException {
+        synchronized (mLock) {
+            final long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+            while (mReceivedLength == 0) {
+                if (!mOpen) {
+                    throw new IOException("Device closed.");
+                }
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return 0;
+                }
+                try {
+                    mLock.wait(remaining / 1000000L + 1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return 0;
+                }
+            }
+
+            final int length = Math.min(mReceivedLength, dest.length);
+            System.arraycopy(mReceived, 0, dest, 0, length);
+            take(length);
+            return length;
+        }
+    }
+
+    @Override
+    public int write(byte[] src, int timeoutMillis) throws IOException {
+        synchronized (mLock) {
+            if (!mOpen) {
+                throw new IOException("Device closed.");
+            }
+            mWritten.write(src, 0, src.length);
+            return src.length;
+        }
+    }
+
+    @Override
+    public void setParameters(int baudRate, int dataBits, int stopBits, int parity)
+            throws IOException {
+        synchronized (mLock) {
+            mBaudRate = baudRate;
+        }
+    }
+
+    @Override
+    public UsbDeviceConnection getConnection() {
+        return mConnection;
+    }
+
+    @Override
+    public UsbEndpoint getReadEndpoint() {
+        return mEndpoint;
+    }
+
+    @Override
+    public int filterReadPayload(byte[] src, byte[] dest, int length) {
+        if (src != dest) {
+            System.arraycopy(src, 0, dest, 0, length);
+        }
+        return length;
+    }
+
+    @Override
+    public boolean getCD() throws IOException {
+        return false;
+    }
+
+    @Override
+    public boolean getCTS() throws IOException {
+        return false;
+    }
+
+    @Override
+    public boolean getDSR() throws IOException {
+        return false;
+    }
+
+    @Override
+    public boolean getDTR() throws IOException {
+        return false;
+    }
+
+    @Override
+    public void setDTR(boolean value) throws IOException {
+    }
+
+    @Override
+    public boolean getRI() throws IOException {
+        return false;
+    }
+
+    @Override
+    public boolean getRTS() throws IOException {
+        return false;
+    }
+
+    @Override
+    public void setRTS(boolean value) throws IOException {
+    }
+
+}
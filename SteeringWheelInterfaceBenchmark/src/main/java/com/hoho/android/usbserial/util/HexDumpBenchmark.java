@@ -0,0 +1,53 @@
+package com.hoho.android.usbserial.util;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link HexDump} on buffers the size of typical reads, one buffer per
+ * operation. HexDump is only used for debug logging, this keeps an eye on
+ * what turning that logging on costs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HexDumpBenchmark {
+
+    @Param({"16", "64", "512"})
+    public int length;
+
+    private byte[] mBuffer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mBuffer = new byte[length];
+        new Random(1).nextBytes(mBuffer);
+    }
+
+    @Benchmark
+    public String dumpHexString() {
+        return HexDump.dumpHexString(mBuffer);
+    }
+
+    @Benchmark
+    public String toHexString() {
+        return HexDump.toHexString(mBuffer);
+    }
+
+}
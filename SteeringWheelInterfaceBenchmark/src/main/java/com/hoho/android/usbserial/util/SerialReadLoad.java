@@ -0,0 +1,166 @@
+package com.hoho.android.usbserial.util;
+
+import android.os.Build;
+
+import com.hoho.android.usbserial.driver.SimulatedUsbSerialDriver;
+import com.theksmith.steeringwheelinterface.LatencyHistogram;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs {@link SerialInputOutputManager} against a
+ * {@link SimulatedUsbSerialDriver} receiving one J1850 line at a time at a
+ * given rate, with polled reads (as before queued reads, and still on
+ * Android 4.1) and with queued UsbRequests. Reports the reader's wakeups per
+ * second and the latency from each line's arrival on the endpoint to the
+ * listener being called with it.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.hoho.android.usbserial.util.SerialReadLoad [seconds] [rate...]
+ * </pre>
+ *
+ * The defaults are 5 seconds at 0 (idle), 100 and 1000 lines per second.
+ */
+public class SerialReadLoad {
+
+    public static final byte[] LINE = "3D 11 00 80 2A\r\n".getBytes();
+
+    /**
+     * What one run measured.
+     */
+    public static class Result {
+        public boolean queued;
+        public int rate;
+        public double seconds;
+        public long lines;
+        public long wakeups;
+        public long reads;
+        public final LatencyHistogram latency = new LatencyHistogram();
+
+        @Override
+        public String toString() {
+            return (queued ? "queued" : "polled") + ", " + rate + " lines/s: "
+                    + Math.round(wakeups / seconds) + " wakeups/s ("
+                    + Math.round(reads / seconds) + " with data), arrival to callback "
+                    + latency.getSummary();
+        }
+    }
+
+    /**
+     * Times each line from its arrival to the callback with its first byte.
+     * Lines are all the same length, so a byte's offset in the stream gives
+     * its line.
+     */
+    private static class TimingListener implements SerialInputOutputManager.BufferListener {
+        private final long[] mArrivals;
+        private final LatencyHistogram mLatency;
+        private long mOffset = 0;
+
+        TimingListener(long[] arrivals, LatencyHistogram latency) {
+            mArrivals = arrivals;
+            mLatency = latency;
+        }
+
+        @Override
+        public void onNewData(ReadBuffer buffer) {
+            final long now = System.nanoTime();
+            final long first = mOffset;
+            mOffset += buffer.length();
+            buffer.release();
+
+            // Every line starting in this read, the first one may have begun in the last.
+            for (long line = (first + LINE.length - 1) / LINE.length;
+                    line * LINE.length < mOffset; line++) {
+                mLatency.record(now - mArrivals[(int) line]);
+            }
+        }
+
+        @Override
+        public void onNewData(byte[] data) {
+        }
+
+        @Override
+        public void onRunError(Exception e) {
+        }
+    }
+
+    /**
+     * Runs the reader for the given time.
+     *
+     * @param queued true for queued UsbRequests, false for polled reads
+     * @param rate lines per second, 0 for none
+     * @param seconds run time
+     * @return what was measured
+     */
+    public static Result run(boolean queued, int rate, int seconds) throws Exception {
+        final int sdk = Build.VERSION.SDK_INT;
+        Build.VERSION.SDK_INT = queued ? Build.VERSION_CODES.JELLY_BEAN_MR1 : Build.VERSION_CODES.JELLY_BEAN;
+
+        final Result result = new Result();
+        result.queued = queued;
+        result.rate = rate;
+
+        final long[] arrivals = new long[rate * seconds + 1];
+        final SimulatedUsbSerialDriver driver = new SimulatedUsbSerialDriver();
+        driver.open();
+        final SerialInputOutputManager manager = new SerialInputOutputManager(driver,
+                new TimingListener(arrivals, result.latency));
+        final Thread reader = new Thread(manager, "SerialReadLoad");
+        reader.setDaemon(true);
+
+        try {
+            reader.start();
+
+            final long start = System.nanoTime();
+            final long end = start + seconds * 1000000000L;
+            final long period = rate > 0 ? 1000000000L / rate : Long.MAX_VALUE;
+            long next = start;
+            int line = 0;
+            while (true) {
+                final long now = System.nanoTime();
+                if (now - end >= 0) {
+                    break;
+                }
+                if (rate > 0 && now - next >= 0 && line < arrivals.length) {
+                    arrivals[line++] = now;
+                    driver.receive(LINE);
+                    next += period;
+                } else {
+                    LockSupport.parkNanos(Math.min(end - now, Math.max(0, next - now)));
+                }
+            }
+
+            result.seconds = (System.nanoTime() - start) / 1000000000.0;
+            result.lines = line;
+            result.wakeups = manager.getWakeupCount();
+            result.reads = manager.getDataCount();
+        } finally {
+            manager.stop();
+            driver.close();
+            reader.join(1000);
+            Build.VERSION.SDK_INT = sdk;
+        }
+
+        return result;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int seconds = 5;
+        int[] rates = { 0, 100, 1000 };
+        if (args.length > 0) {
+            seconds = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            rates = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                rates[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+
+        for (int rate : rates) {
+            System.out.println(run(false, rate, seconds));
+            System.out.println(run(true, rate, seconds));
+        }
+    }
+
+}
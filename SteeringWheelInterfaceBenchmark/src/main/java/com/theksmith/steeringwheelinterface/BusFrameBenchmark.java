@@ -0,0 +1,89 @@
+package com.theksmith.steeringwheelinterface;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * A received line to its button, one bus message per operation: so the score is frames per second, and with -prof gc,
+ * gc.alloc.rate.norm is the bytes allocated per frame. Both paths start from the line's bytes and stop at the button,
+ * framing and gestures are left out (see ButtonGestureBenchmark).
+ *
+ * busFrame is the current path: BusFrame.decode() and a ButtonDispatchTable lookup, as ButtonActions does. string is the
+ * 1.2 path: a String of the line, trim() and startsWith() against each button (see LegacyStringPath). stringMatch is
+ * the 1.2 path given the String for free, trim() and startsWith() only.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BusFrameBenchmark {
+	@Param({BusTraffic.FORMAT_SPACED})
+	public String traffic;
+
+	protected byte[][] mLines;
+	protected String[] mStrings;
+	protected final BusFrame mFrame = new BusFrame();
+	protected final ButtonDispatchTable mTable = new ButtonDispatchTable();
+	protected int mNext = 0;
+
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		//no noise lines, every line is a frame
+		final BusTraffic busTraffic = BusTraffic.synthetic(traffic, BusTraffic.DEFAULT_FRAME_COUNT, BusTraffic.DEFAULT_PRESS_INTERVAL, 0, 1);
+
+		mLines = new byte[busTraffic.getLineCount()][];
+		mStrings = new String[mLines.length];
+		for (int i = 0; i < mLines.length; i++) {
+			mLines[i] = busTraffic.getLine(i);
+			mStrings[i] = new String(mLines[i]);
+		}
+
+		for (int i = 0; i < LegacyStringPath.BUTTONS.length; i++) {
+			mTable.add(i, BusFrame.fromString(LegacyStringPath.BUTTONS[i]));
+		}
+	}
+
+
+	@Benchmark
+	public int busFrame() {
+		final byte[] line = mLines[next()];
+		if (!mFrame.decode(line, 0, line.length)) return ButtonDispatchTable.NO_BUTTON;
+
+		return mTable.lookup(mFrame);
+	}
+
+
+	@Benchmark
+	public int string() {
+		return LegacyStringPath.match(mLines[next()]);
+	}
+
+
+	@Benchmark
+	public int stringMatch() {
+		return LegacyStringPath.match(mStrings[next()]);
+	}
+
+
+	protected int next() {
+		final int index = mNext;
+		mNext = (index + 1 == mLines.length) ? 0 : index + 1;
+		return index;
+	}
+}
@@ -0,0 +1,265 @@
+package com.theksmith.steeringwheelinterface;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * Scantool monitoring output for the benchmarks and tests, held in memory as the chunks USB reads would return.
+ *
+ * Synthetic traffic is J1850 style output (3 header bytes, data, checksum) as SimulatedElmDriver generates it, spaced
+ * (ATS1, ATL1) or compact (ATS0, ATL0), with a default button's message every so many messages and a little noise.
+ * Recorded traffic comes from a capture file made with "Record Bus Capture" (see BusCaptureRecorder), with the chunk
+ * boundaries seen in the vehicle. Only the output after the capture's last prompt is kept, which is the monitoring
+ * output once the init sequence is done.
+ */
+public class BusTraffic {
+	public static final String FORMAT_SPACED = "spaced";
+	public static final String FORMAT_COMPACT = "compact";
+
+	public static final int DEFAULT_FRAME_COUNT = 4096;
+	public static final int DEFAULT_PRESS_INTERVAL = SimulatedElmDriver.DEFAULT_PRESS_INTERVAL;
+	public static final int DEFAULT_NOISE_PERCENT = SimulatedElmDriver.DEFAULT_NOISE_PERCENT;
+	public static final int DEFAULT_MAX_CHUNK = SimulatedElmDriver.DEFAULT_MAX_CHUNK;
+
+	protected static final int[] BACKGROUND_HEADERS = SimulatedElmDriver.BACKGROUND_HEADERS;
+	protected static final String[] NOISE_LINES = SimulatedElmDriver.NOISE_LINES;
+	protected static final String[] PRESS_MESSAGES = {
+		ButtonActions.BUTTON_LEFT_CENTER, ButtonActions.BUTTON_LEFT_DOWN, ButtonActions.BUTTON_LEFT_UP,
+		ButtonActions.BUTTON_RIGHT_CENTER, ButtonActions.BUTTON_RIGHT_DOWN, ButtonActions.BUTTON_RIGHT_UP
+	};
+	protected static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+	protected static final byte CHAR_PROMPT = '>';
+
+	protected final byte[][] mChunks;
+	protected final int[] mChunkFrames;		//bus messages whose line ends in each chunk
+	protected final byte[][] mLines;		//every line without its CR or LF, as the framer passes them on
+	protected final int mFrameCount;		//lines that decode as bus messages
+	protected final int mByteCount;
+
+
+	protected BusTraffic(List<byte[]> chunks) {
+		mChunks = chunks.toArray(new byte[chunks.size()][]);
+		mChunkFrames = new int[mChunks.length];
+
+		final List<byte[]> lines = new ArrayList<byte[]>();
+		final BusFrame frame = new BusFrame();
+		final byte[] line = new byte[ElmResponseFramer.DEFAULT_MAX_LINE_LENGTH];
+		int lineLength = 0;
+		int frames = 0;
+		int bytes = 0;
+
+		for (int i = 0; i < mChunks.length; i++) {
+			bytes += mChunks[i].length;
+			for (byte b : mChunks[i]) {
+				if (b == '\r' || b == '\n' || b == CHAR_PROMPT) {
+					if (lineLength > 0) {
+						lines.add(Arrays.copyOf(line, lineLength));
+						if (frame.decode(line, 0, lineLength)) {
+							mChunkFrames[i]++;
+							frames++;
+						}
+						lineLength = 0;
+					}
+				} else if (lineLength < line.length) {
+					line[lineLength++] = b;
+				}
+			}
+		}
+
+		mLines = lines.toArray(new byte[lines.size()][]);
+		mFrameCount = frames;
+		mByteCount = bytes;
+	}
+
+
+	/**
+	 * @param format			FORMAT_SPACED or FORMAT_COMPACT.
+	 * @param frameCount		Number of bus messages, noise lines are extra.
+	 * @param pressInterval		Bus messages between button presses (rotating through the default buttons), 0 for none.
+	 * @param noisePercent		Chance of a noise line (ex: "<DATA ERROR") before each message.
+	 * @param seed				Random seed, the same seed always gives the same traffic.
+	 */
+	public static BusTraffic synthetic(String format, int frameCount, int pressInterval, int noisePercent, long seed) {
+		final Boolean spaced;
+		if (FORMAT_SPACED.equals(format)) {
+			spaced = true;
+		} else if (FORMAT_COMPACT.equals(format)) {
+			spaced = false;
+		} else {
+			throw new IllegalArgumentException("Unknown traffic format: " + format);
+		}
+
+		final Random random = new Random(seed);
+		final StringBuilder text = new StringBuilder(frameCount * 24);
+		int presses = 0;
+
+		for (int i = 1; i <= frameCount; i++) {
+			if (random.nextInt(100) < noisePercent) {
+				text.append(NOISE_LINES[random.nextInt(NOISE_LINES.length)]);
+				text.append(spaced ? "\r\n" : "\r");
+			}
+
+			final int[] bytes;
+			if (pressInterval > 0 && i % pressInterval == 0) {
+				final BusFrame press = BusFrame.fromString(PRESS_MESSAGES[presses++ % PRESS_MESSAGES.length]);
+				bytes = new int[press.getLength() + 1];
+				for (int j = 0; j < press.getLength(); j++) {
+					bytes[j] = press.getByte(j);
+				}
+			} else {
+				bytes = new int[BusFrame.DEFAULT_HEADER_LENGTH + 1 + random.nextInt(7)];
+				bytes[0] = BACKGROUND_HEADERS[random.nextInt(BACKGROUND_HEADERS.length)];
+				for (int j = 1; j < bytes.length - 1; j++) {
+					bytes[j] = random.nextInt(256);
+				}
+			}
+
+			//the checksum byte, its value doesn't matter to matching
+			bytes[bytes.length - 1] = random.nextInt(256);
+
+			for (int j = 0; j < bytes.length; j++) {
+				if (spaced && j > 0) text.append(' ');
+				text.append(HEX_DIGITS[bytes[j] >> 4]).append(HEX_DIGITS[bytes[j] & 0x0F]);
+			}
+			text.append(spaced ? "\r\n" : "\r");
+		}
+
+		//split as USB reads do, at odd sizes that leave partial lines
+		final byte[] all = text.toString().getBytes();
+		final List<byte[]> chunks = new ArrayList<byte[]>();
+		int offset = 0;
+		while (offset < all.length) {
+			final int length = Math.min(all.length - offset, 1 + random.nextInt(DEFAULT_MAX_CHUNK));
+			chunks.add(Arrays.copyOfRange(all, offset, offset + length));
+			offset += length;
+		}
+
+		return new BusTraffic(chunks);
+	}
+
+
+	public static BusTraffic synthetic(String format) {
+		return synthetic(format, DEFAULT_FRAME_COUNT, DEFAULT_PRESS_INTERVAL, DEFAULT_NOISE_PERCENT, 1);
+	}
+
+
+	/**
+	 * For benchmark parameters.
+	 *
+	 * @param name				FORMAT_SPACED or FORMAT_COMPACT for synthetic traffic, otherwise the path of a capture file.
+	 */
+	public static BusTraffic forName(String name) throws IOException {
+		if (FORMAT_SPACED.equals(name) || FORMAT_COMPACT.equals(name)) {
+			return synthetic(name);
+		}
+
+		return load(new File(name));
+	}
+
+
+	/**
+	 * Reads the monitoring output of a capture file.
+	 *
+	 * @param capture			A capture file made by BusCaptureRecorder.
+	 * @throws IOException if the file can't be read, is corrupt or holds no monitoring output.
+	 */
+	public static BusTraffic load(File capture) throws IOException {
+		final CaptureReplayDriver replay = new CaptureReplayDriver(capture, false);
+		final byte[] command = { '\r' };
+		final byte[] dest = new byte[BusCaptureRecorder.MAX_RECORD_LENGTH];
+		final List<byte[]> chunks = new ArrayList<byte[]>();
+
+		replay.open();
+		try {
+			while (!replay.isFinished()) {
+				//each command releases the capture's next turn
+				replay.write(command, 0);
+
+				final int length = replay.read(dest, 0);
+				if (length <= 0) continue;
+
+				final byte[] chunk = Arrays.copyOf(dest, length);
+				if (indexOf(chunk, CHAR_PROMPT) >= 0) {
+					//the init sequence's responses, keep only what follows the prompt
+					chunks.clear();
+					final int start = lastIndexOf(chunk, CHAR_PROMPT) + 1;
+					if (start < length) {
+						chunks.add(Arrays.copyOfRange(chunk, start, length));
+					}
+				} else {
+					chunks.add(chunk);
+				}
+			}
+		} finally {
+			replay.close();
+		}
+
+		if (chunks.isEmpty()) {
+			throw new IOException("No monitoring output in bus capture: " + capture);
+		}
+
+		return new BusTraffic(chunks);
+	}
+
+
+	public int getChunkCount() {
+		return mChunks.length;
+	}
+
+
+	public byte[] getChunk(int index) {
+		return mChunks[index];
+	}
+
+
+	public int getChunkFrameCount(int index) {
+		return mChunkFrames[index];
+	}
+
+
+	public int getLineCount() {
+		return mLines.length;
+	}
+
+
+	public byte[] getLine(int index) {
+		return mLines[index];
+	}
+
+
+	public int getFrameCount() {
+		return mFrameCount;
+	}
+
+
+	public int getByteCount() {
+		return mByteCount;
+	}
+
+
+	protected static int indexOf(byte[] bytes, byte value) {
+		for (int i = 0; i < bytes.length; i++) {
+			if (bytes[i] == value) return i;
+		}
+		return -1;
+	}
+
+
+	protected static int lastIndexOf(byte[] bytes, byte value) {
+		for (int i = bytes.length - 1; i >= 0; i--) {
+			if (bytes[i] == value) return i;
+		}
+		return -1;
+	}
+
+
+	@Override
+	public String toString() {
+		return "chunks: " + mChunks.length + ", lines: " + mLines.length + ", frames: " + mFrameCount + ", bytes: " + mByteCount;
+	}
+}
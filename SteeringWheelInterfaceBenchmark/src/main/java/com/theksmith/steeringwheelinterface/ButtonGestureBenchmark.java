@@ -0,0 +1,115 @@
+package com.theksmith.steeringwheelinterface;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * The press, release (debounce) and gesture decisions of ButtonGestureRecognizer, one button message per operation.
+ *
+ * The messages follow a generated script on a virtual clock, so presses really are held, released and double clicked:
+ * a random button repeats its message every REPEAT_SPACING while held for up to 1.2s, then the buttons are idle for up
+ * to 500ms. Deadlines are checked before each message as the event loop does. With the gestures parameter "short" only
+ * the short presses are enabled (each reported on the press), "all" adds long press, repeat, double click and a chord.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ButtonGestureBenchmark {
+	protected static final int MESSAGE_COUNT = 4096;
+	protected static final long REPEAT_SPACING = 25000000L;		//nanoseconds between a held button's messages
+	protected static final int MAX_HELD_MESSAGES = 48;
+	protected static final long MAX_IDLE = 500000000L;			//nanoseconds
+
+	@Param({"short", "all"})
+	public String gestures;
+
+	protected ButtonGestureRecognizer mRecognizer;
+	protected final int[] mButtons = new int[MESSAGE_COUNT];
+	protected final long[] mTimes = new long[MESSAGE_COUNT];
+	protected long mSpan;					//virtual time one pass through the script takes
+	protected long mBase = 0;
+	protected int mNext = 0;
+	protected int mGestureCount = 0;
+
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		mRecognizer = new ButtonGestureRecognizer(ButtonActions.BUTTON_COUNT, mListener);
+		for (int buttonId = 0; buttonId < ButtonActions.BUTTON_COUNT; buttonId++) {
+			mRecognizer.setEnabled(buttonId, ButtonGestureRecognizer.GESTURE_SHORT, true);
+			if ("all".equals(gestures)) {
+				mRecognizer.setEnabled(buttonId, ButtonGestureRecognizer.GESTURE_LONG, true);
+				mRecognizer.setEnabled(buttonId, ButtonGestureRecognizer.GESTURE_REPEAT, true);
+				mRecognizer.setEnabled(buttonId, ButtonGestureRecognizer.GESTURE_DOUBLE, true);
+			}
+		}
+		if ("all".equals(gestures)) {
+			mRecognizer.addChord(ButtonActions.BUTTON_ID_LEFT_CENTER, ButtonActions.BUTTON_ID_RIGHT_CENTER);
+		}
+
+		final Random random = new Random(1);
+		long time = 0;
+		int i = 0;
+		while (i < MESSAGE_COUNT) {
+			final int buttonId = random.nextInt(ButtonActions.BUTTON_COUNT);
+			final int held = 1 + random.nextInt(MAX_HELD_MESSAGES);
+			for (int j = 0; j < held && i < MESSAGE_COUNT; j++, i++) {
+				mButtons[i] = buttonId;
+				mTimes[i] = time;
+				time += REPEAT_SPACING;
+			}
+			time += (long)(random.nextDouble() * MAX_IDLE);
+		}
+		mSpan = time + MAX_IDLE;
+	}
+
+
+	@Benchmark
+	public int message() {
+		final int index = mNext;
+		final long now = mBase + mTimes[index];
+
+		if (mRecognizer.getRemaining(now) <= 0) {
+			mRecognizer.check(now);
+		}
+		mRecognizer.onMessage(mButtons[index], now);
+
+		if (index + 1 == MESSAGE_COUNT) {
+			mNext = 0;
+			mBase += mSpan;
+		} else {
+			mNext = index + 1;
+		}
+		return mGestureCount;
+	}
+
+
+	protected final ButtonGestureRecognizer.Listener mListener = new ButtonGestureRecognizer.Listener() {
+		@Override
+		public void onGesture(int buttonId, int gesture, long due) {
+			mGestureCount++;
+		}
+
+		@Override
+		public void onChord(int chordId, long due) {
+			mGestureCount++;
+		}
+	};
+}
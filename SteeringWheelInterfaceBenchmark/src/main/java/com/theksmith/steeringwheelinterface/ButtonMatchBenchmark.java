@@ -0,0 +1,81 @@
+package com.theksmith.steeringwheelinterface;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Decoding a received line and finding its button, one line per operation: through the ButtonDispatchTable as
+ * ButtonActions does, and through each button's ButtonPattern in turn for comparison.
+ *
+ * The traffic parameter is BusTraffic.FORMAT_SPACED, BusTraffic.FORMAT_COMPACT or the path of a recorded capture file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ButtonMatchBenchmark {
+	@Param({BusTraffic.FORMAT_SPACED, BusTraffic.FORMAT_COMPACT})
+	public String traffic;
+
+	protected BusTraffic mTraffic;
+	protected final BusFrame mFrame = new BusFrame();
+	protected final ButtonDispatchTable mTable = new ButtonDispatchTable();
+	protected final ButtonPattern[] mPatterns = new ButtonPattern[ButtonActions.BUTTON_COUNT];
+	protected int mNext = 0;
+
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		mTraffic = BusTraffic.forName(traffic);
+
+		final ButtonActions buttons = new ButtonActions(new OffDeviceContext());
+		for (int buttonId = 0; buttonId < ButtonActions.BUTTON_COUNT; buttonId++) {
+			mPatterns[buttonId] = buttons.getButtonPattern(buttonId);
+			mTable.add(buttonId, mPatterns[buttonId]);
+		}
+	}
+
+
+	@Benchmark
+	public int dispatchTable() {
+		final byte[] line = nextLine();
+		if (!mFrame.decode(line, 0, line.length)) return ButtonDispatchTable.NO_BUTTON;
+
+		return mTable.lookup(mFrame);
+	}
+
+
+	@Benchmark
+	public int patterns() {
+		final byte[] line = nextLine();
+		if (!mFrame.decode(line, 0, line.length)) return ButtonDispatchTable.NO_BUTTON;
+
+		for (int buttonId = 0; buttonId < mPatterns.length; buttonId++) {
+			if (mPatterns[buttonId].matches(mFrame)) return buttonId;
+		}
+		return ButtonDispatchTable.NO_BUTTON;
+	}
+
+
+	protected byte[] nextLine() {
+		final int index = mNext;
+		mNext = (index + 1 == mTraffic.getLineCount()) ? 0 : index + 1;
+		return mTraffic.getLine(index);
+	}
+}
@@ -0,0 +1,93 @@
+package com.theksmith.steeringwheelinterface;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * The whole receive path while monitoring, as the event loop runs it: ElmInterface.ioManagerOnReceivedData() frames,
+ * decodes and matches each USB read, then the gestures are checked. One operation is one read (chunk), the frames and
+ * bytes counters give the message and byte rates. Button actions go to the action worker as on the device, through
+ * OffDeviceContext.
+ *
+ * The traffic parameter is BusTraffic.FORMAT_SPACED, BusTraffic.FORMAT_COMPACT or the path of a recorded capture file
+ * (ex: -p traffic=/path/to/capture_1380000000000.swic).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ElmInterfaceBenchmark {
+	@Param({BusTraffic.FORMAT_SPACED, BusTraffic.FORMAT_COMPACT})
+	public String traffic;
+
+	protected BusTraffic mTraffic;
+	protected ElmInterface mElm;
+	protected int mNext = 0;
+
+
+	/**
+	 * Rates reported next to the chunk rate.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters {
+		public long frames;
+		public long bytes;
+
+
+		@Setup(Level.Iteration)
+		public void clear() {
+			frames = 0;
+			bytes = 0;
+		}
+	}
+
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		mTraffic = BusTraffic.forName(traffic);
+
+		//straight to monitoring, as if the init sequence had run
+		mElm = new ElmInterface(new OffDeviceContext());
+		mElm.mStep = ElmCommandStep.MONITOR;
+		mElm.mButtons.start();
+	}
+
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		mElm.mButtons.stop();
+	}
+
+
+	@Benchmark
+	public void receive(Counters counters) {
+		final int index = mNext;
+		final byte[] chunk = mTraffic.getChunk(index);
+
+		mElm.ioManagerOnReceivedData(chunk, 0, chunk.length, System.nanoTime());
+		mElm.mButtons.checkGestures(System.nanoTime());
+
+		counters.frames += mTraffic.getChunkFrameCount(index);
+		counters.bytes += chunk.length;
+		mNext = (index + 1 == mTraffic.getChunkCount()) ? 0 : index + 1;
+	}
+}
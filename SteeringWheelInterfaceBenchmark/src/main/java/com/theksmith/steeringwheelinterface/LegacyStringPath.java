@@ -0,0 +1,41 @@
+package com.theksmith.steeringwheelinterface;
+
+
+/**
+ * The button matching of version 1.2, kept only as the baseline for BusFrameBenchmark: a received line is turned into
+ * a String, trimmed and compared against each button's message with startsWith().
+ */
+public class LegacyStringPath {
+	public static final int NO_BUTTON = -1;
+
+	protected static final String[] BUTTONS = {
+		ButtonActions.BUTTON_LEFT_CENTER, ButtonActions.BUTTON_LEFT_DOWN, ButtonActions.BUTTON_LEFT_UP,
+		ButtonActions.BUTTON_RIGHT_CENTER, ButtonActions.BUTTON_RIGHT_DOWN, ButtonActions.BUTTON_RIGHT_UP
+	};
+
+
+	/**
+	 * As ElmInterface and ButtonActions.performAction() were, up to finding the button.
+	 *
+	 * @param line				A received line, without its CR or LF.
+	 * @return					Index of the button in BUTTONS, or NO_BUTTON.
+	 */
+	public static int match(byte[] line) {
+		return match(new String(line));
+	}
+
+
+	/**
+	 * @param response			A received line as a String.
+	 * @return					Index of the button in BUTTONS, or NO_BUTTON.
+	 */
+	public static int match(String response) {
+		final String message = response.trim();
+		for (int i = 0; i < BUTTONS.length; i++) {
+			if (message.startsWith(BUTTONS[i])) {
+				return i;
+			}
+		}
+		return NO_BUTTON;
+	}
+}
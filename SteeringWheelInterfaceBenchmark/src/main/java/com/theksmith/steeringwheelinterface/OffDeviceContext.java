@@ -0,0 +1,125 @@
+package com.theksmith.steeringwheelinterface;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.media.AudioManager;
+
+
+/**
+ * An application context for running ElmInterface and ButtonActions on a plain JVM: the audio service is a stand-in
+ * that keeps the volume as a field, shared preferences are kept in memory for the life of the context, broadcasts and
+ * activities go nowhere, and there is no USB service.
+ */
+public class OffDeviceContext extends Context {
+	protected final AudioManager mAudioManager = new AudioManager();
+	protected final Map<String, MemoryPreferences> mPreferences = new HashMap<String, MemoryPreferences>();
+
+
+	@Override
+	public Object getSystemService(String name) {
+		if (AUDIO_SERVICE.equals(name)) {
+			return mAudioManager;
+		}
+
+		return null;
+	}
+
+
+	@Override
+	public synchronized SharedPreferences getSharedPreferences(String name, int mode) {
+		MemoryPreferences preferences = mPreferences.get(name);
+		if (preferences == null) {
+			preferences = new MemoryPreferences();
+			mPreferences.put(name, preferences);
+		}
+
+		return preferences;
+	}
+
+
+	public AudioManager getAudioManager() {
+		return mAudioManager;
+	}
+
+
+	/**
+	 * Edits are applied when committed, commit() and apply() both apply them at once.
+	 */
+	protected static class MemoryPreferences implements SharedPreferences {
+		protected final Map<String, Object> mValues = new HashMap<String, Object>();
+
+
+		public synchronized String getString(String key, String defValue) {
+			final Object value = mValues.get(key);
+			return value instanceof String ? (String)value : defValue;
+		}
+
+
+		public synchronized int getInt(String key, int defValue) {
+			final Object value = mValues.get(key);
+			return value instanceof Integer ? (Integer)value : defValue;
+		}
+
+
+		public synchronized boolean getBoolean(String key, boolean defValue) {
+			final Object value = mValues.get(key);
+			return value instanceof Boolean ? (Boolean)value : defValue;
+		}
+
+
+		public Editor edit() {
+			return new MemoryEditor();
+		}
+
+
+		protected class MemoryEditor implements Editor {
+			protected final Map<String, Object> mChanges = new HashMap<String, Object>();		//null values are removals
+
+
+			public Editor putString(String key, String value) {
+				mChanges.put(key, value);
+				return this;
+			}
+
+
+			public Editor putInt(String key, int value) {
+				mChanges.put(key, value);
+				return this;
+			}
+
+
+			public Editor putBoolean(String key, boolean value) {
+				mChanges.put(key, value);
+				return this;
+			}
+
+
+			public Editor remove(String key) {
+				mChanges.put(key, null);
+				return this;
+			}
+
+
+			public boolean commit() {
+				synchronized (MemoryPreferences.this) {
+					for (Map.Entry<String, Object> change : mChanges.entrySet()) {
+						if (change.getValue() == null) {
+							mValues.remove(change.getKey());
+						} else {
+							mValues.put(change.getKey(), change.getValue());
+						}
+					}
+				}
+				return true;
+			}
+
+
+			public void apply() {
+				commit();
+			}
+		}
+	}
+}
@@ -0,0 +1,334 @@
+package com.theksmith.steeringwheelinterface;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Runs ElmInterface against a SimulatedElmDriver at a given bus message rate, from monitorStart() as the app does, and
+ * reports what got through: the messages and bytes sent over the link, BUFFER FULL overflows, and the injected button
+ * presses against the actions performed (counted by an executor standing in for the real backends).
+ *
+ * Without -rate, finds the highest rate held for the run time without BUFFER FULL, by bisection. Each run starts a new
+ * session, and the clock starts once the first bus message is generated, so the init sequence isn't counted.
+ *
+ * 	java -cp target/benchmarks.jar com.theksmith.steeringwheelinterface.SimulatedLoad [options]
+ *
+ * 	-rate N			one run at N messages/s instead of the bisection
+ * 	-seconds N		run time (default 3)
+ * 	-compact		"Compact Scantool Output" (ATE0, ATL0, ATS0)
+ * 	-filter			"Filter For Button Messages Only"
+ * 	-baud N			default baud rate (default 115200)
+ * 	-upgrade		"Negotiate Faster Baud Rate", the simulator carries up to 500000
+ * 	-protocol CMD	protocol command (default ATSP2)
+ * 	-monitor CMD	monitor command (default ATMA)
+ * 	-noise N		percent of messages followed by noise (default 0)
+ * 	-presses N		messages between injected presses, 0 for none (default 25)
+ * 	-button MSG		a button's bus message, given once per button in place of the 6 defaults (ex: "2C4 00 80" for CAN)
+ */
+public class SimulatedLoad {
+	public static final int DEFAULT_SECONDS = 3;
+	public static final int DEFAULT_PRESS_INTERVAL = SimulatedElmDriver.DEFAULT_PRESS_INTERVAL;
+
+	protected static final int MIN_RATE = 10;					//messages per second the bisection starts from
+	protected static final int MAX_RATE = 20000;
+	protected static final int RATE_PRECISION_PERCENT = 2;
+	protected static final long START_TIMEOUT = 10000;			//milliseconds for the init sequence to reach monitoring
+	protected static final long SETTLE_TIMEOUT = 2000;			//milliseconds for the last presses to be performed
+
+	protected final OffDeviceContext mContext = new OffDeviceContext();	//one baud cache for every run
+	protected int mSeconds = DEFAULT_SECONDS;
+	protected Boolean mCompact = false;
+	protected Boolean mFilter = false;
+	protected int mBaudRate = 115200;
+	protected Boolean mBaudUpgrade = false;
+	protected String mProtocolCommand = "ATSP2";
+	protected String mMonitorCommand = "ATMA";
+	protected int mNoisePercent = 0;
+	protected int mPressInterval = DEFAULT_PRESS_INTERVAL;
+	protected String[] mButtons = null;							//null for the default buttons
+
+
+	/**
+	 * What one run got through.
+	 */
+	public static class Result {
+		public int rate;						//messages per second generated while monitoring
+		public long frames;
+		public long bytes;						//sent over the link
+		public long bufferFull;
+		public long injectedPresses;			//presses sent, not counting those lost to a full buffer
+		public long performedActions;
+		public double seconds;
+
+
+		@Override
+		public String toString() {
+			return rate + " msgs/s: " + frames + " messages, "
+					+ Math.round(bytes / seconds) + " B/s, "
+					+ bufferFull + " BUFFER FULL, "
+					+ performedActions + "/" + injectedPresses + " presses performed";
+		}
+	}
+
+
+	/**
+	 * Counts each action as performed, in place of the intent and audio backends.
+	 */
+	protected static class CountingActionExecutor extends CommonActionExecutor {
+		public String getName() {
+			return "counting";
+		}
+
+
+		public boolean supports(int action) {
+			return true;
+		}
+
+
+		public boolean isVerified(int action) {
+			return true;
+		}
+
+
+		@Override
+		protected boolean executeAction(int action) throws Exception {
+			return true;
+		}
+
+
+		public synchronized long getTotalCount() {
+			long total = 0;
+			for (int action = 0; action < ActionExecutor.ACTION_COUNT; action++) {
+				total += getCount(action);
+			}
+			return total;
+		}
+	}
+
+
+	public void setSeconds(int seconds) {
+		mSeconds = seconds;
+	}
+
+
+	public void setCompactMode(Boolean compact) {
+		mCompact = compact;
+	}
+
+
+	public void setAutoFilter(Boolean filter) {
+		mFilter = filter;
+	}
+
+
+	public void setBaudRate(int rate) {
+		mBaudRate = rate;
+	}
+
+
+	public void setBaudUpgrade(Boolean upgrade) {
+		mBaudUpgrade = upgrade;
+	}
+
+
+	public void setProtocolCommand(String command) {
+		mProtocolCommand = command;
+	}
+
+
+	public void setMonitorCommand(String command) {
+		mMonitorCommand = command;
+	}
+
+
+	public void setNoisePercent(int percent) {
+		mNoisePercent = percent;
+	}
+
+
+	/**
+	 * @param frames			Messages between injected presses, 0 for none. Keep a button's presses further apart
+	 * 							than its release timeout (50ms) at the rates run, the defaults rotate through 6 buttons.
+	 */
+	public void setPressInterval(int frames) {
+		mPressInterval = frames;
+	}
+
+
+	/**
+	 * @param messages			The buttons' bus messages, as plain hex (no wildcards), injected in rotation.
+	 */
+	public void setButtons(String[] messages) {
+		mButtons = messages;
+	}
+
+
+	/**
+	 * Runs one monitoring session at the given rate.
+	 *
+	 * @throws Exception if the device could not be opened or monitoring did not start.
+	 */
+	public Result run(int rate) throws Exception {
+		final SimulatedElmDriver driver = new SimulatedElmDriver();
+		driver.setFrameRate(rate);
+		driver.setNoisePercent(mNoisePercent);
+		driver.setPressInterval(mPressInterval);
+
+		final ElmInterface elm = new ElmInterface(mContext);
+		elm.setSerialDriver(driver);
+		elm.setBaudRate(mBaudRate);
+		elm.setBaudUpgrade(mBaudUpgrade);
+		elm.setProtocolCommand(mProtocolCommand);
+		elm.setMonitorCommand(mMonitorCommand);
+		elm.setCompactMode(mCompact);
+		elm.setAutoFilter(mFilter);
+		if (mButtons != null) {
+			driver.setPressFrames(mButtons);
+			for (int i = 0; i < ButtonActions.BUTTON_COUNT; i++) {
+				elm.setButtonPattern(i, mButtons[i % mButtons.length]);
+			}
+		}
+
+		final CountingActionExecutor counter = new CountingActionExecutor();
+		elm.mButtons.mActionExecutors.remove("intent");
+		elm.mButtons.mActionExecutors.remove("audio");
+		elm.mButtons.mActionExecutors.add(counter);
+
+		final Result result = new Result();
+		result.rate = rate;
+
+		try {
+			elm.deviceOpen();
+			elm.monitorStart();
+
+			final long startDeadline = System.nanoTime() + START_TIMEOUT * 1000000L;
+			while (driver.getFrameCount() == 0) {
+				if (System.nanoTime() - startDeadline > 0) {
+					throw new IllegalStateException("Monitoring did not start: " + elm.getStatusSnapshot());
+				}
+				Thread.sleep(1);
+			}
+
+			final long start = System.nanoTime();
+			final long startFrames = driver.getFrameCount();
+			final long startBytes = driver.getTransferredByteCount();
+			Thread.sleep(mSeconds * 1000L);
+
+			//stop injecting, and let the presses already sent be performed
+			driver.setPressInterval(0);
+			result.seconds = (System.nanoTime() - start) / 1000000000.0;
+			result.frames = driver.getFrameCount() - startFrames;
+			result.bytes = driver.getTransferredByteCount() - startBytes;
+			result.bufferFull = driver.getBufferFullCount();
+			result.injectedPresses = driver.getInjectedPressCount();
+
+			final long settleDeadline = System.nanoTime() + SETTLE_TIMEOUT * 1000000L;
+			while (counter.getTotalCount() < result.injectedPresses && System.nanoTime() - settleDeadline < 0) {
+				Thread.sleep(10);
+			}
+			//catches duplicates performed late
+			Thread.sleep(100);
+			result.performedActions = counter.getTotalCount();
+		} finally {
+			elm.deviceClose();
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Bisects between MIN_RATE and MAX_RATE for the highest rate run without BUFFER FULL, to within
+	 * RATE_PRECISION_PERCENT.
+	 *
+	 * @param results			Each run is added to it, may be null.
+	 * @return					The rate, or 0 if not even MIN_RATE was sustained.
+	 */
+	public int findSustainableRate(List<Result> results) throws Exception {
+		int low = 0;
+		int high = MAX_RATE + 1;
+		int rate = MIN_RATE;
+
+		while (rate > low && rate < high) {
+			final Result result = run(rate);
+			if (results != null) {
+				results.add(result);
+			}
+
+			if (result.bufferFull == 0) {
+				low = rate;
+			} else if (low == 0) {
+				break;
+			} else {
+				high = rate;
+			}
+
+			if ((high - low) * 100 <= low * RATE_PRECISION_PERCENT) break;
+			rate = (high > MAX_RATE) ? Math.min(low * 2, MAX_RATE) : (low + high) / 2;
+		}
+
+		return low;
+	}
+
+
+	public static void main(String[] args) throws Exception {
+		final SimulatedLoad load = new SimulatedLoad();
+		final List<String> buttons = new ArrayList<String>();
+		int rate = 0;
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				final String option = args[i];
+				if (option.equals("-compact")) {
+					load.setCompactMode(true);
+				} else if (option.equals("-filter")) {
+					load.setAutoFilter(true);
+				} else if (option.equals("-upgrade")) {
+					load.setBaudUpgrade(true);
+				} else if (i + 1 == args.length) {
+					throw new IllegalArgumentException(option);
+				} else if (option.equals("-rate")) {
+					rate = Integer.parseInt(args[++i]);
+				} else if (option.equals("-seconds")) {
+					load.setSeconds(Integer.parseInt(args[++i]));
+				} else if (option.equals("-baud")) {
+					load.setBaudRate(Integer.parseInt(args[++i]));
+				} else if (option.equals("-protocol")) {
+					load.setProtocolCommand(args[++i]);
+				} else if (option.equals("-monitor")) {
+					load.setMonitorCommand(args[++i]);
+				} else if (option.equals("-noise")) {
+					load.setNoisePercent(Integer.parseInt(args[++i]));
+				} else if (option.equals("-presses")) {
+					load.setPressInterval(Integer.parseInt(args[++i]));
+				} else if (option.equals("-button")) {
+					buttons.add(args[++i]);
+				} else {
+					throw new IllegalArgumentException(option);
+				}
+			}
+		} catch (IllegalArgumentException ex) {
+			System.err.println("Bad option: " + ex.getMessage() + ", see the SimulatedLoad class doc for the options.");
+			System.exit(1);
+		}
+
+		if (buttons.size() > 0) {
+			load.setButtons(buttons.toArray(new String[buttons.size()]));
+		}
+
+		if (rate > 0) {
+			System.out.println(load.run(rate));
+		} else {
+			final List<Result> results = new ArrayList<Result>();
+			final int sustained = load.findSustainableRate(results);
+			for (Result result : results) {
+				System.out.println(result);
+			}
+			System.out.println("sustained: " + sustained + " msgs/s");
+		}
+
+		//ElmInterface's executor thread would keep the JVM running
+		System.exit(0);
+	}
+}
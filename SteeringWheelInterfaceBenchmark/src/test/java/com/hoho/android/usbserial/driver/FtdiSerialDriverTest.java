@@ -0,0 +1,96 @@
+package com.hoho.android.usbserial.driver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import android.hardware.usb.UsbDevice;
+
+/**
+ * The FTDI status byte filter, on reads built as the chip sends them: every
+ * 64 byte packet starts with a 2 byte modem status header.
+ */
+public class FtdiSerialDriverTest {
+
+    private static final int MAX_PACKET_SIZE = 64;
+    private static final int HEADER = 2;
+
+    /**
+     * Builds a read carrying payload bytes 1, 2, 3... split into packets.
+     *
+     * @param totalBytesRead Read length, headers included
+     * @return The read, its payload is {@link #payload(int)}
+     */
+    private static byte[] read(int totalBytesRead) {
+        final byte[] src = new byte[totalBytesRead];
+        byte value = 1;
+        for (int i = 0; i < totalBytesRead; i++) {
+            if (i % MAX_PACKET_SIZE < HEADER) {
+                src[i] = (byte) (i % MAX_PACKET_SIZE == 0 ? 0x01 : 0x60);
+            } else {
+                src[i] = value++;
+            }
+        }
+        return src;
+    }
+
+    private static byte[] payload(int length) {
+        final byte[] payload = new byte[length];
+        for (int i = 0; i < length; i++) {
+            payload[i] = (byte) (i + 1);
+        }
+        return payload;
+    }
+
+    private static byte[] filter(int totalBytesRead, int expectedPayload) {
+        final byte[] dest = new byte[totalBytesRead];
+        final int length = FtdiSerialDriver.filterStatusBytes(read(totalBytesRead), dest,
+                totalBytesRead, MAX_PACKET_SIZE);
+        assertEquals(expectedPayload, length);
+        return Arrays.copyOf(dest, length);
+    }
+
+    @Test
+    public void singleFullPacket() {
+        assertArrayEquals(payload(62), filter(64, 62));
+    }
+
+    @Test
+    public void exactMultipleOfThePacketSize() {
+        // used to be charged a third header, dropping the last 2 bytes
+        assertArrayEquals(payload(124), filter(128, 124));
+        assertArrayEquals(payload(4096 - 64 * HEADER), filter(4096, 4096 - 64 * HEADER));
+    }
+
+    @Test
+    public void partialLastPacket() {
+        assertArrayEquals(payload(62 + 8), filter(64 + 10, 62 + 8));
+        assertArrayEquals(payload(10), filter(12, 10));
+    }
+
+    @Test
+    public void lastPacketWithOnlyItsHeader() {
+        assertArrayEquals(payload(62), filter(64 + HEADER, 62));
+        assertArrayEquals(payload(0), filter(HEADER, 0));
+    }
+
+    @Test
+    public void filtersInPlace() {
+        final byte[] src = read(130);
+        final int length = FtdiSerialDriver.filterStatusBytes(src, src, 130, MAX_PACKET_SIZE);
+        assertEquals(124, length);
+        assertArrayEquals(payload(124), Arrays.copyOf(src, length));
+    }
+
+    @Test
+    public void readPayloadUnderAHeaderIsEmpty() {
+        final FtdiSerialDriver driver = new FtdiSerialDriver(new UsbDevice(), null);
+        final byte[] dest = new byte[4];
+
+        assertEquals(0, driver.filterReadPayload(new byte[4], dest, 0));
+        assertEquals(0, driver.filterReadPayload(new byte[] { 0x01 }, dest, 1));
+    }
+}
@@ -0,0 +1,156 @@
+package com.hoho.android.usbserial.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import android.os.Build;
+
+import com.hoho.android.usbserial.driver.SimulatedUsbSerialDriver;
+
+/**
+ * The pooled read buffers: each one is released exactly once, and a listener
+ * holding them all costs an allocation, not a stalled reader.
+ */
+public class ReadBufferTest {
+
+    private static final int TIMEOUT_MILLIS = 2000;
+
+    private final int mSdk = Build.VERSION.SDK_INT;
+    private final SimulatedUsbSerialDriver mDriver = new SimulatedUsbSerialDriver();
+    private SerialInputOutputManager mManager;
+    private Thread mReader;
+
+    /**
+     * Keeps every buffer it is given without releasing any.
+     */
+    private static class HoldingListener implements SerialInputOutputManager.BufferListener {
+        private final BlockingQueue<ReadBuffer> mHeld = new ArrayBlockingQueue<ReadBuffer>(64);
+
+        @Override
+        public void onNewData(ReadBuffer buffer) {
+            mHeld.add(buffer);
+        }
+
+        @Override
+        public void onNewData(byte[] data) {
+        }
+
+        @Override
+        public void onRunError(Exception e) {
+        }
+
+        ReadBuffer take() throws InterruptedException {
+            return mHeld.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (mManager != null) {
+            mManager.stop();
+        }
+        mDriver.close();
+        if (mReader != null) {
+            mReader.join(TIMEOUT_MILLIS);
+        }
+        Build.VERSION.SDK_INT = mSdk;
+    }
+
+    private void start(SerialInputOutputManager.Listener listener) throws Exception {
+        Build.VERSION.SDK_INT = Build.VERSION_CODES.JELLY_BEAN_MR1;
+        mDriver.open();
+        mManager = new SerialInputOutputManager(mDriver, listener);
+        mReader = new Thread(mManager, "ReadBufferTest");
+        mReader.setDaemon(true);
+        mReader.start();
+    }
+
+    @Test
+    public void releaseGoesBackToThePoolOnce() {
+        final BlockingQueue<ReadBuffer> pool = new ArrayBlockingQueue<ReadBuffer>(1);
+        final ReadBuffer buffer = new ReadBuffer(16, pool);
+        buffer.acquire();
+        buffer.set(2, 5, 42);
+
+        assertEquals(2, buffer.offset());
+        assertEquals(5, buffer.length());
+        assertEquals(42, buffer.readTime());
+
+        buffer.release();
+        assertSame(buffer, pool.poll());
+
+        try {
+            buffer.release();
+            fail("released twice");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+        assertNull(pool.poll());
+    }
+
+    @Test
+    public void acquireClearsTheLastRead() {
+        final ReadBuffer buffer = new ReadBuffer(16, new ArrayBlockingQueue<ReadBuffer>(1));
+        buffer.acquire();
+        buffer.set(2, 5, 42);
+        buffer.release();
+
+        buffer.acquire();
+
+        assertEquals(0, buffer.offset());
+        assertEquals(0, buffer.length());
+        assertEquals(0, buffer.readTime());
+    }
+
+    @Test
+    public void unreleasedBuffersAreReplacedAfterAWait() throws Exception {
+        final HoldingListener listener = new HoldingListener();
+        start(listener);
+
+        // One read per buffer, the listener keeps all 8 of the pool.
+        final List<ReadBuffer> held = new ArrayList<ReadBuffer>();
+        for (int i = 0; i < 8; i++) {
+            mDriver.receive(new byte[] { (byte) i });
+            final ReadBuffer buffer = listener.take();
+            assertEquals(i, buffer.array()[buffer.offset()]);
+            held.add(buffer);
+        }
+        assertTrue(mManager.getStats(), mManager.getStats().endsWith("buffer pool misses: 0"));
+
+        // The ninth waits for a release that never comes, then gets a new buffer.
+        final long start = System.nanoTime();
+        mDriver.receive(new byte[] { 8 });
+        final ReadBuffer extra = listener.take();
+        final long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(8, extra.array()[extra.offset()]);
+        assertTrue("waited " + waited + "ms", waited >= 45);
+        assertTrue(mManager.getStats(), mManager.getStats().endsWith("buffer pool misses: 1"));
+        for (ReadBuffer buffer : held) {
+            assertNotSame(buffer, extra);
+        }
+
+        // Released buffers are used again, without another miss.
+        for (ReadBuffer buffer : held) {
+            buffer.release();
+        }
+        extra.release();
+        mDriver.receive(new byte[] { 9 });
+        listener.take().release();
+        assertTrue(mManager.getStats(), mManager.getStats().endsWith("buffer pool misses: 1"));
+    }
+
+}
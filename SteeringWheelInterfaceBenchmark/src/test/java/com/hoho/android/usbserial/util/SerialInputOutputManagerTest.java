@@ -0,0 +1,201 @@
+package com.hoho.android.usbserial.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import android.os.Build;
+
+import com.hoho.android.usbserial.driver.SimulatedUsbSerialDriver;
+
+/**
+ * Runs the manager against a {@link SimulatedUsbSerialDriver}, with queued
+ * UsbRequests and with polled reads.
+ */
+public class SerialInputOutputManagerTest {
+
+    private static final int TIMEOUT_MILLIS = 2000;
+
+    private final int mSdk = Build.VERSION.SDK_INT;
+    private final SimulatedUsbSerialDriver mDriver = new SimulatedUsbSerialDriver();
+    private SerialInputOutputManager mManager;
+    private Thread mReader;
+
+    /**
+     * Keeps everything it is given, in order.
+     */
+    private static class CollectingListener implements SerialInputOutputManager.Listener {
+        private final ByteArrayOutputStream mData = new ByteArrayOutputStream();
+        private Exception mError;
+
+        @Override
+        public synchronized void onNewData(byte[] data) {
+            mData.write(data, 0, data.length);
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void onRunError(Exception e) {
+            mError = e;
+            notifyAll();
+        }
+
+        synchronized byte[] await(int length) throws InterruptedException {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+            while (mData.size() < length) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return mData.toByteArray();
+        }
+
+        synchronized Exception getError() {
+            return mError;
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (mManager != null) {
+            mManager.stop();
+        }
+        mDriver.close();
+        if (mReader != null) {
+            mReader.join(TIMEOUT_MILLIS);
+        }
+        Build.VERSION.SDK_INT = mSdk;
+    }
+
+    private void start(int sdk, SerialInputOutputManager.Listener listener) throws IOException {
+        Build.VERSION.SDK_INT = sdk;
+        mDriver.open();
+        mManager = new SerialInputOutputManager(mDriver, listener);
+        mReader = new Thread(mManager, "SerialInputOutputManagerTest");
+        mReader.setDaemon(true);
+        mReader.start();
+    }
+
+    private static byte[] pattern(int length) {
+        final byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) i;
+        }
+        return data;
+    }
+
+    /**
+     * Feeds the data in pieces of the given size, several of which usually
+     * arrive while requests are being re-armed.
+     */
+    private void receive(byte[] data, int piece) {
+        for (int i = 0; i < data.length; i += piece) {
+            final byte[] chunk = new byte[Math.min(piece, data.length - i)];
+            System.arraycopy(data, i, chunk, 0, chunk.length);
+            mDriver.receive(chunk);
+        }
+    }
+
+    @Test
+    public void queuedReadsDeliverEveryByteInOrder() throws Exception {
+        final CollectingListener listener = new CollectingListener();
+        start(Build.VERSION_CODES.JELLY_BEAN_MR1, listener);
+
+        final byte[] data = pattern(20000);
+        receive(data, 37);
+
+        assertArrayEquals(data, listener.await(data.length));
+        assertTrue(mManager.getStats(), mManager.getStats().startsWith("reads: queued"));
+        assertTrue(mManager.getDataCount() > 0);
+        assertNull(listener.getError());
+    }
+
+    @Test
+    public void olderPlatformsArePolled() throws Exception {
+        final CollectingListener listener = new CollectingListener();
+        start(Build.VERSION_CODES.JELLY_BEAN, listener);
+
+        final byte[] data = pattern(5000);
+        receive(data, 37);
+
+        assertArrayEquals(data, listener.await(data.length));
+        assertTrue(mManager.getStats(), mManager.getStats().startsWith("reads: polled"));
+    }
+
+    @Test
+    public void idleQueuedReadsDoNotWakeUp() throws Exception {
+        start(Build.VERSION_CODES.JELLY_BEAN_MR1, new CollectingListener());
+
+        //polled reads would time out and wake every 200ms
+        Thread.sleep(500);
+
+        assertEquals(0, mManager.getWakeupCount());
+    }
+
+    @Test
+    public void writesAreNotHeldBehindAPendingRead() throws Exception {
+        start(Build.VERSION_CODES.JELLY_BEAN_MR1, new CollectingListener());
+
+        //nothing is received, so every queued read stays pending
+        mManager.writeAsync("ATZ\r".getBytes());
+        mManager.writeAsync("ATE0\r".getBytes());
+
+        assertTrue(mManager.awaitWrites(TIMEOUT_MILLIS));
+        assertArrayEquals("ATZ\rATE0\r".getBytes(), mDriver.takeWritten());
+        assertTrue(mManager.awaitWrites(0));
+    }
+
+    @Test
+    public void stopCancelsQueuedReadsAndEndsRun() throws Exception {
+        final CollectingListener listener = new CollectingListener();
+        start(Build.VERSION_CODES.JELLY_BEAN_MR1, listener);
+        mDriver.receive("ELM327".getBytes());
+        listener.await(6);
+
+        mManager.stop();
+        mReader.join(TIMEOUT_MILLIS);
+
+        assertFalse(mReader.isAlive());
+        assertNull(listener.getError());
+    }
+
+    @Test
+    public void stopBeforeRunIsKept() throws Exception {
+        Build.VERSION.SDK_INT = Build.VERSION_CODES.JELLY_BEAN_MR1;
+        mDriver.open();
+        final SerialInputOutputManager manager = new SerialInputOutputManager(mDriver,
+                new CollectingListener());
+
+        //ex: still queued on an executor behind the last session's manager
+        manager.stop();
+        manager.run();
+
+        assertEquals(0, manager.getWakeupCount());
+        assertTrue(manager.getStats(), manager.getStats().startsWith("reads: polled"));
+    }
+
+    @Test
+    public void closedDeviceEndsRunWithError() throws Exception {
+        final CollectingListener listener = new CollectingListener();
+        start(Build.VERSION_CODES.JELLY_BEAN_MR1, listener);
+        Thread.sleep(50);
+
+        mDriver.close();
+        mReader.join(TIMEOUT_MILLIS);
+
+        assertFalse(mReader.isAlive());
+        assertTrue(listener.getError() instanceof IOException);
+    }
+
+}
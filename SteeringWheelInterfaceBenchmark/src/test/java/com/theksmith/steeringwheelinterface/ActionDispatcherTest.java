@@ -0,0 +1,270 @@
+package com.theksmith.steeringwheelinterface;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * The queue tests mark the dispatcher running without starting its worker, so submitted actions stay queued.
+ */
+public class ActionDispatcherTest {
+	protected static final int CAPACITY = 3;
+
+	protected RecordingExecutor mExecutor;
+	protected ActionDispatcher mDispatcher;
+
+
+	/**
+	 * Records each call as "action x repeat". The latch counts down once the call's stats are recorded, so a test that
+	 * waits on it can read getCount() straight after.
+	 */
+	protected static class RecordingExecutor extends CommonActionExecutor {
+		protected final List<String> mCalls = new ArrayList<String>();
+		protected CountDownLatch mLatch = new CountDownLatch(0);
+
+
+		public String getName() {
+			return "recording";
+		}
+
+
+		public boolean supports(int action) {
+			return true;
+		}
+
+
+		public boolean isVerified(int action) {
+			return true;
+		}
+
+
+		@Override
+		protected boolean executeAction(int action) throws Exception {
+			return executeAction(action, 1);
+		}
+
+
+		@Override
+		protected boolean executeAction(int action, int repeat) throws Exception {
+			synchronized (mCalls) {
+				mCalls.add(action + "x" + repeat);
+			}
+			return true;
+		}
+
+
+		@Override
+		protected void recordSuccess(int action, long latency) {
+			super.recordSuccess(action, latency);
+			mLatch.countDown();
+		}
+
+
+		public String[] getCalls() {
+			synchronized (mCalls) {
+				return mCalls.toArray(new String[mCalls.size()]);
+			}
+		}
+	}
+
+
+	@Before
+	public void setUp() {
+		mExecutor = new RecordingExecutor();
+		final ActionExecutorSelector executors = new ActionExecutorSelector();
+		executors.add(mExecutor);
+		mDispatcher = new ActionDispatcher(executors, CAPACITY);
+	}
+
+
+	@After
+	public void tearDown() {
+		mDispatcher.stop();
+	}
+
+
+	protected void runWithoutWorker() {
+		mDispatcher.mRunning = true;
+	}
+
+
+	/**
+	 * @return					The waiting actions, oldest first.
+	 */
+	protected int[] queuedActions() {
+		final int[] actions = new int[mDispatcher.mSize];
+		for (int i = 0; i < actions.length; i++) {
+			actions[i] = mDispatcher.mActions[(mDispatcher.mHead + i) % CAPACITY];
+		}
+		return actions;
+	}
+
+
+	protected long queuedArrivalTime(int index) {
+		return mDispatcher.mArrivalTimes[(mDispatcher.mHead + index) % CAPACITY];
+	}
+
+
+	protected int queuedRepeat(int index) {
+		return mDispatcher.mRepeats[(mDispatcher.mHead + index) % CAPACITY];
+	}
+
+
+	@Test
+	public void rejectsActionsWhenNotRunning() {
+		assertFalse(mDispatcher.submit(ActionExecutor.ACTION_HOME, 0));
+		assertEquals(0, mDispatcher.mSize);
+	}
+
+
+	@Test
+	public void mergesRepeatedVolumeSteps() {
+		runWithoutWorker();
+
+		assertTrue(mDispatcher.submit(ActionExecutor.ACTION_VOLUME_UP, 1));
+		assertTrue(mDispatcher.submit(ActionExecutor.ACTION_VOLUME_UP, 2));
+		assertTrue(mDispatcher.submit(ActionExecutor.ACTION_VOLUME_UP, 3));
+
+		assertArrayEquals(new int[] { ActionExecutor.ACTION_VOLUME_UP }, queuedActions());
+		assertEquals(3, queuedRepeat(0));
+
+		//the merged entry keeps the first step's arrival time
+		assertEquals(1, queuedArrivalTime(0));
+	}
+
+
+	@Test
+	public void mergesOnlyIntoTheNewestEntry() {
+		runWithoutWorker();
+
+		mDispatcher.submit(ActionExecutor.ACTION_VOLUME_UP, 0);
+		mDispatcher.submit(ActionExecutor.ACTION_VOLUME_DOWN, 0);
+		mDispatcher.submit(ActionExecutor.ACTION_VOLUME_UP, 0);
+
+		assertArrayEquals(new int[] { ActionExecutor.ACTION_VOLUME_UP, ActionExecutor.ACTION_VOLUME_DOWN,
+				ActionExecutor.ACTION_VOLUME_UP }, queuedActions());
+	}
+
+
+	@Test
+	public void doesNotMergeOtherActions() {
+		runWithoutWorker();
+
+		mDispatcher.submit(ActionExecutor.ACTION_MEDIA_NEXT, 0);
+		mDispatcher.submit(ActionExecutor.ACTION_MEDIA_NEXT, 0);
+
+		assertArrayEquals(new int[] { ActionExecutor.ACTION_MEDIA_NEXT, ActionExecutor.ACTION_MEDIA_NEXT }, queuedActions());
+		assertEquals(1, queuedRepeat(0));
+		assertEquals(1, queuedRepeat(1));
+	}
+
+
+	@Test
+	public void dropNewestRejectsTheNewAction() {
+		runWithoutWorker();
+		mDispatcher.setDropPolicy(ActionDispatcher.DROP_NEWEST);
+
+		assertTrue(mDispatcher.submit(ActionExecutor.ACTION_HOME, 1));
+		assertTrue(mDispatcher.submit(ActionExecutor.ACTION_MEDIA_NEXT, 2));
+		assertTrue(mDispatcher.submit(ActionExecutor.ACTION_MEDIA_PREVIOUS, 3));
+		assertFalse(mDispatcher.submit(ActionExecutor.ACTION_MEDIA_PLAY_PAUSE, 4));
+
+		assertArrayEquals(new int[] { ActionExecutor.ACTION_HOME, ActionExecutor.ACTION_MEDIA_NEXT,
+				ActionExecutor.ACTION_MEDIA_PREVIOUS }, queuedActions());
+		assertEquals(1, mDispatcher.mDropCount);
+		assertTrue(mDispatcher.getStats().contains("dropped: 1"));
+	}
+
+
+	@Test
+	public void dropOldestEvictsTheOldestAction() {
+		runWithoutWorker();
+		mDispatcher.setDropPolicy(ActionDispatcher.DROP_OLDEST);
+
+		assertTrue(mDispatcher.submit(ActionExecutor.ACTION_HOME, 1));
+		assertTrue(mDispatcher.submit(ActionExecutor.ACTION_MEDIA_NEXT, 2));
+		assertTrue(mDispatcher.submit(ActionExecutor.ACTION_MEDIA_PREVIOUS, 3));
+		assertTrue(mDispatcher.submit(ActionExecutor.ACTION_MEDIA_PLAY_PAUSE, 4));
+		assertTrue(mDispatcher.submit(ActionExecutor.ACTION_HOME, 5));
+
+		assertArrayEquals(new int[] { ActionExecutor.ACTION_MEDIA_PREVIOUS, ActionExecutor.ACTION_MEDIA_PLAY_PAUSE,
+				ActionExecutor.ACTION_HOME }, queuedActions());
+		assertEquals(3, queuedArrivalTime(0));
+		assertEquals(5, queuedArrivalTime(2));
+		assertEquals(2, mDispatcher.mDropCount);
+		assertTrue(mDispatcher.getStats().contains("dropped: 2"));
+	}
+
+
+	@Test
+	public void dropOldestKeepsTheNewActionWhenEvictingTheSameAction() {
+		runWithoutWorker();
+		mDispatcher.setDropPolicy(ActionDispatcher.DROP_OLDEST);
+
+		for (int i = 1; i <= CAPACITY + 1; i++) {
+			assertTrue(mDispatcher.submit(ActionExecutor.ACTION_HOME, i));
+		}
+
+		assertEquals(CAPACITY, mDispatcher.mSize);
+		for (int i = 0; i < CAPACITY; i++) {
+			assertEquals(ActionExecutor.ACTION_HOME, queuedActions()[i]);
+			assertEquals(i + 2, queuedArrivalTime(i));
+		}
+		assertEquals(1, mDispatcher.mDropCount);
+	}
+
+
+	@Test
+	public void mergesIntoTheNewestEvenWhenFull() {
+		runWithoutWorker();
+		mDispatcher.setDropPolicy(ActionDispatcher.DROP_NEWEST);
+
+		mDispatcher.submit(ActionExecutor.ACTION_HOME, 0);
+		mDispatcher.submit(ActionExecutor.ACTION_MEDIA_NEXT, 0);
+		mDispatcher.submit(ActionExecutor.ACTION_VOLUME_DOWN, 0);
+
+		assertTrue(mDispatcher.submit(ActionExecutor.ACTION_VOLUME_DOWN, 0));
+		assertEquals(2, queuedRepeat(2));
+		assertEquals(0, mDispatcher.mDropCount);
+	}
+
+
+	@Test
+	public void stopDiscardsWaitingActions() {
+		runWithoutWorker();
+
+		mDispatcher.submit(ActionExecutor.ACTION_HOME, 0);
+		mDispatcher.stop();
+
+		assertFalse(mDispatcher.isRunning());
+		assertEquals(0, mDispatcher.mSize);
+		assertFalse(mDispatcher.submit(ActionExecutor.ACTION_HOME, 0));
+	}
+
+
+	@Test
+	public void workerPerformsActionsInOrder() throws InterruptedException {
+		mExecutor.mLatch = new CountDownLatch(3);
+		mDispatcher.start();
+
+		assertTrue(mDispatcher.submit(ActionExecutor.ACTION_MEDIA_PLAY_PAUSE, 0));
+		assertTrue(mDispatcher.submit(ActionExecutor.ACTION_MEDIA_NEXT, 0));
+		assertTrue(mDispatcher.submit(ActionExecutor.ACTION_HOME, 0));
+
+		assertTrue(mExecutor.mLatch.await(10, TimeUnit.SECONDS));
+		assertArrayEquals(new String[] { ActionExecutor.ACTION_MEDIA_PLAY_PAUSE + "x1",
+				ActionExecutor.ACTION_MEDIA_NEXT + "x1", ActionExecutor.ACTION_HOME + "x1" }, mExecutor.getCalls());
+		assertEquals(1, mExecutor.getCount(ActionExecutor.ACTION_HOME));
+	}
+}
@@ -0,0 +1,215 @@
+package com.theksmith.steeringwheelinterface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * The backends here never run anything, each attempt is recorded with the latency the test gives it.
+ */
+public class ActionExecutorSelectorTest {
+	protected static final int ACTION = ActionExecutor.ACTION_MEDIA_NEXT;
+
+	protected ActionExecutorSelector mSelector;
+
+
+	protected static class FakeExecutor extends CommonActionExecutor {
+		protected final String mName;
+		protected final boolean mVerified;
+		protected boolean mFailing = false;
+		protected int mExecuteCount = 0;
+
+
+		public FakeExecutor(String name, boolean verified) {
+			mName = name;
+			mVerified = verified;
+		}
+
+
+		public String getName() {
+			return mName;
+		}
+
+
+		public boolean supports(int action) {
+			return action == ACTION;
+		}
+
+
+		public boolean isVerified(int action) {
+			return mVerified;
+		}
+
+
+		@Override
+		protected boolean executeAction(int action) throws Exception {
+			mExecuteCount++;
+			if (mFailing) throw new Exception("failing");
+			return true;
+		}
+
+
+		/**
+		 * Records attempts as if they had been performed, with the given latency.
+		 */
+		public void measured(int attempts, long latency) {
+			for (int i = 0; i < attempts; i++) {
+				recordSuccess(ACTION, latency);
+			}
+		}
+	}
+
+
+	@Before
+	public void setUp() {
+		mSelector = new ActionExecutorSelector();
+	}
+
+
+	@Test
+	public void measuresEachBackendInOrderFirst() {
+		final FakeExecutor first = new FakeExecutor("first", true);
+		final FakeExecutor second = new FakeExecutor("second", true);
+		mSelector.add(first);
+		mSelector.add(second);
+
+		assertSame(first, mSelector.select(ACTION));
+		first.measured(ActionExecutorSelector.SAMPLE_COUNT, 1000);
+		assertSame(second, mSelector.select(ACTION));
+	}
+
+
+	@Test
+	public void picksTheFastestOfTheSameKind() {
+		final FakeExecutor slow = new FakeExecutor("slow", true);
+		final FakeExecutor fast = new FakeExecutor("fast", true);
+		mSelector.add(slow);
+		mSelector.add(fast);
+
+		slow.measured(ActionExecutorSelector.SAMPLE_COUNT, 5000000);
+		fast.measured(ActionExecutorSelector.SAMPLE_COUNT, 1000);
+		assertSame(fast, mSelector.select(ACTION));
+	}
+
+
+	@Test
+	public void prefersVerifiedOverFasterUnverified() {
+		//a broadcast returns in microseconds, an injected key event completes in milliseconds
+		final FakeExecutor intent = new FakeExecutor("intent", false);
+		final FakeExecutor root = new FakeExecutor("rootshell", true);
+		mSelector.add(intent);
+		mSelector.add(root);
+
+		intent.measured(ActionExecutorSelector.SAMPLE_COUNT, 20000);
+		root.measured(ActionExecutorSelector.SAMPLE_COUNT, 15000000);
+		assertSame(root, mSelector.select(ACTION));
+	}
+
+
+	@Test
+	public void doesNotMeasureUnverifiedWhileVerifiedWorks() {
+		final FakeExecutor intent = new FakeExecutor("intent", false);
+		final FakeExecutor root = new FakeExecutor("rootshell", true);
+		mSelector.add(intent);
+		mSelector.add(root);
+
+		//added first, but never used while the root backend is measured and working
+		assertSame(root, mSelector.select(ACTION));
+		root.measured(ActionExecutorSelector.SAMPLE_COUNT, 15000000);
+		assertSame(root, mSelector.select(ACTION));
+	}
+
+
+	@Test
+	public void usesUnverifiedWhenNoVerifiedBackend() {
+		final FakeExecutor intent = new FakeExecutor("intent", false);
+		mSelector.add(intent);
+
+		intent.measured(ActionExecutorSelector.SAMPLE_COUNT, 20000);
+		assertSame(intent, mSelector.select(ACTION));
+	}
+
+
+	@Test
+	public void fallsBackToUnverifiedWhenVerifiedFails() throws Exception {
+		final FakeExecutor intent = new FakeExecutor("intent", false);
+		final FakeExecutor root = new FakeExecutor("rootshell", true);
+		mSelector.add(intent);
+		mSelector.add(root);
+
+		root.mFailing = true;
+		mSelector.execute(ACTION);
+
+		//the press still went through the other backend
+		assertEquals(1, root.mExecuteCount);
+		assertEquals(1, intent.mExecuteCount);
+		assertSame(intent, mSelector.select(ACTION));
+	}
+
+
+	@Test
+	public void sticksWithTheLeastFailedWhenAllFail() {
+		final FakeExecutor intent = new FakeExecutor("intent", false);
+		final FakeExecutor root = new FakeExecutor("rootshell", true);
+		mSelector.add(intent);
+		mSelector.add(root);
+
+		intent.recordFailure(ACTION);
+		intent.recordFailure(ACTION);
+		root.recordFailure(ACTION);
+		assertSame(root, mSelector.select(ACTION));
+	}
+
+
+	@Test
+	public void throwsWhenAllBackendsFail() {
+		final FakeExecutor root = new FakeExecutor("rootshell", true);
+		root.mFailing = true;
+		mSelector.add(root);
+
+		try {
+			mSelector.execute(ACTION);
+			fail();
+		} catch (Exception ex) {
+			assertEquals("failing", ex.getMessage());
+		}
+	}
+
+
+	@Test
+	public void noBackendForUnsupportedActions() {
+		mSelector.add(new FakeExecutor("intent", false));
+
+		assertNull(mSelector.select(ActionExecutor.ACTION_VOLUME_UP));
+	}
+
+
+	@Test
+	public void addReplacesBackendsByName() {
+		final FakeExecutor old = new FakeExecutor("rootshell", true);
+		final FakeExecutor replacement = new FakeExecutor("rootshell", true);
+		mSelector.add(old);
+		mSelector.add(replacement);
+
+		assertSame(replacement, mSelector.select(ACTION));
+		mSelector.remove("rootshell");
+		assertNull(mSelector.select(ACTION));
+	}
+
+
+	@Test
+	public void statsMarkUnverifiedBackends() {
+		mSelector.add(new FakeExecutor("intent", false));
+		mSelector.add(new FakeExecutor("rootshell", true));
+
+		final String stats = mSelector.getStats();
+		assertTrue(stats.contains("intent action " + ACTION + ": count 0, failures 0, avg 0 us (unverified)"));
+		assertTrue(stats.contains("rootshell action " + ACTION + ": count 0, failures 0, avg 0 us (selected)"));
+	}
+}
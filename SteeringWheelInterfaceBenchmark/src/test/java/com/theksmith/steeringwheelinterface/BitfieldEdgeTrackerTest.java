@@ -0,0 +1,193 @@
+package com.theksmith.steeringwheelinterface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class BitfieldEdgeTrackerTest {
+	protected final List<String> mEvents = new ArrayList<String>();
+	protected BitfieldEdgeTracker mTracker;
+
+
+	@Before
+	public void setUp() {
+		mTracker = new BitfieldEdgeTracker(new BitfieldEdgeTracker.Listener() {
+			public void onButtonDown(int buttonId) {
+				mEvents.add("down " + buttonId);
+			}
+
+
+			public void onButtonUp(int buttonId) {
+				mEvents.add("up " + buttonId);
+			}
+		});
+
+		//one status frame, a bit per button
+		mTracker.add(1, ButtonPattern.compile("3D 11 00 bxxxxxxx1"));
+		mTracker.add(2, ButtonPattern.compile("3D 11 00 bxxxxxx1x"));
+		mTracker.add(3, ButtonPattern.compile("3D 11 00 xx b1xxxxxxx"));
+	}
+
+
+	protected Boolean update(String line) {
+		return mTracker.update(BusFrame.fromString(line));
+	}
+
+
+	protected String events() {
+		final String events = mEvents.toString();
+		mEvents.clear();
+		return events;
+	}
+
+
+	@Test
+	public void reportsPressesAndReleases() {
+		assertTrue(update("3D 11 00 00 00"));
+		assertEquals("[]", events());
+
+		assertTrue(update("3D 11 00 01 00"));
+		assertEquals("[down 1]", events());
+
+		//repeated frames change nothing
+		assertTrue(update("3D 11 00 01 00"));
+		assertTrue(update("3D 11 00 01 00"));
+		assertEquals("[]", events());
+
+		assertTrue(update("3D 11 00 03 00"));
+		assertEquals("[down 2]", events());
+
+		assertTrue(update("3D 11 00 02 80"));
+		assertEquals("[down 3, up 1]", events());
+
+		assertTrue(update("3D 11 00 00 00"));
+		assertEquals("[up 3, up 2]", events());
+	}
+
+
+	@Test
+	public void ignoresBitsNoButtonUses() {
+		update("3D 11 00 00 00");
+		update("3D 11 00 F0 7F");
+		update("3D 11 00 00 01");
+
+		assertEquals("[]", events());
+	}
+
+
+	@Test
+	public void firstFrameReportsButtonsAlreadyDown() {
+		update("3D 11 00 02 00");
+		assertEquals("[down 2]", events());
+
+		mTracker.reset();
+		update("3D 11 00 02 00");
+		assertEquals("[down 2]", events());
+	}
+
+
+	@Test
+	public void ignoresOtherFrames() {
+		assertFalse(update("3D 12 00 01 00"));
+		assertFalse(update("A8 49 10 10 00"));
+		assertEquals("[]", events());
+	}
+
+
+	@Test
+	public void tracksFramesSeparately() {
+		mTracker.add(4, ButtonPattern.compile("3D 12 00 b1xxxxxxx"));
+
+		update("3D 11 00 01 00");
+		update("3D 12 00 80");
+		assertEquals("[down 1, down 4]", events());
+
+		update("3D 12 00 00");
+		assertEquals("[up 4]", events());
+
+		//button 1 is still down in its own frame
+		update("3D 11 00 01 00");
+		assertEquals("[]", events());
+	}
+
+
+	@Test
+	public void handlesManyFrameIds() {
+		for (int i = 0; i < 40; i++) {
+			mTracker.add(100 + i, ButtonPattern.compile(String.format("3D %02X 00 bxxxxxxx1", 0x20 + i)));
+		}
+
+		for (int i = 0; i < 40; i++) {
+			update(String.format("3D %02X 00 01", 0x20 + i));
+		}
+		assertEquals(40, mEvents.size());
+		assertEquals("down 139", mEvents.get(39));
+	}
+
+
+	@Test
+	public void idLengthDropsButtonsWithoutExactIds() {
+		mTracker.clear();
+		mTracker.setIdLength(2);
+		mTracker.add(5, ButtonPattern.compile("7E8 bxxxxxxx1"));
+		mTracker.add(6, ButtonPattern.compile("7E8 03 bxxxxxx1x"));
+
+		update("7E8 01");
+		assertEquals("[down 5]", events());
+
+		//only button 6 fixes a 3 byte id
+		mTracker.setIdLength(3);
+		assertEquals(3, mTracker.getIdLength());
+		assertFalse(update("7E8 01"));
+		assertTrue(update("7E8 03 02"));
+		assertEquals("[down 6]", events());
+	}
+
+
+	@Test
+	public void idLengthDropIsNotUndone() {
+		mTracker.clear();
+		mTracker.setIdLength(2);
+		mTracker.add(5, ButtonPattern.compile("7E8 bxxxxxxx1"));
+
+		mTracker.setIdLength(3);
+		mTracker.setIdLength(2);
+		assertFalse(update("7E8 01"));
+		assertEquals("[]", events());
+	}
+
+
+	@Test
+	public void tracksUpToTheSixthCanDataByte() {
+		mTracker.clear();
+		mTracker.setIdLength(2);
+		mTracker.add(8, ButtonPattern.compile("7E8 xx xx xx xx xx b1xxxxxxx"));
+
+		assertTrue(update("7E8 00 00 00 00 00 80 00 00"));
+		assertEquals("[down 8]", events());
+
+		//data bytes 7 and 8 are past the packed bytes, so changes there are not seen
+		assertTrue(update("7E8 00 00 00 00 00 80 FF FF"));
+		assertEquals("[]", events());
+	}
+
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsBitsPastThePackedBytes() {
+		//the 7th data byte of an 11 bit CAN frame is its 9th byte
+		mTracker.add(9, ButtonPattern.compile("7E8 xx xx xx xx xx xx b1xxxxxxx"));
+	}
+
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsDefinitionsWithoutExactIds() {
+		mTracker.add(7, ButtonPattern.compile("3D ?? 00 bxxxxxxx1"));
+	}
+}
@@ -0,0 +1,144 @@
+package com.theksmith.steeringwheelinterface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+public class BusFrameTest {
+
+	protected static Boolean decode(BusFrame frame, String line) {
+		final byte[] bytes = line.getBytes();
+		return frame.decode(bytes, 0, bytes.length);
+	}
+
+
+	@Test
+	public void decodesSpacedOutput() {
+		final BusFrame frame = new BusFrame();
+
+		assertTrue(decode(frame, "3D 11 00 80 2A"));
+		assertEquals(5, frame.getLength());
+		assertEquals(3, frame.getHeaderLength());
+		assertEquals(2, frame.getDataLength());
+		assertEquals(0x3D1100, frame.getHeader());
+		assertEquals(0x80, frame.getByte(3));
+		assertEquals(0x2A, frame.getChecksum());
+		assertEquals(0x3D1100802A000000L, frame.getPacked());
+		assertEquals("3D 11 00 80 2A", frame.toString());
+	}
+
+
+	@Test
+	public void decodesCompactOutput() {
+		final BusFrame spaced = new BusFrame();
+		final BusFrame compact = new BusFrame();
+
+		assertTrue(decode(spaced, "3D 11 00 80 2A"));
+		assertTrue(decode(compact, "3D1100802a"));
+		assertEquals(spaced.getLength(), compact.getLength());
+		assertEquals(spaced.getPacked(), compact.getPacked());
+	}
+
+
+	@Test
+	public void padsOddDigitTokens() {
+		final BusFrame frame = new BusFrame();
+
+		//an 11 bit CAN header
+		assertTrue(decode(frame, "7E8 03 41 0D 00"));
+		assertEquals(6, frame.getLength());
+		assertEquals(0x07, frame.getByte(0));
+		assertEquals(0xE8, frame.getByte(1));
+
+		//the same unspaced
+		final BusFrame compact = new BusFrame();
+		assertTrue(decode(compact, "7E803410D00"));
+		assertEquals(frame.getPacked(), compact.getPacked());
+	}
+
+
+	@Test
+	public void rejectsNonMessages() {
+		final BusFrame frame = new BusFrame();
+
+		assertFalse(decode(frame, "NO DATA"));
+		assertEquals(0, frame.getLength());
+		assertFalse(decode(frame, "ATMA"));
+		assertFalse(decode(frame, "   "));
+		assertFalse(decode(frame, "3D 11 0G"));
+	}
+
+
+	@Test
+	public void rejectsOverlongMessages() {
+		final BusFrame frame = new BusFrame();
+
+		assertTrue(decode(frame, "00 01 02 03 04 05 06 07 08 09 0A 0B 0C 0D 0E 0F"));
+		assertEquals(BusFrame.MAX_LENGTH, frame.getLength());
+		assertFalse(decode(frame, "00 01 02 03 04 05 06 07 08 09 0A 0B 0C 0D 0E 0F 10"));
+	}
+
+
+	@Test
+	public void packsOnlyTheFirstEightBytes() {
+		final BusFrame frame = new BusFrame();
+
+		assertTrue(decode(frame, "01 02 03 04 05 06 07 08 09 0A"));
+		assertEquals(0x0102030405060708L, frame.getPacked());
+		assertEquals(-1L, frame.getPackedMask());
+	}
+
+
+	@Test
+	public void packedMaskCoversPresentBytes() {
+		assertEquals(0L, BusFrame.packedMask(0));
+		assertEquals(0xFF00000000000000L, BusFrame.packedMask(1));
+		assertEquals(0xFFFFFF0000000000L, BusFrame.packedMask(3));
+		assertEquals(0xFFFFFFFFFFFFFF00L, BusFrame.packedMask(7));
+		assertEquals(-1L, BusFrame.packedMask(8));
+		assertEquals(-1L, BusFrame.packedMask(12));
+	}
+
+
+	@Test
+	public void startsWithComparesPrefix() {
+		final BusFrame prefix = BusFrame.fromString("3D 11 00 80");
+		final BusFrame frame = new BusFrame();
+
+		assertTrue(decode(frame, "3D 11 00 80 2A"));
+		assertTrue(frame.startsWith(prefix));
+
+		assertTrue(decode(frame, "3D 11 00 40 2A"));
+		assertFalse(frame.startsWith(prefix));
+
+		//a shorter message can't start with a longer one, even when the zero fill matches
+		assertTrue(decode(frame, "3D 11 00"));
+		assertFalse(frame.startsWith(BusFrame.fromString("3D 11 00 00")));
+	}
+
+
+	@Test
+	public void headerLengthIsConfigurable() {
+		final BusFrame frame = new BusFrame();
+		frame.setHeaderLength(2);
+
+		assertTrue(decode(frame, "07 E8 03 41 0D 00"));
+		assertEquals(0x07E8, frame.getHeader());
+		assertEquals(4, frame.getDataLength());
+
+		//a message shorter than its header has no checksum
+		frame.setHeaderLength(BusFrame.DEFAULT_HEADER_LENGTH);
+		assertTrue(decode(frame, "3D 11"));
+		assertEquals(2, frame.getHeaderLength());
+		assertEquals(0, frame.getChecksum());
+	}
+
+
+	@Test(expected = IllegalArgumentException.class)
+	public void fromStringRejectsInvalidHex() {
+		BusFrame.fromString("3D 1Z");
+	}
+}
@@ -0,0 +1,105 @@
+package com.theksmith.steeringwheelinterface;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class ButtonDispatchTableTest {
+	protected ButtonDispatchTable mTable;
+
+
+	@Before
+	public void setUp() {
+		mTable = new ButtonDispatchTable();
+	}
+
+
+	protected int lookup(String line) {
+		return mTable.lookup(BusFrame.fromString(line));
+	}
+
+
+	@Test
+	public void findsTheDefaultButtons() {
+		mTable.add(ButtonActions.BUTTON_ID_LEFT_CENTER, BusFrame.fromString(ButtonActions.BUTTON_LEFT_CENTER));
+		mTable.add(ButtonActions.BUTTON_ID_LEFT_DOWN, BusFrame.fromString(ButtonActions.BUTTON_LEFT_DOWN));
+		mTable.add(ButtonActions.BUTTON_ID_LEFT_UP, BusFrame.fromString(ButtonActions.BUTTON_LEFT_UP));
+		mTable.add(ButtonActions.BUTTON_ID_RIGHT_CENTER, BusFrame.fromString(ButtonActions.BUTTON_RIGHT_CENTER));
+		mTable.add(ButtonActions.BUTTON_ID_RIGHT_DOWN, BusFrame.fromString(ButtonActions.BUTTON_RIGHT_DOWN));
+		mTable.add(ButtonActions.BUTTON_ID_RIGHT_UP, BusFrame.fromString(ButtonActions.BUTTON_RIGHT_UP));
+
+		assertEquals(ButtonActions.BUTTON_ID_LEFT_CENTER, lookup(ButtonActions.BUTTON_LEFT_CENTER + " 2A"));
+		assertEquals(ButtonActions.BUTTON_ID_RIGHT_CENTER, lookup(ButtonActions.BUTTON_RIGHT_CENTER));
+		assertEquals(ButtonActions.BUTTON_ID_RIGHT_UP, lookup(ButtonActions.BUTTON_RIGHT_UP + " 00 01"));
+		assertEquals(ButtonDispatchTable.NO_BUTTON, lookup("3D 11 00 00"));
+		assertEquals(ButtonDispatchTable.NO_BUTTON, lookup("A8 49 10 10 00"));
+	}
+
+
+	@Test
+	public void shortMessagesDoNotMatchLongerDefinitions() {
+		mTable.add(7, BusFrame.fromString("3D 11 00 00"));
+
+		assertEquals(7, lookup("3D 11 00 00"));
+		assertEquals(ButtonDispatchTable.NO_BUTTON, lookup("3D 11 00"));
+	}
+
+
+	@Test
+	public void matchesPatterns() {
+		mTable.add(1, ButtonPattern.compile("3D 11 80/F0"));
+		mTable.add(2, ButtonPattern.compile("3D 12 ?? 01"));
+
+		assertEquals(1, lookup("3D 11 8F"));
+		assertEquals(ButtonDispatchTable.NO_BUTTON, lookup("3D 11 9F"));
+		assertEquals(2, lookup("3D 12 55 01"));
+		assertEquals(ButtonDispatchTable.NO_BUTTON, lookup("3D 12 55 02"));
+	}
+
+
+	@Test
+	public void firstDefinitionWins() {
+		//same mask, same key
+		mTable.add(1, BusFrame.fromString("3D 11 00 80"));
+		mTable.add(2, BusFrame.fromString("3D 11 00 80"));
+		assertEquals(1, lookup("3D 11 00 80"));
+
+		//overlapping groups, the group defined first is checked first
+		mTable.add(3, BusFrame.fromString("3D 11"));
+		assertEquals(1, lookup("3D 11 00 80"));
+		assertEquals(3, lookup("3D 11 00 40"));
+	}
+
+
+	@Test
+	public void growsPastItsInitialCapacity() {
+		for (int i = 0; i < 200; i++) {
+			mTable.add(i, (0x3D11L << 48) | ((long)i << 40), 0xFFFFFFL << 40);
+		}
+
+		for (int i = 0; i < 200; i++) {
+			assertEquals(i, mTable.lookup(BusFrame.fromString(String.format("3D 11 %02X", i))));
+		}
+		assertEquals(ButtonDispatchTable.NO_BUTTON, lookup("3D 11 FF"));
+	}
+
+
+	@Test
+	public void clearRemovesEverything() {
+		mTable.add(1, BusFrame.fromString("3D 11 00 80"));
+		mTable.clear();
+
+		assertEquals(ButtonDispatchTable.NO_BUTTON, lookup("3D 11 00 80"));
+
+		mTable.add(2, BusFrame.fromString("3D 11 00 80"));
+		assertEquals(2, lookup("3D 11 00 80"));
+	}
+
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNegativeIds() {
+		mTable.add(-1, BusFrame.fromString("3D 11"));
+	}
+}
@@ -0,0 +1,383 @@
+package com.theksmith.steeringwheelinterface;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * The recognizer runs on a scripted clock, in milliseconds. runTo() checks every deadline exactly when it is due, as
+ * the event loop does, so each gesture is recorded with the time it was reported: "long 1 @600".
+ */
+public class ButtonGestureRecognizerTest {
+	protected static final long MS = 1000000L;
+	protected static final String[] NAMES = { "short", "long", "repeat", "double" };
+
+	protected final List<String> mEvents = new ArrayList<String>();
+	protected final List<Long> mDues = new ArrayList<Long>();
+	protected ButtonGestureRecognizer mRecognizer;
+	protected long mNow = 0;
+
+
+	@Before
+	public void setUp() {
+		mRecognizer = new ButtonGestureRecognizer(4, new ButtonGestureRecognizer.Listener() {
+			public void onGesture(int buttonId, int gesture, long due) {
+				mEvents.add(NAMES[gesture] + " " + buttonId + " @" + mNow / MS);
+				mDues.add(due / MS);
+			}
+
+
+			public void onChord(int chordId, long due) {
+				mEvents.add("chord " + chordId + " @" + mNow / MS);
+				mDues.add(due / MS);
+			}
+		});
+	}
+
+
+	/**
+	 * Moves the clock to the given time, checking each deadline on the way at the moment it is due.
+	 */
+	protected void runTo(long ms) {
+		final long target = ms * MS;
+		long remaining;
+		while ((remaining = mRecognizer.getRemaining(mNow)) != Long.MAX_VALUE && mNow + remaining - target <= 0) {
+			mNow += remaining;
+			mRecognizer.check(mNow);
+		}
+		mNow = target;
+	}
+
+
+	protected void message(int buttonId, long ms) {
+		runTo(ms);
+		mRecognizer.onMessage(buttonId, mNow);
+	}
+
+
+	/**
+	 * Sends a held button's message from start to end (inclusive) every spacing milliseconds.
+	 */
+	protected void hold(int buttonId, long start, long end, long spacing) {
+		for (long ms = start; ms <= end; ms += spacing) {
+			message(buttonId, ms);
+		}
+	}
+
+
+	protected void press(int buttonId, long ms) {
+		runTo(ms);
+		mRecognizer.onPress(buttonId, mNow);
+	}
+
+
+	protected void release(int buttonId, long ms) {
+		runTo(ms);
+		mRecognizer.onRelease(buttonId, mNow);
+	}
+
+
+	protected String events() {
+		final String events = mEvents.toString();
+		mEvents.clear();
+		mDues.clear();
+		return events;
+	}
+
+
+	@Test
+	public void shortOnlyButtonActsOnTheFirstMessage() {
+		message(1, 0);
+		assertEquals("[short 1 @0]", events());
+
+		//the rest of the press, and its release, report nothing
+		hold(1, 25, 200, 25);
+		runTo(1000);
+		assertEquals("[]", events());
+		assertEquals(Long.MAX_VALUE, mRecognizer.getRemaining(mNow));
+
+		message(1, 1000);
+		assertEquals("[short 1 @1000]", events());
+	}
+
+
+	@Test
+	public void shortPressWaitsForTheReleaseWhenLongIsEnabled() {
+		mRecognizer.setEnabled(1, ButtonGestureRecognizer.GESTURE_LONG, true);
+
+		hold(1, 0, 100, 25);
+		assertEquals("[]", events());
+
+		//released 50ms (the default release timeout) after the last message
+		runTo(149);
+		assertEquals("[]", events());
+		runTo(150);
+		assertEquals(1, mDues.size());
+		assertEquals(150, (long)mDues.get(0));
+		assertEquals("[short 1 @150]", events());
+	}
+
+
+	@Test
+	public void longPressAfterTheLongTime() {
+		mRecognizer.setEnabled(1, ButtonGestureRecognizer.GESTURE_LONG, true);
+		mRecognizer.setLongTime(1, 400);
+
+		hold(1, 0, 399, 25);
+		assertEquals("[]", events());
+
+		hold(1, 400, 1000, 25);
+		assertEquals(1, mDues.size());
+		assertEquals(400, (long)mDues.get(0));
+		assertEquals("[long 1 @400]", events());
+
+		//no short press on the release of a long press
+		runTo(2000);
+		assertEquals("[]", events());
+	}
+
+
+	@Test
+	public void repeatsAtTheRepeatInterval() {
+		mRecognizer.setEnabled(1, ButtonGestureRecognizer.GESTURE_REPEAT, true);
+
+		//the first repeat comes at the long time (600ms), then every 150ms
+		hold(1, 0, 1100, 25);
+		assertEquals("[repeat 1 @600, repeat 1 @750, repeat 1 @900, repeat 1 @1050]", events());
+
+		//released at 1150, before the repeat due at 1200
+		runTo(2000);
+		assertEquals("[]", events());
+	}
+
+
+	@Test
+	public void longPressThenRepeats() {
+		mRecognizer.setEnabled(1, ButtonGestureRecognizer.GESTURE_LONG, true);
+		mRecognizer.setEnabled(1, ButtonGestureRecognizer.GESTURE_REPEAT, true);
+		mRecognizer.setRepeatInterval(1, 100);
+
+		press(1, 0);
+		release(1, 850);
+		runTo(2000);
+		assertEquals("[long 1 @600, repeat 1 @700, repeat 1 @800]", events());
+	}
+
+
+	@Test
+	public void lateCheckDoesNotBurstRepeats() {
+		mRecognizer.setEnabled(1, ButtonGestureRecognizer.GESTURE_REPEAT, true);
+
+		mRecognizer.onPress(1, 0);
+		mNow = 1000 * MS;
+		mRecognizer.check(mNow);
+		assertEquals(1, mDues.size());
+		assertEquals(600, (long)mDues.get(0));
+		assertEquals("[repeat 1 @1000]", events());
+
+		//the next repeat is an interval from when the late one was reported
+		assertEquals(150 * MS, mRecognizer.getRemaining(mNow));
+	}
+
+
+	@Test
+	public void doubleClickWithinTheDoubleTime() {
+		mRecognizer.setEnabled(1, ButtonGestureRecognizer.GESTURE_DOUBLE, true);
+
+		hold(1, 0, 50, 25);
+		//released at 100, the second click is due by 400
+		message(1, 399);
+		assertEquals("[double 1 @399]", events());
+
+		//the second click's release reports nothing
+		hold(1, 425, 500, 25);
+		runTo(2000);
+		assertEquals("[]", events());
+	}
+
+
+	@Test
+	public void singleClickIsReportedAfterTheDoubleTime() {
+		mRecognizer.setEnabled(1, ButtonGestureRecognizer.GESTURE_DOUBLE, true);
+
+		hold(1, 0, 50, 25);
+		runTo(399);
+		assertEquals("[]", events());
+		runTo(400);
+		assertEquals(400, (long)mDues.get(0));
+		assertEquals("[short 1 @400]", events());
+
+		//a press after the window is a new click
+		message(1, 450);
+		runTo(2000);
+		assertEquals("[short 1 @800]", events());
+	}
+
+
+	@Test
+	public void doubleClickFromReportedEdges() {
+		mRecognizer.setEnabled(1, ButtonGestureRecognizer.GESTURE_DOUBLE, true);
+
+		press(1, 0);
+		release(1, 80);
+		press(1, 200);
+		release(1, 260);
+		runTo(2000);
+		assertEquals("[double 1 @200]", events());
+	}
+
+
+	@Test
+	public void chordWhenBothButtonsAreDown() {
+		assertEquals(0, mRecognizer.addChord(1, 2));
+
+		message(1, 0);
+		message(2, 20);
+		assertEquals(1, mDues.size());
+		assertEquals(0, (long)mDues.get(0));
+		assertEquals("[chord 0 @20]", events());
+
+		//neither button reports anything else for this press
+		for (long ms = 40; ms <= 300; ms += 20) {
+			message(1, ms);
+			message(2, ms);
+		}
+		runTo(2000);
+		assertEquals("[]", events());
+	}
+
+
+	@Test
+	public void chordInEitherOrder() {
+		mRecognizer.addChord(1, 2);
+		mRecognizer.addChord(1, 3);
+
+		press(2, 0);
+		press(1, 10);
+		release(1, 100);
+		release(2, 100);
+		press(1, 200);
+		press(3, 210);
+		runTo(2000);
+		assertEquals("[chord 0 @10, chord 1 @210]", events());
+	}
+
+
+	@Test
+	public void twoSinglePressesAreNotAChord() {
+		mRecognizer.addChord(1, 2);
+
+		//chord buttons wait for the release to tell a short press from a chord
+		message(1, 0);
+		assertEquals("[]", events());
+
+		runTo(60);
+		assertEquals("[short 1 @50]", events());
+
+		message(2, 60);
+		runTo(2000);
+		assertEquals("[short 2 @110]", events());
+	}
+
+
+	@Test
+	public void buttonsOutsideAChordStillActOnTheFirstMessage() {
+		mRecognizer.addChord(1, 2);
+
+		message(3, 0);
+		assertEquals("[short 3 @0]", events());
+	}
+
+
+	@Test
+	public void disabledShortPressReportsNothing() {
+		mRecognizer.setEnabled(1, ButtonGestureRecognizer.GESTURE_SHORT, false);
+		mRecognizer.setEnabled(1, ButtonGestureRecognizer.GESTURE_LONG, true);
+
+		message(1, 0);
+		runTo(2000);
+		assertEquals("[]", events());
+	}
+
+
+	@Test
+	public void resetForgetsPressedButtons() {
+		mRecognizer.setEnabled(1, ButtonGestureRecognizer.GESTURE_LONG, true);
+
+		press(1, 0);
+		mRecognizer.reset();
+		assertEquals(Long.MAX_VALUE, mRecognizer.getRemaining(mNow));
+		runTo(2000);
+		assertEquals("[]", events());
+
+		//the next press starts over
+		press(1, 2000);
+		runTo(3000);
+		assertEquals("[long 1 @2600]", events());
+	}
+
+
+	@Test
+	public void repeatsInsideTheReleaseTimeoutAreOnePress() {
+		mRecognizer.setReleaseTimeout(1, 100);
+
+		//messages 90ms apart are one held press
+		hold(1, 0, 900, 90);
+		assertEquals("[short 1 @0]", events());
+
+		//99ms after the last message is still the same press, 101ms after is a new one
+		message(1, 999);
+		assertEquals("[]", events());
+		message(1, 1100);
+		assertEquals("[short 1 @1100]", events());
+	}
+
+
+	@Test
+	public void buttonsReleaseOnTheirOwnTimeouts() {
+		mRecognizer.setReleaseTimeout(1, 50);
+		mRecognizer.setReleaseTimeout(2, 200);
+
+		//both send a message every 100ms, too slow for button 1 to stay held
+		for (long ms = 0; ms <= 400; ms += 100) {
+			message(1, ms);
+			message(2, ms);
+		}
+		assertEquals("[short 1 @0, short 2 @0, short 1 @100, short 1 @200, short 1 @300, short 1 @400]", events());
+	}
+
+
+	@Test
+	public void inferredReleasesAreDueOnEachButtonsTimeout() {
+		mRecognizer.setEnabled(1, ButtonGestureRecognizer.GESTURE_LONG, true);
+		mRecognizer.setEnabled(2, ButtonGestureRecognizer.GESTURE_LONG, true);
+		mRecognizer.setReleaseTimeout(1, 50);
+		mRecognizer.setReleaseTimeout(2, 200);
+
+		message(1, 0);
+		message(2, 0);
+		message(1, 40);
+		message(2, 150);
+		runTo(2000);
+
+		assertEquals(90, (long)mDues.get(0));
+		assertEquals(350, (long)mDues.get(1));
+		assertEquals("[short 1 @90, short 2 @350]", events());
+	}
+
+
+	@Test
+	public void zeroReleaseTimeoutMakesEveryMessageAPress() {
+		mRecognizer.setReleaseTimeout(1, 0);
+
+		message(1, 0);
+		message(1, 1);
+		message(1, 2);
+		assertEquals("[short 1 @0, short 1 @1, short 1 @2]", events());
+	}
+}
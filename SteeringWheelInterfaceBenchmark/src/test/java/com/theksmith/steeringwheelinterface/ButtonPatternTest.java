@@ -0,0 +1,141 @@
+package com.theksmith.steeringwheelinterface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+public class ButtonPatternTest {
+
+	protected static BusFrame frame(String line) {
+		return BusFrame.fromString(line);
+	}
+
+
+	@Test
+	public void exactBytesMatchAsPrefix() {
+		final ButtonPattern pattern = ButtonPattern.compile("3D 11 00 80");
+
+		assertEquals(4, pattern.getLength());
+		assertEquals(0x3D110080L << 32, pattern.getValue());
+		assertEquals(0xFFFFFFFFL << 32, pattern.getMask());
+		assertTrue(pattern.matches(frame("3D 11 00 80 2A")));
+		assertFalse(pattern.matches(frame("3D 11 00 40 2A")));
+	}
+
+
+	@Test
+	public void wildcardBytes() {
+		final ButtonPattern pattern = ButtonPattern.compile("3D ?? xx 80");
+
+		assertTrue(pattern.matches(frame("3D 11 00 80")));
+		assertTrue(pattern.matches(frame("3D 12 FF 80 55")));
+		assertFalse(pattern.matches(frame("3D 11 00 81")));
+	}
+
+
+	@Test
+	public void trailingWildcardsDoNotRequireBytes() {
+		final ButtonPattern pattern = ButtonPattern.compile("3D 11 ??");
+
+		assertEquals(3, pattern.getLength());
+		assertEquals(2, pattern.getMinLength());
+		assertTrue(pattern.matches(frame("3D 11")));
+	}
+
+
+	@Test
+	public void shortMessagesDoNotMatchZeroBytes() {
+		//the missing bytes of "3D 11" pack as zero, as the definition's 00 does
+		final ButtonPattern pattern = ButtonPattern.compile("3D 11 00");
+
+		assertEquals(3, pattern.getMinLength());
+		assertFalse(pattern.matches(frame("3D 11")));
+		assertTrue(pattern.matches(frame("3D 11 00")));
+		assertFalse(ButtonPattern.compile("3D 11 0?").matches(frame("3D 11")));
+		assertFalse(ButtonPattern.compile("3D 11 00/F0").matches(frame("3D 11")));
+	}
+
+
+	@Test
+	public void wildcardNibbles() {
+		final ButtonPattern pattern = ButtonPattern.compile("3D 1? x0");
+
+		assertTrue(pattern.matches(frame("3D 1A 50")));
+		assertTrue(pattern.matches(frame("3D 10 F0")));
+		assertFalse(pattern.matches(frame("3D 2A 50")));
+		assertFalse(pattern.matches(frame("3D 1A 51")));
+	}
+
+
+	@Test
+	public void valueAndMask() {
+		final ButtonPattern pattern = ButtonPattern.compile("3D 80/F0");
+
+		assertTrue(pattern.matches(frame("3D 8F")));
+		assertTrue(pattern.matches(frame("3D 80")));
+		assertFalse(pattern.matches(frame("3D 9F")));
+	}
+
+
+	@Test
+	public void bitByBit() {
+		final ButtonPattern pattern = ButtonPattern.compile("3D b1xxx0000");
+
+		assertEquals(0x3D80L << 48, pattern.getValue());
+		assertEquals(0xFF8FL << 48, pattern.getMask());
+		assertTrue(pattern.matches(frame("3D F0")));
+		assertTrue(pattern.matches(frame("3D 80")));
+		assertFalse(pattern.matches(frame("3D 70")));
+		assertFalse(pattern.matches(frame("3D 81")));
+
+		//hex that happens to start with B is still hex
+		assertTrue(ButtonPattern.compile("B1").matches(frame("B1")));
+	}
+
+
+	@Test
+	public void longHexTokensSplitAsElmOutput() {
+		final ButtonPattern pattern = ButtonPattern.compile("7E8 03");
+
+		assertEquals(3, pattern.getLength());
+		assertTrue(pattern.matches(frame("7E8 03 41")));
+		assertTrue(pattern.matches(frame("07 E8 03")));
+		assertFalse(pattern.matches(frame("17 E8 03")));
+	}
+
+
+	@Test
+	public void keepsDefinitionText() {
+		final ButtonPattern pattern = ButtonPattern.compile("  3D 11  00 ");
+
+		assertEquals("3D 11  00", pattern.getDefinition());
+		assertEquals(3, pattern.getLength());
+	}
+
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsEmptyDefinitions() {
+		ButtonPattern.compile("   ");
+	}
+
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsInvalidHex() {
+		ButtonPattern.compile("3D 1G");
+	}
+
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsInvalidValueMask() {
+		ButtonPattern.compile("3D 8/F0");
+	}
+
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsDefinitionsOverEightBytes() {
+		ButtonPattern.compile("01 02 03 04 05 06 07 08 09");
+	}
+}
@@ -0,0 +1,257 @@
+package com.theksmith.steeringwheelinterface;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Records captures with BusCaptureRecorder and plays them back with CaptureReplayDriver.
+ */
+public class CaptureReplayDriverTest {
+	protected static final long MS = 1000000L;
+	protected static final long START = 123456789L * MS;		//read times are System.nanoTime(), any origin
+
+	//the ATI response split across two reads, then monitoring output cut mid line, and a NUL and a non ASCII byte
+	protected static final byte[][] CHUNKS = {
+		"ATI\rELM327 v".getBytes(),
+		"1.5\r\n\r\n>".getBytes(),
+		"3D 11 00 80 2A\r\n3D 1".getBytes(),
+		"1 10 00 6C\r\n".getBytes(),
+		{ 0, (byte)0xFF, '\r', '\n' }
+	};
+	protected static final long[] TIMES = { START, START + 20 * MS, START + 1000 * MS, START + 1100 * MS, START + 1250 * MS };
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	protected CaptureReplayDriver mDriver;
+
+
+	@After
+	public void tearDown() throws IOException {
+		if (mDriver != null) {
+			mDriver.close();
+		}
+	}
+
+
+	protected File record(byte[][] chunks, long[] times) throws IOException {
+		final File file = mFolder.newFile();
+		final BusCaptureRecorder recorder = new BusCaptureRecorder(file);
+		recorder.open(BusCaptureRecorder.DEFAULT_CAPACITY);
+
+		for (int i = 0; i < chunks.length; i++) {
+			//recorded from the middle of a larger read buffer, as the event loop passes them
+			final byte[] buffer = new byte[chunks[i].length + 8];
+			System.arraycopy(chunks[i], 0, buffer, 3, chunks[i].length);
+			recorder.record(buffer, 3, chunks[i].length, times[i]);
+		}
+
+		recorder.close();
+		assertFalse(recorder.isOpen());
+		return file;
+	}
+
+
+	protected byte[] read(int timeoutMillis) throws IOException {
+		final byte[] buffer = new byte[256];
+		final int length = mDriver.read(buffer, timeoutMillis);
+		return Arrays.copyOf(buffer, length);
+	}
+
+
+	protected void write(String command) throws IOException {
+		final byte[] bytes = command.getBytes();
+		assertEquals(bytes.length, mDriver.write(bytes, 100));
+	}
+
+
+	@Test
+	public void fileHoldsEachChunkWithItsReadTime() throws IOException {
+		final File file = record(CHUNKS, TIMES);
+
+		int length = BusCaptureRecorder.HEADER_LENGTH;
+		for (byte[] chunk : CHUNKS) {
+			length += BusCaptureRecorder.RECORD_HEADER_LENGTH + chunk.length;
+		}
+		assertEquals(length, file.length());
+
+		final DataInputStream input = new DataInputStream(new FileInputStream(file));
+		try {
+			assertEquals(BusCaptureRecorder.FILE_MAGIC, input.readInt());
+			assertEquals(BusCaptureRecorder.FILE_VERSION, input.readInt());
+			for (int i = 0; i < CHUNKS.length; i++) {
+				assertEquals(TIMES[i], input.readLong());
+				final byte[] chunk = new byte[input.readShort()];
+				input.readFully(chunk);
+				assertArrayEquals(CHUNKS[i], chunk);
+			}
+			assertEquals(-1, input.read());
+		} finally {
+			input.close();
+		}
+	}
+
+
+	@Test
+	public void replaysTheChunksInTurns() throws IOException {
+		mDriver = new CaptureReplayDriver(record(CHUNKS, TIMES), false);
+		mDriver.open();
+
+		//nothing before the first command
+		assertEquals(0, read(20).length);
+
+		write("ATI\r");
+		assertArrayEquals(CHUNKS[0], read(100));
+		assertArrayEquals(CHUNKS[1], read(100));
+
+		//the prompt ended the turn
+		assertEquals(0, read(20).length);
+
+		//the monitoring output streams through with the recorded boundaries
+		write("ATMA\r");
+		for (int i = 2; i < CHUNKS.length; i++) {
+			assertArrayEquals(CHUNKS[i], read(100));
+		}
+
+		int bytes = 0;
+		for (byte[] chunk : CHUNKS) {
+			bytes += chunk.length;
+		}
+		assertTrue(mDriver.isFinished());
+		assertEquals(0, read(20).length);
+		assertEquals("chunks: " + CHUNKS.length + ", bytes: " + bytes + ", finished: true", mDriver.getStats());
+	}
+
+
+	@Test
+	public void realTimeKeepsTheRecordedSpacing() throws IOException {
+		mDriver = new CaptureReplayDriver(record(CHUNKS, TIMES), true);
+		mDriver.open();
+		write("ATI\r");
+		read(100);
+		read(100);
+
+		final long turnStart = System.nanoTime();
+		write("ATMA\r");
+		assertArrayEquals(CHUNKS[2], read(100));
+
+		//100ms then 250ms after the turn's first chunk
+		assertArrayEquals(CHUNKS[3], read(1000));
+		assertTrue(System.nanoTime() - turnStart >= 100 * MS);
+		assertArrayEquals(CHUNKS[4], read(1000));
+		assertTrue(System.nanoTime() - turnStart >= 250 * MS);
+	}
+
+
+	@Test
+	public void recordingStopsWhenTheFileIsFull() throws IOException {
+		final File file = mFolder.newFile();
+		final BusCaptureRecorder recorder = new BusCaptureRecorder(file);
+		recorder.open(BusCaptureRecorder.HEADER_LENGTH + 2 * (BusCaptureRecorder.RECORD_HEADER_LENGTH + 4));
+
+		final byte[] chunk = "OK\r\n".getBytes();
+		for (int i = 0; i < 3; i++) {
+			recorder.record(chunk, 0, chunk.length, START + i);
+		}
+		recorder.close();
+
+		assertEquals("records: 2, dropped: 1", recorder.getStats());
+		assertEquals(BusCaptureRecorder.HEADER_LENGTH + 2 * (BusCaptureRecorder.RECORD_HEADER_LENGTH + 4), file.length());
+
+		//nothing is recorded once closed
+		recorder.record(chunk, 0, chunk.length, START);
+		assertEquals("records: 2, dropped: 1", recorder.getStats());
+	}
+
+
+	@Test
+	public void notACaptureFile() throws IOException {
+		final File file = mFolder.newFile();
+		final FileOutputStream output = new FileOutputStream(file);
+		output.write("ATI\r\nELM327 v1.5\r\n".getBytes());
+		output.close();
+
+		mDriver = new CaptureReplayDriver(file, false);
+		try {
+			mDriver.open();
+			fail();
+		} catch (IOException ex) {
+			assertTrue(ex.getMessage().startsWith("Not a bus capture file"));
+		}
+	}
+
+
+	/**
+	 * Writes a capture holding one good chunk, then a record with the given length and bytes.
+	 */
+	protected File writeCapture(int badLength, int badBytes) throws IOException {
+		final File file = mFolder.newFile();
+		final DataOutputStream output = new DataOutputStream(new FileOutputStream(file));
+		output.writeInt(BusCaptureRecorder.FILE_MAGIC);
+		output.writeInt(BusCaptureRecorder.FILE_VERSION);
+		output.writeLong(START);
+		output.writeShort(CHUNKS[2].length);
+		output.write(CHUNKS[2]);
+		output.writeLong(START + MS);
+		output.writeShort(badLength);
+		output.write(new byte[badBytes]);
+		output.close();
+		return file;
+	}
+
+
+	protected void assertReplayEndsAsCorrupt(File file) throws IOException {
+		mDriver = new CaptureReplayDriver(file, false);
+		mDriver.open();
+		write("ATMA\r");
+		assertArrayEquals(CHUNKS[2], read(100));
+
+		try {
+			read(100);
+			fail();
+		} catch (IOException ex) {
+			assertTrue(ex.getMessage().startsWith("Corrupt or truncated bus capture"));
+		}
+
+		//nothing after it is replayed
+		assertTrue(mDriver.isFinished());
+		assertEquals(0, read(20).length);
+	}
+
+
+	@Test
+	public void negativeLengthIsACorruptCapture() throws IOException {
+		//a length over Short.MAX_VALUE, as a recorder without the length check could have written it
+		assertReplayEndsAsCorrupt(writeCapture(0xFFF0, 32));
+	}
+
+
+	@Test
+	public void zeroLengthIsACorruptCapture() throws IOException {
+		assertReplayEndsAsCorrupt(writeCapture(0, 32));
+	}
+
+
+	@Test
+	public void truncatedChunkIsACorruptCapture() throws IOException {
+		//the capture ends partway through the chunk, ex: copied while still recording
+		assertReplayEndsAsCorrupt(writeCapture(100, 10));
+	}
+}
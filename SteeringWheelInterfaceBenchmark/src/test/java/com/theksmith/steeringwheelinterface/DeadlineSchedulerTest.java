@@ -0,0 +1,101 @@
+package com.theksmith.steeringwheelinterface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class DeadlineSchedulerTest {
+	protected DeadlineScheduler mScheduler;
+
+
+	@Before
+	public void setUp() {
+		mScheduler = new DeadlineScheduler(4);
+	}
+
+
+	@Test
+	public void nothingScheduled() {
+		assertEquals(Long.MAX_VALUE, mScheduler.getRemaining(0));
+		assertEquals(DeadlineScheduler.NONE, mScheduler.expire(Long.MAX_VALUE));
+	}
+
+
+	@Test
+	public void expiresEarliestFirst() {
+		mScheduler.schedule(0, 300);
+		mScheduler.schedule(1, 100);
+		mScheduler.schedule(2, 200);
+
+		assertEquals(100, mScheduler.getRemaining(0));
+		assertEquals(DeadlineScheduler.NONE, mScheduler.expire(99));
+
+		assertEquals(1, mScheduler.expire(250));
+		assertEquals(2, mScheduler.expire(250));
+		assertEquals(DeadlineScheduler.NONE, mScheduler.expire(250));
+		assertEquals(50, mScheduler.getRemaining(250));
+
+		assertEquals(0, mScheduler.expire(300));
+		assertFalse(mScheduler.isScheduled(0));
+		assertEquals(Long.MAX_VALUE, mScheduler.getRemaining(300));
+	}
+
+
+	@Test
+	public void pushingBackTheEarliestFindsTheNextOne() {
+		mScheduler.schedule(0, 100);
+		mScheduler.schedule(1, 200);
+		mScheduler.schedule(0, 400);
+
+		assertEquals(200, mScheduler.getRemaining(0));
+		assertEquals(1, mScheduler.expire(200));
+		assertEquals(0, mScheduler.expire(400));
+	}
+
+
+	@Test
+	public void cancellingTheEarliestFindsTheNextOne() {
+		mScheduler.schedule(0, 100);
+		mScheduler.schedule(3, 200);
+		mScheduler.cancel(0);
+
+		assertFalse(mScheduler.isScheduled(0));
+		assertTrue(mScheduler.isScheduled(3));
+		assertEquals(200, mScheduler.getRemaining(0));
+		assertEquals(3, mScheduler.expire(1000));
+	}
+
+
+	@Test
+	public void overdueIsZeroRemaining() {
+		mScheduler.schedule(2, 100);
+		assertEquals(0, mScheduler.getRemaining(150));
+	}
+
+
+	@Test
+	public void comparesAcrossNanoTimeWraparound() {
+		mScheduler.schedule(0, Long.MIN_VALUE + 10);
+		mScheduler.schedule(1, Long.MAX_VALUE - 10);
+
+		assertEquals(1, mScheduler.expire(Long.MAX_VALUE));
+		assertEquals(DeadlineScheduler.NONE, mScheduler.expire(Long.MAX_VALUE));
+		assertEquals(0, mScheduler.expire(Long.MIN_VALUE + 10));
+	}
+
+
+	@Test
+	public void cancelAll() {
+		mScheduler.schedule(0, 100);
+		mScheduler.schedule(1, 200);
+		mScheduler.cancelAll();
+
+		assertEquals(Long.MAX_VALUE, mScheduler.getRemaining(0));
+		mScheduler.schedule(1, 300);
+		assertEquals(1, mScheduler.expire(300));
+	}
+}
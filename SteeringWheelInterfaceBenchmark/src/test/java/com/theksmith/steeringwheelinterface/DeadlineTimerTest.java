@@ -0,0 +1,128 @@
+package com.theksmith.steeringwheelinterface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class DeadlineTimerTest {
+	protected DeadlineTimer mTimer;
+
+
+	@Before
+	public void setUp() {
+		mTimer = new DeadlineTimer();
+	}
+
+
+	@Test
+	public void stoppedUntilStarted() {
+		assertFalse(mTimer.isArmed());
+		assertEquals(Long.MAX_VALUE, mTimer.getRemaining(0));
+		assertFalse(mTimer.expire(Long.MAX_VALUE));
+	}
+
+
+	@Test
+	public void expiresOnceAtItsDeadline() {
+		mTimer.start(1000, 500);
+
+		assertTrue(mTimer.isArmed());
+		assertEquals(500, mTimer.getRemaining(1000));
+		assertEquals(1, mTimer.getRemaining(1499));
+		assertFalse(mTimer.expire(1499));
+
+		assertEquals(0, mTimer.getRemaining(1500));
+		assertTrue(mTimer.expire(1500));
+		assertFalse(mTimer.isArmed());
+
+		//each start expires at most once, however late it is checked
+		assertFalse(mTimer.expire(5000));
+		assertEquals(Long.MAX_VALUE, mTimer.getRemaining(5000));
+	}
+
+
+	@Test
+	public void lateCheckIsStillDue() {
+		mTimer.start(1000, 500);
+
+		assertEquals(0, mTimer.getRemaining(9000));
+		assertTrue(mTimer.expire(9000));
+	}
+
+
+	@Test
+	public void restartReplacesTheDeadline() {
+		mTimer.start(1000, 500);
+
+		//pushed back, as on every received chunk
+		mTimer.start(1400, 500);
+		assertFalse(mTimer.expire(1500));
+		assertEquals(400, mTimer.getRemaining(1500));
+		assertTrue(mTimer.expire(1900));
+
+		//and brought forward
+		mTimer.start(2000, 500);
+		mTimer.start(2000, 100);
+		assertTrue(mTimer.expire(2100));
+	}
+
+
+	@Test
+	public void restartAfterExpiryArmsAgain() {
+		mTimer.start(1000, 500);
+		assertTrue(mTimer.expire(1500));
+
+		mTimer.start(1500, 500);
+		assertTrue(mTimer.isArmed());
+		assertFalse(mTimer.expire(1999));
+		assertTrue(mTimer.expire(2000));
+	}
+
+
+	@Test
+	public void stopCancels() {
+		mTimer.start(1000, 500);
+		mTimer.stop();
+
+		assertFalse(mTimer.isArmed());
+		assertEquals(Long.MAX_VALUE, mTimer.getRemaining(1000));
+		assertFalse(mTimer.expire(1500));
+
+		//stopping a stopped timer does nothing
+		mTimer.stop();
+		assertFalse(mTimer.isArmed());
+	}
+
+
+	@Test
+	public void deadlinesAcrossTheNanoTimeWrap() {
+		//System.nanoTime() has an arbitrary origin, so a deadline can wrap past Long.MAX_VALUE
+		final long now = Long.MAX_VALUE - 100;
+		mTimer.start(now, 500);
+
+		assertFalse(mTimer.expire(now + 499));
+		assertTrue(mTimer.expire(now + 500));
+	}
+
+
+	@Test
+	public void twoTimersExpireInDeadlineOrder() {
+		//as ElmInterface's total and data timeouts, checked together on each pass of the event loop
+		final DeadlineTimer total = mTimer;
+		final DeadlineTimer data = new DeadlineTimer();
+		total.start(0, 1000);
+		data.start(0, 300);
+
+		assertEquals(300, Math.min(total.getRemaining(0), data.getRemaining(0)));
+		assertFalse(total.expire(300));
+		assertTrue(data.expire(300));
+
+		assertEquals(700, Math.min(total.getRemaining(300), data.getRemaining(300)));
+		assertTrue(total.expire(1000));
+		assertFalse(data.expire(1000));
+	}
+}
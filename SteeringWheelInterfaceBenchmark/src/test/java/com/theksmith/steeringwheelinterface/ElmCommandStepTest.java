@@ -0,0 +1,224 @@
+package com.theksmith.steeringwheelinterface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import android.content.Context;
+
+
+/**
+ * The step table's links, and ElmInterface running it: stepSend(), stepComplete(), retries and timeouts. The event loop
+ * is not started and there is no device, so each call runs directly on the test thread and the commands are only
+ * recorded.
+ */
+public class ElmCommandStepTest {
+	protected static final long LATE = 60 * 1000000000L;	//nanoseconds, past every step's timeouts
+
+	protected StepElmInterface mElm;
+
+
+	/**
+	 * Records each command as its step and text, with " retry" for a retry, ex: "ECHO ATE1 retry".
+	 */
+	protected static class StepElmInterface extends ElmInterface {
+		protected final List<String> mSent = new ArrayList<String>();
+
+
+		public StepElmInterface(Context appContext) {
+			super(appContext);
+		}
+
+
+		@Override
+		protected Boolean sendCommandOnLoop(ElmCommand command, ElmCommandStep step, int timeoutTotal, int timeoutData, int retries, Boolean isRetry, Boolean isBlind) {
+			final Boolean written = super.sendCommandOnLoop(command, step, timeoutTotal, timeoutData, retries, isRetry, isBlind);
+			mSent.add((step + " " + command.getText()).trim() + (isRetry ? " retry" : ""));
+			return written;
+		}
+
+
+		/**
+		 * @return				The commands recorded since the last call.
+		 */
+		public List<String> takeSent() {
+			final List<String> sent = new ArrayList<String>(mSent);
+			mSent.clear();
+			return sent;
+		}
+	}
+
+
+	@Before
+	public void setUp() {
+		mElm = new StepElmInterface(new OffDeviceContext());
+		mElm.setMonitorCommand("ATMA");
+
+		//as monitoring start and the PROTOCOL step set them up from the settings
+		mElm.mProtocolCommand = new ElmCommand("ATSP2");
+		mElm.mMonitorCommand = new ElmCommand("ATMA");
+	}
+
+
+	protected List<ElmCommandStep> walk(ElmCommandStep step) {
+		final List<ElmCommandStep> steps = new ArrayList<ElmCommandStep>();
+		while (step != ElmCommandStep.NONE) {
+			steps.add(step);
+			step = step.getNext();
+		}
+		return steps;
+	}
+
+
+	@Test
+	public void resetAndIdentifyLeadToMonitor() {
+		final List<ElmCommandStep> init = Arrays.asList(ElmCommandStep.ECHO, ElmCommandStep.LINEFEEDS, ElmCommandStep.SPACES,
+				ElmCommandStep.HEADERS, ElmCommandStep.PROTOCOL, ElmCommandStep.FILTER, ElmCommandStep.MONITOR);
+
+		assertEquals(init, walk(ElmCommandStep.RESET).subList(1, 8));
+		assertEquals(init, walk(ElmCommandStep.IDENTIFY).subList(1, 8));
+		assertEquals(ElmCommandStep.NONE, ElmCommandStep.MONITOR.getNext());
+		assertEquals(ElmCommandStep.NONE, ElmCommandStep.NONE.getNext());
+		assertEquals(ElmCommandStep.NONE, ElmCommandStep.CUSTOM.getNext());
+	}
+
+
+	@Test
+	public void baudStepsRejoinAtEcho() {
+		assertEquals(Arrays.asList(ElmCommandStep.BAUD_DETECT, ElmCommandStep.BAUD_SWITCH, ElmCommandStep.BAUD_HANDSHAKE,
+				ElmCommandStep.BAUD_CONFIRM, ElmCommandStep.BAUD_VERIFY, ElmCommandStep.ECHO),
+				walk(ElmCommandStep.BAUD_DETECT).subList(0, 6));
+
+		for (ElmCommandStep step : walk(ElmCommandStep.BAUD_DETECT)) {
+			assertEquals(step.toString(), step.name().startsWith("BAUD_"), step.isBaud());
+		}
+	}
+
+
+	@Test
+	public void compactVariants() {
+		assertEquals("ATE1", ElmCommandStep.ECHO.getCommand(false).getText());
+		assertEquals("ATE0", ElmCommandStep.ECHO.getCommand(true).getText());
+		assertEquals("ATH1", ElmCommandStep.HEADERS.getCommand(true).getText());
+
+		//from the settings or the negotiation, not the table
+		assertEquals(null, ElmCommandStep.PROTOCOL.getCommand(false));
+		assertEquals(null, ElmCommandStep.MONITOR.getCommand(false));
+		assertEquals(null, ElmCommandStep.BAUD_SWITCH.getCommand(false));
+	}
+
+
+	@Test
+	public void stepSendSetsTheStepAndItsLimits() {
+		mElm.stepSend(ElmCommandStep.ECHO);
+
+		assertEquals(Arrays.asList("ECHO ATE1"), mElm.takeSent());
+		assertEquals(ElmCommandStep.ECHO, mElm.mStep);
+		assertEquals("ATE1", mElm.mCommand);
+		assertEquals(ElmCommandStep.ECHO.getRetries(), mElm.mCommandRetries);
+		assertEquals(0, mElm.mCommandRetryCounter);
+		assertTrue(mElm.mCommandTimeoutTotal_Timer.isArmed());
+		assertTrue(mElm.mCommandTimeoutData_Timer.isArmed());
+	}
+
+
+	@Test
+	public void stepSendSkipsStepsWithoutACommand() {
+		//no filter commands, so FILTER goes straight on to MONITOR
+		mElm.stepSend(ElmCommandStep.FILTER);
+
+		assertEquals(Arrays.asList("MONITOR ATMA"), mElm.takeSent());
+		assertEquals(ElmCommandStep.MONITOR, mElm.mStep);
+		assertFalse(mElm.mCommandTimeoutTotal_Timer.isArmed());
+		assertTrue(mElm.mCommandTimeoutData_Timer.isArmed());
+	}
+
+
+	@Test
+	public void stepCompleteWalksTheInitSequence() {
+		mElm.stepSend(ElmCommandStep.IDENTIFY);
+		while (mElm.mStep != ElmCommandStep.MONITOR) {
+			mElm.stepComplete();
+		}
+
+		assertEquals(Arrays.asList("IDENTIFY ATI", "ECHO ATE1", "LINEFEEDS ATL1", "SPACES ATS1", "HEADERS ATH1",
+				"PROTOCOL ATSP2", "MONITOR ATMA"), mElm.takeSent());
+	}
+
+
+	@Test
+	public void filterStepRepeatsForEachCommand() {
+		mElm.mFilterCommands = new ElmCommand[] { new ElmCommand("ATCRA 3D1"), new ElmCommand("ATCM 7FF") };
+		mElm.mFilterIndex = 0;
+
+		mElm.stepSend(ElmCommandStep.FILTER);
+		mElm.stepComplete();
+		mElm.stepComplete();
+
+		assertEquals(Arrays.asList("FILTER ATCRA 3D1", "FILTER ATCM 7FF", "MONITOR ATMA"), mElm.takeSent());
+	}
+
+
+	@Test
+	public void timeoutRetriesThenRestarts() {
+		mElm.stepSend(ElmCommandStep.ECHO);
+		mElm.takeSent();
+
+		for (int retry = 1; retry <= ElmCommandStep.ECHO.getRetries(); retry++) {
+			mElm.commandTimeout_TimersCheck(System.nanoTime() + LATE);
+			assertEquals(Arrays.asList("ECHO ATE1 retry"), mElm.takeSent());
+			assertEquals(retry, mElm.mCommandRetryCounter);
+			assertEquals(ElmCommandStep.ECHO, mElm.mStep);
+		}
+
+		//out of retries, monitoring starts over from the device ID
+		mElm.commandTimeout_TimersCheck(System.nanoTime() + LATE);
+		assertEquals(Arrays.asList("IDENTIFY ATI"), mElm.takeSent());
+		assertEquals(ElmCommandStep.IDENTIFY, mElm.mStep);
+		assertEquals(0, mElm.mCommandRetryCounter);
+	}
+
+
+	@Test
+	public void nothingHappensBeforeATimeout() {
+		mElm.stepSend(ElmCommandStep.ECHO);
+		mElm.takeSent();
+
+		mElm.commandTimeout_TimersCheck(System.nanoTime());
+		assertTrue(mElm.takeSent().isEmpty());
+		assertEquals(ElmCommandStep.ECHO, mElm.mStep);
+	}
+
+
+	@Test
+	public void eachTimeoutExpiresOnce() {
+		mElm.stepSend(ElmCommandStep.ECHO);
+		mElm.takeSent();
+
+		//the total and data timeouts are both due, one retry is sent
+		mElm.commandTimeout_TimersCheck(System.nanoTime() + LATE);
+		assertEquals(Arrays.asList("ECHO ATE1 retry"), mElm.takeSent());
+
+		//and the retry's own timeouts are what count from there
+		mElm.commandTimeout_TimersCheck(System.nanoTime());
+		assertTrue(mElm.takeSent().isEmpty());
+	}
+
+
+	@Test
+	public void blindCommandsLeaveNoStep() {
+		mElm.stepSend(ElmCommandStep.ECHO);
+		mElm.sendCommandBlind("LP");
+
+		assertEquals(Arrays.asList("ECHO ATE1", "NONE LP"), mElm.takeSent());
+		assertEquals(ElmCommandStep.NONE, mElm.mStep);
+		assertEquals(Long.MAX_VALUE, mElm.commandTimeout_GetRemaining(System.nanoTime()));
+	}
+}
@@ -0,0 +1,76 @@
+package com.theksmith.steeringwheelinterface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+
+public class ElmErrorResponseTest {
+
+	protected static ElmErrorResponse classify(String line) {
+		final byte[] bytes = line.getBytes();
+		return ElmErrorResponse.classify(bytes, bytes.length);
+	}
+
+
+	@Test
+	public void classifiesResponses() {
+		assertEquals(ElmErrorResponse.UNKNOWN_COMMAND, classify("?"));
+		assertEquals(ElmErrorResponse.NO_DATA, classify("NO DATA"));
+		assertEquals(ElmErrorResponse.STOPPED, classify("STOPPED"));
+		assertEquals(ElmErrorResponse.BUS_BUSY, classify("BUS BUSY"));
+		assertEquals(ElmErrorResponse.BUS_ERROR, classify("BUS ERROR"));
+		assertEquals(ElmErrorResponse.CAN_ERROR, classify("CAN ERROR"));
+		assertEquals(ElmErrorResponse.UNABLE_TO_CONNECT, classify("UNABLE TO CONNECT"));
+		assertEquals(ElmErrorResponse.FB_ERROR, classify("FB ERROR"));
+		assertEquals(ElmErrorResponse.ACT_ALERT, classify("ACT ALERT"));
+		assertEquals(ElmErrorResponse.INTERNAL_ERROR, classify("ERR94"));
+	}
+
+
+	@Test
+	public void ignoresSpaces() {
+		//compact output (ATS0) and leading spaces
+		assertEquals(ElmErrorResponse.NO_DATA, classify("NODATA"));
+		assertEquals(ElmErrorResponse.CAN_ERROR, classify("  CANERROR"));
+		assertEquals(ElmErrorResponse.DATA_ERROR, classify("DATAERROR"));
+	}
+
+
+	@Test
+	public void busInitNeedsTheErrorToken() {
+		assertEquals(ElmErrorResponse.BUS_INIT_ERROR, classify("BUS INIT: ...ERROR"));
+		assertNull(classify("BUS INIT: ...OK"));
+		assertNull(classify("BUS INIT: ..."));
+	}
+
+
+	@Test
+	public void ignoresOtherLines() {
+		assertNull(classify(""));
+		assertNull(classify("   "));
+		assertNull(classify("OK"));
+		assertNull(classify("ELM327 v1.5"));
+		assertNull(classify("3D 11 00 80 2A"));
+		assertNull(classify("NO"));
+	}
+
+
+	@Test
+	public void classifiesWithinLength() {
+		final byte[] line = "NO DATA".getBytes();
+
+		assertNull(ElmErrorResponse.classify(line, 4));
+		assertEquals(ElmErrorResponse.NO_DATA, ElmErrorResponse.classify(line, line.length));
+	}
+
+
+	@Test
+	public void recoveries() {
+		assertEquals(ElmErrorResponse.Recovery.RETRY, ElmErrorResponse.NO_DATA.getRecovery());
+		assertEquals(ElmErrorResponse.Recovery.PROTOCOL, ElmErrorResponse.CAN_ERROR.getRecovery());
+		assertEquals(ElmErrorResponse.Recovery.RESET, ElmErrorResponse.FB_ERROR.getRecovery());
+		assertEquals("BUS INIT", ElmErrorResponse.BUS_INIT_ERROR.getText());
+	}
+}
@@ -0,0 +1,266 @@
+package com.theksmith.steeringwheelinterface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+
+/**
+ * Runs ElmInterface's baud rate upgrade against a SimulatedElmDriver that carries up to 500000 baud cleanly, so the
+ * first candidate (1000000) always fails its handshake and the second one is kept (see ElmInterface.baudNegotiate()).
+ *
+ * The cache lives in the OffDeviceContext, so a new driver on the same context is the same adapter model plugged in
+ * again, at its default rate.
+ */
+public class ElmInterfaceBaudTest {
+	protected static final String CACHE_KEY = "SimulatedElmDriver@115200";
+
+	protected OffDeviceContext mContext;
+	protected SimulatedElmDriver mDriver;
+	protected RecordingElmInterface mElm;
+
+
+	@Before
+	public void setUp() {
+		mContext = new OffDeviceContext();
+		mDriver = configure(new SimulatedElmDriver());
+
+		mElm = new RecordingElmInterface(mContext);
+		mElm.setSerialDriver(mDriver);
+		mElm.setBaudRate(115200);
+		mElm.setBaudUpgrade(true);
+		mElm.setMonitorCommand("ATMA");
+	}
+
+
+	@After
+	public void tearDown() {
+		mElm.deviceClose();
+	}
+
+
+	protected SimulatedElmDriver configure(SimulatedElmDriver driver) {
+		driver.setRandomSeed(1);
+		driver.setFrameRate(1);
+		driver.setPressInterval(0);
+		driver.setNoisePercent(0);
+		return driver;
+	}
+
+
+	/**
+	 * Ends the monitoring session and starts the next one with the given driver.
+	 */
+	protected void reconnect(SimulatedElmDriver driver) throws Exception {
+		mElm.deviceClose();
+		assertEquals("NONE ATI", mElm.awaitNext());
+		assertEquals("NONE LP", mElm.awaitNext());
+
+		mDriver = driver;
+		mElm.setSerialDriver(mDriver);
+		mElm.deviceOpen();
+		mElm.monitorStart();
+	}
+
+
+	protected SharedPreferences getCache() {
+		return mContext.getSharedPreferences(ElmInterface.BAUD_CACHE_PREFERENCES, Context.MODE_PRIVATE);
+	}
+
+
+	/**
+	 * Asserts the init sequence goes on from ECHO once the negotiation is over.
+	 */
+	protected void assertInitContinues() throws InterruptedException {
+		assertEquals("ECHO ATE1", mElm.awaitNext());
+		assertTrue(mElm.awaitSent("MONITOR ATMA"));
+	}
+
+
+	@Test
+	public void fallsBackToTheNextCandidateAndCachesIt() throws Exception {
+		mElm.deviceOpen();
+		mElm.monitorStart();
+
+		assertEquals("IDENTIFY ATI", mElm.awaitNext());
+		assertEquals("BAUD_DETECT STI", mElm.awaitNext());
+
+		//1000000 is garbled, the handshake times out and the device goes back to 115200 on its own
+		assertEquals("BAUD_SWITCH ATBRD04", mElm.awaitNext());
+		assertEquals("BAUD_SWITCH ATBRD08", mElm.awaitNext());
+		assertEquals("BAUD_CONFIRM", mElm.awaitNext());
+		assertEquals("BAUD_VERIFY ATI", mElm.awaitNext());
+		assertInitContinues();
+
+		assertEquals(500000, mElm.mBaudRate);
+		assertEquals(500000, mDriver.getDeviceBaudRate());
+		assertEquals("500000 (ATBRD, default 115200)", mElm.getBaudStats());
+		assertEquals(500000, getCache().getInt(CACHE_KEY, 0));
+		assertFalse(getCache().getBoolean(CACHE_KEY + "_stn", true));
+	}
+
+
+	@Test
+	public void stnDeviceUsesStbr() throws Exception {
+		mDriver.setStn(true);
+		mElm.deviceOpen();
+		mElm.monitorStart();
+
+		assertEquals("IDENTIFY ATI", mElm.awaitNext());
+		assertEquals("BAUD_DETECT STI", mElm.awaitNext());
+		assertEquals("BAUD_SWITCH STBR1000000", mElm.awaitNext());
+		assertEquals("BAUD_SWITCH STBR500000", mElm.awaitNext());
+		assertEquals("BAUD_CONFIRM", mElm.awaitNext());
+		assertEquals("BAUD_VERIFY ATI", mElm.awaitNext());
+		assertInitContinues();
+
+		assertEquals("500000 (STBR, default 115200)", mElm.getBaudStats());
+		assertTrue(getCache().getBoolean(CACHE_KEY + "_stn", false));
+	}
+
+
+	@Test
+	public void cacheHitSkipsTheProbing() throws Exception {
+		mElm.deviceOpen();
+		mElm.monitorStart();
+		assertTrue(mElm.awaitSent("MONITOR ATMA"));
+
+		reconnect(configure(new SimulatedElmDriver()));
+
+		//straight to the rate that worked last time
+		assertEquals("IDENTIFY ATI", mElm.awaitNext());
+		assertEquals("BAUD_SWITCH ATBRD08", mElm.awaitNext());
+		assertEquals("BAUD_CONFIRM", mElm.awaitNext());
+		assertEquals("BAUD_VERIFY ATI", mElm.awaitNext());
+		assertInitContinues();
+		assertEquals(500000, mDriver.getDeviceBaudRate());
+	}
+
+
+	@Test
+	public void cachedRateThatStopsWorkingIsForgotten() throws Exception {
+		mElm.deviceOpen();
+		mElm.monitorStart();
+		assertTrue(mElm.awaitSent("MONITOR ATMA"));
+
+		//ex: the same adapter on a longer cable
+		final SimulatedElmDriver slower = configure(new SimulatedElmDriver());
+		slower.setMaxBaudRate(250000);
+		reconnect(slower);
+
+		assertEquals("IDENTIFY ATI", mElm.awaitNext());
+		assertEquals("BAUD_SWITCH ATBRD08", mElm.awaitNext());
+		assertInitContinues();
+		assertEquals("115200 (upgrade failed)", mElm.getBaudStats());
+		assertEquals(0, getCache().getInt(CACHE_KEY, -2));
+
+		//a miss, the next connect probes again and finds the slower rate
+		reconnect(slower);
+		assertEquals("IDENTIFY ATI", mElm.awaitNext());
+		assertEquals("BAUD_DETECT STI", mElm.awaitNext());
+		assertEquals("BAUD_SWITCH ATBRD04", mElm.awaitNext());
+		assertEquals("BAUD_SWITCH ATBRD08", mElm.awaitNext());
+		assertEquals("BAUD_SWITCH ATBRD10", mElm.awaitNext());
+		assertEquals("BAUD_CONFIRM", mElm.awaitNext());
+		assertEquals("BAUD_VERIFY ATI", mElm.awaitNext());
+		assertInitContinues();
+		assertEquals(250000, getCache().getInt(CACHE_KEY, 0));
+	}
+
+
+	@Test
+	public void unsupportedIsCachedPerAdapterAndDefaultRate() throws Exception {
+		//answers ATBRD with "?", like ELM v1.0 and many clones
+		mDriver.setBaudCommandSupported(false);
+		mElm.deviceOpen();
+		mElm.monitorStart();
+
+		assertEquals("IDENTIFY ATI", mElm.awaitNext());
+		assertEquals("BAUD_DETECT STI", mElm.awaitNext());
+		assertEquals("BAUD_SWITCH ATBRD04", mElm.awaitNext());
+		assertInitContinues();
+		assertEquals("115200 (upgrade not supported)", mElm.getBaudStats());
+		assertEquals(ElmInterface.BAUD_CACHE_UNSUPPORTED, getCache().getInt(CACHE_KEY, 0));
+
+		//not tried again on this adapter
+		reconnect(mDriver);
+		assertEquals("IDENTIFY ATI", mElm.awaitNext());
+		assertInitContinues();
+		assertEquals("115200 (upgrade not supported, cached)", mElm.getBaudStats());
+
+		//but is at a different default rate, a separate cache entry
+		mElm.setBaudRate(38400);
+		reconnect(configure(new SimulatedElmDriver()));
+		assertEquals("IDENTIFY ATI", mElm.awaitNext());
+		assertEquals("BAUD_DETECT STI", mElm.awaitNext());
+		assertTrue(mElm.awaitSent("BAUD_VERIFY ATI"));
+		assertInitContinues();
+		assertEquals(500000, getCache().getInt("SimulatedElmDriver@38400", 0));
+		assertEquals(ElmInterface.BAUD_CACHE_UNSUPPORTED, getCache().getInt(CACHE_KEY, 0));
+	}
+
+
+	@Test
+	public void failedVerificationResetsBothSides() throws Exception {
+		mDriver = configure(new UnverifiedElmDriver());
+		mElm.setSerialDriver(mDriver);
+		mElm.deviceOpen();
+		mElm.monitorStart();
+
+		assertEquals("IDENTIFY ATI", mElm.awaitNext());
+		assertEquals("BAUD_DETECT STI", mElm.awaitNext());
+		assertEquals("BAUD_SWITCH ATBRD04", mElm.awaitNext());
+		assertEquals("BAUD_SWITCH ATBRD08", mElm.awaitNext());
+		assertEquals("BAUD_CONFIRM", mElm.awaitNext());
+		assertEquals("BAUD_VERIFY ATI", mElm.awaitNext());
+
+		//the device is reset at the new rate, then the host goes back to the default and resets it again
+		assertEquals("NONE ATZ", mElm.awaitNext());
+		assertEquals("RESET ATZ", mElm.awaitNext());
+		assertInitContinues();
+
+		assertEquals(115200, mElm.mBaudRate);
+		assertEquals(115200, mDriver.getDeviceBaudRate());
+		assertEquals("115200 (upgrade failed verification)", mElm.getBaudStats());
+		assertEquals(ElmInterface.BAUD_CACHE_UNSUPPORTED, getCache().getInt(mElm.baudCacheKey(), 0));
+	}
+
+
+	@Test
+	public void warmStartsAlternateTheRate() throws Exception {
+		mElm.deviceOpen();
+		mElm.monitorStart();
+		assertTrue(mElm.awaitSent("MONITOR ATMA"));
+
+		//same device, still at 500000 from the last session
+		reconnect(mDriver);
+		assertEquals("IDENTIFY ATI", mElm.awaitNext());
+		assertEquals(115200, mElm.mBaudRate);
+
+		//not answered at the default rate, not retried either, the next attempt is at the cached rate
+		assertEquals("IDENTIFY ATI", mElm.awaitNext(ElmInterface.DEFAULT_RESET_COMMAND_TOTAL_TIMEOUT + RecordingElmInterface.WAIT));
+		assertEquals(500000, mElm.mBaudRate);
+		assertInitContinues();
+		assertEquals("500000 (already negotiated)", mElm.getBaudStats());
+		assertEquals(2, mElm.getStatusSnapshot().startWarmAttempts);
+	}
+
+
+	/**
+	 * Completes the handshake at the new rate, but never answers the verification.
+	 */
+	protected static class UnverifiedElmDriver extends SimulatedElmDriver {
+		@Override
+		protected void onCommand(String command) {
+			if (command.equals("ATI") && mDeviceBaudRate != mDefaultBaudRate) return;
+			super.onCommand(command);
+		}
+	}
+}
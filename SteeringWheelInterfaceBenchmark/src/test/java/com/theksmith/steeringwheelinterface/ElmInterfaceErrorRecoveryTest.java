@@ -0,0 +1,195 @@
+package com.theksmith.steeringwheelinterface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Runs ElmInterface's event loop against a SimulatedElmDriver and checks the step it goes to after each injected error
+ * response (see ElmErrorResponse and ElmInterface.errorRecover()).
+ *
+ * The simulator sends one bus message a second, counted from each monitor command, so the recovery that follows an error
+ * is sent well before the bus is heard from again unless a test waits for it.
+ */
+public class ElmInterfaceErrorRecoveryTest {
+	protected SimulatedElmDriver mDriver;
+	protected RecordingElmInterface mElm;
+
+
+	@Before
+	public void setUp() {
+		mDriver = new SimulatedElmDriver();
+		mDriver.setRandomSeed(1);
+		mDriver.setFrameRate(1);
+		mDriver.setPressInterval(0);
+		mDriver.setNoisePercent(0);
+
+		mElm = new RecordingElmInterface(new OffDeviceContext());
+		mElm.setSerialDriver(mDriver);
+		mElm.setMonitorCommand("ATMA");
+	}
+
+
+	@After
+	public void tearDown() {
+		mElm.deviceClose();
+	}
+
+
+	@Test
+	public void failedOpenIsPublished() throws Exception {
+		mElm.setSerialDriver(new SimulatedElmDriver() {
+			@Override
+			public synchronized void open() throws IOException {
+				throw new IOException("unplugged");
+			}
+		});
+		mElm.deviceOpen();
+
+		assertEquals(ElmInterface.STATUS_CLOSED_FROMERROR, mElm.getStatusSnapshot().status);
+		assertEquals(ElmInterface.STATUS_CLOSED_FROMERROR, mElm.getsStatus());
+	}
+
+
+	protected void startMonitoring() throws Exception {
+		mElm.deviceOpen();
+		mElm.monitorStart();
+		assertEquals("IDENTIFY ATI", mElm.awaitNext());
+		assertEquals("ECHO ATE1", mElm.awaitNext());
+		assertEquals("LINEFEEDS ATL1", mElm.awaitNext());
+		assertEquals("SPACES ATS1", mElm.awaitNext());
+		assertEquals("HEADERS ATH1", mElm.awaitNext());
+		assertEquals("PROTOCOL ATSP2", mElm.awaitNext());
+		assertEquals("MONITOR ATMA", mElm.awaitNext());
+	}
+
+
+	/**
+	 * Waits for the bus to be heard from after the error recoveries so far.
+	 */
+	protected void awaitErrorRecovered(long recoveries) throws InterruptedException {
+		final long deadline = System.nanoTime() + RecordingElmInterface.WAIT * 1000000L;
+		while (mElm.mErrorRecovery.getCount() < recoveries) {
+			assertTrue("no bus message after the error", System.nanoTime() - deadline < 0);
+			Thread.sleep(10);
+		}
+	}
+
+
+	@Test
+	public void retryRestartsWorkingMonitoringThenCountsRetries() throws Exception {
+		startMonitoring();
+
+		//monitoring was working, so it is re-started rather than retried
+		mDriver.injectError("STOPPED");
+		assertEquals("MONITOR ATMA", mElm.awaitNext());
+
+		//no bus message since, these count against the monitor command's retries, then comes a warm start
+		for (int i = 0; i < ElmInterface.DEFAULT_COMMAND_RETRIES; i++) {
+			mDriver.injectError("STOPPED");
+			assertEquals("MONITOR ATMA retry", mElm.awaitNext());
+		}
+		mDriver.injectError("STOPPED");
+		assertEquals("IDENTIFY ATI", mElm.awaitNext());
+		assertTrue(mElm.awaitSent("MONITOR ATMA"));
+
+		//once the bus is heard from, monitoring is working again
+		awaitErrorRecovered(1);
+		mDriver.injectError("STOPPED");
+		assertEquals("MONITOR ATMA", mElm.awaitNext());
+
+		assertEquals(ElmInterface.DEFAULT_COMMAND_RETRIES + 3, mElm.mErrorCount);
+		assertTrue(mElm.getErrorStats().contains("last: STOPPED"));
+	}
+
+
+	@Test
+	public void busErrorReselectsTheProtocolTwiceThenWarmStarts() throws Exception {
+		startMonitoring();
+
+		for (int i = 0; i < ElmInterface.ERROR_PROTOCOL_ATTEMPTS; i++) {
+			mDriver.injectError("CAN ERROR");
+			assertEquals("PROTOCOL ATSP2", mElm.awaitNext());
+			assertEquals("MONITOR ATMA", mElm.awaitNext());
+		}
+
+		mDriver.injectError("BUS ERROR");
+		assertEquals("IDENTIFY ATI", mElm.awaitNext());
+		assertTrue(mElm.awaitSent("MONITOR ATMA"));
+
+		//a bus message resets the attempts
+		awaitErrorRecovered(1);
+		mDriver.injectError("CAN ERROR");
+		assertEquals("PROTOCOL ATSP2", mElm.awaitNext());
+	}
+
+
+	@Test
+	public void hardwareErrorColdStarts() throws Exception {
+		startMonitoring();
+
+		mDriver.injectError("FB ERROR");
+		assertEquals("RESET ATZ", mElm.awaitNext());
+		assertEquals("ECHO ATE1", mElm.awaitNext());
+		assertTrue(mElm.awaitSent("MONITOR ATMA"));
+		assertEquals(1, mElm.getStatusSnapshot().startColdAttempts);
+	}
+
+
+	@Test
+	public void initStepErrorIsRetriedAtThePrompt() throws Exception {
+		mElm.deviceOpen();
+
+		//answers the first command of the init sequence
+		mDriver.injectError("?");
+		mElm.monitorStart();
+		assertEquals("IDENTIFY ATI", mElm.awaitNext());
+		final long sent = System.nanoTime();
+
+		//long before the step's 5s timeout
+		assertEquals("IDENTIFY ATI retry", mElm.awaitNext());
+		assertTrue(System.nanoTime() - sent < 1000000000L);
+		assertEquals("ECHO ATE1", mElm.awaitNext());
+		assertEquals(1, mElm.mErrorCount);
+	}
+
+
+	@Test
+	public void errorLinesWhileMonitoringNeedAPrompt() throws Exception {
+		mDriver.setFrameRate(200);
+		mDriver.setNoisePercent(30);
+		startMonitoring();
+
+		//the noise includes "?" and "NO DATA" lines between bus messages, the device keeps monitoring
+		final long deadline = System.nanoTime() + 1500000000L;
+		while (mDriver.getNoiseCount() < 20 && System.nanoTime() - deadline < 0) {
+			Thread.sleep(10);
+		}
+		Thread.sleep(200);
+
+		assertTrue(mDriver.getNoiseCount() >= 20);
+		assertEquals(Collections.<String>emptyList(), mElm.getUnread());
+		assertEquals(0, mElm.mErrorCount);
+	}
+
+
+	@Test
+	public void customCommandErrorIsLeftToTheCaller() throws Exception {
+		mElm.deviceOpen();
+
+		assertTrue(mElm.sendCommand("0100"));
+		assertEquals("CUSTOM 0100", mElm.awaitNext());
+
+		//answered "?", nothing is re-sent before the command's own timeout
+		assertEquals(null, mElm.awaitNext(500));
+		assertEquals(0, mElm.mErrorCount);
+		assertEquals("0100", mElm.getStatusSnapshot().command);
+	}
+}
@@ -0,0 +1,123 @@
+package com.theksmith.steeringwheelinterface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Runs ElmInterface's event loop against a SimulatedElmDriver sending more than its 115200 baud link carries, so
+ * monitoring keeps ending with BUFFER FULL, and checks how each overflow is recovered from (see
+ * ElmInterface.monitorOverflowRecover()).
+ *
+ * Every simulated message is a default button message, so the generated filter (ATMR11) passes all of them and only
+ * compact output can tighten things further.
+ */
+public class ElmInterfaceOverflowTest {
+	protected SimulatedElmDriver mDriver;
+	protected RecordingElmInterface mElm;
+
+
+	@Before
+	public void setUp() {
+		mDriver = new SimulatedElmDriver();
+		mDriver.setRandomSeed(1);
+		mDriver.setFrameRate(2000);
+		mDriver.setPressInterval(1);
+		mDriver.setNoisePercent(0);
+
+		mElm = new RecordingElmInterface(new OffDeviceContext());
+		mElm.setSerialDriver(mDriver);
+		mElm.setMonitorCommand("ATMA");
+	}
+
+
+	@After
+	public void tearDown() {
+		mElm.deviceClose();
+	}
+
+
+	/**
+	 * Asserts the monitor command is re-sent after each overflow up to the escalation, and that nothing else was sent.
+	 */
+	protected void assertRestartsBeforeEscalating(String monitorCommand) throws InterruptedException {
+		for (int i = 1; i < ElmInterface.OVERFLOW_ESCALATE_COUNT; i++) {
+			assertEquals("MONITOR " + monitorCommand, mElm.awaitNext());
+		}
+	}
+
+
+	@Test
+	public void repeatedOverflowsTightenTheFilterThenTheOutput() throws Exception {
+		mElm.deviceOpen();
+		mElm.monitorStart();
+		assertTrue(mElm.awaitSent("MONITOR ATMA"));
+
+		//re-started at once, not after the 5s data timeout
+		assertRestartsBeforeEscalating("ATMA");
+
+		//the third overflow switches to the generated filter
+		assertEquals("MONITOR ATMR11", mElm.awaitNext());
+		assertEquals(ElmInterface.OVERFLOW_TIGHTENED_FILTER, mElm.mOverflowTightened);
+		assertRestartsBeforeEscalating("ATMR11");
+
+		//the sixth re-runs the init sequence in compact form
+		assertEquals("ECHO ATE0", mElm.awaitNext());
+		assertEquals("LINEFEEDS ATL0", mElm.awaitNext());
+		assertEquals("SPACES ATS0", mElm.awaitNext());
+		assertEquals("HEADERS ATH1", mElm.awaitNext());
+		assertEquals("PROTOCOL ATSP2", mElm.awaitNext());
+		assertEquals("MONITOR ATMR11", mElm.awaitNext());
+		assertRestartsBeforeEscalating("ATMR11");
+
+		//nothing is left to tighten, monitoring just re-starts
+		assertEquals("MONITOR ATMR11", mElm.awaitNext());
+		assertEquals("MONITOR ATMR11", mElm.awaitNext());
+
+		assertEquals(ElmInterface.OVERFLOW_TIGHTENED_FILTER | ElmInterface.OVERFLOW_TIGHTENED_COMPACT, mElm.mOverflowTightened);
+		assertTrue(mElm.getOverflowStats().contains("tightened: filter, compact"));
+		assertTrue(mElm.mOverflowCount >= 3 * ElmInterface.OVERFLOW_ESCALATE_COUNT + 1);
+		assertTrue(mDriver.getBufferFullCount() >= mElm.mOverflowCount);
+		assertTrue(mElm.mOverflowRecovery.getCount() > 0);
+		assertEquals(1, mElm.getStatusSnapshot().startWarmAttempts);
+	}
+
+
+	@Test
+	public void goesStraightToCompactWhenNoFilterIsPossible() throws Exception {
+		//no receiver or transmitter byte shared by every button
+		mElm.setButtonPattern(ButtonActions.BUTTON_ID_LEFT_DOWN, "3D 12 10 00");
+		mDriver.setPressFrames(new String[] { ButtonActions.BUTTON_LEFT_CENTER, "3D 12 10 00" });
+
+		mElm.deviceOpen();
+		mElm.monitorStart();
+		assertTrue(mElm.awaitSent("MONITOR ATMA"));
+		assertRestartsBeforeEscalating("ATMA");
+
+		assertEquals("ECHO ATE0", mElm.awaitNext());
+		assertTrue(mElm.awaitSent("MONITOR ATMA"));
+		assertEquals(ElmInterface.OVERFLOW_TIGHTENED_COMPACT, mElm.mOverflowTightened);
+	}
+
+
+	@Test
+	public void monitorStartClearsTheTightening() throws Exception {
+		mElm.deviceOpen();
+		mElm.monitorStart();
+		assertTrue(mElm.awaitSent("MONITOR ATMR11"));
+		mElm.deviceClose();
+
+		//the next session starts from the settings again
+		mDriver.setFrameRate(1);
+		mElm.deviceOpen();
+		mElm.monitorStart();
+		assertTrue(mElm.awaitSent("IDENTIFY ATI"));
+		assertTrue(mElm.awaitSent("MONITOR ATMA"));
+		assertEquals(0, mElm.mOverflowTightened);
+		assertTrue(mElm.getOverflowStats().contains("tightened: none"));
+	}
+}
@@ -0,0 +1,101 @@
+package com.theksmith.steeringwheelinterface;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+
+public class ElmMonitorFilterTest {
+
+	protected static ButtonPattern[] patterns(String... definitions) {
+		final ButtonPattern[] patterns = new ButtonPattern[definitions.length];
+		for (int i = 0; i < definitions.length; i++) {
+			patterns[i] = ButtonPattern.compile(definitions[i]);
+		}
+		return patterns;
+	}
+
+
+	@Test
+	public void identifiesProtocols() {
+		assertEquals(ElmMonitorFilter.PROTOCOL_HEADER_ADDRESSED, ElmMonitorFilter.getProtocol("ATSP2"));
+		assertEquals(ElmMonitorFilter.PROTOCOL_HEADER_ADDRESSED, ElmMonitorFilter.getProtocol(" at sp 5 "));
+		assertEquals(ElmMonitorFilter.PROTOCOL_CAN_11BIT, ElmMonitorFilter.getProtocol("ATSP6"));
+		assertEquals(ElmMonitorFilter.PROTOCOL_CAN_11BIT, ElmMonitorFilter.getProtocol("ATTP8"));
+		assertEquals(ElmMonitorFilter.PROTOCOL_CAN_29BIT, ElmMonitorFilter.getProtocol("ATSPA"));
+		assertEquals(ElmMonitorFilter.PROTOCOL_UNKNOWN, ElmMonitorFilter.getProtocol("ATSP0"));
+		assertEquals(ElmMonitorFilter.PROTOCOL_UNKNOWN, ElmMonitorFilter.getProtocol("ATSPA2"));
+		assertEquals(ElmMonitorFilter.PROTOCOL_UNKNOWN, ElmMonitorFilter.getProtocol("ATZ"));
+	}
+
+
+	@Test
+	public void filtersTheDefaultButtonsOnReceiver() {
+		final ElmMonitorFilter filter = ElmMonitorFilter.build("ATSP2", patterns(
+				ButtonActions.BUTTON_LEFT_CENTER, ButtonActions.BUTTON_LEFT_DOWN, ButtonActions.BUTTON_LEFT_UP,
+				ButtonActions.BUTTON_RIGHT_CENTER, ButtonActions.BUTTON_RIGHT_DOWN, ButtonActions.BUTTON_RIGHT_UP));
+
+		assertEquals(0, filter.getSetupCommands().length);
+		assertEquals("ATMR11", filter.getMonitorCommand());
+	}
+
+
+	@Test
+	public void fallsBackToTransmitter() {
+		final ElmMonitorFilter filter = ElmMonitorFilter.build("ATSP2", patterns("3D 11 40 01", "3D 12 40 02"));
+
+		assertEquals("ATMT40", filter.getMonitorCommand());
+	}
+
+
+	@Test
+	public void noHeaderFilterWithoutCommonAddress() {
+		assertNull(ElmMonitorFilter.build("ATSP2", patterns("3D 11 40 01", "3D 12 41 02")));
+		assertNull(ElmMonitorFilter.build("ATSP2", patterns("3D ?? 40 01", "3D 12 4? 02")));
+	}
+
+
+	@Test
+	public void singleCanIdUsesReceiveAddress() {
+		final ElmMonitorFilter filter = ElmMonitorFilter.build("ATSP6", patterns("7E8 03 41", "7E8 04"));
+
+		assertArrayEquals(new String[] { "ATCRA7E8" }, filter.getSetupCommands());
+		assertEquals("ATMA", filter.getMonitorCommand());
+		assertEquals("ATCRA7E8, ATMA", filter.toString());
+	}
+
+
+	@Test
+	public void severalCanIdsUseFilterAndMask() {
+		final ElmMonitorFilter filter = ElmMonitorFilter.build("ATSP6", patterns("7E8 03", "7E9 03", "7EA 03"));
+
+		//7E8, 7E9 and 7EA differ in the low 2 bits
+		assertArrayEquals(new String[] { "ATCF7E8", "ATCM7FC" }, filter.getSetupCommands());
+		assertEquals("ATMA", filter.getMonitorCommand());
+	}
+
+
+	@Test
+	public void canIdWildcardsWidenTheMask() {
+		final ElmMonitorFilter filter = ElmMonitorFilter.build("ATSP6", patterns("7E? 03"));
+
+		assertArrayEquals(new String[] { "ATCF7E0", "ATCM7F0" }, filter.getSetupCommands());
+	}
+
+
+	@Test
+	public void extendedCanIds() {
+		final ElmMonitorFilter filter = ElmMonitorFilter.build("ATSP7", patterns("18DAF110 03", "18DAF110 04"));
+
+		assertArrayEquals(new String[] { "ATCRA18DAF110" }, filter.getSetupCommands());
+	}
+
+
+	@Test
+	public void noFilterForUnknownProtocolsOrNoButtons() {
+		assertNull(ElmMonitorFilter.build("ATSP0", patterns(ButtonActions.BUTTON_LEFT_CENTER)));
+		assertNull(ElmMonitorFilter.build("ATSP6", new ButtonPattern[0]));
+	}
+}
@@ -0,0 +1,163 @@
+package com.theksmith.steeringwheelinterface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class ElmResponseFramerTest {
+	protected static final String PROMPT = ">";
+
+	protected final List<String> mEvents = new ArrayList<String>();
+	protected final List<Long> mArrivalTimes = new ArrayList<Long>();
+	protected ElmResponseFramer mFramer;
+
+
+	protected final ElmResponseFramer.Listener mListener = new ElmResponseFramer.Listener() {
+		public void onLine(byte[] line, int length, long arrivalTime) {
+			mEvents.add(new String(line, 0, length));
+			mArrivalTimes.add(arrivalTime);
+		}
+
+
+		public void onPrompt() {
+			mEvents.add(PROMPT);
+		}
+	};
+
+
+	@Before
+	public void setUp() {
+		mFramer = new ElmResponseFramer(mListener, 16);
+	}
+
+
+	protected void append(String text, long arrivalTime) {
+		final byte[] bytes = text.getBytes();
+		mFramer.append(bytes, 0, bytes.length, arrivalTime);
+	}
+
+
+	@Test
+	public void framesLinesAndPrompts() {
+		append("ATZ\r\r\nELM327 v1.5\r\n\r\n>", 1);
+
+		assertEquals(3, mEvents.size());
+		assertEquals("ATZ", mEvents.get(0));
+		assertEquals("ELM327 v1.5", mEvents.get(1));
+		assertEquals(PROMPT, mEvents.get(2));
+	}
+
+
+	@Test
+	public void joinsLinesSplitAcrossChunks() {
+		append("3D 11", 1);
+		append(" 00 80", 2);
+		append(" 2A\r3D", 3);
+		append(" 12\r", 4);
+
+		assertEquals(2, mEvents.size());
+		assertEquals("3D 11 00 80 2A", mEvents.get(0));
+		assertEquals("3D 12", mEvents.get(1));
+
+		//each line carries the arrival time of its first byte
+		assertEquals(Long.valueOf(1), mArrivalTimes.get(0));
+		assertEquals(Long.valueOf(3), mArrivalTimes.get(1));
+	}
+
+
+	@Test
+	public void honoursOffsetAndLength() {
+		final byte[] bytes = "xxAB\rCDxx".getBytes();
+		mFramer.append(bytes, 2, 5, 1);
+
+		assertEquals(1, mEvents.size());
+		assertEquals("AB", mEvents.get(0));
+
+		mFramer.append("\r".getBytes(), 0, 1, 2);
+		assertEquals("CD", mEvents.get(1));
+	}
+
+
+	@Test
+	public void skipsNullBytes() {
+		append("\0A\0B\0\r", 1);
+
+		assertEquals(1, mEvents.size());
+		assertEquals("AB", mEvents.get(0));
+	}
+
+
+	@Test
+	public void dropsOverlongLines() {
+		append("0123456789ABCDEF", 1);
+		append("GHIJ\rOK\r", 2);
+
+		assertEquals(1, mEvents.size());
+		assertEquals("OK", mEvents.get(0));
+		assertEquals(1, mFramer.getOverflowCount());
+	}
+
+
+	@Test
+	public void keepsLinesOfExactlyMaxLength() {
+		append("0123456789ABCDEF\r", 1);
+
+		assertEquals(1, mEvents.size());
+		assertEquals("0123456789ABCDEF", mEvents.get(0));
+		assertEquals(0, mFramer.getOverflowCount());
+	}
+
+
+	@Test
+	public void resetDiscardsPartialLine() {
+		append("3D 11", 1);
+		mFramer.reset();
+		append("OK\r", 2);
+
+		assertEquals(1, mEvents.size());
+		assertEquals("OK", mEvents.get(0));
+	}
+
+
+	@Test
+	public void containsFindsTokens() {
+		final byte[] line = "BUS INIT: ...ERROR  ".getBytes();
+		final int length = line.length - 2;
+
+		assertTrue(ElmResponseFramer.contains(line, length, "ERROR".getBytes()));
+		assertTrue(ElmResponseFramer.contains(line, length, "BUS".getBytes()));
+		assertFalse(ElmResponseFramer.contains(line, length, "OK".getBytes()));
+
+		//only within the given length
+		assertFalse(ElmResponseFramer.contains(line, length, "ERROR ".getBytes()));
+		assertFalse(ElmResponseFramer.contains(line, 3, "BUS ".getBytes()));
+	}
+
+
+	@Test
+	public void reusesItsLineBuffer() {
+		final List<byte[]> buffers = new ArrayList<byte[]>();
+		mFramer = new ElmResponseFramer(new ElmResponseFramer.Listener() {
+			public void onLine(byte[] line, int length, long arrivalTime) {
+				buffers.add(line);
+			}
+
+
+			public void onPrompt() {
+			}
+		});
+
+		append("A\rB\r", 1);
+
+		assertEquals(2, buffers.size());
+		assertSame(buffers.get(0), buffers.get(1));
+	}
+}
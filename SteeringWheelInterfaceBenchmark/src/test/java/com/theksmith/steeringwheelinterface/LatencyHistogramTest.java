@@ -0,0 +1,126 @@
+package com.theksmith.steeringwheelinterface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class LatencyHistogramTest {
+	protected LatencyHistogram mHistogram;
+
+
+	@Before
+	public void setUp() {
+		mHistogram = new LatencyHistogram();
+	}
+
+
+	@Test
+	public void emptyHistogramReportsZero() {
+		assertEquals(0, mHistogram.getCount());
+		assertEquals(0, mHistogram.getMax());
+		assertEquals(0, mHistogram.getMean());
+		assertEquals(0, mHistogram.getPercentile(50));
+	}
+
+
+	@Test
+	public void smallValuesAreExact() {
+		for (long nanos = 0; nanos < 8; nanos++) {
+			mHistogram.record(nanos);
+		}
+
+		assertEquals(8, mHistogram.getCount());
+		assertEquals(7, mHistogram.getMax());
+		assertEquals(3, mHistogram.getMean());
+		assertEquals(3, mHistogram.getPercentile(50));
+		assertEquals(0, mHistogram.getPercentile(0));
+		assertEquals(7, mHistogram.getPercentile(100));
+	}
+
+
+	@Test
+	public void percentilesAreWithinBucketResolution() {
+		//1us to 1ms
+		for (long nanos = 1000; nanos <= 1000000; nanos += 1000) {
+			mHistogram.record(nanos);
+		}
+
+		assertEquals(1000, mHistogram.getCount());
+		assertEquals(1000000, mHistogram.getMax());
+		assertEquals(500500, mHistogram.getMean());
+		assertWithin(500000, mHistogram.getPercentile(50));
+		assertWithin(990000, mHistogram.getPercentile(99));
+		assertEquals(1000000, mHistogram.getPercentile(100));
+	}
+
+
+	@Test
+	public void percentilesNeverExceedTheMax() {
+		mHistogram.record(1000);
+		mHistogram.record(1001);
+
+		assertEquals(1001, mHistogram.getPercentile(99));
+	}
+
+
+	@Test
+	public void bucketsCoverEveryValue() {
+		for (int shift = 3; shift < 63; shift++) {
+			final long nanos = (1L << shift) + 1;
+			final int index = LatencyHistogram.bucketIndex(nanos);
+
+			assertTrue(index < LatencyHistogram.BUCKET_COUNT);
+			assertTrue(LatencyHistogram.bucketUpperBound(index) >= nanos);
+		}
+		assertTrue(LatencyHistogram.bucketIndex(Long.MAX_VALUE) < LatencyHistogram.BUCKET_COUNT);
+	}
+
+
+	@Test
+	public void negativeValuesCountAsZero() {
+		mHistogram.record(-5);
+
+		assertEquals(1, mHistogram.getCount());
+		assertEquals(0, mHistogram.getMax());
+		assertEquals(0, mHistogram.getPercentile(50));
+	}
+
+
+	@Test
+	public void resetClearsEverything() {
+		mHistogram.record(123456);
+		mHistogram.reset();
+
+		assertEquals(0, mHistogram.getCount());
+		assertEquals(0, mHistogram.getMax());
+		assertEquals(0, mHistogram.getPercentile(99));
+	}
+
+
+	@Test
+	public void formatsNanos() {
+		assertEquals("0.0us", LatencyHistogram.formatNanos(0));
+		assertEquals("1.2us", LatencyHistogram.formatNanos(1250));
+		assertEquals("250us", LatencyHistogram.formatNanos(250000));
+		assertEquals("15ms", LatencyHistogram.formatNanos(15000000));
+		assertEquals("n=1 p50=1.0us p99=1.0us max=1.0us", summaryOf(1000));
+	}
+
+
+	protected String summaryOf(long nanos) {
+		mHistogram.record(nanos);
+		return mHistogram.getSummary();
+	}
+
+
+	/**
+	 * Buckets are 1/8 of their power of two range wide.
+	 */
+	protected static void assertWithin(long expected, long actual) {
+		assertTrue("expected about " + expected + " but was " + actual,
+				actual >= expected && actual <= expected + expected / 8);
+	}
+}
@@ -0,0 +1,86 @@
+package com.theksmith.steeringwheelinterface;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+
+
+/**
+ * An ElmInterface that records each command it sends, for tests running its event loop against a SimulatedElmDriver.
+ * Each command is recorded as its step and text, with " retry" for a retry, ex: "MONITOR ATMA retry". Blind commands
+ * are recorded under NONE, ex: "NONE ATZ".
+ *
+ * The tests read the commands in order with awaitNext(), so an assertion on one also says nothing else was sent before it.
+ */
+public class RecordingElmInterface extends ElmInterface {
+	public static final long WAIT = 5000;			//milliseconds, well above every step's expected time in the simulator
+
+	protected final List<String> mSent = new ArrayList<String>();
+	protected int mNext = 0;
+
+
+	public RecordingElmInterface(Context appContext) {
+		super(appContext);
+	}
+
+
+	@Override
+	protected Boolean sendCommandOnLoop(ElmCommand command, ElmCommandStep step, int timeoutTotal, int timeoutData, int retries, Boolean isRetry, Boolean isBlind) {
+		//recorded once written, so the simulator has already acted on it
+		final Boolean written = super.sendCommandOnLoop(command, step, timeoutTotal, timeoutData, retries, isRetry, isBlind);
+
+		synchronized (mSent) {
+			mSent.add((step + " " + command.getText()).trim() + (isRetry ? " retry" : ""));
+			mSent.notifyAll();
+		}
+		return written;
+	}
+
+
+	/**
+	 * @param timeoutMillis		Milliseconds to wait.
+	 * @return					The next command sent after the last one returned, or null if none was sent in time.
+	 */
+	public String awaitNext(long timeoutMillis) throws InterruptedException {
+		final long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+
+		synchronized (mSent) {
+			while (mNext == mSent.size()) {
+				final long remaining = (deadline - System.nanoTime()) / 1000000L;
+				if (remaining <= 0) return null;
+				mSent.wait(remaining);
+			}
+			return mSent.get(mNext++);
+		}
+	}
+
+
+	public String awaitNext() throws InterruptedException {
+		return awaitNext(WAIT);
+	}
+
+
+	/**
+	 * Skips commands until the given one is sent.
+	 *
+	 * @return					Returns false if it was not sent in time.
+	 */
+	public Boolean awaitSent(String sent) throws InterruptedException {
+		String next;
+		while ((next = awaitNext()) != null) {
+			if (next.equals(sent)) return true;
+		}
+		return false;
+	}
+
+
+	/**
+	 * @return					The commands sent since the last one returned, without waiting.
+	 */
+	public List<String> getUnread() {
+		synchronized (mSent) {
+			return new ArrayList<String>(mSent.subList(mNext, mSent.size()));
+		}
+	}
+}
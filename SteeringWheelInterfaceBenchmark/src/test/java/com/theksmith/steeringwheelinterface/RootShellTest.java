@@ -0,0 +1,193 @@
+package com.theksmith.steeringwheelinterface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Runs RootShell's queue on "sh", so completion, restarts and the queue limit are exercised without root.
+ */
+public class RootShellTest {
+	protected static final long WAIT = 5000;			//milliseconds, well above RootShell.RESTART_DELAY
+
+	protected RootShell mShell;
+	protected final List<String> mCompleted = new ArrayList<String>();
+
+
+	protected final RootShell.CompletionListener mListener = new RootShell.CompletionListener() {
+		public void onCommandComplete(int tag, boolean success, long latency) {
+			synchronized (mCompleted) {
+				mCompleted.add(tag + (success ? " ok" : " failed"));
+				mCompleted.notifyAll();
+			}
+		}
+	};
+
+
+	@Before
+	public void setUp() {
+		mShell = new RootShell("sh");
+		mShell.setCompletionListener(mListener);
+	}
+
+
+	@After
+	public void tearDown() {
+		mShell.stop();
+	}
+
+
+	/**
+	 * @return					The completions reported once there are the given number, or all so far on a timeout.
+	 */
+	protected List<String> awaitCompleted(int count) throws InterruptedException {
+		final long deadline = System.nanoTime() + WAIT * 1000000L;
+
+		synchronized (mCompleted) {
+			while (mCompleted.size() < count) {
+				final long remaining = (deadline - System.nanoTime()) / 1000000L;
+				if (remaining <= 0) break;
+				mCompleted.wait(remaining);
+			}
+			return new ArrayList<String>(mCompleted);
+		}
+	}
+
+
+	protected Boolean awaitReady() throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + WAIT;
+		while (!mShell.isReady() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		return mShell.isReady();
+	}
+
+
+	@Test
+	public void completionsMatchTheirCommandsInOrder() throws Exception {
+		mShell.start();
+
+		assertTrue(mShell.exec("true", 1));
+		assertTrue(mShell.exec("false", 2));
+		assertTrue(mShell.exec("echo not a marker", 3));
+		assertTrue(mShell.exec("true"));
+		assertTrue(mShell.exec("exit_status_of_a_missing_command_xyz", 4));
+
+		//untagged commands are not reported
+		final List<String> expected = new ArrayList<String>();
+		expected.add("1 ok");
+		expected.add("2 failed");
+		expected.add("3 ok");
+		expected.add("4 failed");
+		assertEquals(expected, awaitCompleted(4));
+		assertTrue(mShell.getStats(), mShell.getStats().startsWith("commands: 5, failures: 0, restarts: 0"));
+	}
+
+
+	@Test
+	public void readyOnceProbedAndNotAfterStop() throws Exception {
+		final CountDownLatch ready = new CountDownLatch(1);
+		mShell.setReadyListener(new RootShell.ReadyListener() {
+			public void onShellReady(RootShell shell) {
+				ready.countDown();
+			}
+		});
+
+		assertFalse(mShell.isReady());
+		mShell.start();
+		assertTrue(ready.await(WAIT, TimeUnit.MILLISECONDS));
+		assertTrue(mShell.isReady());
+
+		mShell.stop();
+		assertFalse(mShell.isReady());
+		assertFalse(mShell.isRunning());
+		assertFalse(mShell.exec("true", 1));
+	}
+
+
+	@Test
+	public void deadShellIsRestarted() throws Exception {
+		mShell.start();
+		assertTrue(awaitReady());
+
+		//ends the shell, so the command never reports an exit code
+		assertTrue(mShell.exec("exit", 1));
+		final List<String> first = awaitCompleted(1);
+		assertEquals("1 failed", first.get(0));
+
+		//the next command finds the shell gone and starts another one (after RESTART_DELAY)
+		assertTrue(mShell.exec("true", 2));
+		assertEquals("2 ok", awaitCompleted(2).get(1));
+		assertTrue(mShell.isReady());
+		assertTrue(mShell.getStats(), mShell.getStats().contains("restarts: 1"));
+	}
+
+
+	@Test
+	public void dyingShellReportsEachCommandOnce() throws Exception {
+		mShell.start();
+		assertTrue(awaitReady());
+
+		//written right behind the exit, each one fails with the shell or runs in the next, but is reported once
+		assertTrue(mShell.exec("exit", 1));
+		for (int tag = 2; tag <= 6; tag++) {
+			assertTrue(mShell.exec("true", tag));
+		}
+		assertEquals(6, awaitCompleted(6).size());
+
+		//a second report would come from the restarted shell, well within the wait
+		Thread.sleep(RootShell.RESTART_DELAY + 500);
+		final List<String> completed = awaitCompleted(6);
+		assertEquals(completed.toString(), 6, completed.size());
+		for (int tag = 1; tag <= 6; tag++) {
+			int reports = 0;
+			for (String completion : completed) {
+				if (completion.startsWith(tag + " ")) reports++;
+			}
+			assertEquals(completed.toString(), 1, reports);
+		}
+	}
+
+
+	@Test
+	public void fullQueueRejects() throws Exception {
+		final CountDownLatch spawn = new CountDownLatch(1);
+		mShell = new RootShell("sh") {
+			@Override
+			protected Boolean shellStart() {
+				//holds the worker, as a slow su prompt would
+				try {
+					spawn.await();
+				} catch (InterruptedException ex) {
+					return false;
+				}
+				return super.shellStart();
+			}
+		};
+		mShell.setCompletionListener(mListener);
+		mShell.start();
+
+		for (int tag = 0; tag < RootShell.QUEUE_CAPACITY; tag++) {
+			assertTrue(mShell.exec("true", tag));
+		}
+		assertFalse(mShell.exec("true", RootShell.QUEUE_CAPACITY));
+
+		//once the shell is up the queue drains, in order
+		spawn.countDown();
+		final List<String> completed = awaitCompleted(RootShell.QUEUE_CAPACITY);
+		assertEquals(RootShell.QUEUE_CAPACITY, completed.size());
+		for (int tag = 0; tag < RootShell.QUEUE_CAPACITY; tag++) {
+			assertEquals(tag + " ok", completed.get(tag));
+		}
+	}
+}
@@ -0,0 +1,254 @@
+package com.theksmith.steeringwheelinterface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hoho.android.usbserial.driver.UsbSerialDriver;
+
+
+/**
+ * Talks to the simulator directly, as a terminal would, with the host at 115200 baud.
+ */
+public class SimulatedElmDriverTest {
+	protected static final long WAIT = 2000;		//milliseconds
+
+	protected SimulatedElmDriver mDriver;
+
+
+	@Before
+	public void setUp() throws IOException {
+		mDriver = new SimulatedElmDriver();
+		mDriver.setRandomSeed(1);
+		mDriver.setNoisePercent(0);
+		mDriver.setPressInterval(0);
+		mDriver.open();
+		setHostRate(115200);
+	}
+
+
+	@After
+	public void tearDown() throws IOException {
+		mDriver.close();
+	}
+
+
+	protected void setHostRate(int rate) throws IOException {
+		mDriver.setParameters(rate, UsbSerialDriver.DATABITS_8, UsbSerialDriver.STOPBITS_1, UsbSerialDriver.PARITY_NONE);
+	}
+
+
+	protected void write(String text) throws IOException {
+		final byte[] bytes = text.getBytes();
+		assertEquals(bytes.length, mDriver.write(bytes, 100));
+	}
+
+
+	/**
+	 * @return					Everything read until the output ends with the given text, or WAIT passes.
+	 */
+	protected String readUntil(String end) throws IOException {
+		final StringBuilder output = new StringBuilder();
+		final byte[] buffer = new byte[256];
+		final long deadline = System.nanoTime() + WAIT * 1000000L;
+
+		while (!output.toString().endsWith(end) && System.nanoTime() - deadline < 0) {
+			final int length = mDriver.read(buffer, 50);
+			output.append(new String(buffer, 0, length));
+		}
+		return output.toString();
+	}
+
+
+	/**
+	 * @return					Everything read for the given time.
+	 */
+	protected String readFor(long millis) throws IOException {
+		final StringBuilder output = new StringBuilder();
+		final byte[] buffer = new byte[256];
+		final long deadline = System.nanoTime() + millis * 1000000L;
+
+		while (System.nanoTime() - deadline < 0) {
+			final int length = mDriver.read(buffer, 10);
+			output.append(new String(buffer, 0, length));
+		}
+		return output.toString();
+	}
+
+
+	protected String command(String command) throws IOException {
+		write(command + "\r");
+		return readUntil(">");
+	}
+
+
+	@Test
+	public void answersWithEchoAndLinefeedsByDefault() throws IOException {
+		assertEquals("ATI\r" + SimulatedElmDriver.DEVICE_ID + "\r\n\r\n>", command("ATI"));
+		assertTrue(command("ATE0").endsWith("OK\r\n\r\n>"));
+		assertEquals("OK\r\n\r\n>", command("ATL1"));
+		assertEquals("?\r\n\r\n>", command("0100"));
+	}
+
+
+	@Test
+	public void resetRestoresTheDefaults() throws IOException {
+		command("ATE0");
+		command("ATL0");
+
+		final long start = System.nanoTime();
+		assertEquals("ATZ\r" + SimulatedElmDriver.DEVICE_ID + "\r\n\r\n>", command("ATZ"));
+		assertTrue(System.nanoTime() - start >= SimulatedElmDriver.RESET_DELAY * 1000000L);
+	}
+
+
+	@Test
+	public void monitorsInTheSelectedFormat() throws IOException {
+		command("ATE0");
+		command("ATL0");
+		command("ATS0");
+		command("ATH1");
+		mDriver.setFrameRate(100);
+		mDriver.setPressInterval(1);
+
+		write("ATMA\r");
+		final String output = readFor(300);
+		assertTrue(output.startsWith("3D11"));
+		assertFalse(output.contains(" "));
+		assertFalse(output.contains("\n"));
+
+		//any character stops monitoring
+		write("X");
+		assertTrue(readUntil(">").endsWith("\r>"));
+		final long frames = mDriver.getFrameCount();
+		assertTrue(frames > 0);
+		readFor(100);
+		assertEquals(frames, mDriver.getFrameCount());
+	}
+
+
+	@Test
+	public void countsTheInjectedPressesSent() throws IOException {
+		command("ATH1");
+		mDriver.setFrameRate(200);
+		mDriver.setPressInterval(4);
+
+		//the output already on its way when monitoring stops is still sent
+		write("ATMA\r");
+		String output = readFor(500);
+		write("X");
+		output += readUntil(">");
+
+		int presses = 0;
+		for (String line : output.split("\r\n")) {
+			if (line.startsWith("3D 11 ")) presses++;
+		}
+		assertTrue(presses >= 10);
+		assertEquals(presses, mDriver.getInjectedPressCount());
+		assertEquals(0, mDriver.getBufferFullCount());
+	}
+
+
+	@Test
+	public void honoursTheReceiverFilter() throws IOException {
+		command("ATH1");
+		mDriver.setFrameRate(500);
+		mDriver.setPressInterval(10);
+
+		write("ATMR11\r");
+		String output = readFor(300);
+		write("X");
+		output += readUntil(">");
+
+		for (String line : output.split("\r\n")) {
+			if (line.length() < 5 || line.startsWith("ATMR11")) continue;
+			assertEquals("11", line.substring(3, 5));
+		}
+		assertTrue(mDriver.getFilteredCount() > 0);
+	}
+
+
+	@Test
+	public void outrunningTheLinkEndsMonitoringWithBufferFull() throws IOException {
+		//about 25 bytes a message, 11520 B/s carries some 460 a second
+		mDriver.setFrameRate(2000);
+
+		write("ATMA\r");
+		assertTrue(readUntil(">").endsWith("BUFFER FULL\r\n\r\n>"));
+		assertEquals(1, mDriver.getBufferFullCount());
+	}
+
+
+	@Test
+	public void injectedErrorEndsMonitoringOrAnswersTheNextCommand() throws IOException {
+		mDriver.setFrameRate(10);
+		write("ATMA\r");
+		readFor(200);
+		mDriver.injectError("CAN ERROR");
+		assertTrue(readUntil(">").endsWith("CAN ERROR\r\n\r\n>"));
+
+		mDriver.injectError("UNABLE TO CONNECT");
+		assertEquals("ATMA\rUNABLE TO CONNECT\r\n\r\n>", command("ATMA"));
+		assertEquals("ATI\r" + SimulatedElmDriver.DEVICE_ID + "\r\n\r\n>", command("ATI"));
+	}
+
+
+	@Test
+	public void baudSwitchIsKeptWhenTheHostAnswersInTime() throws IOException {
+		command("ATE0");
+		assertEquals("OK\r\n", readUntilAfter("ATBRD08\r", "OK\r\n"));
+
+		//the ID at 500000, answered with a CR
+		setHostRate(500000);
+		assertEquals(SimulatedElmDriver.DEVICE_ID + "\r", readUntil("\r"));
+		write("\r");
+		assertEquals("OK\r\n\r\n>", readUntil(">"));
+		assertEquals(500000, mDriver.getDeviceBaudRate());
+		assertEquals("OK\r\n\r\n>", command("ATL1"));
+
+		//back to the default on reset
+		write("ATZ\r");
+		setHostRate(115200);
+		assertTrue(readUntil(">").endsWith(SimulatedElmDriver.DEVICE_ID + "\r\n\r\n>"));
+		assertEquals(115200, mDriver.getDeviceBaudRate());
+	}
+
+
+	@Test
+	public void baudSwitchRevertsWithoutTheHostsAnswer() throws IOException {
+		command("ATE0");
+		readUntilAfter("ATBRD08\r", "OK\r\n");
+
+		//the host stays at 115200 and hears garbage, then the device goes back after 75ms
+		readFor(SimulatedElmDriver.BAUD_SWITCH_DELAY + SimulatedElmDriver.BAUD_CONFIRM_TIMEOUT + 50);
+		assertEquals(115200, mDriver.getDeviceBaudRate());
+		assertEquals("OK\r\n\r\n>", command("ATL1"));
+	}
+
+
+	@Test
+	public void garblesAboveTheMaximumRate() throws IOException {
+		mDriver.setMaxBaudRate(250000);
+		command("ATE0");
+		readUntilAfter("ATBRD08\r", "OK\r\n");
+		setHostRate(500000);
+
+		final String output = readFor(50);
+		assertFalse(output.contains(SimulatedElmDriver.DEVICE_ID));
+	}
+
+
+	/**
+	 * Writes the text, then reads until the output ends with the given end.
+	 */
+	protected String readUntilAfter(String text, String end) throws IOException {
+		write(text);
+		return readUntil(end);
+	}
+}
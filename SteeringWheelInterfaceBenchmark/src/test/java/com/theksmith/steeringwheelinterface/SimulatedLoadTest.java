@@ -0,0 +1,46 @@
+package com.theksmith.steeringwheelinterface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Every press the simulator sends must be performed exactly once, at a rate the link carries and at one it doesn't.
+ */
+public class SimulatedLoadTest {
+	protected SimulatedLoad mLoad;
+
+
+	@Before
+	public void setUp() {
+		mLoad = new SimulatedLoad();
+		mLoad.setSeconds(2);
+		mLoad.setNoisePercent(SimulatedElmDriver.DEFAULT_NOISE_PERCENT);
+	}
+
+
+	@Test
+	public void everyPressIsPerformedOnceAtASustainableRate() throws Exception {
+		final SimulatedLoad.Result result = mLoad.run(200);
+
+		assertEquals(0, result.bufferFull);
+		assertTrue(result.frames >= 300);
+		assertTrue(result.injectedPresses >= 300 / SimulatedLoad.DEFAULT_PRESS_INTERVAL);
+		assertEquals(result.injectedPresses, result.performedActions);
+	}
+
+
+	@Test
+	public void everyPressSentIsPerformedOnceWhenOverflowing() throws Exception {
+		//a button's presses 600 messages (300ms) apart, well past the release timeout between reads
+		mLoad.setPressInterval(100);
+		final SimulatedLoad.Result result = mLoad.run(2000);
+
+		assertTrue(result.bufferFull > 0);
+		assertTrue(result.injectedPresses > 0);
+		assertEquals(result.injectedPresses, result.performedActions);
+	}
+}
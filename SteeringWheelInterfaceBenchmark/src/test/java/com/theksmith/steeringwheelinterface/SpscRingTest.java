@@ -0,0 +1,127 @@
+package com.theksmith.steeringwheelinterface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+
+public class SpscRingTest {
+
+	@Test
+	public void roundsCapacityUpToPowerOfTwo() {
+		assertEquals(1, new SpscRing<Integer>(1).getCapacity());
+		assertEquals(8, new SpscRing<Integer>(5).getCapacity());
+		assertEquals(16, new SpscRing<Integer>(16).getCapacity());
+	}
+
+
+	@Test
+	public void keepsOrderAcrossWrapAround() {
+		final SpscRing<Integer> ring = new SpscRing<Integer>(4);
+		int next = 0;
+		int expected = 0;
+
+		for (int round = 0; round < 10; round++) {
+			while (ring.offer(next)) {
+				next++;
+			}
+			assertEquals(4, ring.size());
+
+			for (int i = 0; i < 3; i++) {
+				assertEquals(Integer.valueOf(expected++), ring.poll());
+			}
+		}
+
+		while (ring.size() > 0) {
+			assertEquals(Integer.valueOf(expected++), ring.poll());
+		}
+		assertEquals(next, expected);
+		assertNull(ring.poll());
+	}
+
+
+	@Test
+	public void countsOverruns() {
+		final SpscRing<String> ring = new SpscRing<String>(2);
+
+		assertTrue(ring.offer("a"));
+		assertTrue(ring.offer("b"));
+		assertFalse(ring.offer("c"));
+		assertFalse(ring.offer("d"));
+
+		assertEquals(2, ring.getOverrunCount());
+		assertEquals(2, ring.getHighWaterMark());
+		assertEquals("a", ring.poll());
+		assertEquals("b", ring.poll());
+		assertNull(ring.poll());
+	}
+
+
+	@Test
+	public void takeTimesOutWhenEmpty() {
+		final SpscRing<String> ring = new SpscRing<String>(2);
+
+		assertNull(ring.take(TimeUnit.MILLISECONDS.toNanos(20)));
+		assertEquals(0, ring.size());
+	}
+
+
+	@Test
+	public void takeReturnsItemsOfferedByAnotherThread() throws InterruptedException {
+		final int count = 100000;
+		final SpscRing<Integer> ring = new SpscRing<Integer>(64);
+
+		final Thread producer = new Thread(new Runnable() {
+			public void run() {
+				for (int i = 0; i < count; i++) {
+					while (!ring.offer(i)) {
+						Thread.yield();
+					}
+				}
+			}
+		});
+		producer.start();
+
+		int expected = 0;
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+		while (expected < count && System.nanoTime() < deadline) {
+			final Integer item = ring.take(TimeUnit.MILLISECONDS.toNanos(100));
+			if (item != null) {
+				assertEquals(Integer.valueOf(expected++), item);
+			}
+		}
+
+		producer.join();
+		assertEquals(count, expected);
+		assertNull(ring.poll());
+	}
+
+
+	@Test
+	public void wakeReleasesWaitingConsumer() throws InterruptedException {
+		final SpscRing<String> ring = new SpscRing<String>(2);
+		final long[] waited = new long[1];
+
+		final Thread consumer = new Thread(new Runnable() {
+			public void run() {
+				final long start = System.nanoTime();
+				ring.take(TimeUnit.SECONDS.toNanos(30));
+				waited[0] = System.nanoTime() - start;
+			}
+		});
+		consumer.start();
+
+		//keep waking until the consumer has parked and noticed
+		while (consumer.isAlive()) {
+			ring.wake();
+			consumer.join(10);
+		}
+
+		assertTrue(waited[0] < TimeUnit.SECONDS.toNanos(20));
+	}
+}
@@ -0,0 +1,13 @@
+package android;
+
+
+public final class R {
+	public static final class id {
+		public static final int content = 0x01020002;
+	}
+
+
+	public static final class style {
+		public static final int Theme_DeviceDefault = 0x01030128;
+	}
+}
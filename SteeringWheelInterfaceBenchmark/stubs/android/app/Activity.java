@@ -0,0 +1,52 @@
+package android.app;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+
+
+/**
+ * Has no window: the title and theme are only kept, and getIntent() is empty unless a test sets one.
+ */
+public class Activity extends Context {
+	protected Intent mIntent = new Intent();
+	protected CharSequence mTitle = "";
+	protected final FragmentManager mFragmentManager = new FragmentManager();
+
+
+	protected void onCreate(Bundle savedInstanceState) {
+	}
+
+
+	public Intent getIntent() {
+		return mIntent;
+	}
+
+
+	public void setIntent(Intent intent) {
+		mIntent = intent;
+	}
+
+
+	public CharSequence getTitle() {
+		return mTitle;
+	}
+
+
+	public void setTitle(CharSequence title) {
+		mTitle = title;
+	}
+
+
+	public void setTheme(int resid) {
+	}
+
+
+	public FragmentManager getFragmentManager() {
+		return mFragmentManager;
+	}
+
+
+	public void finish() {
+	}
+}
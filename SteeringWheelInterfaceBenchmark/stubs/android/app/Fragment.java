@@ -0,0 +1,35 @@
+package android.app;
+
+import android.os.Bundle;
+
+
+public class Fragment {
+	protected Activity mActivity;
+
+
+	public void onAttach(Activity activity) {
+		mActivity = activity;
+	}
+
+
+	public void onCreate(Bundle savedInstanceState) {
+	}
+
+
+	public void onStart() {
+	}
+
+
+	public void onStop() {
+	}
+
+
+	public final Activity getActivity() {
+		return mActivity;
+	}
+
+
+	public final String getString(int resId) {
+		return mActivity.getString(resId);
+	}
+}
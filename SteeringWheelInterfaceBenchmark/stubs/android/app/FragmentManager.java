@@ -0,0 +1,8 @@
+package android.app;
+
+
+public class FragmentManager {
+	public FragmentTransaction beginTransaction() {
+		return new FragmentTransaction();
+	}
+}
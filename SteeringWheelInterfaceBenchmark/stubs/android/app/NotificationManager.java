@@ -0,0 +1,11 @@
+package android.app;
+
+
+public class NotificationManager {
+	public void notify(int id, Notification notification) {
+	}
+
+
+	public void cancelAll() {
+	}
+}
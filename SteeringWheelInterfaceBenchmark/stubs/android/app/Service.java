@@ -0,0 +1,40 @@
+package android.app;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.IBinder;
+
+
+/**
+ * Has no process of its own: the lifecycle methods are only called by a test that calls them.
+ */
+public abstract class Service extends Context {
+	public static final int START_STICKY = 1;
+
+
+	public void onCreate() {
+	}
+
+
+	public int onStartCommand(Intent intent, int flags, int startId) {
+		return START_STICKY;
+	}
+
+
+	public void onDestroy() {
+	}
+
+
+	public abstract IBinder onBind(Intent intent);
+
+
+	public final void startForeground(int id, Notification notification) {
+	}
+
+
+	protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+	}
+}
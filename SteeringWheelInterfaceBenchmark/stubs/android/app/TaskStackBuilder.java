@@ -0,0 +1,26 @@
+package android.app;
+
+import android.content.Context;
+import android.content.Intent;
+
+
+public class TaskStackBuilder {
+	public static TaskStackBuilder create(Context context) {
+		return new TaskStackBuilder();
+	}
+
+
+	public TaskStackBuilder addParentStack(Class<?> sourceActivityClass) {
+		return this;
+	}
+
+
+	public TaskStackBuilder addNextIntent(Intent nextIntent) {
+		return this;
+	}
+
+
+	public PendingIntent getPendingIntent(int requestCode, int flags) {
+		return null;
+	}
+}
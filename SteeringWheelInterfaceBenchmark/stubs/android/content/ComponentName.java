@@ -0,0 +1,7 @@
+package android.content;
+
+
+public class ComponentName {
+	public ComponentName(String pkg, String cls) {
+	}
+}
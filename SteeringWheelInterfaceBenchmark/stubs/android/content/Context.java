@@ -0,0 +1,92 @@
+package android.content;
+
+import java.io.File;
+
+import android.content.pm.PackageManager;
+
+/**
+ * Has no system services, receivers, preferences or resources (getString() returns an empty string): override what a
+ * test or benchmark needs.
+ */
+public abstract class Context {
+	public static final String AUDIO_SERVICE = "audio";
+	public static final String NOTIFICATION_SERVICE = "notification";
+	public static final String USB_SERVICE = "usb";
+	public static final int MODE_PRIVATE = 0;
+
+
+	public Context getApplicationContext() {
+		return this;
+	}
+
+
+	public Context getBaseContext() {
+		return this;
+	}
+
+
+	public String getPackageName() {
+		return "com.theksmith.steeringwheelinterface";
+	}
+
+
+	public PackageManager getPackageManager() {
+		return new PackageManager();
+	}
+
+
+	public String getString(int resId) {
+		return "";
+	}
+
+
+	public File getExternalFilesDir(String type) {
+		return null;
+	}
+
+
+	public Object getSystemService(String name) {
+		return null;
+	}
+
+
+	public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+		return null;
+	}
+
+
+	public void unregisterReceiver(BroadcastReceiver receiver) {
+	}
+
+
+	public SharedPreferences getSharedPreferences(String name, int mode) {
+		return null;
+	}
+
+
+	public void startActivity(Intent intent) {
+	}
+
+
+	public void sendOrderedBroadcast(Intent intent, String receiverPermission) {
+	}
+
+
+	public ComponentName startService(Intent service) {
+		return null;
+	}
+
+
+	public boolean stopService(Intent service) {
+		return false;
+	}
+
+
+	public boolean bindService(Intent service, ServiceConnection connection, int flags) {
+		return false;
+	}
+
+
+	public void unbindService(ServiceConnection connection) {
+	}
+}
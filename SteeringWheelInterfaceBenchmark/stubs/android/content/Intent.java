@@ -0,0 +1,69 @@
+package android.content;
+
+import android.os.Parcelable;
+
+
+/**
+ * Holds only its action, the other getters return their defaults.
+ */
+public class Intent {
+	public static final String ACTION_DELETE = "android.intent.action.DELETE";
+	public static final String ACTION_EDIT = "android.intent.action.EDIT";
+	public static final String ACTION_MAIN = "android.intent.action.MAIN";
+	public static final String ACTION_MEDIA_BUTTON = "android.intent.action.MEDIA_BUTTON";
+	public static final String CATEGORY_HOME = "android.intent.category.HOME";
+	public static final String EXTRA_KEY_EVENT = "android.intent.extra.KEY_EVENT";
+	public static final int FLAG_ACTIVITY_NEW_TASK = 0x10000000;
+
+
+	protected String mAction;
+
+
+	public Intent() {
+	}
+
+
+	public Intent(String action) {
+		mAction = action;
+	}
+
+
+	public Intent(Context packageContext, Class<?> cls) {
+	}
+
+
+	public String getAction() {
+		return mAction;
+	}
+
+
+	public Intent setAction(String action) {
+		mAction = action;
+		return this;
+	}
+
+
+	public Intent addCategory(String category) {
+		return this;
+	}
+
+
+	public Intent setFlags(int flags) {
+		return this;
+	}
+
+
+	public Intent putExtra(String name, Parcelable value) {
+		return this;
+	}
+
+
+	public <T extends Parcelable> T getParcelableExtra(String name) {
+		return null;
+	}
+
+
+	public boolean getBooleanExtra(String name, boolean defaultValue) {
+		return defaultValue;
+	}
+}
@@ -0,0 +1,19 @@
+package android.content;
+
+
+public interface SharedPreferences {
+	public interface Editor {
+		Editor putString(String key, String value);
+		Editor putInt(String key, int value);
+		Editor putBoolean(String key, boolean value);
+		Editor remove(String key);
+		boolean commit();
+		void apply();
+	}
+
+
+	String getString(String key, String defValue);
+	int getInt(String key, int defValue);
+	boolean getBoolean(String key, boolean defValue);
+	Editor edit();
+}
@@ -0,0 +1,21 @@
+package android.content.pm;
+
+
+/**
+ * Knows no packages, getPackageInfo() always throws NameNotFoundException.
+ */
+public class PackageManager {
+	public static class NameNotFoundException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+
+		public NameNotFoundException(String name) {
+			super(name);
+		}
+	}
+
+
+	public PackageInfo getPackageInfo(String packageName, int flags) throws NameNotFoundException {
+		throw new NameNotFoundException(packageName);
+	}
+}
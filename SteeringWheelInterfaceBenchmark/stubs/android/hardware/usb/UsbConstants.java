@@ -0,0 +1,16 @@
+package android.hardware.usb;
+
+
+public final class UsbConstants {
+	public static final int USB_DIR_OUT = 0;
+	public static final int USB_DIR_IN = 0x80;
+	public static final int USB_TYPE_CLASS = 0x20;
+	public static final int USB_TYPE_VENDOR = 0x40;
+	public static final int USB_ENDPOINT_XFER_BULK = 2;
+	public static final int USB_CLASS_COMM = 2;
+	public static final int USB_CLASS_CDC_DATA = 0x0a;
+
+
+	private UsbConstants() {
+	}
+}
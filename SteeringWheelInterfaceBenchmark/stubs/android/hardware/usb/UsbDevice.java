@@ -0,0 +1,33 @@
+package android.hardware.usb;
+
+import android.os.Parcelable;
+
+
+/**
+ * A device with no interfaces, the drivers are only driven off-device through their static helpers.
+ */
+public class UsbDevice implements Parcelable {
+	public String getDeviceName() {
+		return null;
+	}
+
+
+	public int getVendorId() {
+		return 0;
+	}
+
+
+	public int getProductId() {
+		return 0;
+	}
+
+
+	public int getInterfaceCount() {
+		return 0;
+	}
+
+
+	public UsbInterface getInterface(int index) {
+		return null;
+	}
+}
@@ -0,0 +1,54 @@
+package android.hardware.usb;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Transfers nothing: every transfer reports 0 bytes and requestWait() returns null.
+ * A simulated device overrides the transfers, and queueRequest() and cancelRequest() to complete queued UsbRequests.
+ */
+public class UsbDeviceConnection {
+	public boolean claimInterface(UsbInterface intf, boolean force) {
+		return true;
+	}
+
+
+	public void close() {
+	}
+
+
+	public String getSerial() {
+		return null;
+	}
+
+
+	public int bulkTransfer(UsbEndpoint endpoint, byte[] buffer, int length, int timeout) {
+		return 0;
+	}
+
+
+	public int controlTransfer(int requestType, int request, int value, int index, byte[] buffer, int length, int timeout) {
+		return 0;
+	}
+
+
+	public UsbRequest requestWait() {
+		return null;
+	}
+
+
+	/**
+	 * Called by UsbRequest.queue(), not part of the Android API.
+	 */
+	protected boolean queueRequest(UsbRequest request, ByteBuffer buffer, int length) {
+		return true;
+	}
+
+
+	/**
+	 * Called by UsbRequest.cancel(), not part of the Android API.
+	 */
+	protected boolean cancelRequest(UsbRequest request) {
+		return true;
+	}
+}
@@ -0,0 +1,18 @@
+package android.hardware.usb;
+
+
+public class UsbEndpoint {
+	public int getDirection() {
+		return 0;
+	}
+
+
+	public int getType() {
+		return 0;
+	}
+
+
+	public int getMaxPacketSize() {
+		return 64;
+	}
+}
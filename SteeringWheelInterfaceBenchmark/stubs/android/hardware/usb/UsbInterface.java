@@ -0,0 +1,18 @@
+package android.hardware.usb;
+
+
+public class UsbInterface {
+	public int getInterfaceClass() {
+		return 0;
+	}
+
+
+	public int getEndpointCount() {
+		return 0;
+	}
+
+
+	public UsbEndpoint getEndpoint(int index) {
+		return null;
+	}
+}
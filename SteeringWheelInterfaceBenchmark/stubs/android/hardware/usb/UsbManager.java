@@ -0,0 +1,34 @@
+package android.hardware.usb;
+
+import java.util.HashMap;
+
+import android.app.PendingIntent;
+
+
+/**
+ * Has no devices attached.
+ */
+public class UsbManager {
+	public static final String ACTION_USB_DEVICE_DETACHED = "android.hardware.usb.action.USB_DEVICE_DETACHED";
+	public static final String EXTRA_DEVICE = "device";
+	public static final String EXTRA_PERMISSION_GRANTED = "permission";
+
+
+	public HashMap<String, UsbDevice> getDeviceList() {
+		return new HashMap<String, UsbDevice>();
+	}
+
+
+	public boolean hasPermission(UsbDevice device) {
+		return false;
+	}
+
+
+	public void requestPermission(UsbDevice device, PendingIntent pi) {
+	}
+
+
+	public UsbDeviceConnection openDevice(UsbDevice device) {
+		return null;
+	}
+}
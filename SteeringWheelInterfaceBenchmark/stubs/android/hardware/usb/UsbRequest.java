@@ -0,0 +1,49 @@
+package android.hardware.usb;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Hands queue() and cancel() to its connection, which does nothing with them unless it simulates a device.
+ */
+public class UsbRequest {
+	protected Object mClientData;
+	protected UsbEndpoint mEndpoint;
+	protected UsbDeviceConnection mConnection;
+
+
+	public boolean initialize(UsbDeviceConnection connection, UsbEndpoint endpoint) {
+		mConnection = connection;
+		mEndpoint = endpoint;
+		return true;
+	}
+
+
+	public void close() {
+	}
+
+
+	public boolean queue(ByteBuffer buffer, int length) {
+		return mConnection == null || mConnection.queueRequest(this, buffer, length);
+	}
+
+
+	public boolean cancel() {
+		return mConnection == null || mConnection.cancelRequest(this);
+	}
+
+
+	public UsbEndpoint getEndpoint() {
+		return mEndpoint;
+	}
+
+
+	public Object getClientData() {
+		return mClientData;
+	}
+
+
+	public void setClientData(Object data) {
+		mClientData = data;
+	}
+}
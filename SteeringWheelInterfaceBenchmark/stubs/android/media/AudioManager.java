@@ -0,0 +1,36 @@
+package android.media;
+
+
+/**
+ * Keeps the music stream's volume as a field, so volume actions can be performed off-device.
+ */
+public class AudioManager {
+	public static final int STREAM_MUSIC = 3;
+	public static final int ADJUST_LOWER = -1;
+	public static final int ADJUST_RAISE = 1;
+	public static final int FLAG_SHOW_UI = 1;
+
+	protected static final int MAX_VOLUME = 15;
+
+	protected volatile int mVolume = MAX_VOLUME / 2;
+
+
+	public int getStreamMaxVolume(int streamType) {
+		return MAX_VOLUME;
+	}
+
+
+	public int getStreamVolume(int streamType) {
+		return mVolume;
+	}
+
+
+	public void setStreamVolume(int streamType, int index, int flags) {
+		mVolume = Math.max(0, Math.min(MAX_VOLUME, index));
+	}
+
+
+	public void adjustStreamVolume(int streamType, int direction, int flags) {
+		setStreamVolume(streamType, mVolume + direction, flags);
+	}
+}
@@ -0,0 +1,20 @@
+package android.os;
+
+
+/**
+ * Reports the app's minimum SDK (Jelly Bean, API 16). Not final as on a device, so a test can take the code paths of a
+ * newer one.
+ */
+public class Build {
+	public static class VERSION {
+		public static int SDK_INT = VERSION_CODES.JELLY_BEAN;
+	}
+
+
+	public static class VERSION_CODES {
+		public static final int JELLY_BEAN = 16;
+		public static final int JELLY_BEAN_MR1 = 17;
+		public static final int JELLY_BEAN_MR2 = 18;
+		public static final int KITKAT = 19;
+	}
+}
@@ -0,0 +1,15 @@
+package android.os;
+
+
+/**
+ * Has no looper: posted callbacks are never run.
+ */
+public class Handler {
+	public final boolean postDelayed(Runnable r, long delayMillis) {
+		return true;
+	}
+
+
+	public final void removeCallbacks(Runnable r) {
+	}
+}
@@ -0,0 +1,37 @@
+package android.preference;
+
+import android.content.Context;
+
+
+public class ListPreference extends Preference {
+	protected CharSequence[] mEntries = new CharSequence[0];
+	protected CharSequence[] mEntryValues = new CharSequence[0];
+
+
+	public ListPreference(Context context) {
+		super(context);
+	}
+
+
+	public CharSequence[] getEntries() {
+		return mEntries;
+	}
+
+
+	public void setEntries(CharSequence[] entries) {
+		mEntries = entries;
+	}
+
+
+	public void setEntryValues(CharSequence[] entryValues) {
+		mEntryValues = entryValues;
+	}
+
+
+	public int findIndexOfValue(String value) {
+		for (int i = mEntryValues.length - 1; i >= 0; i--) {
+			if (mEntryValues[i].equals(value)) return i;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,73 @@
+package android.preference;
+
+import android.content.Context;
+
+
+public class Preference {
+	public interface OnPreferenceChangeListener {
+		boolean onPreferenceChange(Preference preference, Object newValue);
+	}
+
+
+	public interface OnPreferenceClickListener {
+		boolean onPreferenceClick(Preference preference);
+	}
+
+
+	protected final Context mContext;
+	protected String mKey;
+	protected CharSequence mTitle;
+	protected CharSequence mSummary;
+	protected OnPreferenceChangeListener mChangeListener;
+	protected OnPreferenceClickListener mClickListener;
+
+
+	public Preference(Context context) {
+		mContext = context;
+	}
+
+
+	public Context getContext() {
+		return mContext;
+	}
+
+
+	public String getKey() {
+		return mKey;
+	}
+
+
+	public void setKey(String key) {
+		mKey = key;
+	}
+
+
+	public CharSequence getTitle() {
+		return mTitle;
+	}
+
+
+	public void setTitle(CharSequence title) {
+		mTitle = title;
+	}
+
+
+	public CharSequence getSummary() {
+		return mSummary;
+	}
+
+
+	public void setSummary(CharSequence summary) {
+		mSummary = summary;
+	}
+
+
+	public void setOnPreferenceChangeListener(OnPreferenceChangeListener listener) {
+		mChangeListener = listener;
+	}
+
+
+	public void setOnPreferenceClickListener(OnPreferenceClickListener listener) {
+		mClickListener = listener;
+	}
+}
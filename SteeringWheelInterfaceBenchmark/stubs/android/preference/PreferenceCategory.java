@@ -0,0 +1,10 @@
+package android.preference;
+
+import android.content.Context;
+
+
+public class PreferenceCategory extends PreferenceGroup {
+	public PreferenceCategory(Context context) {
+		super(context);
+	}
+}
@@ -0,0 +1,17 @@
+package android.preference;
+
+import android.app.Fragment;
+
+
+/**
+ * Inflates nothing: addPreferencesFromResource() is a no-op and findPreference() returns null.
+ */
+public abstract class PreferenceFragment extends Fragment {
+	public void addPreferencesFromResource(int preferencesResId) {
+	}
+
+
+	public Preference findPreference(CharSequence key) {
+		return null;
+	}
+}
@@ -0,0 +1,31 @@
+package android.preference;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+
+
+public class PreferenceGroup extends Preference {
+	protected final List<Preference> mPreferences = new ArrayList<Preference>();
+
+
+	public PreferenceGroup(Context context) {
+		super(context);
+	}
+
+
+	public boolean addPreference(Preference preference) {
+		return mPreferences.add(preference);
+	}
+
+
+	public int getPreferenceCount() {
+		return mPreferences.size();
+	}
+
+
+	public Preference getPreference(int index) {
+		return mPreferences.get(index);
+	}
+}
@@ -0,0 +1,63 @@
+package android.util;
+
+
+/**
+ * Drops every message, so logging costs the benchmarks only the string building the callers do themselves.
+ * isLoggable() is false, as for a release build.
+ */
+public final class Log {
+	public static final int VERBOSE = 2;
+	public static final int DEBUG = 3;
+	public static final int INFO = 4;
+	public static final int WARN = 5;
+	public static final int ERROR = 6;
+
+
+	private Log() {
+	}
+
+
+	public static boolean isLoggable(String tag, int level) {
+		return false;
+	}
+
+
+	public static int v(String tag, String msg) {
+		return 0;
+	}
+
+
+	public static int d(String tag, String msg) {
+		return 0;
+	}
+
+
+	public static int i(String tag, String msg) {
+		return 0;
+	}
+
+
+	public static int w(String tag, String msg) {
+		return 0;
+	}
+
+
+	public static int w(String tag, String msg, Throwable tr) {
+		return 0;
+	}
+
+
+	public static int w(String tag, Throwable tr) {
+		return 0;
+	}
+
+
+	public static int e(String tag, String msg) {
+		return 0;
+	}
+
+
+	public static int e(String tag, String msg, Throwable tr) {
+		return 0;
+	}
+}
@@ -0,0 +1,23 @@
+package android.view;
+
+import android.os.Parcelable;
+
+
+public class KeyEvent implements Parcelable {
+	public static final int ACTION_DOWN = 0;
+	public static final int ACTION_UP = 1;
+	public static final int KEYCODE_HOME = 3;
+	public static final int KEYCODE_VOLUME_UP = 24;
+	public static final int KEYCODE_VOLUME_DOWN = 25;
+	public static final int KEYCODE_MEDIA_PLAY_PAUSE = 85;
+	public static final int KEYCODE_MEDIA_NEXT = 87;
+	public static final int KEYCODE_MEDIA_PREVIOUS = 88;
+
+
+	public KeyEvent(int action, int code) {
+	}
+
+
+	public KeyEvent(long downTime, long eventTime, int action, int code, int repeat) {
+	}
+}
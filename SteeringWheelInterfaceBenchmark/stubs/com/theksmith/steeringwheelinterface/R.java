@@ -0,0 +1,127 @@
+package com.theksmith.steeringwheelinterface;
+
+
+/**
+ * Stands in for the R.java aapt generates from res/, with the resources the code refers to. Keep in step with res/.
+ */
+public final class R {
+	public static final class drawable {
+		public static final int ic_launcher = 0x7f020000;
+		public static final int ic_notice = 0x7f020001;
+	}
+
+
+	public static final class string {
+		public static final int action_exit_summary = 0x7f040000;
+		public static final int action_exit_title = 0x7f040001;
+		public static final int actions_root = 0x7f040002;
+		public static final int actions_root_summary = 0x7f040003;
+		public static final int actions_root_title = 0x7f040004;
+		public static final int app_name = 0x7f040005;
+		public static final int button_chord_1_a = 0x7f040006;
+		public static final int button_chord_1_a_title = 0x7f040007;
+		public static final int button_chord_1_action_title = 0x7f040008;
+		public static final int button_chord_1_b = 0x7f040009;
+		public static final int button_chord_1_b_title = 0x7f04000a;
+		public static final int button_chord_2_a = 0x7f04000b;
+		public static final int button_chord_2_a_title = 0x7f04000c;
+		public static final int button_chord_2_action_title = 0x7f04000d;
+		public static final int button_chord_2_b = 0x7f04000e;
+		public static final int button_chord_2_b_title = 0x7f04000f;
+		public static final int button_double_time = 0x7f040010;
+		public static final int button_double_time_title = 0x7f040011;
+		public static final int button_drop_oldest = 0x7f040012;
+		public static final int button_drop_oldest_summary = 0x7f040013;
+		public static final int button_drop_oldest_title = 0x7f040014;
+		public static final int button_gesture_action = 0x7f040015;
+		public static final int button_left_center = 0x7f040016;
+		public static final int button_left_center_double_title = 0x7f040017;
+		public static final int button_left_center_long_title = 0x7f040018;
+		public static final int button_left_center_release_title = 0x7f040019;
+		public static final int button_left_center_repeat_title = 0x7f04001a;
+		public static final int button_left_center_title = 0x7f04001b;
+		public static final int button_left_down = 0x7f04001c;
+		public static final int button_left_down_double_title = 0x7f04001d;
+		public static final int button_left_down_long_title = 0x7f04001e;
+		public static final int button_left_down_release_title = 0x7f04001f;
+		public static final int button_left_down_repeat_title = 0x7f040020;
+		public static final int button_left_down_title = 0x7f040021;
+		public static final int button_left_up = 0x7f040022;
+		public static final int button_left_up_double_title = 0x7f040023;
+		public static final int button_left_up_long_title = 0x7f040024;
+		public static final int button_left_up_release_title = 0x7f040025;
+		public static final int button_left_up_repeat_title = 0x7f040026;
+		public static final int button_left_up_title = 0x7f040027;
+		public static final int button_long_time = 0x7f040028;
+		public static final int button_long_time_title = 0x7f040029;
+		public static final int button_release_timeout = 0x7f04002a;
+		public static final int button_repeat_interval = 0x7f04002b;
+		public static final int button_repeat_interval_title = 0x7f04002c;
+		public static final int button_right_center = 0x7f04002d;
+		public static final int button_right_center_double_title = 0x7f04002e;
+		public static final int button_right_center_long_title = 0x7f04002f;
+		public static final int button_right_center_release_title = 0x7f040030;
+		public static final int button_right_center_repeat_title = 0x7f040031;
+		public static final int button_right_center_title = 0x7f040032;
+		public static final int button_right_down = 0x7f040033;
+		public static final int button_right_down_double_title = 0x7f040034;
+		public static final int button_right_down_long_title = 0x7f040035;
+		public static final int button_right_down_release_title = 0x7f040036;
+		public static final int button_right_down_repeat_title = 0x7f040037;
+		public static final int button_right_down_title = 0x7f040038;
+		public static final int button_right_up = 0x7f040039;
+		public static final int button_right_up_double_title = 0x7f04003a;
+		public static final int button_right_up_long_title = 0x7f04003b;
+		public static final int button_right_up_release_title = 0x7f04003c;
+		public static final int button_right_up_repeat_title = 0x7f04003d;
+		public static final int button_right_up_title = 0x7f04003e;
+		public static final int button_state_frames = 0x7f04003f;
+		public static final int button_state_frames_summary = 0x7f040040;
+		public static final int button_state_frames_title = 0x7f040041;
+		public static final int category_actions_title = 0x7f040042;
+		public static final int category_buttons_title = 0x7f040043;
+		public static final int category_gestures_summary = 0x7f040044;
+		public static final int category_gestures_title = 0x7f040045;
+		public static final int category_scantool_title = 0x7f040046;
+		public static final int category_stats_title = 0x7f040047;
+		public static final int msg_app_starting = 0x7f040048;
+		public static final int msg_device_disconnected = 0x7f040049;
+		public static final int msg_monitoring = 0x7f04004a;
+		public static final int msg_monitoring_stopped = 0x7f04004b;
+		public static final int scantool_auto_filter = 0x7f04004c;
+		public static final int scantool_auto_filter_summary = 0x7f04004d;
+		public static final int scantool_auto_filter_title = 0x7f04004e;
+		public static final int scantool_baud = 0x7f04004f;
+		public static final int scantool_baud_title = 0x7f040050;
+		public static final int scantool_baud_upgrade = 0x7f040051;
+		public static final int scantool_baud_upgrade_summary = 0x7f040052;
+		public static final int scantool_baud_upgrade_title = 0x7f040053;
+		public static final int scantool_capture = 0x7f040054;
+		public static final int scantool_capture_summary = 0x7f040055;
+		public static final int scantool_capture_title = 0x7f040056;
+		public static final int scantool_compact = 0x7f040057;
+		public static final int scantool_compact_summary = 0x7f040058;
+		public static final int scantool_compact_title = 0x7f040059;
+		public static final int scantool_detach_disconnect = 0x7f04005a;
+		public static final int scantool_detach_disconnect_title = 0x7f04005b;
+		public static final int scantool_device_number = 0x7f04005c;
+		public static final int scantool_device_number_title = 0x7f04005d;
+		public static final int scantool_monitor_command = 0x7f04005e;
+		public static final int scantool_monitor_command_title = 0x7f04005f;
+		public static final int scantool_protocol = 0x7f040060;
+		public static final int scantool_protocol_title = 0x7f040061;
+		public static final int scantool_replay_fast = 0x7f040062;
+		public static final int scantool_replay_fast_title = 0x7f040063;
+		public static final int scantool_replay_file = 0x7f040064;
+		public static final int scantool_replay_file_title = 0x7f040065;
+		public static final int scantool_simulate = 0x7f040066;
+		public static final int scantool_simulate_title = 0x7f040067;
+		public static final int stats_latency_title = 0x7f040068;
+	}
+
+
+	public static final class xml {
+		public static final int device_filter = 0x7f050000;
+		public static final int pref_general = 0x7f050001;
+	}
+}
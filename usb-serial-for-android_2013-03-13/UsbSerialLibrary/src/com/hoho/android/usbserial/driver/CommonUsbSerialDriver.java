@@ -22,6 +22,7 @@ package com.hoho.android.usbserial.driver;
 
 import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
 
 import java.io.IOException;
 
@@ -30,7 +31,7 @@ import java.io.IOException;
  *
  * @author mike wakerly (opensource@hoho.com)
  */
-abstract class CommonUsbSerialDriver implements UsbSerialDriver {
+abstract class CommonUsbSerialDriver implements QueuedReadDriver {
 
     public static final int DEFAULT_READ_BUFFER_SIZE = 16 * 1024;
     public static final int DEFAULT_WRITE_BUFFER_SIZE = 16 * 1024;
@@ -64,6 +65,31 @@ abstract class CommonUsbSerialDriver implements UsbSerialDriver {
         return mDevice;
     }
 
+    @Override
+    public final UsbDeviceConnection getConnection() {
+        return mConnection;
+    }
+
+    /**
+     * Returns {@code null}, drivers supporting queued reads override this.
+     */
+    @Override
+    public UsbEndpoint getReadEndpoint() {
+        return null;
+    }
+
+    /**
+     * Copies the transfer unchanged, drivers whose chips add framing override
+     * this.
+     */
+    @Override
+    public int filterReadPayload(byte[] src, byte[] dest, int length) {
+        if (src != dest) {
+            System.arraycopy(src, 0, dest, 0, length);
+        }
+        return length;
+    }
+
     /**
      * Sets the size of the internal buffer used to exchange data with the USB
      * stack for read operations.  Most users should not need to change this.
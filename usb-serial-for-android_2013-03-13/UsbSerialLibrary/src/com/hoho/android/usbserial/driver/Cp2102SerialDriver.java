@@ -109,6 +109,11 @@ public class Cp2102SerialDriver extends CommonUsbSerialDriver {
         mConnection.close();
     }
 
+    @Override
+    public UsbEndpoint getReadEndpoint() {
+        return mReadEndpoint;
+    }
+
     @Override
     public int read(byte[] dest, int timeoutMillis) throws IOException {
         final int numBytesRead;
@@ -173,12 +173,17 @@ public class FtdiSerialDriver extends CommonUsbSerialDriver {
      * @param totalBytesRead Number of bytes read to src
      * @param maxPacketSize The USB endpoint max packet size
      * @return The number of payload bytes
+     *
+     * Static and free of Android calls so it can be exercised (and timed)
+     * without a device.
      */
-    private final int filterStatusBytes(byte[] src, byte[] dest, int totalBytesRead, int maxPacketSize) {
-        final int packetsCount = totalBytesRead / maxPacketSize + 1;
+    static int filterStatusBytes(byte[] src, byte[] dest, int totalBytesRead, int maxPacketSize) {
+        // Round up: a read that exactly fills its last packet has no extra
+        // (empty) packet, so it must not be charged a second status header.
+        final int packetsCount = (totalBytesRead + maxPacketSize - 1) / maxPacketSize;
         for (int packetIdx = 0; packetIdx < packetsCount; ++packetIdx) {
             final int count = (packetIdx == (packetsCount - 1))
-                    ? (totalBytesRead % maxPacketSize) - MODEM_STATUS_HEADER_LENGTH
+                    ? ((totalBytesRead - 1) % maxPacketSize) + 1 - MODEM_STATUS_HEADER_LENGTH
                     : maxPacketSize - MODEM_STATUS_HEADER_LENGTH;
             if (count > 0) {
                 System.arraycopy(src,
@@ -189,7 +194,7 @@ public class FtdiSerialDriver extends CommonUsbSerialDriver {
             }
         }
 
-      return totalBytesRead - (packetsCount * 2);
+        return totalBytesRead - (packetsCount * MODEM_STATUS_HEADER_LENGTH);
     }
 
     /**
@@ -241,6 +246,19 @@ public class FtdiSerialDriver extends CommonUsbSerialDriver {
         mConnection.close();
     }
 
+    @Override
+    public UsbEndpoint getReadEndpoint() {
+        return mDevice.getInterface(0).getEndpoint(0);
+    }
+
+    @Override
+    public int filterReadPayload(byte[] src, byte[] dest, int length) {
+        if (length < MODEM_STATUS_HEADER_LENGTH) {
+            return 0;
+        }
+        return filterStatusBytes(src, dest, length, getReadEndpoint().getMaxPacketSize());
+    }
+
     @Override
     public int read(byte[] dest, int timeoutMillis) throws IOException {
         final UsbEndpoint endpoint = mDevice.getInterface(0).getEndpoint(0);
@@ -0,0 +1,60 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.driver;
+
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+
+/**
+ * A {@link UsbSerialDriver} whose input can be read by keeping
+ * {@link android.hardware.usb.UsbRequest}s queued on its bulk in endpoint,
+ * instead of polling {@link UsbSerialDriver#read(byte[], int)}. See
+ * {@link com.hoho.android.usbserial.util.SerialInputOutputManager}.
+ */
+public interface QueuedReadDriver extends UsbSerialDriver {
+
+    /**
+     * Returns the connection to queue requests on.
+     *
+     * @return the connection
+     */
+    public UsbDeviceConnection getConnection();
+
+    /**
+     * Returns the bulk in endpoint carrying the serial input, valid once the
+     * device is open.
+     *
+     * @return the endpoint, or {@code null} if not known (queued reads are
+     *         then not possible)
+     */
+    public UsbEndpoint getReadEndpoint();
+
+    /**
+     * Extracts the serial payload from a completed bulk in transfer,
+     * removing any chip specific framing (such as FTDI modem status bytes).
+     *
+     * @param src the transfer as received
+     * @param dest the destination for the payload (can be src)
+     * @param length number of bytes received in src
+     * @return the number of payload bytes written to dest
+     */
+    public int filterReadPayload(byte[] src, byte[] dest, int length);
+
+}
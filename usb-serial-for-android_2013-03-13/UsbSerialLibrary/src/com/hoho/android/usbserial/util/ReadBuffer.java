@@ -0,0 +1,100 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * Project home page: http://code.google.com/p/usb-serial-for-android/
+ */
+
+package com.hoho.android.usbserial.util;
+
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A pooled buffer holding one chunk of received data, passed to a
+ * {@link SerialInputOutputManager.BufferListener}. The data is
+ * {@link #length()} bytes of {@link #array()} starting at {@link #offset()}.
+ * <p>
+ * Each buffer must be given back with {@link #release()} exactly once, when
+ * its data is no longer needed. That may be after the listener returns and
+ * from another thread. Buffers that are never released are replaced by new
+ * allocations, so a leak costs memory but does not stall reading.
+ */
+public final class ReadBuffer {
+
+    private final byte[] mData;
+    private final BlockingQueue<ReadBuffer> mPool;
+    private int mOffset;
+    private int mLength;
+    private long mReadTime;
+    private volatile boolean mReleased = true;
+
+    ReadBuffer(int size, BlockingQueue<ReadBuffer> pool) {
+        mData = new byte[size];
+        mPool = pool;
+    }
+
+    /**
+     * Returns the backing array, only valid until {@link #release()}.
+     *
+     * @return the array
+     */
+    public byte[] array() {
+        return mData;
+    }
+
+    public int offset() {
+        return mOffset;
+    }
+
+    public int length() {
+        return mLength;
+    }
+
+    /**
+     * Returns when the data was read.
+     *
+     * @return {@link System#nanoTime()} taken as soon as the read returned
+     */
+    public long readTime() {
+        return mReadTime;
+    }
+
+    /**
+     * Gives the buffer back to the pool for reuse.
+     *
+     * @throws IllegalStateException if the buffer was already released
+     */
+    public void release() {
+        if (mReleased) {
+            throw new IllegalStateException("Buffer already released.");
+        }
+        mReleased = true;
+        mPool.offer(this);
+    }
+
+    void acquire() {
+        mReleased = false;
+        mOffset = 0;
+        mLength = 0;
+        mReadTime = 0;
+    }
+
+    void set(int offset, int length, long readTime) {
+        mOffset = offset;
+        mLength = length;
+        mReadTime = readTime;
+    }
+
+}
@@ -20,34 +20,80 @@
 
 package com.hoho.android.usbserial.util;
 
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
 import android.hardware.usb.UsbRequest;
+import android.os.Build;
 import android.util.Log;
 
+import com.hoho.android.usbserial.driver.QueuedReadDriver;
 import com.hoho.android.usbserial.driver.UsbSerialDriver;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Utility class which services a {@link UsbSerialDriver} in its {@link #run()}
  * method.
+ * <p>
+ * For drivers implementing {@link QueuedReadDriver}, input is read by keeping
+ * several {@link UsbRequest}s queued on the bulk in endpoint, so data is
+ * delivered as soon as a transfer completes and the next transfer is already
+ * armed. Other drivers are polled with {@link UsbSerialDriver#read(byte[], int)}.
+ * Data given to {@link #writeAsync(byte[])} is written by a separate thread, so
+ * it never waits behind a read.
+ * <p>
+ * Data is read into a small pool of {@link ReadBuffer}s. A
+ * {@link BufferListener} receives and releases those directly, so steady state
+ * reading allocates nothing. Other listeners receive a copy.
  *
  * @author mike wakerly (opensource@hoho.com)
  */
 public class SerialInputOutputManager implements Runnable {
 
     private static final String TAG = SerialInputOutputManager.class.getSimpleName();
-    private static final boolean DEBUG = true;
+    private static final boolean DEBUG = false;
 
     private static final int READ_WAIT_MILLIS = 200;
+    private static final int WRITE_WAIT_MILLIS = 200;
     private static final int BUFSIZ = 4096;
 
+    /** Number of read requests kept queued on the bulk in endpoint. */
+    private static final int QUEUED_READ_COUNT = 4;
+
+    /**
+     * Completed requests report how many bytes they received (as the buffer
+     * position) only on newer platforms, see http://b.android.com/28023 .
+     */
+    private static final int QUEUED_READ_MIN_SDK = Build.VERSION_CODES.JELLY_BEAN_MR1;
+
+    /** Number of pooled read buffers, enough for every queued read plus some held by the listener. */
+    private static final int READ_BUFFER_COUNT = QUEUED_READ_COUNT * 2;
+
+    /** How long to wait for the listener to release a buffer before allocating another. */
+    private static final int READ_BUFFER_WAIT_MILLIS = 50;
+
     private final UsbSerialDriver mDriver;
 
-    private final ByteBuffer mReadBuffer = ByteBuffer.allocate(BUFSIZ);
+    private final BlockingQueue<ReadBuffer> mReadBufferPool =
+            new ArrayBlockingQueue<ReadBuffer>(READ_BUFFER_COUNT);
 
     // Synchronized by 'mWriteBuffer'
     private final ByteBuffer mWriteBuffer = ByteBuffer.allocate(BUFSIZ);
+    private long mWriteQueuedCount = 0;
+    private long mWriteDoneCount = 0;
+
+    // Synchronized by 'this'
+    private UsbRequest[] mReadRequests;
+
+    // Stats, written by the run() thread only
+    private volatile boolean mQueuedReads = false;
+    private volatile long mWakeupCount = 0;
+    private volatile long mDataCount = 0;
+    private volatile long mReadBufferMissCount = 0;
 
     private enum State {
         STOPPED,
@@ -58,6 +104,9 @@ public class SerialInputOutputManager implements Runnable {
     // Synchronized by 'this'
     private State mState = State.STOPPED;
 
+    // Synchronized by 'this', set by a stop() that came before run()
+    private boolean mStopPending = false;
+
     // Synchronized by 'this'
     private Listener mListener;
 
@@ -74,6 +123,37 @@ public class SerialInputOutputManager implements Runnable {
         public void onRunError(Exception e);
     }
 
+    /**
+     * Optional extension of {@link Listener} that also receives the time the
+     * data was read, for latency measurements.
+     */
+    public interface TimedListener extends Listener {
+        /**
+         * Called instead of {@link Listener#onNewData(byte[])} when new
+         * incoming data is available.
+         *
+         * @param data the data read
+         * @param readTime {@link System#nanoTime()} taken as soon as the read
+         *            returned
+         */
+        public void onNewData(byte[] data, long readTime);
+    }
+
+    /**
+     * Optional extension of {@link Listener} that receives the pooled buffer
+     * the data was read into, instead of a copy.
+     */
+    public interface BufferListener extends Listener {
+        /**
+         * Called instead of {@link Listener#onNewData(byte[])} when new
+         * incoming data is available.
+         *
+         * @param buffer the data read, which the listener must
+         *            {@link ReadBuffer#release()} once done with it
+         */
+        public void onNewData(ReadBuffer buffer);
+    }
+
     /**
      * Creates a new instance with no listener.
      */
@@ -87,6 +167,10 @@ public class SerialInputOutputManager implements Runnable {
     public SerialInputOutputManager(UsbSerialDriver driver, Listener listener) {
         mDriver = driver;
         mListener = listener;
+
+        for (int i = 0; i < READ_BUFFER_COUNT; i++) {
+            mReadBufferPool.offer(new ReadBuffer(BUFSIZ, mReadBufferPool));
+        }
     }
 
     public synchronized void setListener(Listener listener) {
@@ -100,16 +184,101 @@ public class SerialInputOutputManager implements Runnable {
     public void writeAsync(byte[] data) {
         synchronized (mWriteBuffer) {
             mWriteBuffer.put(data);
+            mWriteQueuedCount += data.length;
+            mWriteBuffer.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until the data given to {@link #writeAsync(byte[])} so far has
+     * been written (or has failed to be), ex: before changing the line
+     * parameters it was meant to be sent with.
+     *
+     * @param timeoutMillis the longest time to wait
+     * @return true if everything was written in time
+     */
+    public boolean awaitWrites(int timeoutMillis) {
+        final long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+        synchronized (mWriteBuffer) {
+            final long target = mWriteQueuedCount;
+            while (mWriteDoneCount < target) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                try {
+                    mWriteBuffer.wait(remaining / 1000000L + 1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return true;
         }
     }
 
-    public synchronized void stop() {
-        if (getState() == State.RUNNING) {
+    /**
+     * Stops {@link #run()}. Stopping an instance that is not running yet
+     * (ex: still queued on an executor) makes its next run() return at once.
+     */
+    public void stop() {
+        final UsbRequest[] requests;
+        synchronized (this) {
+            if (getState() == State.STOPPED) {
+                mStopPending = true;
+                return;
+            }
+            if (getState() != State.RUNNING) {
+                return;
+            }
             Log.i(TAG, "Stop requested");
             mState = State.STOPPING;
+            requests = mReadRequests;
+        }
+
+        // Wake the reader from requestWait() and the writer from its wait.
+        if (requests != null) {
+            for (UsbRequest request : requests) {
+                request.cancel();
+            }
+        }
+        synchronized (mWriteBuffer) {
+            mWriteBuffer.notifyAll();
         }
     }
 
+    /**
+     * Returns a summary of the read mode, the number of times the reader woke
+     * up (a read returned or a request completed) and how many of those
+     * delivered data.
+     *
+     * @return the stats, for logging
+     */
+    public String getStats() {
+        return "reads: " + (mQueuedReads ? "queued" : "polled")
+                + ", wakeups: " + mWakeupCount
+                + ", with data: " + mDataCount
+                + ", buffer pool misses: " + mReadBufferMissCount;
+    }
+
+    /**
+     * Returns the number of times the reader woke up, see {@link #getStats()}.
+     *
+     * @return the count
+     */
+    public long getWakeupCount() {
+        return mWakeupCount;
+    }
+
+    /**
+     * Returns the number of reads delivered to the listener.
+     *
+     * @return the count
+     */
+    public long getDataCount() {
+        return mDataCount;
+    }
+
     private synchronized State getState() {
         return mState;
     }
@@ -117,9 +286,6 @@ public class SerialInputOutputManager implements Runnable {
     /**
      * Continuously services the read and write buffers until {@link #stop()} is
      * called, or until a driver exception is raised.
-     *
-     * NOTE(mikey): Uses inefficient read/write-with-timeout.
-     * TODO(mikey): Read asynchronously with {@link UsbRequest#queue(ByteBuffer, int)}
      */
     @Override
     public void run() {
@@ -127,18 +293,30 @@ public class SerialInputOutputManager implements Runnable {
             if (getState() != State.STOPPED) {
                 throw new IllegalStateException("Already running.");
             }
+            if (mStopPending) {
+                mStopPending = false;
+                Log.i(TAG, "Stopped before running.");
+                return;
+            }
             mState = State.RUNNING;
         }
 
         Log.i(TAG, "Running ..");
+        final Thread writer = new Thread(mWriteRun, TAG + "Writer");
+        writer.setDaemon(true);
+        writer.start();
+
         try {
-            while (true) {
-                if (getState() != State.RUNNING) {
-                    Log.i(TAG, "Stopping mState=" + getState());
-                    break;
+            if (canQueueReads()) {
+                mQueuedReads = true;
+                runQueuedReads();
+            } else {
+                mQueuedReads = false;
+                while (getState() == State.RUNNING) {
+                    step();
                 }
-                step();
             }
+            Log.i(TAG, "Stopping mState=" + getState());
         } catch (Exception e) {
             Log.w(TAG, "Run ending due to exception: " + e.getMessage(), e);
             final Listener listener = getListener();
@@ -150,40 +328,212 @@ public class SerialInputOutputManager implements Runnable {
                 mState = State.STOPPED;
                 Log.i(TAG, "Stopped.");
             }
+            synchronized (mWriteBuffer) {
+                mWriteBuffer.notifyAll();
+            }
+        }
+    }
+
+    private boolean canQueueReads() {
+        return Build.VERSION.SDK_INT >= QUEUED_READ_MIN_SDK
+                && mDriver instanceof QueuedReadDriver
+                && ((QueuedReadDriver) mDriver).getReadEndpoint() != null;
+    }
+
+    private void runQueuedReads() throws IOException {
+        final QueuedReadDriver driver = (QueuedReadDriver) mDriver;
+        final UsbDeviceConnection connection = driver.getConnection();
+        final UsbEndpoint endpoint = driver.getReadEndpoint();
+        final UsbRequest[] requests = new UsbRequest[QUEUED_READ_COUNT];
+
+        try {
+            for (int i = 0; i < requests.length; i++) {
+                final ByteBuffer buffer = ByteBuffer.allocate(BUFSIZ);
+                final UsbRequest request = new UsbRequest();
+                if (!request.initialize(connection, endpoint)) {
+                    throw new IOException("Error initializing request.");
+                }
+                request.setClientData(buffer);
+                requests[i] = request;
+                if (!request.queue(buffer, BUFSIZ)) {
+                    throw new IOException("Error queueing request.");
+                }
+            }
+
+            synchronized (this) {
+                if (getState() != State.RUNNING) {
+                    return;
+                }
+                mReadRequests = requests;
+            }
+
+            while (getState() == State.RUNNING) {
+                final UsbRequest request = connection.requestWait();
+                if (request == null) {
+                    throw new IOException("Null response");
+                }
+                mWakeupCount++;
+
+                if (getState() != State.RUNNING) {
+                    break;
+                }
+                if (!(request.getClientData() instanceof ByteBuffer)) {
+                    // Not one of ours.
+                    continue;
+                }
+
+                final long readTime = System.nanoTime();
+                final ByteBuffer buffer = (ByteBuffer) request.getClientData();
+                final ReadBuffer payload = acquireReadBuffer();
+                final int len = driver.filterReadPayload(buffer.array(), payload.array(),
+                        buffer.position());
+
+                // Re-arm before delivering, so the next transfer never waits on the listener.
+                buffer.clear();
+                if (!request.queue(buffer, BUFSIZ)) {
+                    payload.release();
+                    throw new IOException("Error queueing request.");
+                }
+
+                if (len > 0) {
+                    payload.set(0, len, readTime);
+                    deliver(payload);
+                } else {
+                    payload.release();
+                }
+            }
+        } finally {
+            synchronized (this) {
+                mReadRequests = null;
+            }
+            for (UsbRequest request : requests) {
+                if (request != null) {
+                    request.cancel();
+                    request.close();
+                }
+            }
         }
     }
 
     private void step() throws IOException {
-        // Handle incoming data.
-        int len = mDriver.read(mReadBuffer.array(), READ_WAIT_MILLIS);
+        final ReadBuffer buffer = acquireReadBuffer();
+        final int len;
+        try {
+            len = mDriver.read(buffer.array(), READ_WAIT_MILLIS);
+        } catch (IOException e) {
+            buffer.release();
+            throw e;
+        }
+        mWakeupCount++;
+
         if (len > 0) {
-            if (DEBUG) Log.d(TAG, "Read data len=" + len);
-            final Listener listener = getListener();
-            if (listener != null) {
-                final byte[] data = new byte[len];
-                mReadBuffer.get(data, 0, len);
-                listener.onNewData(data);
-            }
-            mReadBuffer.clear();
+            buffer.set(0, len, System.nanoTime());
+            deliver(buffer);
+        } else {
+            buffer.release();
         }
+    }
 
-        // Handle outgoing data.
-        byte[] outBuff = null;
-        synchronized (mWriteBuffer) {
-            if (mWriteBuffer.position() > 0) {
-                len = mWriteBuffer.position();
-                outBuff = new byte[len];
-                mWriteBuffer.rewind();
-                mWriteBuffer.get(outBuff, 0, len);
-                mWriteBuffer.clear();
+    private ReadBuffer acquireReadBuffer() {
+        ReadBuffer buffer = mReadBufferPool.poll();
+        if (buffer == null) {
+            try {
+                buffer = mReadBufferPool.poll(READ_BUFFER_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (buffer == null) {
+                // The listener is holding them all, don't stall reading.
+                mReadBufferMissCount++;
+                buffer = new ReadBuffer(BUFSIZ, mReadBufferPool);
             }
         }
-        if (outBuff != null) {
-            if (DEBUG) {
-                Log.d(TAG, "Writing data len=" + len);
+        buffer.acquire();
+        return buffer;
+    }
+
+    /**
+     * Hands a filled buffer to the listener, which owns it from then on if it
+     * is a {@link BufferListener}. Otherwise the listener gets a copy and the
+     * buffer goes straight back to the pool.
+     */
+    private void deliver(ReadBuffer buffer) {
+        mDataCount++;
+        if (DEBUG) Log.d(TAG, "Read data len=" + buffer.length());
+        final Listener listener = getListener();
+
+        if (listener instanceof BufferListener) {
+            ((BufferListener) listener).onNewData(buffer);
+            return;
+        }
+
+        try {
+            if (listener != null) {
+                final byte[] data = new byte[buffer.length()];
+                System.arraycopy(buffer.array(), buffer.offset(), data, 0, data.length);
+                if (listener instanceof TimedListener) {
+                    ((TimedListener) listener).onNewData(data, buffer.readTime());
+                } else {
+                    listener.onNewData(data);
+                }
             }
-            mDriver.write(outBuff, READ_WAIT_MILLIS);
+        } finally {
+            buffer.release();
         }
     }
 
+    /**
+     * Writes whatever {@link #writeAsync(byte[])} has buffered, sleeping until
+     * there is something to write.
+     */
+    private final Runnable mWriteRun = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final byte[] outBuff;
+                    synchronized (mWriteBuffer) {
+                        while (mWriteBuffer.position() == 0) {
+                            if (getState() != State.RUNNING) {
+                                return;
+                            }
+                            mWriteBuffer.wait();
+                        }
+                        outBuff = new byte[mWriteBuffer.position()];
+                        mWriteBuffer.rewind();
+                        mWriteBuffer.get(outBuff, 0, outBuff.length);
+                        mWriteBuffer.clear();
+                    }
+
+                    if (DEBUG) {
+                        Log.d(TAG, "Writing data len=" + outBuff.length);
+                    }
+                    try {
+                        mDriver.write(outBuff, WRITE_WAIT_MILLIS);
+                    } finally {
+                        synchronized (mWriteBuffer) {
+                            mWriteDoneCount += outBuff.length;
+                            mWriteBuffer.notifyAll();
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Exiting.
+            } catch (IOException e) {
+                Log.w(TAG, "Write ending due to exception: " + e.getMessage(), e);
+                // Nothing more will be written, don't keep awaitWrites() waiting.
+                synchronized (mWriteBuffer) {
+                    mWriteBuffer.clear();
+                    mWriteDoneCount = mWriteQueuedCount;
+                    mWriteBuffer.notifyAll();
+                }
+                final Listener listener = getListener();
+                if (listener != null) {
+                    listener.onRunError(e);
+                }
+                stop();
+            }
+        }
+    };
+
 }